@@ -0,0 +1,114 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+import java.util.Map;
+
+@State(Scope.Thread)
+public class OrderPlacingStrategyBenchmark
+{
+    private Instrument futures;
+    private Instrument option;
+    private OrderPlacingStrategy futuresStrategy;
+    private OrderPlacingStrategy optionStrategy;
+    private OrderPlacingStrategy estimatingOptionStrategy;
+    private long futuresPrice;
+    private long futuresPriceTick;
+    private boolean futuresPriceUp;
+
+    @Setup
+    public void setUp()
+    {
+        final MarketMakerConfiguration config = SyntheticInstruments.configuration();
+        final Map<Integer, Instrument> instruments = SyntheticInstruments.universe(1, 1);
+        futures = instruments.get(1);
+        option = instruments.get(2);
+
+        final InstrumentManager instrumentManager = new InstrumentManager(
+            SyntheticInstruments.TIME_PROVIDER,
+            instruments
+        );
+        futuresPrice = Prices.fromBigDecimal(SyntheticInstruments.FUTURES_PRICE);
+        futuresPriceTick = instrumentManager.getTickSize(futures.getInstrumentId());
+        final FairPriceProvider fairPriceProvider = instrumentId -> futuresPrice;
+        final FairVolatilityProvider fairVolatilityProvider = instrumentId -> config.getFairVolatility();
+        final Pricing pricing = new Pricing(
+            SyntheticInstruments.TIME_PROVIDER,
+            config.getSabrBeta(),
+            config.getSabrVolOfVol(),
+            config.getSabrRho(),
+            config.useSabrTimeAdjustedVolOfVol()
+        );
+        final RiskManager riskManager = new RiskManager(
+            SyntheticInstruments.TIME_PROVIDER,
+            instrumentManager,
+            fairVolatilityProvider,
+            fairPriceProvider,
+            pricing
+        );
+
+        futuresStrategy = new UniformFuturesOrderPlacingStrategy(
+            fairPriceProvider,
+            riskManager,
+            instrumentManager,
+            config.getNumLevels(),
+            config.getQtyOnLevel(),
+            config.getDeltaLimit(),
+            config.getFuturesSpreadFraction()
+        );
+        optionStrategy = new UniformOptionOrderPlacingStrategy(
+            fairVolatilityProvider,
+            fairPriceProvider,
+            riskManager,
+            instrumentManager,
+            pricing,
+            new OptionLadderPricer(instrumentManager, pricing, config.getNumLevels(), 0, 0),
+            config.getNumLevels(),
+            config.getQtyOnLevel(),
+            config.getDeltaLimit(),
+            config.getVegaLimit(),
+            config.getVolatilitySpreadFraction()
+        );
+        estimatingOptionStrategy = new UniformOptionOrderPlacingStrategy(
+            fairVolatilityProvider,
+            fairPriceProvider,
+            riskManager,
+            instrumentManager,
+            pricing,
+            new OptionLadderPricer(instrumentManager, pricing, config.getNumLevels(), 0.001, Long.MAX_VALUE / 2),
+            config.getNumLevels(),
+            config.getQtyOnLevel(),
+            config.getDeltaLimit(),
+            config.getVegaLimit(),
+            config.getVolatilitySpreadFraction()
+        );
+    }
+
+    @Benchmark
+    public Collection<GenericOrder> futuresGetOrders()
+    {
+        return futuresStrategy.getOrders(futures);
+    }
+
+    @Benchmark
+    public Collection<GenericOrder> optionGetOrders()
+    {
+        return optionStrategy.getOrders(option);
+    }
+
+    /**
+     * Futures price alternates by a tick, so that every ladder is estimated from the cached greeks.
+     */
+    @Benchmark
+    public Collection<GenericOrder> optionGetOrdersEstimated()
+    {
+        futuresPriceUp = !futuresPriceUp;
+        futuresPrice += futuresPriceUp ? futuresPriceTick : -futuresPriceTick;
+        return estimatingOptionStrategy.getOrders(option);
+    }
+}
@@ -0,0 +1,76 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigDecimal;
+
+@State(Scope.Thread)
+public class PricingBenchmark
+{
+    private static final double VOLATILITY = 0.5;
+    private static final long HOUR_MILLIS = 60L * 60 * 1000;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    public enum Scenario
+    {
+        ATM(BigDecimal.ONE, 30 * DAY_MILLIS),
+        DEEP_OTM(new BigDecimal("3"), 30 * DAY_MILLIS),
+        SHORT_DATED(BigDecimal.ONE, HOUR_MILLIS);
+
+        private final BigDecimal strikeToFuturesPrice;
+        private final long timeToMaturityMillis;
+
+        Scenario(final BigDecimal strikeToFuturesPrice, final long timeToMaturityMillis)
+        {
+            this.strikeToFuturesPrice = strikeToFuturesPrice;
+            this.timeToMaturityMillis = timeToMaturityMillis;
+        }
+    }
+
+    @Param({"ATM", "DEEP_OTM", "SHORT_DATED"})
+    public Scenario scenario;
+
+    private final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+
+    private Pricing pricing;
+    private Instrument option;
+    private double futuresPrice;
+    private double strike;
+    private double timeToMaturity;
+    private double optionPrice;
+
+    @Setup
+    public void setUp()
+    {
+        pricing = new Pricing(SyntheticInstruments.TIME_PROVIDER, 1, 1, 0, true);
+        option = SyntheticInstruments.option(
+            1,
+            SyntheticInstruments.NOW + scenario.timeToMaturityMillis,
+            true,
+            SyntheticInstruments.FUTURES_PRICE.multiply(scenario.strikeToFuturesPrice)
+        );
+        futuresPrice = SyntheticInstruments.FUTURES_PRICE.doubleValue();
+        strike = option.getStrike().get().doubleValue();
+        timeToMaturity = pricing.yearsToMaturity(option.getExpirationDate());
+        pricing.calculateMetrics(option, VOLATILITY, futuresPrice, metrics);
+        optionPrice = metrics.getPrice();
+    }
+
+    @Benchmark
+    public Pricing.MutableMetrics calculateMetrics()
+    {
+        pricing.calculateMetrics(option, VOLATILITY, futuresPrice, metrics);
+        return metrics;
+    }
+
+    @Benchmark
+    public double impliedVolatility()
+    {
+        return ImpliedVolatility.solve(true, optionPrice, futuresPrice, strike, timeToMaturity);
+    }
+}
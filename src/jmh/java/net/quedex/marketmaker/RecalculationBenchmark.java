@@ -0,0 +1,88 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.user.OrderSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Full recalculation over a synthetic universe. Every invocation moves all the futures fair prices by 1% (alternately
+ * up and down), which is outside of the sensitivity bands, so that all the futures and options are requoted. The
+ * recalculation runs on the event thread of the market maker, so the hand-off to it is included.
+ */
+@State(Scope.Thread)
+public class RecalculationBenchmark
+{
+    private static final double MOVE = 0.01;
+
+    @Param({"4"})
+    public int expiries;
+
+    @Param({"200"})
+    public int optionsPerExpiry;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private long[] fairPrices; // by instrument id
+    private long basePrice;
+    private boolean up;
+    private MarketMaker marketMaker;
+
+    @Setup
+    public void setUp()
+    {
+        final Map<Integer, Instrument> instruments = SyntheticInstruments.universe(expiries, optionsPerExpiry);
+        final InstrumentManager instrumentManager = new InstrumentManager(
+            SyntheticInstruments.TIME_PROVIDER,
+            instruments
+        );
+        basePrice = Prices.fromBigDecimal(SyntheticInstruments.FUTURES_PRICE);
+        fairPrices = new long[instrumentManager.getMaxInstrumentId() + 1];
+        movePrices();
+
+        marketMaker = new MarketMaker(
+            SyntheticInstruments.TIME_PROVIDER,
+            SyntheticInstruments.configuration(parallelism),
+            instrumentManager,
+            e ->
+            {
+            },
+            orderSpecs ->
+            {
+            },
+            marketDataManager -> instrumentId -> fairPrices[instrumentId]
+        );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        marketMaker.stop();
+    }
+
+    @Benchmark
+    public List<OrderSpec> recalculate() throws InterruptedException, ExecutionException
+    {
+        movePrices(); // published to the event thread by the recalculate event
+        return marketMaker.recalculate().get();
+    }
+
+    private void movePrices()
+    {
+        up = !up;
+        final long price = up ? Math.round(basePrice * (1 + MOVE)) : Math.round(basePrice * (1 - MOVE));
+        for (int i = 0; i < fairPrices.length; i++)
+        {
+            fairPrices[i] = price;
+        }
+    }
+}
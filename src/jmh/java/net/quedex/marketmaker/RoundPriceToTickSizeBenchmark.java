@@ -0,0 +1,51 @@
+package net.quedex.marketmaker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.RoundingMode;
+import java.util.Random;
+
+@State(Scope.Thread)
+public class RoundPriceToTickSizeBenchmark
+{
+    private static final int NUM_PRICES = 1024; // power of 2
+
+    @Param({"1", "50", "10000"})
+    public long tickSize;
+
+    private final long[] prices = new long[NUM_PRICES];
+    private int index;
+
+    @Setup
+    public void setUp()
+    {
+        final Random random = new Random(0);
+        final long futuresPrice = Prices.fromBigDecimal(SyntheticInstruments.FUTURES_PRICE);
+        for (int i = 0; i < NUM_PRICES; i++)
+        {
+            prices[i] = futuresPrice / 2 + (long) (random.nextDouble() * futuresPrice);
+        }
+    }
+
+    @Benchmark
+    public long roundDown()
+    {
+        return UniformFuturesOrderPlacingStrategy.roundPriceToTickSize(nextPrice(), RoundingMode.DOWN, tickSize);
+    }
+
+    @Benchmark
+    public long roundUp()
+    {
+        return UniformFuturesOrderPlacingStrategy.roundPriceToTickSize(nextPrice(), RoundingMode.UP, tickSize);
+    }
+
+    private long nextPrice()
+    {
+        index = (index + 1) & (NUM_PRICES - 1);
+        return prices[index];
+    }
+}
@@ -0,0 +1,152 @@
+package net.quedex.marketmaker;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.quedex.api.market.Instrument;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Synthetic instrument universe for benchmarks. Instruments are deserialised from the same JSON format the exchange
+ * publishes as instrument data, so they are built exactly as in production. Prices are BTC per USD (futures fair price
+ * around {@link #FUTURES_PRICE}), strikes are spread evenly around the futures price.
+ */
+final class SyntheticInstruments
+{
+    static final long NOW = 1_480_000_000_000L;
+    static final BigDecimal FUTURES_PRICE = new BigDecimal("0.00135");
+    static final BigDecimal TICK_SIZE = new BigDecimal("0.00000001");
+    static final TimeProvider TIME_PROVIDER = () -> NOW;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private SyntheticInstruments()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return instruments by id: for every expiry (weekly, first one week from {@link #NOW}) a futures and
+     *         {@code optionsPerExpiry} options alternating calls and puts with strikes from 80% to 120% of the
+     *         futures price
+     */
+    static Map<Integer, Instrument> universe(final int expiries, final int optionsPerExpiry)
+    {
+        final Map<Integer, Instrument> instruments = new HashMap<>();
+        int instrumentId = 1;
+
+        for (int e = 1; e <= expiries; e++)
+        {
+            final long expirationDate = NOW + e * 7 * DAY_MILLIS;
+            instruments.put(instrumentId, futures(instrumentId, expirationDate));
+            instrumentId++;
+
+            for (int o = 0; o < optionsPerExpiry; o++)
+            {
+                final BigDecimal strike = FUTURES_PRICE
+                    .multiply(BigDecimal.valueOf(0.8 + 0.4 * o / optionsPerExpiry))
+                    .setScale(TICK_SIZE.scale(), BigDecimal.ROUND_HALF_UP);
+                instruments.put(instrumentId, option(instrumentId, expirationDate, o % 2 == 0, strike));
+                instrumentId++;
+            }
+        }
+
+        return instruments;
+    }
+
+    static Instrument futures(final int instrumentId, final long expirationDate)
+    {
+        return instrument(String.format(
+            "{\"type\":\"futures\",\"instrument_id\":%d,\"symbol\":\"F.USD.%d\",\"expiration_date\":%d,"
+                + "\"issue_date\":%d,\"first_notice_date\":%d,\"tick_size\":\"%s\",\"notional_amount\":1,"
+                + "\"underlying_symbol\":\"USD\",\"fee\":\"0.0005\",\"initial_margin\":\"0.1\","
+                + "\"maintenance_margin\":\"0.05\"}",
+            instrumentId, expirationDate, expirationDate, NOW - DAY_MILLIS, expirationDate, TICK_SIZE.toPlainString()
+        ));
+    }
+
+    static Instrument option(
+        final int instrumentId,
+        final long expirationDate,
+        final boolean call,
+        final BigDecimal strike)
+    {
+        return instrument(String.format(
+            "{\"type\":\"option\",\"option_type\":\"%s\",\"instrument_id\":%d,\"symbol\":\"O.%s.USD.%d.%s\","
+                + "\"strike\":\"%s\",\"expiration_date\":%d,\"issue_date\":%d,\"first_notice_date\":%d,"
+                + "\"tick_size\":\"%s\",\"notional_amount\":1,\"underlying_symbol\":\"USD\",\"fee\":\"0.0005\","
+                + "\"initial_margin\":\"0.1\",\"maintenance_margin\":\"0.05\"}",
+            call ? "call_european" : "put_european", instrumentId, call ? "C" : "P", expirationDate,
+            strike.toPlainString(), strike.toPlainString(), expirationDate, NOW - DAY_MILLIS, expirationDate,
+            TICK_SIZE.toPlainString()
+        ));
+    }
+
+    private static Instrument instrument(final String json)
+    {
+        try
+        {
+            return OBJECT_MAPPER.readValue(json, Instrument.class);
+        }
+        catch (final IOException e)
+        {
+            throw new IllegalStateException("Error creating instrument from " + json, e);
+        }
+    }
+
+    static MarketMakerConfiguration configuration()
+    {
+        return configuration(1);
+    }
+
+    static MarketMakerConfiguration configuration(final int recalculationParallelism)
+    {
+        return new MarketMakerConfiguration(
+            10,
+            RequoteMode.FIXED_PERIOD,
+            0,
+            WaitStrategy.PARK,
+            1024,
+            recalculationParallelism,
+            new BigDecimal("0.0015"),
+            new BigDecimal("0.0015"),
+            new HashMap<>(),
+            0.5,
+            new HashMap<>(),
+            0,
+            1000,
+            0.5,
+            0.0015,
+            1,
+            1,
+            0,
+            true,
+            0,
+            5,
+            50,
+            100,
+            50,
+            0,
+            0,
+            0,
+            21,
+            0.2,
+            11,
+            0.25,
+            1,
+            0,
+            50,
+            50,
+            0,
+            0,
+            "",
+            64,
+            65536
+        );
+    }
+}
@@ -0,0 +1,245 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.user.OrderSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Replays the quotes recorded in an {@link EventJournal} through a {@link MarketMaker} with the given configuration,
+ * under simulated time, with the orders matched by a {@link SimulatedExchange}. The order and position events of the
+ * recorded account are not replayed, the simulated exchange produces the ones of the simulated orders.
+ * <p>
+ * The market maker recalculates every period of simulated time, as in {@link RequoteMode#FIXED_PERIOD} mode. Each
+ * recalculation waits for the events published before it, so the results are deterministic and the replay runs as fast
+ * as the recalculations allow. Volatility surface calibration runs on its own schedule in real time, so it has to be
+ * disabled.
+ */
+public class Backtest
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(Backtest.class);
+
+    private final MarketMakerConfiguration config;
+    private final Path journalDirectory;
+    private final long periodMillis;
+
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    private SimulatedTimeProvider timeProvider;
+    private MarketMaker marketMaker;
+    private SimulatedExchange exchange;
+    private long recalculationCount = 0;
+    private double peakPnl = 0;
+    private double maxDrawdown = 0;
+    private double maxAbsDelta = 0;
+    private double maxAbsVega = 0;
+
+    public Backtest(final MarketMakerConfiguration config, final Path journalDirectory)
+    {
+        this.config = checkNotNull(config, "null config");
+        this.journalDirectory = checkNotNull(journalDirectory, "null journalDirectory");
+        checkArgument(
+            config.getRequoteMode() == RequoteMode.FIXED_PERIOD,
+            "requoteMode=%s, only %s can be backtested", config.getRequoteMode(), RequoteMode.FIXED_PERIOD
+        );
+        checkArgument(
+            config.getSabrCalibrationIntervalMillis() == 0,
+            "sabrCalibrationIntervalMillis=%s, calibration is not deterministic",
+            config.getSabrCalibrationIntervalMillis()
+        );
+        this.periodMillis = TimeUnit.SECONDS.toMillis(config.getTimeSleepSeconds());
+    }
+
+    /**
+     * Runs the backtest, may be called once.
+     */
+    public BacktestReport run() throws IOException, InterruptedException, ExecutionException
+    {
+        checkState(marketMaker == null, "Already run");
+        final long startNanos = System.nanoTime();
+
+        final Map<Integer, Instrument> instruments = readInstruments();
+        final EventJournalReader reader = new EventJournalReader(journalDirectory);
+        LOGGER.info("Replaying {} journal segments from {}", reader.getSegmentPaths().size(), journalDirectory);
+
+        long startTime = 0;
+        long nextRecalculationTime = 0;
+        long quotesCount = 0;
+
+        try
+        {
+            while (reader.next())
+            {
+                if (reader.getType() != JournalRecordType.QUOTES)
+                {
+                    continue;
+                }
+                // events of different threads may be recorded slightly out of order
+                final long time = Math.max(
+                    TimeUnit.NANOSECONDS.toMillis(reader.getTimestampNanos()),
+                    timeProvider == null ? 0 : timeProvider.getCurrentTime()
+                );
+
+                if (marketMaker == null)
+                {
+                    startTime = time;
+                    nextRecalculationTime = time + periodMillis;
+                    start(instruments, time);
+                }
+                while (time >= nextRecalculationTime)
+                {
+                    timeProvider.setCurrentTime(nextRecalculationTime);
+                    recalculate();
+                    nextRecalculationTime += periodMillis;
+                }
+                timeProvider.setCurrentTime(time);
+
+                if (!instruments.containsKey(reader.getInstrumentId()))
+                {
+                    continue; // listed after the journal was started
+                }
+                exchange.onQuotes(
+                    reader.getInstrumentId(),
+                    reader.getLast(),
+                    reader.getBid(),
+                    reader.getBidQuantity(),
+                    reader.getAsk(),
+                    reader.getAskQuantity()
+                );
+                marketMaker.onQuotes(ExchangeMessages.quotes(
+                    reader.getInstrumentId(),
+                    reader.getLast(),
+                    reader.getBid(),
+                    reader.getBidQuantity(),
+                    reader.getAsk(),
+                    reader.getAskQuantity()
+                ));
+                quotesCount++;
+            }
+            checkState(marketMaker != null, "No quotes in %s", journalDirectory);
+
+            final GreeksTotals greeksTotals = marketMaker.getGreeksTotals().get();
+            checkNoError();
+
+            final List<BacktestReport.InstrumentResult> instrumentResults = new ArrayList<>();
+            for (final SimulatedExchange.Position position : exchange.getPositions().values())
+            {
+                instrumentResults.add(new BacktestReport.InstrumentResult(
+                    instruments.get(position.getInstrumentId()).getSymbol(),
+                    position.getQuantity(),
+                    position.getBoughtQuantity(),
+                    position.getSoldQuantity(),
+                    position.getFillCount(),
+                    exchange.getPnl(position)
+                ));
+            }
+            return new BacktestReport(
+                startTime,
+                timeProvider.getCurrentTime(),
+                quotesCount,
+                recalculationCount,
+                exchange,
+                maxDrawdown,
+                greeksTotals,
+                maxAbsDelta,
+                maxAbsVega,
+                instrumentResults,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+            );
+        }
+        finally
+        {
+            if (marketMaker != null)
+            {
+                marketMaker.stop();
+            }
+        }
+    }
+
+    private void start(final Map<Integer, Instrument> instruments, final long time)
+    {
+        timeProvider = new SimulatedTimeProvider(time);
+        marketMaker = new MarketMaker(
+            timeProvider,
+            config,
+            instruments,
+            this::onError,
+            orderSpecs -> { } // not used in FIXED_PERIOD mode, specs come from recalculate()
+        );
+        exchange = new SimulatedExchange(instruments, marketMaker, marketMaker);
+    }
+
+    /**
+     * Recalculates once the events published so far are processed, sends the resulting specs to the exchange and
+     * samples the profit and loss and greeks once the resulting events are processed.
+     */
+    private void recalculate() throws InterruptedException, ExecutionException
+    {
+        final List<OrderSpec> orderSpecs = marketMaker.recalculate().get();
+        checkNoError();
+        exchange.submit(orderSpecs);
+        recalculationCount++;
+
+        final GreeksTotals greeksTotals = marketMaker.getGreeksTotals().get();
+        maxAbsDelta = Math.max(maxAbsDelta, Math.abs(greeksTotals.getDelta()));
+        maxAbsVega = Math.max(maxAbsVega, Math.abs(greeksTotals.getVega()));
+
+        final double pnl = exchange.getPnl();
+        peakPnl = Math.max(peakPnl, pnl);
+        maxDrawdown = Math.max(maxDrawdown, peakPnl - pnl);
+    }
+
+    private void onError(final Exception e)
+    {
+        LOGGER.error("Error replaying", e);
+        error.compareAndSet(null, e);
+    }
+
+    private void checkNoError()
+    {
+        if (error.get() != null)
+        {
+            throw new IllegalStateException("Error replaying", error.get());
+        }
+    }
+
+    /**
+     * @return instruments recorded by all the journals in the directory, the latest definitions of every id
+     */
+    private Map<Integer, Instrument> readInstruments() throws IOException
+    {
+        final List<Path> paths = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+            journalDirectory,
+            EventJournal.INSTRUMENTS_PREFIX + '*' + EventJournal.INSTRUMENTS_SUFFIX))
+        {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths);
+
+        final Map<Integer, Instrument> instruments = new HashMap<>();
+        for (final Path path : paths)
+        {
+            instruments.putAll(ExchangeMessages.readInstruments(path));
+        }
+        checkState(!instruments.isEmpty(), "No instruments in %s", journalDirectory);
+        return instruments;
+    }
+}
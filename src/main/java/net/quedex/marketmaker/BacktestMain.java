@@ -0,0 +1,78 @@
+package net.quedex.marketmaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Backtests market maker configurations against a journal (see {@link Backtest}). Every configuration is replayed
+ * independently of the others, in parallel.
+ */
+public class BacktestMain
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(BacktestMain.class);
+
+    private BacktestMain()
+    {
+        throw new AssertionError();
+    }
+
+    public static void main(final String... args) throws Exception
+    {
+        if (args.length < 2)
+        {
+            printUsageAndExit();
+        }
+
+        final Path journalDirectory = Paths.get(args[0]);
+        final List<MarketMakerConfiguration> configs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++)
+        {
+            configs.add(MarketMakerConfiguration.fromPropertiesFile(args[i]));
+        }
+
+        // every backtest keeps a thread replaying and the event thread of its market maker busy
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(configs.size(), Runtime.getRuntime().availableProcessors() / 2))
+        );
+        try
+        {
+            final List<Future<BacktestReport>> reports = new ArrayList<>();
+            for (final MarketMakerConfiguration config : configs)
+            {
+                reports.add(executor.submit(() -> new Backtest(config, journalDirectory).run()));
+            }
+
+            for (int i = 0; i < reports.size(); i++)
+            {
+                final String configPath = args[i + 1];
+                final BacktestReport report = reports.get(i).get();
+                LOGGER.info("{}: {}", configPath, report);
+                for (final BacktestReport.InstrumentResult instrumentResult : report.getInstrumentResults())
+                {
+                    LOGGER.info("{}: {}", configPath, instrumentResult);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private static void printUsageAndExit()
+    {
+        System.out.println(
+            "Usage: java -cp <jar name> net.quedex.marketmaker.BacktestMain <journal directory> "
+                + "<market maker properties file name>..."
+        );
+        System.exit(1);
+    }
+}
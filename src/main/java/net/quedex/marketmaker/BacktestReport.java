@@ -0,0 +1,273 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+
+/**
+ * Results of a {@link Backtest}. Profit and loss is in the settlement currency, positions marked to the mid of the
+ * recorded book at the end (see {@link SimulatedExchange#getMarkPrice}).
+ */
+@Immutable
+public final class BacktestReport
+{
+    private final long startTime;
+    private final long endTime;
+    private final long quotesCount;
+    private final long recalculationCount;
+    private final long placeCount;
+    private final long modificationCount;
+    private final long cancelCount;
+    private final long failedCount;
+    private final long makerFillCount;
+    private final long takerFillCount;
+    private final double pnl;
+    private final double maxDrawdown;
+    private final GreeksTotals greeksTotals;
+    private final double maxAbsDelta;
+    private final double maxAbsVega;
+    private final List<InstrumentResult> instrumentResults;
+    private final long elapsedMillis;
+
+    BacktestReport(
+        final long startTime,
+        final long endTime,
+        final long quotesCount,
+        final long recalculationCount,
+        final SimulatedExchange exchange,
+        final double maxDrawdown,
+        final GreeksTotals greeksTotals,
+        final double maxAbsDelta,
+        final double maxAbsVega,
+        final List<InstrumentResult> instrumentResults,
+        final long elapsedMillis)
+    {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.quotesCount = quotesCount;
+        this.recalculationCount = recalculationCount;
+        this.placeCount = exchange.getPlaceCount();
+        this.modificationCount = exchange.getModificationCount();
+        this.cancelCount = exchange.getCancelCount();
+        this.failedCount = exchange.getFailedCount();
+        this.makerFillCount = exchange.getMakerFillCount();
+        this.takerFillCount = exchange.getTakerFillCount();
+        this.pnl = exchange.getPnl();
+        this.maxDrawdown = maxDrawdown;
+        this.greeksTotals = greeksTotals;
+        this.maxAbsDelta = maxAbsDelta;
+        this.maxAbsVega = maxAbsVega;
+        this.instrumentResults = ImmutableList.copyOf(instrumentResults);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return simulated time of the first replayed quotes, in milliseconds since the epoch
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return simulated time of the last replayed quotes, in milliseconds since the epoch
+     */
+    public long getEndTime()
+    {
+        return endTime;
+    }
+
+    public long getQuotesCount()
+    {
+        return quotesCount;
+    }
+
+    public long getRecalculationCount()
+    {
+        return recalculationCount;
+    }
+
+    public long getPlaceCount()
+    {
+        return placeCount;
+    }
+
+    public long getModificationCount()
+    {
+        return modificationCount;
+    }
+
+    public long getCancelCount()
+    {
+        return cancelCount;
+    }
+
+    /**
+     * @return number of modifications and cancels of orders already filled
+     */
+    public long getFailedCount()
+    {
+        return failedCount;
+    }
+
+    public long getMakerFillCount()
+    {
+        return makerFillCount;
+    }
+
+    public long getTakerFillCount()
+    {
+        return takerFillCount;
+    }
+
+    public double getPnl()
+    {
+        return pnl;
+    }
+
+    /**
+     * @return the largest fall of the marked profit and loss from its previous peak, sampled at recalculations
+     */
+    public double getMaxDrawdown()
+    {
+        return maxDrawdown;
+    }
+
+    /**
+     * @return total greeks of the positions at the end
+     */
+    public GreeksTotals getGreeksTotals()
+    {
+        return greeksTotals;
+    }
+
+    /**
+     * @return the largest absolute total delta, sampled at recalculations
+     */
+    public double getMaxAbsDelta()
+    {
+        return maxAbsDelta;
+    }
+
+    /**
+     * @return the largest absolute total vega, sampled at recalculations
+     */
+    public double getMaxAbsVega()
+    {
+        return maxAbsVega;
+    }
+
+    /**
+     * @return of the instruments traded, by instrument id
+     */
+    public List<InstrumentResult> getInstrumentResults()
+    {
+        return instrumentResults;
+    }
+
+    /**
+     * @return wall clock time the backtest took, the only value not deterministic
+     */
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("startTime", startTime)
+            .add("endTime", endTime)
+            .add("quotes", quotesCount)
+            .add("recalculations", recalculationCount)
+            .add("places", placeCount)
+            .add("modifications", modificationCount)
+            .add("cancels", cancelCount)
+            .add("failed", failedCount)
+            .add("makerFills", makerFillCount)
+            .add("takerFills", takerFillCount)
+            .add("pnl", pnl)
+            .add("maxDrawdown", maxDrawdown)
+            .add("greeks", greeksTotals)
+            .add("maxAbsDelta", maxAbsDelta)
+            .add("maxAbsVega", maxAbsVega)
+            .add("elapsedMillis", elapsedMillis)
+            .toString();
+    }
+
+    @Immutable
+    public static final class InstrumentResult
+    {
+        private final String symbol;
+        private final int position;
+        private final int boughtQuantity;
+        private final int soldQuantity;
+        private final int fillCount;
+        private final double pnl;
+
+        InstrumentResult(
+            final String symbol,
+            final int position,
+            final int boughtQuantity,
+            final int soldQuantity,
+            final int fillCount,
+            final double pnl)
+        {
+            this.symbol = symbol;
+            this.position = position;
+            this.boughtQuantity = boughtQuantity;
+            this.soldQuantity = soldQuantity;
+            this.fillCount = fillCount;
+            this.pnl = pnl;
+        }
+
+        public String getSymbol()
+        {
+            return symbol;
+        }
+
+        /**
+         * @return signed, negative if short
+         */
+        public int getPosition()
+        {
+            return position;
+        }
+
+        public int getBoughtQuantity()
+        {
+            return boughtQuantity;
+        }
+
+        public int getSoldQuantity()
+        {
+            return soldQuantity;
+        }
+
+        public int getFillCount()
+        {
+            return fillCount;
+        }
+
+        public double getPnl()
+        {
+            return pnl;
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                .add("symbol", symbol)
+                .add("position", position)
+                .add("bought", boughtQuantity)
+                .add("sold", soldQuantity)
+                .add("fills", fillCount)
+                .add("pnl", pnl)
+                .toString();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.quedex.marketmaker;
+
+/**
+ * Notified by {@link OrderSendScheduler} of order specs that were coalesced before being sent, so that the optimistic
+ * state of the {@link OrderManager} can be brought in line with what the exchange sees. Called on the sender thread.
+ */
+public interface CoalescedOrderListener
+{
+    /**
+     * The place was superseded by a cancel before being sent, neither of them is sent - the order never existed.
+     */
+    void onPlaceDropped(long clientOrderId);
+
+    /**
+     * The modification of an order whose place was not sent yet was merged into the place - it takes effect with the
+     * place.
+     */
+    void onModificationMerged(long clientOrderId);
+
+    /**
+     * The modification was superseded by a cancel before being sent - the order keeps its previous price and quantity
+     * until cancelled.
+     */
+    void onModificationDropped(long clientOrderId);
+
+    /**
+     * The modification was replaced by a later modification of the order before being sent - only the later one is
+     * sent.
+     */
+    void onModificationReplaced(long clientOrderId);
+}
@@ -0,0 +1,455 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.market.PriceQuantity;
+import net.quedex.api.market.Quotes;
+import net.quedex.api.market.QuotesListener;
+import net.quedex.api.user.LimitOrderSpec;
+import net.quedex.api.user.OpenPosition;
+import net.quedex.api.user.OpenPositionListener;
+import net.quedex.api.user.OrderCancelFailed;
+import net.quedex.api.user.OrderCancelSpec;
+import net.quedex.api.user.OrderCanceled;
+import net.quedex.api.user.OrderFilled;
+import net.quedex.api.user.OrderListener;
+import net.quedex.api.user.OrderModificationFailed;
+import net.quedex.api.user.OrderModified;
+import net.quedex.api.user.OrderModifySpec;
+import net.quedex.api.user.OrderPlaceFailed;
+import net.quedex.api.user.OrderPlaced;
+import net.quedex.api.user.OrderSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Append-only binary journal of all the inbound (quotes, order and position events) and outbound (order specs)
+ * traffic, with timestamps in nanoseconds since the epoch. See {@link JournalRecordType} for the format.
+ * <p>
+ * Recording does not allocate nor block: the (immutable) event and its timestamp are put into a preallocated ring
+ * buffer and encoded by a dedicated writer thread into memory-mapped segment files of a fixed size, rolled over when
+ * full. Events are dropped (and counted) if the writer falls behind by more than the ring buffer size. Read with
+ * {@link EventJournalReader}, replayed by {@link Backtest}.
+ */
+@ThreadSafe
+public class EventJournal implements QuotesListener, OrderListener, OpenPositionListener
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".bin";
+    static final String INSTRUMENTS_PREFIX = "instruments-";
+    static final String INSTRUMENTS_SUFFIX = ".json";
+    private static final long IDLE_PARK_NANOS = 100_000;
+    private static final long NO_PRICE = 0;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final Path directory;
+    private final int segmentSize;
+    private final long startEpochMillis;
+    private final long startEpochNanos;
+    private final long startNanoTime;
+    private final Thread thread;
+
+    private final AtomicLong claimSequence = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long consumedSequence = 0; // written only by the writer thread
+    private volatile long writtenCount = 0; // written only by the writer thread
+    private volatile boolean running = true;
+
+    // accessed only by the writer thread
+    private MappedByteBuffer segment; // null before the first record or after an error
+    private int segmentIndex = 0;
+    private boolean failed = false;
+
+    /**
+     * @param directory   where the segment files are created, must not be shared by journals running at the same time
+     * @param segmentSize size of a segment file in bytes
+     * @param bufferSize  number of slots of the ring buffer, has to be a power of 2
+     */
+    public EventJournal(final Path directory, final int segmentSize, final int bufferSize)
+    {
+        checkNotNull(directory, "null directory");
+        checkArgument(Files.isDirectory(directory), "directory=%s not a directory", directory);
+        checkArgument(
+            segmentSize >= JournalRecordType.HEADER_SIZE + maxPayloadSize(),
+            "segmentSize=%s too small", segmentSize
+        );
+        checkArgument(
+            bufferSize > 0 && Integer.bitCount(bufferSize) == 1,
+            "bufferSize=%s not a power of 2", bufferSize
+        );
+
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; i++)
+        {
+            slots[i] = new Slot();
+        }
+        this.mask = bufferSize - 1;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.startEpochMillis = System.currentTimeMillis();
+        this.startEpochNanos = TimeUnit.MILLISECONDS.toNanos(startEpochMillis);
+        this.startNanoTime = System.nanoTime();
+        this.thread = new Thread(this::run, "journal-writer");
+        thread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread once all the events recorded so far have been written and waits for it to flush the
+     * segment to disk.
+     */
+    public void stop() throws InterruptedException
+    {
+        running = false;
+        thread.join();
+    }
+
+    /**
+     * Writes the instruments next to the segments, as they are needed to replay the journal.
+     */
+    public void writeInstruments(final Collection<Instrument> instruments) throws IOException
+    {
+        ExchangeMessages.writeInstruments(
+            directory.resolve(String.format("%s%013d%s", INSTRUMENTS_PREFIX, startEpochMillis, INSTRUMENTS_SUFFIX)),
+            instruments
+        );
+    }
+
+    public long getWrittenCount()
+    {
+        return writtenCount;
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    @Override
+    public void onQuotes(final Quotes quotes)
+    {
+        record(JournalRecordType.QUOTES, quotes);
+    }
+
+    @Override
+    public void onOrderPlaced(final OrderPlaced orderPlaced)
+    {
+        record(JournalRecordType.ORDER_PLACED, orderPlaced);
+    }
+
+    @Override
+    public void onOrderPlaceFailed(final OrderPlaceFailed orderPlaceFailed)
+    {
+        record(JournalRecordType.ORDER_PLACE_FAILED, orderPlaceFailed);
+    }
+
+    @Override
+    public void onOrderCanceled(final OrderCanceled orderCanceled)
+    {
+        record(JournalRecordType.ORDER_CANCELED, orderCanceled);
+    }
+
+    @Override
+    public void onOrderCancelFailed(final OrderCancelFailed orderCancelFailed)
+    {
+        record(JournalRecordType.ORDER_CANCEL_FAILED, orderCancelFailed);
+    }
+
+    @Override
+    public void onOrderModified(final OrderModified orderModified)
+    {
+        record(JournalRecordType.ORDER_MODIFIED, orderModified);
+    }
+
+    @Override
+    public void onOrderModificationFailed(final OrderModificationFailed orderModificationFailed)
+    {
+        record(JournalRecordType.ORDER_MODIFICATION_FAILED, orderModificationFailed);
+    }
+
+    @Override
+    public void onOrderFilled(final OrderFilled orderFilled)
+    {
+        record(JournalRecordType.ORDER_FILLED, orderFilled);
+    }
+
+    @Override
+    public void onOpenPosition(final OpenPosition openPosition)
+    {
+        record(JournalRecordType.OPEN_POSITION, openPosition);
+    }
+
+    /**
+     * Records order specs as they are sent.
+     */
+    public void onSent(final List<OrderSpec> orderSpecs)
+    {
+        for (int i = 0; i < orderSpecs.size(); i++)
+        {
+            final OrderSpec orderSpec = orderSpecs.get(i);
+            if (orderSpec instanceof LimitOrderSpec)
+            {
+                record(JournalRecordType.PLACE_SPEC, orderSpec);
+            }
+            else if (orderSpec instanceof OrderModifySpec)
+            {
+                record(JournalRecordType.MODIFY_SPEC, orderSpec);
+            }
+            else if (orderSpec instanceof OrderCancelSpec)
+            {
+                record(JournalRecordType.CANCEL_SPEC, orderSpec);
+            }
+        }
+    }
+
+    private void record(final JournalRecordType type, final Object payload)
+    {
+        final long timestampNanos = startEpochNanos + System.nanoTime() - startNanoTime;
+
+        long sequence;
+        do
+        {
+            sequence = claimSequence.get();
+            if (sequence - slots.length >= consumedSequence) // buffer full, never blocks the caller
+            {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        }
+        while (!claimSequence.compareAndSet(sequence, sequence + 1));
+
+        final Slot slot = slots[(int) sequence & mask];
+        slot.type = type;
+        slot.timestampNanos = timestampNanos;
+        slot.payload = payload;
+        slot.publishedSequence = sequence; // volatile write publishes the above
+    }
+
+    private void run()
+    {
+        LOGGER.info("Journal writer started, directory={}", directory);
+
+        long sequence = 0;
+        while (true)
+        {
+            final Slot slot = slots[(int) sequence & mask];
+            if (slot.publishedSequence == sequence)
+            {
+                final JournalRecordType type = slot.type;
+                final long timestampNanos = slot.timestampNanos;
+                final Object payload = slot.payload;
+                slot.payload = null;
+                consumedSequence = ++sequence; // frees the slot
+
+                writeSafely(type, timestampNanos, payload);
+            }
+            else if (!running)
+            {
+                break;
+            }
+            else
+            {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        if (segment != null)
+        {
+            segment.force();
+        }
+        LOGGER.info("Journal writer stopped, written={}, dropped={}", writtenCount, droppedCount.get());
+    }
+
+    private void writeSafely(final JournalRecordType type, final long timestampNanos, final Object payload)
+    {
+        if (failed)
+        {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        try
+        {
+            write(type, timestampNanos, payload);
+            writtenCount++;
+        }
+        catch (final IOException e) // trading goes on without the journal
+        {
+            LOGGER.error("Error writing journal, no more events will be written", e);
+            failed = true;
+            droppedCount.incrementAndGet();
+        }
+        catch (final RuntimeException e) // e.g. a price not representable in the fixed-point form, skips the event
+        {
+            LOGGER.error("Error writing " + type + " to journal", e);
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void write(final JournalRecordType type, final long timestampNanos, final Object payload)
+        throws IOException
+    {
+        if (segment == null || segment.remaining() < JournalRecordType.HEADER_SIZE + type.getPayloadSize())
+        {
+            roll();
+        }
+
+        final int start = segment.position();
+        segment.position(start + JournalRecordType.HEADER_SIZE);
+        writePayload(type, payload);
+        // the type written last, so a record cut short by a failure reads as the end of the segment
+        segment.putLong(start + 1, timestampNanos);
+        segment.put(start, type.getCode());
+    }
+
+    private void writePayload(final JournalRecordType type, final Object payload)
+    {
+        switch (type)
+        {
+            case QUOTES:
+                final Quotes quotes = (Quotes) payload;
+                segment.putInt(quotes.getInstrumentId());
+                segment.putLong(quotes.getLast() == null ? NO_PRICE : Prices.fromBigDecimal(quotes.getLast()));
+                putPriceQuantity(quotes.getBid());
+                putPriceQuantity(quotes.getAsk());
+                break;
+            case ORDER_PLACED:
+                final OrderPlaced orderPlaced = (OrderPlaced) payload;
+                segment.putLong(orderPlaced.getClientOrderId());
+                segment.putInt(orderPlaced.getInstrumentId());
+                segment.put((byte) orderPlaced.getSide().ordinal());
+                segment.putLong(Prices.fromBigDecimal(orderPlaced.getPrice()));
+                segment.putInt(orderPlaced.getQuantity());
+                segment.putInt(orderPlaced.getInitialQuantity());
+                break;
+            case ORDER_PLACE_FAILED:
+                segment.putLong(((OrderPlaceFailed) payload).getClientOrderId());
+                break;
+            case ORDER_FILLED:
+                final OrderFilled orderFilled = (OrderFilled) payload;
+                segment.putLong(orderFilled.getClientOrderId());
+                segment.putInt(orderFilled.getInstrumentId());
+                segment.put((byte) orderFilled.getSide().ordinal());
+                segment.putLong(Prices.fromBigDecimal(orderFilled.getTradePrice()));
+                segment.putInt(orderFilled.getFilledQuantity());
+                segment.putInt(orderFilled.getLeavesOrderQuantity());
+                break;
+            case ORDER_CANCELED:
+                segment.putLong(((OrderCanceled) payload).getClientOrderId());
+                break;
+            case ORDER_CANCEL_FAILED:
+                segment.putLong(((OrderCancelFailed) payload).getClientOrderId());
+                break;
+            case ORDER_MODIFIED:
+                segment.putLong(((OrderModified) payload).getClientOrderId());
+                break;
+            case ORDER_MODIFICATION_FAILED:
+                segment.putLong(((OrderModificationFailed) payload).getClientOrderId());
+                break;
+            case OPEN_POSITION:
+                final OpenPosition openPosition = (OpenPosition) payload;
+                segment.putInt(openPosition.getInstrumentId());
+                segment.putInt(openPosition.getQuantitySigned());
+                break;
+            case PLACE_SPEC:
+                final LimitOrderSpec limitOrderSpec = (LimitOrderSpec) payload;
+                segment.putLong(limitOrderSpec.getClientOrderId());
+                segment.putInt(limitOrderSpec.getInstrumentId());
+                segment.put((byte) limitOrderSpec.getSide().ordinal());
+                segment.putLong(Prices.fromBigDecimal(limitOrderSpec.getPrice()));
+                segment.putInt(limitOrderSpec.getQuantity());
+                break;
+            case MODIFY_SPEC:
+                final OrderModifySpec orderModifySpec = (OrderModifySpec) payload;
+                segment.putLong(orderModifySpec.getClientOrderId());
+                segment.putLong(Prices.fromBigDecimal(orderModifySpec.getNewPrice()));
+                segment.putInt(orderModifySpec.getNewQuantity());
+                break;
+            case CANCEL_SPEC:
+                segment.putLong(((OrderCancelSpec) payload).getClientOrderId());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected type=" + type);
+        }
+    }
+
+    private void putPriceQuantity(final Optional<PriceQuantity> priceQuantity)
+    {
+        if (priceQuantity.isPresent())
+        {
+            final Optional<BigDecimal> price = priceQuantity.get().getPrice();
+            segment.putLong(price.isPresent() ? Prices.fromBigDecimal(price.get()) : NO_PRICE);
+            segment.putInt(priceQuantity.get().getQuantity());
+        }
+        else
+        {
+            segment.putLong(NO_PRICE);
+            segment.putInt(0);
+        }
+    }
+
+    private void roll() throws IOException
+    {
+        if (segment != null)
+        {
+            segment.force();
+            segment = null;
+        }
+
+        final Path path = directory.resolve(
+            String.format("%s%013d-%06d%s", SEGMENT_PREFIX, startEpochMillis, segmentIndex++, SEGMENT_SUFFIX)
+        );
+        try (final FileChannel channel = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE))
+        {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // stays valid after closing
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        LOGGER.info("Journal segment {} created", path);
+    }
+
+    private static int maxPayloadSize()
+    {
+        int maxPayloadSize = 0;
+        for (final JournalRecordType type : JournalRecordType.values())
+        {
+            maxPayloadSize = Math.max(maxPayloadSize, type.getPayloadSize());
+        }
+        return maxPayloadSize;
+    }
+
+    private static final class Slot
+    {
+        private JournalRecordType type;
+        private long timestampNanos;
+        private Object payload;
+        private volatile long publishedSequence = -1;
+    }
+}
@@ -0,0 +1,311 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.user.OrderSide;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Reads the records written by {@link EventJournal} to a directory, segment by segment in the order they were
+ * written (journals of consecutive runs one after another). The reader is a flyweight: {@link #next} decodes the next
+ * record into the reader itself, which the getters return; values not carried by the current record's type are 0.
+ */
+@NotThreadSafe
+public class EventJournalReader
+{
+    private static final OrderSide[] SIDES = OrderSide.values();
+
+    private final List<Path> segmentPaths;
+    private int nextSegmentIndex = 0;
+    private MappedByteBuffer segment; // null before the first segment is opened
+
+    private JournalRecordType type; // null before the first record and after the last one
+    private long timestampNanos;
+    private int instrumentId;
+    private long clientOrderId;
+    private OrderSide side;
+    private long price;
+    private int quantity;
+    private int initialQuantity;
+    private int leavesQuantity;
+    private long last;
+    private long bid;
+    private int bidQuantity;
+    private long ask;
+    private int askQuantity;
+
+    public EventJournalReader(final Path directory) throws IOException
+    {
+        checkNotNull(directory, "null directory");
+        checkArgument(Files.isDirectory(directory), "directory=%s not a directory", directory);
+
+        final List<Path> paths = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+            directory,
+            EventJournal.SEGMENT_PREFIX + '*' + EventJournal.SEGMENT_SUFFIX))
+        {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths); // names start with the start time of the journal and the index of the segment
+        this.segmentPaths = ImmutableList.copyOf(paths);
+    }
+
+    public List<Path> getSegmentPaths()
+    {
+        return segmentPaths;
+    }
+
+    /**
+     * Decodes the next record.
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() throws IOException
+    {
+        while (segment == null || !hasRecord())
+        {
+            if (nextSegmentIndex == segmentPaths.size())
+            {
+                type = null;
+                return false;
+            }
+            openSegment(segmentPaths.get(nextSegmentIndex++));
+        }
+
+        type = JournalRecordType.fromCode(segment.get());
+        timestampNanos = segment.getLong();
+        clearValues();
+
+        switch (type)
+        {
+            case QUOTES:
+                instrumentId = segment.getInt();
+                last = segment.getLong();
+                bid = segment.getLong();
+                bidQuantity = segment.getInt();
+                ask = segment.getLong();
+                askQuantity = segment.getInt();
+                break;
+            case ORDER_PLACED:
+                clientOrderId = segment.getLong();
+                instrumentId = segment.getInt();
+                side = SIDES[segment.get()];
+                price = segment.getLong();
+                quantity = segment.getInt();
+                initialQuantity = segment.getInt();
+                break;
+            case ORDER_FILLED:
+                clientOrderId = segment.getLong();
+                instrumentId = segment.getInt();
+                side = SIDES[segment.get()];
+                price = segment.getLong();
+                quantity = segment.getInt();
+                leavesQuantity = segment.getInt();
+                break;
+            case ORDER_PLACE_FAILED:
+            case ORDER_CANCELED:
+            case ORDER_CANCEL_FAILED:
+            case ORDER_MODIFIED:
+            case ORDER_MODIFICATION_FAILED:
+            case CANCEL_SPEC:
+                clientOrderId = segment.getLong();
+                break;
+            case OPEN_POSITION:
+                instrumentId = segment.getInt();
+                quantity = segment.getInt();
+                break;
+            case PLACE_SPEC:
+                clientOrderId = segment.getLong();
+                instrumentId = segment.getInt();
+                side = SIDES[segment.get()];
+                price = segment.getLong();
+                quantity = segment.getInt();
+                break;
+            case MODIFY_SPEC:
+                clientOrderId = segment.getLong();
+                price = segment.getLong();
+                quantity = segment.getInt();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected type=" + type);
+        }
+        return true;
+    }
+
+    public JournalRecordType getType()
+    {
+        checkState(type != null, "No current record");
+        return type;
+    }
+
+    /**
+     * @return nanoseconds since the epoch
+     */
+    public long getTimestampNanos()
+    {
+        return timestampNanos;
+    }
+
+    /**
+     * @return of {@link JournalRecordType#QUOTES}, {@link JournalRecordType#ORDER_PLACED},
+     *         {@link JournalRecordType#ORDER_FILLED}, {@link JournalRecordType#OPEN_POSITION} and
+     *         {@link JournalRecordType#PLACE_SPEC}
+     */
+    public int getInstrumentId()
+    {
+        return instrumentId;
+    }
+
+    /**
+     * @return of all the order event and order spec types
+     */
+    public long getClientOrderId()
+    {
+        return clientOrderId;
+    }
+
+    /**
+     * @return of {@link JournalRecordType#ORDER_PLACED}, {@link JournalRecordType#ORDER_FILLED} and
+     *         {@link JournalRecordType#PLACE_SPEC}, null otherwise
+     */
+    public OrderSide getSide()
+    {
+        return side;
+    }
+
+    /**
+     * @return of {@link JournalRecordType#ORDER_PLACED} and {@link JournalRecordType#PLACE_SPEC}, the new price of
+     *         {@link JournalRecordType#MODIFY_SPEC}, the trade price of {@link JournalRecordType#ORDER_FILLED}
+     */
+    public long getPrice()
+    {
+        return price;
+    }
+
+    /**
+     * @return of {@link JournalRecordType#ORDER_PLACED} and {@link JournalRecordType#PLACE_SPEC}, the new quantity
+     *         of {@link JournalRecordType#MODIFY_SPEC}, the filled quantity of {@link JournalRecordType#ORDER_FILLED},
+     *         the signed quantity of {@link JournalRecordType#OPEN_POSITION}
+     */
+    public int getQuantity()
+    {
+        return quantity;
+    }
+
+    /**
+     * @return of {@link JournalRecordType#ORDER_PLACED}
+     */
+    public int getInitialQuantity()
+    {
+        return initialQuantity;
+    }
+
+    /**
+     * @return quantity of the order left after the fill of {@link JournalRecordType#ORDER_FILLED}
+     */
+    public int getLeavesQuantity()
+    {
+        return leavesQuantity;
+    }
+
+    /**
+     * @return last trade price of {@link JournalRecordType#QUOTES}
+     */
+    public long getLast()
+    {
+        return last;
+    }
+
+    public long getBid()
+    {
+        return bid;
+    }
+
+    public int getBidQuantity()
+    {
+        return bidQuantity;
+    }
+
+    public long getAsk()
+    {
+        return ask;
+    }
+
+    public int getAskQuantity()
+    {
+        return askQuantity;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("type", type)
+            .add("timestampNanos", timestampNanos)
+            .add("instrumentId", instrumentId)
+            .add("clientOrderId", clientOrderId)
+            .add("side", side)
+            .add("price", price)
+            .add("quantity", quantity)
+            .add("initialQuantity", initialQuantity)
+            .add("leavesQuantity", leavesQuantity)
+            .add("last", last)
+            .add("bid", bid)
+            .add("bidQuantity", bidQuantity)
+            .add("ask", ask)
+            .add("askQuantity", askQuantity)
+            .toString();
+    }
+
+    private boolean hasRecord()
+    {
+        if (segment.remaining() < JournalRecordType.HEADER_SIZE)
+        {
+            return false;
+        }
+        final JournalRecordType nextType = JournalRecordType.fromCode(segment.get(segment.position()));
+        // the rest of a segment is zeroed, a record is complete once its type is written
+        return nextType != null && segment.remaining() >= JournalRecordType.HEADER_SIZE + nextType.getPayloadSize();
+    }
+
+    private void openSegment(final Path path) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void clearValues()
+    {
+        instrumentId = 0;
+        clientOrderId = 0;
+        side = null;
+        price = 0;
+        quantity = 0;
+        initialQuantity = 0;
+        leavesQuantity = 0;
+        last = 0;
+        bid = 0;
+        bidQuantity = 0;
+        ask = 0;
+        askQuantity = 0;
+    }
+}
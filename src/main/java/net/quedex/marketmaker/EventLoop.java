@@ -0,0 +1,217 @@
+package net.quedex.marketmaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Event loop processing events on a single thread, events may be published from any thread. Events are passed through
+ * a preallocated ring buffer of typed slots, so publishing allocates nothing and takes no locks (producers only
+ * compete for a sequence number). When the buffer is full, producers wait for the event thread to catch up, events
+ * which cannot be buffered after {@link #stop()} are dropped.
+ * <p>
+ * The event thread additionally runs a single timer (see {@link #scheduleTimer}).
+ */
+@ThreadSafe
+public class EventLoop
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoop.class);
+
+    public interface EventHandler
+    {
+        /**
+         * @param value primitive payload of the event, 0 if published with an object payload
+         */
+        void onEvent(EventType type, Object payload, long value);
+
+        void onTimer();
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final EventHandler eventHandler;
+    private final Consumer<Exception> exceptionHandler;
+    private final Thread thread;
+
+    private final AtomicLong claimSequence = new AtomicLong();
+    private volatile long consumedSequence = 0; // written only by the event thread
+    private volatile boolean running = true;
+
+    // accessed only by the event thread
+    private boolean timerScheduled = false;
+    private long timerDeadlineNanos;
+    private long timerBarrierSequence;
+
+    /**
+     * @param bufferSize number of slots of the ring buffer, has to be a power of 2
+     */
+    public EventLoop(
+        final String name,
+        final int bufferSize,
+        final WaitStrategy waitStrategy,
+        final EventHandler eventHandler,
+        final Consumer<Exception> exceptionHandler)
+    {
+        checkArgument(
+            bufferSize > 0 && Integer.bitCount(bufferSize) == 1,
+            "bufferSize=%s not a power of 2", bufferSize
+        );
+
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; i++)
+        {
+            slots[i] = new Slot();
+        }
+        this.mask = bufferSize - 1;
+        this.waitStrategy = checkNotNull(waitStrategy, "null waitStrategy");
+        this.eventHandler = checkNotNull(eventHandler, "null eventHandler");
+        this.exceptionHandler = checkNotNull(exceptionHandler, "null exceptionHandler");
+        this.thread = new Thread(this::run, checkNotNull(name, "null name"));
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Stops the event thread once all the events published so far have been processed.
+     */
+    public void stop()
+    {
+        running = false;
+    }
+
+    public boolean isEventThread()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    public void publish(final EventType type, final Object payload)
+    {
+        publish(type, payload, 0);
+    }
+
+    /**
+     * Publishes an event with a primitive payload, e.g. a client order id, without boxing it.
+     */
+    public void publish(final EventType type, final long value)
+    {
+        publish(type, null, value);
+    }
+
+    private void publish(final EventType type, final Object payload, final long value)
+    {
+        checkState(!isEventThread(), "Publishing from the event thread could deadlock");
+
+        final long sequence = claimSequence.getAndIncrement();
+        while (sequence - slots.length >= consumedSequence) // buffer full
+        {
+            if (!running)
+            {
+                LOGGER.warn("Dropping {} published after stop: {}/{}", type, payload, value);
+                return;
+            }
+            Thread.yield();
+        }
+
+        final Slot slot = slots[(int) sequence & mask];
+        slot.type = type;
+        slot.payload = payload;
+        slot.value = value;
+        slot.publishedSequence = sequence; // volatile write publishes the above
+    }
+
+    /**
+     * Schedules {@link EventHandler#onTimer()} to be called after the given delay, but not before the events
+     * published so far are processed. Replaces the previously scheduled timer. Has to be called on the event thread.
+     */
+    public void scheduleTimer(final long delay, final TimeUnit unit)
+    {
+        timerScheduled = true;
+        timerDeadlineNanos = System.nanoTime() + unit.toNanos(delay);
+        timerBarrierSequence = claimSequence.get();
+    }
+
+    private void run()
+    {
+        LOGGER.info("Event loop started");
+        long sequence = consumedSequence;
+
+        while (true)
+        {
+            final Slot slot = slots[(int) sequence & mask];
+
+            if (slot.publishedSequence == sequence)
+            {
+                final EventType type = slot.type;
+                final Object payload = slot.payload;
+                final long value = slot.value;
+                slot.type = null;
+                slot.payload = null;
+                consumedSequence = ++sequence; // frees the slot
+
+                handle(type, payload, value);
+                runTimerIfDue(sequence);
+            }
+            else if (!runTimerIfDue(sequence))
+            {
+                if (!running)
+                {
+                    break;
+                }
+                waitStrategy.idle(timerScheduled ? timerDeadlineNanos - System.nanoTime() : Long.MAX_VALUE);
+            }
+        }
+
+        LOGGER.info("Event loop stopped");
+    }
+
+    private boolean runTimerIfDue(final long sequence)
+    {
+        if (!timerScheduled || sequence < timerBarrierSequence || System.nanoTime() < timerDeadlineNanos)
+        {
+            return false;
+        }
+
+        timerScheduled = false;
+        try
+        {
+            eventHandler.onTimer();
+        }
+        catch (final RuntimeException e)
+        {
+            exceptionHandler.accept(e);
+        }
+        return true;
+    }
+
+    private void handle(final EventType type, final Object payload, final long value)
+    {
+        try
+        {
+            eventHandler.onEvent(type, payload, value);
+        }
+        catch (final RuntimeException e)
+        {
+            exceptionHandler.accept(e);
+        }
+    }
+
+    private static final class Slot
+    {
+        private EventType type;
+        private Object payload;
+        private long value;
+        private volatile long publishedSequence = -1;
+    }
+}
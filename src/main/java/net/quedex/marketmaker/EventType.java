@@ -0,0 +1,106 @@
+package net.quedex.marketmaker;
+
+/**
+ * Types of the events processed by the {@link EventLoop}, determine the type of the payload. The client order ids and
+ * the back-pressure flag are published as primitive values (see {@link EventLoop#publish(EventType, long)}).
+ */
+public enum EventType
+{
+    /**
+     * {@link QuotesConflator.QuotesSlot} holding the most recent {@link net.quedex.api.market.Quotes} of an instrument
+     */
+    QUOTES,
+
+    /**
+     * {@link net.quedex.api.user.OpenPosition}
+     */
+    OPEN_POSITION,
+
+    /**
+     * {@link net.quedex.api.user.OrderPlaced}
+     */
+    ORDER_PLACED,
+
+    /**
+     * {@link net.quedex.api.user.OrderPlaceFailed}
+     */
+    ORDER_PLACE_FAILED,
+
+    /**
+     * {@link net.quedex.api.user.OrderCanceled}
+     */
+    ORDER_CANCELED,
+
+    /**
+     * {@link net.quedex.api.user.OrderCancelFailed}
+     */
+    ORDER_CANCEL_FAILED,
+
+    /**
+     * {@link net.quedex.api.user.OrderModified}
+     */
+    ORDER_MODIFIED,
+
+    /**
+     * {@link net.quedex.api.user.OrderModificationFailed}
+     */
+    ORDER_MODIFICATION_FAILED,
+
+    /**
+     * {@link net.quedex.api.user.OrderFilled}
+     */
+    ORDER_FILLED,
+
+    /**
+     * Request to recalculate all the traded instruments, {@link java.util.concurrent.CompletableFuture} completed with
+     * the resulting order specs.
+     */
+    RECALCULATE,
+
+    /**
+     * Request to cancel all the orders, {@link java.util.concurrent.CompletableFuture} completed with the cancel specs.
+     */
+    CANCEL_ALL,
+
+    /**
+     * Newly calibrated {@link VolatilitySurface}
+     */
+    VOLATILITY_SURFACE,
+
+    /**
+     * Client order id of the place dropped by the {@link OrderSendScheduler}
+     */
+    PLACE_DROPPED,
+
+    /**
+     * Client order id of the modification merged into the place by the {@link OrderSendScheduler}
+     */
+    MODIFICATION_MERGED,
+
+    /**
+     * Client order id of the modification dropped by the {@link OrderSendScheduler}
+     */
+    MODIFICATION_DROPPED,
+
+    /**
+     * Client order id of the modification replaced by a later one in the {@link OrderSendScheduler}
+     */
+    MODIFICATION_REPLACED,
+
+    /**
+     * 1 if the {@link OrderSendScheduler} is back-pressured, 0 otherwise
+     */
+    SEND_BACK_PRESSURE,
+
+    /**
+     * Request of the total greeks of the open positions, {@link java.util.concurrent.CompletableFuture} completed with
+     * the {@link GreeksTotals}.
+     */
+    GREEKS_TOTALS,
+
+    /**
+     * Request of the market implied volatilities of the traded options, {@link java.util.concurrent.CompletableFuture}
+     * completed with the {@link ImpliedVolatilitiesSnapshot}.
+     */
+    IMPLIED_VOLATILITIES
+}
@@ -0,0 +1,207 @@
+package net.quedex.marketmaker;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.quedex.api.market.Instrument;
+import net.quedex.api.market.Quotes;
+import net.quedex.api.user.OpenPosition;
+import net.quedex.api.user.OrderCancelFailed;
+import net.quedex.api.user.OrderCanceled;
+import net.quedex.api.user.OrderFilled;
+import net.quedex.api.user.OrderModificationFailed;
+import net.quedex.api.user.OrderModified;
+import net.quedex.api.user.OrderPlaced;
+import net.quedex.api.user.OrderSide;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the API objects of the exchange messages for replay (see {@link Backtest}). They are deserialised from the
+ * same JSON formats the exchange sends, so they are built exactly as in production. Prices are in the fixed-point
+ * representation of {@link Prices}, 0 meaning none.
+ */
+public final class ExchangeMessages
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private ExchangeMessages()
+    {
+        throw new AssertionError();
+    }
+
+    public static Quotes quotes(
+        final int instrumentId,
+        final long last,
+        final long bid,
+        final int bidQuantity,
+        final long ask,
+        final int askQuantity)
+    {
+        final ObjectNode node = OBJECT_MAPPER.createObjectNode()
+            .put("type", "quotes")
+            .put("instrument_id", instrumentId);
+        putPrice(node, "last", last);
+        putPrice(node, "bid", bid);
+        node.put("bid_quantity", bidQuantity);
+        putPrice(node, "ask", ask);
+        node.put("ask_quantity", askQuantity);
+        return toValue(node, Quotes.class);
+    }
+
+    public static OrderPlaced orderPlaced(
+        final long clientOrderId,
+        final int instrumentId,
+        final OrderSide side,
+        final long price,
+        final int quantity,
+        final int initialQuantity)
+    {
+        final ObjectNode node = OBJECT_MAPPER.createObjectNode()
+            .put("type", "order_placed")
+            .put("client_order_id", clientOrderId)
+            .put("instrument_id", instrumentId)
+            .put("side", side.name().toLowerCase());
+        putPrice(node, "limit_price", price);
+        node.put("quantity", quantity)
+            .put("initial_quantity", initialQuantity);
+        return toValue(node, OrderPlaced.class);
+    }
+
+    /**
+     * @param price          of the trade
+     * @param leavesQuantity quantity of the order left after the fill
+     */
+    public static OrderFilled orderFilled(
+        final long clientOrderId,
+        final int instrumentId,
+        final OrderSide side,
+        final long price,
+        final int filledQuantity,
+        final int leavesQuantity)
+    {
+        final ObjectNode node = OBJECT_MAPPER.createObjectNode()
+            .put("type", "order_filled")
+            .put("client_order_id", clientOrderId)
+            .put("instrument_id", instrumentId)
+            .put("side", side.name().toLowerCase());
+        putPrice(node, "trade_price", price);
+        node.put("trade_quantity", filledQuantity)
+            .put("leaves_order_quantity", leavesQuantity);
+        return toValue(node, OrderFilled.class);
+    }
+
+    public static OrderCanceled orderCanceled(final long clientOrderId)
+    {
+        return toValue(orderNode("order_cancelled", clientOrderId), OrderCanceled.class);
+    }
+
+    public static OrderCancelFailed orderCancelFailed(final long clientOrderId)
+    {
+        return toValue(orderNode("order_cancel_failed", clientOrderId), OrderCancelFailed.class);
+    }
+
+    public static OrderModified orderModified(final long clientOrderId)
+    {
+        return toValue(orderNode("order_modified", clientOrderId), OrderModified.class);
+    }
+
+    public static OrderModificationFailed orderModificationFailed(final long clientOrderId)
+    {
+        return toValue(orderNode("order_modification_failed", clientOrderId), OrderModificationFailed.class);
+    }
+
+    public static OpenPosition openPosition(final int instrumentId, final int quantitySigned)
+    {
+        final ObjectNode node = OBJECT_MAPPER.createObjectNode()
+            .put("type", "open_position")
+            .put("instrument_id", instrumentId)
+            .put("side", quantitySigned >= 0 ? "long" : "short")
+            .put("quantity", Math.abs(quantitySigned));
+        return toValue(node, OpenPosition.class);
+    }
+
+    /**
+     * Writes the instruments in the exchange's instrument data format. Only the fields the market maker uses are
+     * kept: instruments are traded from their listing until expiration, fees and margins are 0.
+     */
+    public static void writeInstruments(final Path path, final Collection<Instrument> instruments) throws IOException
+    {
+        final ArrayNode array = OBJECT_MAPPER.createArrayNode();
+        for (final Instrument instrument : instruments)
+        {
+            final ObjectNode node = array.addObject()
+                .put("type", instrument.isFutures() ? "futures" : "option")
+                .put("instrument_id", instrument.getInstrumentId())
+                .put("symbol", instrument.getSymbol())
+                .put("expiration_date", instrument.getExpirationDate())
+                .put("issue_date", 0)
+                .put("first_notice_date", instrument.getExpirationDate())
+                .put("tick_size", instrument.getTickSize().toPlainString())
+                .put("notional_amount", instrument.getNotionalAmount())
+                .put("underlying_symbol", "")
+                .put("fee", "0")
+                .put("initial_margin", "0")
+                .put("maintenance_margin", "0");
+            if (!instrument.isFutures())
+            {
+                node.put("option_type", instrument.getOptionType().get().name().toLowerCase())
+                    .put("strike", instrument.getStrike().get().toPlainString());
+            }
+        }
+        OBJECT_MAPPER.writeValue(path.toFile(), array);
+    }
+
+    /**
+     * @return instruments written by {@link #writeInstruments}, by id
+     */
+    public static Map<Integer, Instrument> readInstruments(final Path path) throws IOException
+    {
+        final Map<Integer, Instrument> instruments = new HashMap<>();
+        for (final JsonNode node : OBJECT_MAPPER.readTree(path.toFile()))
+        {
+            final Instrument instrument = toValue(node, Instrument.class);
+            instruments.put(instrument.getInstrumentId(), instrument);
+        }
+        return instruments;
+    }
+
+    private static ObjectNode orderNode(final String type, final long clientOrderId)
+    {
+        return OBJECT_MAPPER.createObjectNode()
+            .put("type", type)
+            .put("client_order_id", clientOrderId);
+    }
+
+    private static void putPrice(final ObjectNode node, final String fieldName, final long price)
+    {
+        if (price == 0)
+        {
+            node.putNull(fieldName);
+        }
+        else
+        {
+            node.put(fieldName, Prices.toBigDecimal(price).toPlainString());
+        }
+    }
+
+    private static <T> T toValue(final JsonNode node, final Class<T> valueType)
+    {
+        try
+        {
+            return OBJECT_MAPPER.treeToValue(node, valueType);
+        }
+        catch (final JsonProcessingException e)
+        {
+            throw new IllegalStateException("Error creating " + valueType.getSimpleName() + " from " + node, e);
+        }
+    }
+}
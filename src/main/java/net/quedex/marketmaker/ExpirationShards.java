@@ -0,0 +1,196 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Target ladders of the instruments requoted in a recalculation cycle, sharded by expiration date: a shard holds a
+ * traded futures and the traded options expiring with it. Shards are filled on the event thread, their ladders are
+ * calculated in parallel (on the calling thread if parallelism is 1) by strategies reading only a
+ * {@link RecalculationSnapshot} and immutable instrument data, and are then read back on the event thread in the order
+ * they were added, which keeps the resulting order specs (and client order ids) deterministic.
+ */
+public class ExpirationShards
+{
+    private final OrderPlacingStrategy futuresOrderPlacingStrategy;
+    private final OrderPlacingStrategy optionOrderPlacingStrategy;
+    private final ForkJoinPool pool; // null if parallelism is 1
+
+    private final List<Shard> shards = new ArrayList<>(); // reused across cycles
+    private int size = 0;
+
+    public ExpirationShards(
+        final OrderPlacingStrategy futuresOrderPlacingStrategy,
+        final OrderPlacingStrategy optionOrderPlacingStrategy,
+        final int parallelism)
+    {
+        checkArgument(parallelism > 0, "parallelism=%s <= 0", parallelism);
+        this.futuresOrderPlacingStrategy = checkNotNull(futuresOrderPlacingStrategy, "null futuresStrategy");
+        this.optionOrderPlacingStrategy = checkNotNull(optionOrderPlacingStrategy, "null optionStrategy");
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Shuts the pool down, ladders calculated afterwards (by a cycle still running) are calculated on the calling
+     * thread.
+     */
+    public void stop()
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * @return empty shard of the options expiring with the given futures
+     */
+    public Shard addShard(final Instrument futures)
+    {
+        checkArgument(futures.isFutures(), "Expected futures");
+
+        if (size == shards.size())
+        {
+            shards.add(new Shard());
+        }
+        final Shard shard = shards.get(size++);
+        shard.reset(futures);
+        return shard;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public Shard get(final int index)
+    {
+        return shards.get(index);
+    }
+
+    /**
+     * Calculates target ladders of all the shards, blocks until done.
+     */
+    public void calculateLadders()
+    {
+        if (pool == null || pool.isShutdown() || size <= 1)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                shards.get(i).call();
+            }
+            return;
+        }
+
+        for (final Future<Void> result : pool.invokeAll(shards.subList(0, size)))
+        {
+            try
+            {
+                result.get();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while calculating ladders", e);
+            }
+            catch (final ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    public final class Shard implements Callable<Void>
+    {
+        private final List<Instrument> options = new ArrayList<>();
+        private final List<Collection<GenericOrder>> optionLadders = new ArrayList<>();
+
+        private Instrument futures;
+        private boolean requoteFutures;
+        private Collection<GenericOrder> futuresLadder;
+
+        private Shard()
+        {
+        }
+
+        private void reset(final Instrument futures)
+        {
+            this.futures = futures;
+            this.requoteFutures = false;
+            this.futuresLadder = null;
+            options.clear();
+            optionLadders.clear();
+        }
+
+        public Instrument getFutures()
+        {
+            return futures;
+        }
+
+        public void requoteFutures()
+        {
+            requoteFutures = true;
+        }
+
+        public void requoteOption(final Instrument option)
+        {
+            options.add(option);
+        }
+
+        /**
+         * @return target ladder of the futures or null if not requoted
+         */
+        public Collection<GenericOrder> getFuturesLadder()
+        {
+            return futuresLadder;
+        }
+
+        public int getOptionCount()
+        {
+            return options.size();
+        }
+
+        public Instrument getOption(final int index)
+        {
+            return options.get(index);
+        }
+
+        public Collection<GenericOrder> getOptionLadder(final int index)
+        {
+            return optionLadders.get(index);
+        }
+
+        @Override
+        public Void call()
+        {
+            if (requoteFutures)
+            {
+                futuresLadder = futuresOrderPlacingStrategy.getOrders(futures);
+            }
+            for (int i = 0; i < options.size(); i++)
+            {
+                optionLadders.add(optionOrderPlacingStrategy.getOrders(options.get(i)));
+            }
+            return null;
+        }
+    }
+}
@@ -1,9 +1,18 @@
 package net.quedex.marketmaker;
 
-import java.math.BigDecimal;
-
 @FunctionalInterface
 public interface FairPriceProvider
 {
-    BigDecimal getFairPrice(int instrumentId);
+    /**
+     * @return fair price in the fixed-point representation (see {@link Prices})
+     */
+    long getFairPrice(int instrumentId);
+
+    /**
+     * @return true if the fair price of the given instrument is known
+     */
+    default boolean hasFairPrice(final int instrumentId)
+    {
+        return true;
+    }
 }
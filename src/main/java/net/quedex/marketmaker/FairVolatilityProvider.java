@@ -0,0 +1,18 @@
+package net.quedex.marketmaker;
+
+@FunctionalInterface
+public interface FairVolatilityProvider
+{
+    /**
+     * @return volatility to price the given option with (before the SABR adjustment of {@link Pricing}, if any)
+     */
+    double getFairVolatility(int instrumentId);
+
+    /**
+     * Called on the event thread at the start of every recalculation cycle, so that volatilities stay consistent
+     * within the cycle.
+     */
+    default void refresh()
+    {
+    }
+}
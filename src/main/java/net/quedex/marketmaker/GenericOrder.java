@@ -6,25 +6,23 @@ import net.quedex.api.user.LimitOrderSpec;
 import net.quedex.api.user.OrderPlaced;
 import net.quedex.api.user.OrderSide;
 
-import java.math.BigDecimal;
-
 import static com.google.common.base.Preconditions.*;
 
 public class GenericOrder
 {
     private final int instrumentId;
     private final OrderSide side;
-    private final BigDecimal price;
+    private long price;
     private int quantity;
-    private final int initialQuantity;
+    private int initialQuantity;
 
     public GenericOrder(
         final int instrumentId,
         final OrderSide side,
-        final BigDecimal price,
+        final long price,
         final int initialQuantity)
     {
-        checkArgument(price.compareTo(BigDecimal.ZERO) > 0, "price=%s <= 0", price);
+        checkArgument(price > 0, "price=%s <= 0", price);
         checkArgument(initialQuantity > 0, "initialQuantity=%s <= 0", initialQuantity);
 
         this.instrumentId = instrumentId;
@@ -38,7 +36,7 @@ public class GenericOrder
     {
         this.instrumentId = orderPlaced.getInstrumentId();
         this.side = orderPlaced.getSide();
-        this.price = orderPlaced.getPrice();
+        this.price = Prices.fromBigDecimal(orderPlaced.getPrice());
         this.quantity = orderPlaced.getQuantity();
         this.initialQuantity = orderPlaced.getInitialQuantity();
     }
@@ -53,7 +51,10 @@ public class GenericOrder
         return side;
     }
 
-    public BigDecimal getPrice()
+    /**
+     * @return price in the fixed-point representation (see {@link Prices})
+     */
+    public long getPrice()
     {
         return price;
     }
@@ -84,6 +85,18 @@ public class GenericOrder
         checkState(quantity >= 0, "quantity=%s < 0 after fill", quantity);
     }
 
+    /**
+     * Changes price and (remaining) quantity of the order, the already filled quantity is preserved.
+     */
+    public void modify(final long newPrice, final int newQuantity)
+    {
+        checkArgument(newPrice > 0, "newPrice=%s <= 0", newPrice);
+        checkArgument(newQuantity > 0, "newQuantity=%s <= 0", newQuantity);
+        initialQuantity = getFilledQuantity() + newQuantity;
+        quantity = newQuantity;
+        price = newPrice;
+    }
+
     public LimitOrderSpec toLimitOrderSpec(final long clientOrderId)
     {
         return new LimitOrderSpec(
@@ -91,7 +104,7 @@ public class GenericOrder
             instrumentId,
             side,
             initialQuantity,
-            price
+            Prices.toBigDecimal(price)
         );
     }
 
@@ -110,8 +123,8 @@ public class GenericOrder
         return instrumentId == that.instrumentId &&
             quantity == that.quantity &&
             initialQuantity == that.initialQuantity &&
-            side == that.side &&
-            Objects.equal(price, that.price);
+            price == that.price &&
+            side == that.side;
     }
 
     @Override
@@ -126,7 +139,7 @@ public class GenericOrder
         return MoreObjects.toStringHelper(this)
             .add("instrumentId", instrumentId)
             .add("side", side)
-            .add("price", price)
+            .add("price", Prices.toBigDecimal(price))
             .add("quantity", quantity)
             .add("initialQuantity", initialQuantity)
             .toString();
@@ -0,0 +1,58 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Total greeks of the open positions at a point in time (see {@link RiskManager}).
+ */
+@Immutable
+public final class GreeksTotals
+{
+    public static final GreeksTotals ZERO = new GreeksTotals(0, 0, 0, 0);
+
+    private final double delta;
+    private final double vega;
+    private final double gammaP;
+    private final double theta;
+
+    public GreeksTotals(final double delta, final double vega, final double gammaP, final double theta)
+    {
+        this.delta = delta;
+        this.vega = vega;
+        this.gammaP = gammaP;
+        this.theta = theta;
+    }
+
+    public double getDelta()
+    {
+        return delta;
+    }
+
+    public double getVega()
+    {
+        return vega;
+    }
+
+    public double getGammaP()
+    {
+        return gammaP;
+    }
+
+    public double getTheta()
+    {
+        return theta;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("delta", delta)
+            .add("vega", vega)
+            .add("gammaP", gammaP)
+            .add("theta", theta)
+            .toString();
+    }
+}
@@ -0,0 +1,54 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Map;
+
+/**
+ * Market implied volatilities of the traded options at a point in time (see {@link MarketImpliedVolatilities}), by
+ * option symbol, NaN where there is no price to solve.
+ */
+@Immutable
+public final class ImpliedVolatilitiesSnapshot
+{
+    private final Map<String, Double> bidVolatilities;
+    private final Map<String, Double> askVolatilities;
+    private final Map<String, Double> midVolatilities;
+
+    public ImpliedVolatilitiesSnapshot(
+        final Map<String, Double> bidVolatilities,
+        final Map<String, Double> askVolatilities,
+        final Map<String, Double> midVolatilities)
+    {
+        this.bidVolatilities = ImmutableMap.copyOf(bidVolatilities);
+        this.askVolatilities = ImmutableMap.copyOf(askVolatilities);
+        this.midVolatilities = ImmutableMap.copyOf(midVolatilities);
+    }
+
+    public Map<String, Double> getBidVolatilities()
+    {
+        return bidVolatilities;
+    }
+
+    public Map<String, Double> getAskVolatilities()
+    {
+        return askVolatilities;
+    }
+
+    public Map<String, Double> getMidVolatilities()
+    {
+        return midVolatilities;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("bid", bidVolatilities)
+            .add("ask", askVolatilities)
+            .add("mid", midVolatilities)
+            .toString();
+    }
+}
@@ -0,0 +1,199 @@
+package net.quedex.marketmaker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Inverts {@link Pricing#black76} - finds the volatility giving the observed option price. Does not allocate.
+ * <p>
+ * The price is first converted to the price of the out-of-the-money option with the same strike (put-call parity),
+ * which removes the intrinsic value and so the loss of precision for deep in-the-money options. Halley (second order
+ * Householder) iterations then solve for the total volatility {@code s = volatility * sqrt(t)}. The price is concave in
+ * {@code s} above its inflection point {@code s = sqrt(2 |ln(F / K)|)}, so targets above the price at the inflection
+ * point are solved starting from it. Targets below it are solved in log price, which is concave too and much better
+ * conditioned for deep out-of-the-money and near-expiry options, starting from the larger of two rational guesses
+ * known to be below the root: Brenner-Subrahmanyam {@code sqrt(2 pi) * b} and the asymptotic
+ * {@code |ln(F / K)| / sqrt(-2 ln b)}, where {@code b} is the price normalised by {@code sqrt(F * K)}. Starting below
+ * the root of a concave function makes the iterations converge monotonically, typically in 2-4 steps. The root is
+ * additionally kept in a bracket, bisected if an iteration leaves it.
+ */
+public final class ImpliedVolatility
+{
+    private static final int MAX_ITERATIONS = 32;
+    private static final double TOLERANCE = 1e-12;
+    private static final double MAX_TOTAL_VOLATILITY = 40;
+    private static final double SQRT_TWO_PI = Math.sqrt(2 * Math.PI);
+
+    private ImpliedVolatility()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * @return implied volatility or NaN if there is none, i.e. the price is not above the intrinsic value or not below
+     *         the upper bound of the option price, or the option has expired
+     */
+    public static double solve(
+        final boolean isCall,
+        final double price,
+        final double futuresPrice,
+        final double strike,
+        final double timeToMaturity)
+    {
+        if (!(price > 0 && futuresPrice > 0 && strike > 0 && timeToMaturity > 0))
+        {
+            return Double.NaN;
+        }
+
+        final double intrinsicValue = isCall
+            ? Math.max(futuresPrice - strike, 0)
+            : Math.max(strike - futuresPrice, 0);
+        final double otmPrice = price - intrinsicValue; // put-call parity: C - P = F - K
+        final boolean otmIsCall = strike >= futuresPrice;
+
+        if (!(otmPrice > 0) || otmPrice >= (otmIsCall ? futuresPrice : strike))
+        {
+            return Double.NaN;
+        }
+
+        final double totalVolatility = solveTotalVolatility(otmIsCall, otmPrice, futuresPrice, strike);
+        return totalVolatility / Math.sqrt(timeToMaturity);
+    }
+
+    /**
+     * Solves a batch of options expiring at the same date, e.g. the whole {@link OptionChain}.
+     *
+     * @param prices option prices, NaN or nonpositive if unknown
+     * @param result implied volatilities, NaN where there is none (see {@link #solve})
+     */
+    public static void solve(
+        final boolean[] calls,
+        final double[] strikes,
+        final double[] prices,
+        final int size,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double[] result)
+    {
+        checkArgument(result.length >= size, "result.length=%s < %s", result.length, size);
+        for (int i = 0; i < size; i++)
+        {
+            result[i] = solve(calls[i], prices[i], futuresPrice, strikes[i], timeToMaturity);
+        }
+    }
+
+    /**
+     * @param price price of the out-of-the-money option, strictly between 0 and its upper bound
+     */
+    private static double solveTotalVolatility(
+        final boolean isCall,
+        final double price,
+        final double futuresPrice,
+        final double strike)
+    {
+        final double logMoneyness = Math.log(futuresPrice / strike);
+        final double inflection = Math.sqrt(2 * Math.abs(logMoneyness));
+        final double sqrtFK = Math.sqrt(futuresPrice * strike);
+        final double logPrice = Math.log(price);
+
+        final boolean logSpace = price < otmPrice(isCall, futuresPrice, strike, logMoneyness, inflection);
+        double lower;
+        double upper;
+        double s;
+        if (logSpace)
+        {
+            final double normalisedPrice = price / sqrtFK;
+            lower = 0;
+            upper = inflection;
+            s = Math.min(
+                Math.max(
+                    SQRT_TWO_PI * normalisedPrice,
+                    Math.abs(logMoneyness) / Math.sqrt(-2 * Math.log(normalisedPrice))
+                ),
+                inflection
+            );
+        }
+        else
+        {
+            lower = inflection;
+            upper = MAX_TOTAL_VOLATILITY;
+            s = inflection > 0 ? inflection : SQRT_TWO_PI * price / sqrtFK;
+        }
+
+        for (int i = 0; i < MAX_ITERATIONS; i++)
+        {
+            final double d1 = logMoneyness / s + 0.5 * s;
+            final double d2 = d1 - s;
+            final double modelPrice = otmPrice(isCall, futuresPrice, strike, logMoneyness, s);
+            final double vega = sqrtFK * Math.exp(-0.5 * (logMoneyness * logMoneyness / (s * s) + 0.25 * s * s))
+                / SQRT_TWO_PI; // F * pdf(d1) written symmetrically in F and K
+            final double volga = vega * d1 * d2 / s;
+
+            final double f;
+            final double df;
+            final double d2f;
+            if (logSpace)
+            {
+                f = Math.log(modelPrice) - logPrice;
+                df = vega / modelPrice;
+                d2f = volga / modelPrice - df * df;
+            }
+            else
+            {
+                f = modelPrice - price;
+                df = vega;
+                d2f = volga;
+            }
+
+            if (f == 0)
+            {
+                return s;
+            }
+            else if (f > 0)
+            {
+                upper = s;
+            }
+            else
+            {
+                lower = s;
+            }
+
+            double next;
+            if (df > 0 && !Double.isInfinite(f))
+            {
+                final double newtonStep = f / df;
+                final double halleyDenominator = 1 - 0.5 * newtonStep * d2f / df;
+                next = s - (halleyDenominator > 0.5 ? newtonStep / halleyDenominator : newtonStep);
+            }
+            else
+            {
+                next = Double.NaN;
+            }
+
+            if (!(next >= lower && next <= upper)) // also NaN
+            {
+                next = 0.5 * (lower + upper);
+            }
+
+            if (Math.abs(next - s) <= TOLERANCE * s || upper - lower <= TOLERANCE * upper)
+            {
+                return next;
+            }
+            s = next;
+        }
+        return s;
+    }
+
+    private static double otmPrice(
+        final boolean isCall,
+        final double futuresPrice,
+        final double strike,
+        final double logMoneyness,
+        final double s)
+    {
+        final double d1 = logMoneyness / s + 0.5 * s;
+        final double d2 = d1 - s;
+        return isCall
+            ? futuresPrice * StandardNormal.cdf(d1) - strike * StandardNormal.cdf(d2)
+            : strike * StandardNormal.cdf(-d2) - futuresPrice * StandardNormal.cdf(-d1);
+    }
+}
@@ -1,69 +1,304 @@
 package net.quedex.marketmaker;
 
+import com.google.common.collect.ImmutableList;
 import net.quedex.api.market.Instrument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Registry of instruments. Traded futures and options, futures and option chains by expiration date are kept as
+ * precomputed immutable indices, rebuilt only when an instrument expires or gets listed. Safe for concurrent reads
+ * (indices are published through a volatile field, a rebuild racing on two threads yields equal indices).
+ */
+@ThreadSafe
 public class InstrumentManager
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentManager.class);
 
+    /**
+     * Listing times are not known in advance, if there are instruments not traded yet the indices are additionally
+     * rebuilt with this period.
+     */
+    private static final long LISTING_CHECK_INTERVAL_MILLIS = 60_000;
+
     private final TimeProvider timeProvider;
     private final Map<Integer, Instrument> instruments;
 
+    // indexed by instrumentId
+    private final Instrument[] instrumentsById;
+    private final long[] tickSizesById;
+    private final double[] strikesById; // NaN for futures
+
+    private volatile Indices indices;
+
     public InstrumentManager(final TimeProvider timeProvider, final Map<Integer, Instrument> instruments)
     {
         this.timeProvider = checkNotNull(timeProvider, "null timeProvider");
         this.instruments = checkNotNull(instruments, "null instruments");
 
+        int maxInstrumentId = -1;
+        for (final Instrument instrument : instruments.values())
+        {
+            checkArgument(instrument.getInstrumentId() >= 0, "instrumentId=%s < 0", instrument.getInstrumentId());
+            maxInstrumentId = Math.max(maxInstrumentId, instrument.getInstrumentId());
+        }
+
+        instrumentsById = new Instrument[maxInstrumentId + 1];
+        tickSizesById = new long[maxInstrumentId + 1];
+        strikesById = new double[maxInstrumentId + 1];
+        for (final Instrument instrument : instruments.values())
+        {
+            instrumentsById[instrument.getInstrumentId()] = instrument;
+            tickSizesById[instrument.getInstrumentId()] = Prices.fromBigDecimal(instrument.getTickSize());
+            strikesById[instrument.getInstrumentId()] = instrument.isFutures()
+                ? Double.NaN
+                : instrument.getStrike().get().doubleValue();
+        }
+
+        indices = buildIndices(timeProvider.getCurrentTime());
+
         LOGGER.info("Initialised with instruments: {}", instruments);
     }
 
+    /**
+     * @return the highest instrumentId, instrument ids range from 0 to this value
+     */
+    public int getMaxInstrumentId()
+    {
+        return instrumentsById.length - 1;
+    }
+
+    /**
+     * @return ids of all the instruments, traded or not
+     */
+    public Collection<Integer> getInstrumentIds()
+    {
+        return Collections.unmodifiableSet(instruments.keySet());
+    }
+
     public Instrument getInstrument(final int instrumentId)
     {
-        checkArgument(instruments.containsKey(instrumentId), "instrumentId=%s not found", instrumentId);
-        return instruments.get(instrumentId);
+        final Instrument instrument = instrumentId >= 0 && instrumentId < instrumentsById.length
+            ? instrumentsById[instrumentId]
+            : null;
+        checkArgument(instrument != null, "instrumentId=%s not found", instrumentId);
+        return instrument;
+    }
+
+    /**
+     * @return tick size of the instrument in the fixed-point representation (see {@link Prices})
+     */
+    public long getTickSize(final int instrumentId)
+    {
+        getInstrument(instrumentId); // validates instrumentId
+        return tickSizesById[instrumentId];
+    }
+
+    public double getStrike(final int optionId)
+    {
+        checkArgument(!getInstrument(optionId).isFutures(), "instrumentId=%s is not an option", optionId);
+        return strikesById[optionId];
     }
 
     public List<Instrument> getTradedInstruments()
     {
-        return instruments.values().stream()
-            .filter(i -> i.isTraded(timeProvider.getCurrentTime()))
-            .collect(Collectors.toList());
+        return currentIndices().tradedInstruments;
     }
 
     public List<Instrument> getTradedFutures()
     {
-        return instruments.values().stream()
-            .filter(Instrument::isFutures)
-            .filter(i -> i.isTraded(timeProvider.getCurrentTime()))
-            .collect(Collectors.toList());
+        return currentIndices().tradedFutures;
     }
 
     public List<Instrument> getTradedOptions()
     {
-        return instruments.values().stream()
-            .filter(i -> !i.isFutures())
-            .filter(i -> i.isTraded(timeProvider.getCurrentTime()))
-            .collect(Collectors.toList());
+        return currentIndices().tradedOptions;
+    }
+
+    /**
+     * @return whether the instrument and the futures expiring with it are traded, only such instruments are quoted
+     */
+    public boolean isTradedWithFutures(final int instrumentId)
+    {
+        final Instrument instrument = getInstrument(instrumentId);
+        return currentIndices().tradedById[instrumentId] && hasFuturesAtExpiration(instrument.getExpirationDate());
     }
 
+    public boolean hasFuturesAtExpiration(final long expirationDate)
+    {
+        final Indices indices = currentIndices();
+        final int index = Arrays.binarySearch(indices.expirationDates, expirationDate);
+        return index >= 0 && indices.futuresByExpiration[index] != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the futures is not traded (see {@link #hasFuturesAtExpiration})
+     */
     public Instrument getFuturesAtExpiration(final long expirationDate)
     {
-        for (final Instrument futures : getTradedFutures())
+        final Indices indices = currentIndices();
+        final int index = Arrays.binarySearch(indices.expirationDates, expirationDate);
+        if (index < 0 || indices.futuresByExpiration[index] == null)
+        {
+            throw new IllegalArgumentException("Futures with expiration date: " + expirationDate + " not found");
+        }
+        return indices.futuresByExpiration[index];
+    }
+
+    /**
+     * @return traded options expiring at the given date, {@link OptionChain#EMPTY} if the date is not traded
+     */
+    public OptionChain getOptionChain(final long expirationDate)
+    {
+        final Indices indices = currentIndices();
+        final int index = Arrays.binarySearch(indices.expirationDates, expirationDate);
+        return index < 0 ? OptionChain.EMPTY : indices.optionChainsByExpiration[index];
+    }
+
+    private Indices currentIndices()
+    {
+        final long currentTime = timeProvider.getCurrentTime();
+        Indices current = indices;
+        if (currentTime >= current.nextTransitionTime)
         {
-            if (futures.getExpirationDate() == expirationDate)
+            current = buildIndices(currentTime);
+            indices = current;
+        }
+        return current;
+    }
+
+    private Indices buildIndices(final long currentTime)
+    {
+        final List<Instrument> sortedInstruments = new ArrayList<>(instruments.values());
+        sortedInstruments.sort(Comparator.comparingInt(Instrument::getInstrumentId));
+
+        final ImmutableList.Builder<Instrument> tradedInstrumentsBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<Instrument> tradedFuturesBuilder = ImmutableList.builder();
+        final ImmutableList.Builder<Instrument> tradedOptionsBuilder = ImmutableList.builder();
+        final TreeMap<Long, Instrument> futuresByExpirationMap = new TreeMap<>();
+        final TreeMap<Long, List<Instrument>> optionsByExpirationMap = new TreeMap<>();
+        final boolean[] tradedById = new boolean[instrumentsById.length];
+        long nextTransition = Long.MAX_VALUE;
+
+        for (final Instrument instrument : sortedInstruments)
+        {
+            final long expirationDate = instrument.getExpirationDate();
+            if (!instrument.isTraded(currentTime))
+            {
+                if (expirationDate > currentTime) // not listed yet
+                {
+                    nextTransition = Math.min(nextTransition, currentTime + LISTING_CHECK_INTERVAL_MILLIS);
+                }
+                continue;
+            }
+
+            nextTransition = Math.min(
+                nextTransition,
+                expirationDate > currentTime ? expirationDate : currentTime + LISTING_CHECK_INTERVAL_MILLIS
+            );
+            tradedInstrumentsBuilder.add(instrument);
+            tradedById[instrument.getInstrumentId()] = true;
+            if (instrument.isFutures())
             {
-                return futures;
+                tradedFuturesBuilder.add(instrument);
+                futuresByExpirationMap.put(expirationDate, instrument);
             }
+            else
+            {
+                tradedOptionsBuilder.add(instrument);
+                optionsByExpirationMap.computeIfAbsent(expirationDate, e -> new ArrayList<>()).add(instrument);
+            }
+        }
+
+        final List<Long> expirations = new ArrayList<>(futuresByExpirationMap.keySet());
+        for (final Long expirationDate : optionsByExpirationMap.keySet())
+        {
+            if (!futuresByExpirationMap.containsKey(expirationDate))
+            {
+                expirations.add(expirationDate);
+            }
+        }
+        expirations.sort(null);
+
+        final long[] expirationDates = new long[expirations.size()];
+        final Instrument[] futuresByExpiration = new Instrument[expirations.size()];
+        final OptionChain[] optionChainsByExpiration = new OptionChain[expirations.size()];
+        for (int i = 0; i < expirations.size(); i++)
+        {
+            final long expirationDate = expirations.get(i);
+            expirationDates[i] = expirationDate;
+            futuresByExpiration[i] = futuresByExpirationMap.get(expirationDate);
+            optionChainsByExpiration[i] = new OptionChain(
+                expirationDate,
+                optionsByExpirationMap.getOrDefault(expirationDate, ImmutableList.of())
+            );
+        }
+
+        final Indices indices = new Indices(
+            tradedInstrumentsBuilder.build(),
+            tradedFuturesBuilder.build(),
+            tradedOptionsBuilder.build(),
+            tradedById,
+            expirationDates,
+            futuresByExpiration,
+            optionChainsByExpiration,
+            nextTransition
+        );
+
+        LOGGER.debug(
+            "Rebuilt indices: {} traded futures, {} traded options, next transition at {}",
+            indices.tradedFutures.size(), indices.tradedOptions.size(), nextTransition
+        );
+        return indices;
+    }
+
+    @Immutable
+    private static final class Indices
+    {
+        private final ImmutableList<Instrument> tradedInstruments;
+        private final ImmutableList<Instrument> tradedFutures;
+        private final ImmutableList<Instrument> tradedOptions;
+        private final boolean[] tradedById;
+
+        // sorted ascending, futuresByExpiration and optionChainsByExpiration correspond to its indices
+        private final long[] expirationDates;
+        private final Instrument[] futuresByExpiration;
+        private final OptionChain[] optionChainsByExpiration;
+
+        private final long nextTransitionTime;
+
+        private Indices(
+            final ImmutableList<Instrument> tradedInstruments,
+            final ImmutableList<Instrument> tradedFutures,
+            final ImmutableList<Instrument> tradedOptions,
+            final boolean[] tradedById,
+            final long[] expirationDates,
+            final Instrument[] futuresByExpiration,
+            final OptionChain[] optionChainsByExpiration,
+            final long nextTransitionTime)
+        {
+            this.tradedInstruments = tradedInstruments;
+            this.tradedFutures = tradedFutures;
+            this.tradedOptions = tradedOptions;
+            this.tradedById = tradedById;
+            this.expirationDates = expirationDates;
+            this.futuresByExpiration = futuresByExpiration;
+            this.optionChainsByExpiration = optionChainsByExpiration;
+            this.nextTransitionTime = nextTransitionTime;
         }
-        throw new IllegalArgumentException("Futures with expiration date: " + expirationDate + " not found");
     }
 }
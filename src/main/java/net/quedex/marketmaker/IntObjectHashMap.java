@@ -0,0 +1,184 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Open addressing (linear probing) hash map with primitive {@code int} keys, avoids boxing and entry allocation of
+ * {@link java.util.HashMap}. Null values are not permitted.
+ */
+@NotThreadSafe
+public final class IntObjectHashMap<V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values; // null marks a free slot
+    private int mask;
+    private int size;
+
+    public IntObjectHashMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntObjectHashMap(final int expectedSize)
+    {
+        checkArgument(expectedSize > 0, "expectedSize=%s <= 0", expectedSize);
+        allocate(Integer.highestOneBit(expectedSize * 2 - 1) << 1);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean containsKey(final int key)
+    {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final int key)
+    {
+        for (int i = index(key); values[i] != null; i = (i + 1) & mask)
+        {
+            if (keys[i] == key)
+            {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return previous value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final int key, final V value)
+    {
+        checkNotNull(value, "null value");
+
+        int i = index(key);
+        for (; values[i] != null; i = (i + 1) & mask)
+        {
+            if (keys[i] == key)
+            {
+                final V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length)
+        {
+            rehash(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return removed value or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final int key)
+    {
+        for (int i = index(key); values[i] != null; i = (i + 1) & mask)
+        {
+            if (keys[i] == key)
+            {
+                final V removed = (V) values[i];
+                values[i] = null;
+                size--;
+                shiftBack(i);
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return keys of all the entries, in no particular order
+     */
+    public int[] keys()
+    {
+        final int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i] != null)
+            {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the entries following the freed slot, so that no probe sequence is broken (no tombstones needed).
+     */
+    private void shiftBack(int free)
+    {
+        for (int i = (free + 1) & mask; values[i] != null; i = (i + 1) & mask)
+        {
+            final int home = index(keys[i]);
+            if (((i - home) & mask) >= ((i - free) & mask))
+            {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                values[i] = null;
+                free = i;
+            }
+        }
+    }
+
+    private void rehash(final int capacity)
+    {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+            {
+                int j = index(oldKeys[i]);
+                while (values[j] != null)
+                {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity)
+    {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int index(final int key)
+    {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
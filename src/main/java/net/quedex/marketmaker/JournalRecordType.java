@@ -0,0 +1,112 @@
+package net.quedex.marketmaker;
+
+/**
+ * Types of the records of {@link EventJournal}. Every record is a one byte {@link #getCode code}, a long timestamp
+ * (nanoseconds since the epoch) and a payload of a fixed {@link #getPayloadSize size} given below. Prices are in the
+ * fixed-point representation of {@link Prices}, 0 meaning none; sides are {@code OrderSide} ordinals.
+ */
+public enum JournalRecordType
+{
+    /**
+     * Inbound quotes: int instrumentId, long last, long bid, int bidQuantity, long ask, int askQuantity.
+     */
+    QUOTES(1, 4 + 8 + 8 + 4 + 8 + 4),
+
+    /**
+     * Inbound: long clientOrderId, int instrumentId, byte side, long price, int quantity, int initialQuantity.
+     */
+    ORDER_PLACED(2, 8 + 4 + 1 + 8 + 4 + 4),
+
+    /**
+     * Inbound: long clientOrderId.
+     */
+    ORDER_PLACE_FAILED(3, 8),
+
+    /**
+     * Inbound: long clientOrderId, int instrumentId, byte side, long tradePrice, int filledQuantity,
+     * int leavesQuantity.
+     */
+    ORDER_FILLED(4, 8 + 4 + 1 + 8 + 4 + 4),
+
+    /**
+     * Inbound: long clientOrderId.
+     */
+    ORDER_CANCELED(5, 8),
+
+    /**
+     * Inbound: long clientOrderId.
+     */
+    ORDER_CANCEL_FAILED(6, 8),
+
+    /**
+     * Inbound: long clientOrderId.
+     */
+    ORDER_MODIFIED(7, 8),
+
+    /**
+     * Inbound: long clientOrderId.
+     */
+    ORDER_MODIFICATION_FAILED(8, 8),
+
+    /**
+     * Inbound: int instrumentId, int quantitySigned.
+     */
+    OPEN_POSITION(9, 4 + 4),
+
+    /**
+     * Outbound limit order: long clientOrderId, int instrumentId, byte side, long price, int quantity.
+     */
+    PLACE_SPEC(10, 8 + 4 + 1 + 8 + 4),
+
+    /**
+     * Outbound: long clientOrderId, long newPrice, int newQuantity.
+     */
+    MODIFY_SPEC(11, 8 + 8 + 4),
+
+    /**
+     * Outbound: long clientOrderId.
+     */
+    CANCEL_SPEC(12, 8);
+
+    public static final int HEADER_SIZE = 1 + 8;
+
+    private static final JournalRecordType[] BY_CODE = new JournalRecordType[values().length + 1];
+
+    static
+    {
+        for (final JournalRecordType type : values())
+        {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final byte code;
+    private final int payloadSize;
+
+    JournalRecordType(final int code, final int payloadSize)
+    {
+        this.code = (byte) code;
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * @return never 0, which marks the end of the records in a segment
+     */
+    public byte getCode()
+    {
+        return code;
+    }
+
+    public int getPayloadSize()
+    {
+        return payloadSize;
+    }
+
+    /**
+     * @return null if there is no type of the given code
+     */
+    public static JournalRecordType fromCode(final byte code)
+    {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,91 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.user.OpenPosition;
+import net.quedex.api.user.OpenPositionListener;
+import net.quedex.api.user.OrderCancelFailed;
+import net.quedex.api.user.OrderCanceled;
+import net.quedex.api.user.OrderFilled;
+import net.quedex.api.user.OrderListener;
+import net.quedex.api.user.OrderModificationFailed;
+import net.quedex.api.user.OrderModified;
+import net.quedex.api.user.OrderPlaceFailed;
+import net.quedex.api.user.OrderPlaced;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Records the order and open position events of a user stream in an {@link EventJournal} before passing them on to
+ * the actual listener (a user stream takes a single listener of a kind).
+ */
+public class JournalingUserListener implements OrderListener, OpenPositionListener
+{
+    private final EventJournal eventJournal;
+    private final OrderListener orderListener;
+    private final OpenPositionListener openPositionListener;
+
+    public JournalingUserListener(
+        final EventJournal eventJournal,
+        final OrderListener orderListener,
+        final OpenPositionListener openPositionListener)
+    {
+        this.eventJournal = checkNotNull(eventJournal, "null eventJournal");
+        this.orderListener = checkNotNull(orderListener, "null orderListener");
+        this.openPositionListener = checkNotNull(openPositionListener, "null openPositionListener");
+    }
+
+    @Override
+    public void onOrderPlaced(final OrderPlaced orderPlaced)
+    {
+        eventJournal.onOrderPlaced(orderPlaced);
+        orderListener.onOrderPlaced(orderPlaced);
+    }
+
+    @Override
+    public void onOrderPlaceFailed(final OrderPlaceFailed orderPlaceFailed)
+    {
+        eventJournal.onOrderPlaceFailed(orderPlaceFailed);
+        orderListener.onOrderPlaceFailed(orderPlaceFailed);
+    }
+
+    @Override
+    public void onOrderCanceled(final OrderCanceled orderCanceled)
+    {
+        eventJournal.onOrderCanceled(orderCanceled);
+        orderListener.onOrderCanceled(orderCanceled);
+    }
+
+    @Override
+    public void onOrderCancelFailed(final OrderCancelFailed orderCancelFailed)
+    {
+        eventJournal.onOrderCancelFailed(orderCancelFailed);
+        orderListener.onOrderCancelFailed(orderCancelFailed);
+    }
+
+    @Override
+    public void onOrderModified(final OrderModified orderModified)
+    {
+        eventJournal.onOrderModified(orderModified);
+        orderListener.onOrderModified(orderModified);
+    }
+
+    @Override
+    public void onOrderModificationFailed(final OrderModificationFailed orderModificationFailed)
+    {
+        eventJournal.onOrderModificationFailed(orderModificationFailed);
+        orderListener.onOrderModificationFailed(orderModificationFailed);
+    }
+
+    @Override
+    public void onOrderFilled(final OrderFilled orderFilled)
+    {
+        eventJournal.onOrderFilled(orderFilled);
+        orderListener.onOrderFilled(orderFilled);
+    }
+
+    @Override
+    public void onOpenPosition(final OpenPosition openPosition)
+    {
+        eventJournal.onOpenPosition(openPosition);
+        openPositionListener.onOpenPosition(openPosition);
+    }
+}
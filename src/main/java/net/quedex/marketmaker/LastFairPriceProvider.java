@@ -1,7 +1,5 @@
 package net.quedex.marketmaker;
 
-import java.math.BigDecimal;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class LastFairPriceProvider implements FairPriceProvider
@@ -14,8 +12,14 @@ public class LastFairPriceProvider implements FairPriceProvider
     }
 
     @Override
-    public BigDecimal getFairPrice(final int instrumentId)
+    public long getFairPrice(final int instrumentId)
     {
         return marketDataManager.getLastTradePrice(instrumentId);
     }
+
+    @Override
+    public boolean hasFairPrice(final int instrumentId)
+    {
+        return marketDataManager.hasQuotes(instrumentId);
+    }
 }
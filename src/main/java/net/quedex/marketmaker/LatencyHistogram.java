@@ -0,0 +1,196 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets (as in HdrHistogram): values below
+ * {@value #SUB_BUCKET_COUNT} are counted exactly, larger ones in buckets of relative width at most
+ * 1/{@value #HALF_SUB_BUCKET_COUNT}. Recording is a single atomic increment, it does not allocate and may be done
+ * from any thread. Percentiles are read from immutable {@link Snapshot}s.
+ */
+@ThreadSafe
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos negative values (e.g. of a clock step) are recorded as 0
+     */
+    public void record(final long nanos)
+    {
+        final long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value))
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return counts recorded so far, not atomic with respect to concurrent recording
+     */
+    public Snapshot snapshot()
+    {
+        final long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new Snapshot(snapshotCounts, maxNanos.get());
+    }
+
+    private static int indexOf(final long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    private static long highestValueOf(final int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+        final int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+        final long subBucket = index % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Immutable
+    public static final class Snapshot
+    {
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0);
+
+        private final long[] counts;
+        private final long totalCount;
+        private final long max;
+
+        /**
+         * @param max the highest value recorded ever, bounds the highest non-empty bucket
+         */
+        private Snapshot(final long[] counts, final long max)
+        {
+            long totalCount = 0;
+            long highestValue = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                if (counts[i] != 0)
+                {
+                    totalCount += counts[i];
+                    highestValue = highestValueOf(i);
+                }
+            }
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.max = Math.min(highestValue, max);
+        }
+
+        public long getCount()
+        {
+            return totalCount;
+        }
+
+        /**
+         * @return the highest value recorded, within the bucket precision for a difference of snapshots (see
+         *         {@link #minus})
+         */
+        public long getMaxNanos()
+        {
+            return max;
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return the value not exceeded by the given percentage of the recorded ones (within the bucket precision), 0
+         *         if nothing recorded
+         */
+        public long getValueAtPercentileNanos(final double percentile)
+        {
+            checkArgument(0 <= percentile && percentile <= 100, "percentile=%s outside [0, 100]", percentile);
+            if (totalCount == 0)
+            {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long cumulativeCount = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                cumulativeCount += counts[i];
+                if (cumulativeCount >= rank)
+                {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        public double getMeanNanos()
+        {
+            if (totalCount == 0)
+            {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                sum += (double) counts[i] * highestValueOf(i);
+            }
+            return sum / totalCount;
+        }
+
+        /**
+         * @return counts recorded since the given (earlier) snapshot
+         */
+        public Snapshot minus(final Snapshot earlier)
+        {
+            final long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++)
+            {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference, max);
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                .add("count", totalCount)
+                .add("p50us", micros(getValueAtPercentileNanos(50)))
+                .add("p90us", micros(getValueAtPercentileNanos(90)))
+                .add("p99us", micros(getValueAtPercentileNanos(99)))
+                .add("p99.9us", micros(getValueAtPercentileNanos(99.9)))
+                .add("maxUs", micros(max))
+                .toString();
+        }
+
+        private static double micros(final long nanos)
+        {
+            return (double) nanos / TimeUnit.MICROSECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per stage latency histograms and counters of the path from quotes arriving to order specs being written to the
+ * user stream. Recording does not allocate and may be done from any thread - stages are recorded on the thread they
+ * run on (event thread, sender thread).
+ */
+@ThreadSafe
+public class LatencyMetrics implements LatencyMetricsMXBean
+{
+    public enum Stage
+    {
+        /**
+         * Quotes arriving to being taken by the event thread, i.e. waiting in the conflator and the event loop.
+         */
+        QUEUE,
+
+        /**
+         * Processing of the quotes on the event thread (market data, fair price, implied volatilities).
+         */
+        MARKET_DATA,
+
+        /**
+         * Quotes processed to recalculation started, i.e. batching of events, minimum requote interval and sender
+         * back-pressure.
+         */
+        REQUOTE_DELAY,
+
+        /**
+         * Refreshing volatilities and greeks and capturing the snapshot of fair prices.
+         */
+        SNAPSHOT,
+
+        /**
+         * Evaluation of the strategies, i.e. calculation of the ladders.
+         */
+        STRATEGY,
+
+        /**
+         * Checks of the ladders and diffing them against the resting orders into order specs.
+         */
+        SPEC_BUILD,
+
+        /**
+         * Quotes arriving to the resulting order specs being handed to the sender (the oldest quotes since the
+         * previous recalculation).
+         */
+        TICK_TO_SUBMIT,
+
+        /**
+         * Order specs handed to the sender to being taken into a batch (the oldest pending spec), i.e. priority
+         * queueing and throttling.
+         */
+        SEND_QUEUE,
+
+        /**
+         * Writing a batch to the user stream.
+         */
+        SEND_WRITE
+    }
+
+    public enum Counter
+    {
+        EVENTS,
+        REQUOTES,
+        PLACES,
+        MODIFICATIONS,
+        CANCELS
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length]; // indexed by ordinal
+    private final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+    public LatencyMetrics()
+    {
+        for (int i = 0; i < histograms.length; i++)
+        {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(final Stage stage, final long nanos)
+    {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public void increment(final Counter counter, final int delta)
+    {
+        counts.addAndGet(counter.ordinal(), delta);
+    }
+
+    public LatencyHistogram.Snapshot snapshot(final Stage stage)
+    {
+        return histograms[stage.ordinal()].snapshot();
+    }
+
+    public long getCount(final Counter counter)
+    {
+        return counts.get(counter.ordinal());
+    }
+
+    @Override
+    public long getEventCount()
+    {
+        return getCount(Counter.EVENTS);
+    }
+
+    @Override
+    public long getRequoteCount()
+    {
+        return getCount(Counter.REQUOTES);
+    }
+
+    @Override
+    public long getPlaceCount()
+    {
+        return getCount(Counter.PLACES);
+    }
+
+    @Override
+    public long getModificationCount()
+    {
+        return getCount(Counter.MODIFICATIONS);
+    }
+
+    @Override
+    public long getCancelCount()
+    {
+        return getCount(Counter.CANCELS);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyCounts()
+    {
+        return byStage(LatencyHistogram.Snapshot::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getMedianLatencyNanos()
+    {
+        return byStage(snapshot -> snapshot.getValueAtPercentileNanos(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99LatencyNanos()
+    {
+        return byStage(snapshot -> snapshot.getValueAtPercentileNanos(99));
+    }
+
+    @Override
+    public Map<String, Long> getP999LatencyNanos()
+    {
+        return byStage(snapshot -> snapshot.getValueAtPercentileNanos(99.9));
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyNanos()
+    {
+        return byStage(LatencyHistogram.Snapshot::getMaxNanos);
+    }
+
+    private Map<String, Long> byStage(final ToLongFunction<LatencyHistogram.Snapshot> statistic)
+    {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final Stage stage : STAGES)
+        {
+            result.put(stage.name(), statistic.applyAsLong(snapshot(stage)));
+        }
+        return result;
+    }
+}
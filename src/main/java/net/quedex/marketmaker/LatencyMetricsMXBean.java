@@ -0,0 +1,30 @@
+package net.quedex.marketmaker;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link LatencyMetrics}, counts and latencies are cumulative since start. Latencies are keyed by
+ * {@link LatencyMetrics.Stage} name.
+ */
+public interface LatencyMetricsMXBean
+{
+    long getEventCount();
+
+    long getRequoteCount();
+
+    long getPlaceCount();
+
+    long getModificationCount();
+
+    long getCancelCount();
+
+    Map<String, Long> getLatencyCounts();
+
+    Map<String, Long> getMedianLatencyNanos();
+
+    Map<String, Long> getP99LatencyNanos();
+
+    Map<String, Long> getP999LatencyNanos();
+
+    Map<String, Long> getMaxLatencyNanos();
+}
@@ -0,0 +1,113 @@
+package net.quedex.marketmaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Periodically logs the rates of the counters and the latencies of the stages of {@link LatencyMetrics} over the
+ * last interval, on a background thread.
+ */
+@ThreadSafe
+public class LatencyReporter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LatencyReporter.class);
+
+    private static final LatencyMetrics.Stage[] STAGES = LatencyMetrics.Stage.values();
+    private static final LatencyMetrics.Counter[] COUNTERS = LatencyMetrics.Counter.values();
+
+    private final String name;
+    private final LatencyMetrics latencyMetrics;
+    private final long intervalMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "latency-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // accessed only by the executor thread
+    private final LatencyHistogram.Snapshot[] previousSnapshots = new LatencyHistogram.Snapshot[STAGES.length];
+    private final long[] previousCounts = new long[COUNTERS.length];
+    private long previousReportNanos;
+
+    public LatencyReporter(final String name, final LatencyMetrics latencyMetrics, final long intervalMillis)
+    {
+        checkArgument(intervalMillis > 0, "intervalMillis=%s <= 0", intervalMillis);
+        this.name = checkNotNull(name, "null name");
+        this.latencyMetrics = checkNotNull(latencyMetrics, "null latencyMetrics");
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start()
+    {
+        executor.execute(this::capturePrevious);
+        executor.scheduleAtFixedRate(this::reportSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    private void capturePrevious()
+    {
+        previousReportNanos = System.nanoTime();
+        for (int i = 0; i < STAGES.length; i++)
+        {
+            previousSnapshots[i] = latencyMetrics.snapshot(STAGES[i]);
+        }
+        for (int i = 0; i < COUNTERS.length; i++)
+        {
+            previousCounts[i] = latencyMetrics.getCount(COUNTERS[i]);
+        }
+    }
+
+    private void reportSafely()
+    {
+        try
+        {
+            report();
+        }
+        catch (final RuntimeException e) // keeps reporting
+        {
+            LOGGER.error("Error reporting latencies", e);
+        }
+    }
+
+    private void report()
+    {
+        final long nowNanos = System.nanoTime();
+        final double intervalSeconds = (double) (nowNanos - previousReportNanos) / TimeUnit.SECONDS.toNanos(1);
+
+        final StringBuilder rates = new StringBuilder();
+        for (int i = 0; i < COUNTERS.length; i++)
+        {
+            final long count = latencyMetrics.getCount(COUNTERS[i]);
+            rates.append(i == 0 ? "" : ", ")
+                .append(COUNTERS[i].name().toLowerCase())
+                .append("/s=")
+                .append(String.format("%.1f", (count - previousCounts[i]) / intervalSeconds));
+            previousCounts[i] = count;
+        }
+        LOGGER.info("{}: {}", name, rates);
+
+        for (int i = 0; i < STAGES.length; i++)
+        {
+            final LatencyHistogram.Snapshot snapshot = latencyMetrics.snapshot(STAGES[i]);
+            final LatencyHistogram.Snapshot interval = snapshot.minus(previousSnapshots[i]);
+            if (interval.getCount() > 0)
+            {
+                LOGGER.info("{}: {} {}", name, STAGES[i], interval);
+            }
+            previousSnapshots[i] = snapshot;
+        }
+        previousReportNanos = nowNanos;
+    }
+}
@@ -6,7 +6,6 @@ import net.quedex.api.market.HttpMarketData;
 import net.quedex.api.market.MarketData;
 import net.quedex.api.market.MarketStream;
 import net.quedex.api.market.WebsocketMarketStream;
-import net.quedex.api.user.UserStream;
 import net.quedex.api.user.WebsocketUserStream;
 
 import java.io.IOException;
@@ -15,7 +14,9 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -28,41 +29,55 @@ public class Main
 
     public static void main(final String... args) throws Exception
     {
-        if (args.length != 0 && args.length != 2)
+        if (args.length % 2 != 0)
         {
             printUsageAndExit();
         }
 
-        final InputStream qdxConfigIS;
-        final String mmConfigPath;
+        final List<InputStream> qdxConfigISs = new ArrayList<>();
+        final List<String> mmConfigPaths = new ArrayList<>();
 
         if (args.length > 0)
         {
-            qdxConfigIS = Files.newInputStream(Paths.get(args[0]));
-            mmConfigPath = args[1];
+            for (int i = 0; i < args.length; i += 2)
+            {
+                qdxConfigISs.add(Files.newInputStream(Paths.get(args[i])));
+                mmConfigPaths.add(args[i + 1]);
+            }
         }
         else
         {
-            qdxConfigIS = Resources.getResource("quedex-config.properties").openStream();
-            mmConfigPath = Resources.getResource("market-maker.properties").toString();
+            qdxConfigISs.add(Resources.getResource("quedex-config.properties").openStream());
+            mmConfigPaths.add(Resources.getResource("market-maker.properties").toString());
         }
 
-        final char[] keyPassword = readPassphrase();
+        // a strategy per pair of configs, each with its own account; market data of the first one is shared
+        final InputStreamReader stdinReader = new InputStreamReader(System.in, StandardCharsets.US_ASCII);
+        final List<StrategyRunner> strategies = new ArrayList<>();
+        Config marketDataConfig = null;
 
-        final Config qdxConfig = Config.fromInputStream(qdxConfigIS, keyPassword);
-        Arrays.fill(keyPassword, (char) 2);
+        for (int i = 0; i < qdxConfigISs.size(); i++)
+        {
+            final char[] keyPassword = readPassphrase(stdinReader, mmConfigPaths.get(i));
 
-        final MarketData marketData = new HttpMarketData(qdxConfig);
-        final MarketStream marketStream = new WebsocketMarketStream(qdxConfig);
-        final UserStream userStream = new WebsocketUserStream(qdxConfig);
+            final Config qdxConfig = Config.fromInputStream(qdxConfigISs.get(i), keyPassword);
+            Arrays.fill(keyPassword, (char) 2);
 
+            if (marketDataConfig == null)
+            {
+                marketDataConfig = qdxConfig;
+            }
+            strategies.add(new StrategyRunner(
+                mmConfigPaths.get(i),
+                new WebsocketUserStream(qdxConfig),
+                MarketMakerConfiguration.fromPropertiesFile(mmConfigPaths.get(i))
+            ));
+        }
 
-        final MarketMakerRunner mm = new MarketMakerRunner(
-            marketData,
-            marketStream,
-            userStream,
-            MarketMakerConfiguration.fromPropertiesFile(mmConfigPath)
-        );
+        final MarketData marketData = new HttpMarketData(marketDataConfig);
+        final MarketStream marketStream = new WebsocketMarketStream(marketDataConfig);
+
+        final MarketMakerRunner mm = new MarketMakerRunner(marketData, marketStream, strategies);
 
         Runtime.getRuntime().addShutdownHook(new Thread()
         {
@@ -84,12 +99,13 @@ public class Main
         mm.runLoop();
     }
 
-    private static char[] readPassphrase() throws IOException
+    private static char[] readPassphrase(final InputStreamReader stdinReader, final String mmConfigPath)
+        throws IOException
     {
-        System.out.println("Private key passphrase (will be echoed):");
+        System.out.println("Private key passphrase for " + mmConfigPath + " (will be echoed):");
 
         final char[] input = new char[100];
-        final int read = new InputStreamReader(System.in, StandardCharsets.US_ASCII).read(input);
+        final int read = stdinReader.read(input);
         checkState(read != 100, "Input too long");
 
         final char[] keyPassword = Arrays.copyOfRange(input, 0, read - 1); // -1 because we don't want \n
@@ -100,7 +116,9 @@ public class Main
 
     private static void printUsageAndExit()
     {
-        System.out.println("Usage: java -jar <jar name> <Quedex properties filename> <market maker properties file name>");
+        System.out.println(
+            "Usage: java -jar <jar name> [<Quedex properties filename> <market maker properties file name>]..."
+        );
         System.exit(1);
     }
 }
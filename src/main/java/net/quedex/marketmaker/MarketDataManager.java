@@ -7,57 +7,131 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+/**
+ * Keeps the latest quotes of every instrument. Prices are converted to the fixed-point representation (see
+ * {@link Prices}) once, when quotes arrive. Apart from {@link #getPublishedTwoSidedMid}, has to be used on the event
+ * thread only.
+ */
 public class MarketDataManager implements QuotesListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(MarketDataManager.class);
-    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final long NO_PRICE = 0;
 
-    private final Map<Integer, Quotes> instrumentIdToQuotes = new HashMap<>();
+    private final Map<Integer, QuotePrices> instrumentIdToQuotePrices = new HashMap<>();
+    private final AtomicLongArray publishedTwoSidedMids; // indexed by instrumentId
 
-    public BigDecimal getLastTradePrice(final int instrumentId)
+    public MarketDataManager(final int maxInstrumentId)
     {
-        final Quotes quotes = instrumentIdToQuotes.get(instrumentId);
-        checkArgument(quotes != null, "No quotes for %s", instrumentId);
-        return quotes.getLast();
+        checkArgument(maxInstrumentId >= 0, "maxInstrumentId=%s < 0", maxInstrumentId);
+        publishedTwoSidedMids = new AtomicLongArray(maxInstrumentId + 1);
     }
 
-    public BigDecimal getMid(final int instrumentId)
+    public boolean hasQuotes(final int instrumentId)
     {
-        final Quotes quotes = instrumentIdToQuotes.get(instrumentId);
-        checkArgument(quotes != null, "No quotes for %s", instrumentId);
+        return instrumentIdToQuotePrices.containsKey(instrumentId);
+    }
 
-        final Optional<BigDecimal> bidPrice = quotes.getBid().orElse(new PriceQuantity(0)).getPrice();
-        final Optional<BigDecimal> askPrice = quotes.getAsk().orElse(new PriceQuantity(0)).getPrice();
+    public long getLastTradePrice(final int instrumentId)
+    {
+        final QuotePrices quotePrices = instrumentIdToQuotePrices.get(instrumentId);
+        checkArgument(quotePrices != null, "No quotes for %s", instrumentId);
+        return quotePrices.last;
+    }
 
-        if (bidPrice.isPresent() && askPrice.isPresent())
+    public long getMid(final int instrumentId)
+    {
+        final QuotePrices quotePrices = instrumentIdToQuotePrices.get(instrumentId);
+        checkArgument(quotePrices != null, "No quotes for %s", instrumentId);
+
+        if (quotePrices.bid != NO_PRICE && quotePrices.ask != NO_PRICE)
         {
-            return bidPrice.get().add(askPrice.get()).divide(TWO, 8, RoundingMode.HALF_EVEN);
+            return Prices.mid(quotePrices.bid, quotePrices.ask);
         }
-        else if (bidPrice.isPresent())
+        else if (quotePrices.bid != NO_PRICE)
         {
-            return bidPrice.get();
+            return quotePrices.bid;
         }
-        else if (askPrice.isPresent())
+        else if (quotePrices.ask != NO_PRICE)
         {
-            return askPrice.get();
+            return quotePrices.ask;
         }
         else
         {
-            return quotes.getLast(); // use last in case of empty OB
+            return quotePrices.last; // use last in case of empty OB
         }
     }
 
+    /**
+     * @return best bid in the fixed-point representation or 0 if there is none
+     */
+    public long getBid(final int instrumentId)
+    {
+        final QuotePrices quotePrices = instrumentIdToQuotePrices.get(instrumentId);
+        checkArgument(quotePrices != null, "No quotes for %s", instrumentId);
+        return quotePrices.bid;
+    }
+
+    /**
+     * @return best ask in the fixed-point representation or 0 if there is none
+     */
+    public long getAsk(final int instrumentId)
+    {
+        final QuotePrices quotePrices = instrumentIdToQuotePrices.get(instrumentId);
+        checkArgument(quotePrices != null, "No quotes for %s", instrumentId);
+        return quotePrices.ask;
+    }
+
+    /**
+     * May be called from any thread.
+     *
+     * @return mid of the latest quotes in the fixed-point representation if both bid and ask are present, 0 otherwise
+     */
+    public long getPublishedTwoSidedMid(final int instrumentId)
+    {
+        return publishedTwoSidedMids.get(instrumentId);
+    }
+
     @Override
     public void onQuotes(final Quotes quotes)
     {
         LOGGER.trace("{}", quotes);
-        instrumentIdToQuotes.put(quotes.getInstrumentId(), quotes);
+
+        QuotePrices quotePrices = instrumentIdToQuotePrices.get(quotes.getInstrumentId());
+        if (quotePrices == null)
+        {
+            quotePrices = new QuotePrices();
+            instrumentIdToQuotePrices.put(quotes.getInstrumentId(), quotePrices);
+        }
+
+        quotePrices.last = quotes.getLast() == null ? NO_PRICE : Prices.fromBigDecimal(quotes.getLast());
+        quotePrices.bid = toPrice(quotes.getBid());
+        quotePrices.ask = toPrice(quotes.getAsk());
+
+        publishedTwoSidedMids.lazySet(
+            quotes.getInstrumentId(),
+            quotePrices.bid != NO_PRICE && quotePrices.ask != NO_PRICE
+                ? Prices.mid(quotePrices.bid, quotePrices.ask)
+                : NO_PRICE
+        );
+    }
+
+    private static long toPrice(final Optional<PriceQuantity> priceQuantity)
+    {
+        final Optional<BigDecimal> price = priceQuantity.orElse(new PriceQuantity(0)).getPrice();
+        return price.isPresent() ? Prices.fromBigDecimal(price.get()) : NO_PRICE;
+    }
+
+    private static final class QuotePrices
+    {
+        private long last;
+        private long bid;
+        private long ask;
     }
 }
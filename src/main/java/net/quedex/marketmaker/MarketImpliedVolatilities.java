@@ -0,0 +1,288 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.market.Quotes;
+import net.quedex.api.market.QuotesListener;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Implied volatilities (see {@link ImpliedVolatility}) of the best bid, best ask and mid of every option, with respect
+ * to the futures fair price. Evaluated lazily: an option is solved again only when its quotes or the fair price of its
+ * futures changed since the last evaluation, and a whole chain may be brought up to date at once with
+ * {@link #updateChain}, which solves all the stale options in a single batch. Does not allocate apart from growing the
+ * batch buffers and taking a {@link #snapshot}.
+ */
+@NotThreadSafe
+public class MarketImpliedVolatilities implements QuotesListener
+{
+    private static final long NO_PRICE = 0;
+
+    private final InstrumentManager instrumentManager;
+    private final MarketDataManager marketDataManager;
+    private final FairPriceProvider futuresFairPriceProvider;
+    private final Pricing pricing;
+
+    // indexed by instrumentId
+    private final double[] bidVolatilities;
+    private final double[] askVolatilities;
+    private final double[] midVolatilities;
+    private final long[] evaluatedFuturesPrices; // NO_PRICE if quotes changed since the evaluation
+    private final int[] futuresIds;
+
+    // batch buffers of the stale options of a chain
+    private int[] batchIds = new int[0];
+    private double[] batchStrikes = new double[0];
+    private boolean[] batchCalls = new boolean[0];
+    private double[] batchPrices = new double[0];
+    private double[] batchVolatilities = new double[0];
+
+    public MarketImpliedVolatilities(
+        final InstrumentManager instrumentManager,
+        final MarketDataManager marketDataManager,
+        final FairPriceProvider futuresFairPriceProvider,
+        final Pricing pricing)
+    {
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.marketDataManager = checkNotNull(marketDataManager, "null marketDataManager");
+        this.futuresFairPriceProvider = checkNotNull(futuresFairPriceProvider, "null futuresFairPriceProvider");
+        this.pricing = checkNotNull(pricing, "null pricing");
+
+        final int size = instrumentManager.getMaxInstrumentId() + 1;
+        bidVolatilities = new double[size];
+        askVolatilities = new double[size];
+        midVolatilities = new double[size];
+        evaluatedFuturesPrices = new long[size];
+        futuresIds = new int[size];
+        Arrays.fill(bidVolatilities, Double.NaN);
+        Arrays.fill(askVolatilities, Double.NaN);
+        Arrays.fill(midVolatilities, Double.NaN);
+        Arrays.fill(futuresIds, -1);
+    }
+
+    @Override
+    public void onQuotes(final Quotes quotes)
+    {
+        evaluatedFuturesPrices[quotes.getInstrumentId()] = NO_PRICE;
+    }
+
+    /**
+     * @return implied volatility of the best bid or NaN if there is none
+     */
+    public double getBidVolatility(final int optionId)
+    {
+        update(optionId);
+        return bidVolatilities[optionId];
+    }
+
+    /**
+     * @return implied volatility of the best ask or NaN if there is none
+     */
+    public double getAskVolatility(final int optionId)
+    {
+        update(optionId);
+        return askVolatilities[optionId];
+    }
+
+    /**
+     * @return implied volatility of the mid of the best bid and ask or NaN if there is none (also if any side is
+     *         missing)
+     */
+    public double getMidVolatility(final int optionId)
+    {
+        update(optionId);
+        return midVolatilities[optionId];
+    }
+
+    /**
+     * Solves all the stale options expiring at the given date.
+     */
+    public void updateChain(final long expirationDate)
+    {
+        final OptionChain optionChain = instrumentManager.getOptionChain(expirationDate);
+        if (optionChain.size() == 0)
+        {
+            return;
+        }
+
+        final int futuresId = instrumentManager.getFuturesAtExpiration(expirationDate).getInstrumentId();
+        final long futuresPrice = currentFuturesPrice(futuresId);
+        ensureCapacity(optionChain.size());
+
+        int size = 0;
+        for (int i = 0; i < optionChain.size(); i++)
+        {
+            final int optionId = optionChain.getInstrumentId(i);
+            if (evaluatedFuturesPrices[optionId] != futuresPrice || futuresPrice == NO_PRICE)
+            {
+                batchIds[size] = optionId;
+                batchStrikes[size] = optionChain.getStrike(i);
+                batchCalls[size] = optionChain.isCall(i);
+                size++;
+            }
+        }
+        if (size == 0)
+        {
+            return;
+        }
+
+        final double futuresPriceDouble = Prices.toDouble(futuresPrice);
+        final double timeToMaturity = pricing.yearsToMaturity(expirationDate);
+
+        solveBatch(size, Side.BID, futuresPriceDouble, timeToMaturity, bidVolatilities);
+        solveBatch(size, Side.ASK, futuresPriceDouble, timeToMaturity, askVolatilities);
+        solveBatch(size, Side.MID, futuresPriceDouble, timeToMaturity, midVolatilities);
+
+        for (int i = 0; i < size; i++)
+        {
+            evaluatedFuturesPrices[batchIds[i]] = futuresPrice;
+        }
+    }
+
+    /**
+     * Brings the chains of all the traded futures up to date (see {@link #updateChain}).
+     *
+     * @return implied volatilities of all the options expiring with traded futures, by symbol
+     */
+    public ImpliedVolatilitiesSnapshot snapshot()
+    {
+        final Map<String, Double> bids = new LinkedHashMap<>();
+        final Map<String, Double> asks = new LinkedHashMap<>();
+        final Map<String, Double> mids = new LinkedHashMap<>();
+
+        final List<Instrument> tradedFutures = instrumentManager.getTradedFutures();
+        for (int f = 0; f < tradedFutures.size(); f++)
+        {
+            final long expirationDate = tradedFutures.get(f).getExpirationDate();
+            updateChain(expirationDate);
+
+            final OptionChain optionChain = instrumentManager.getOptionChain(expirationDate);
+            for (int i = 0; i < optionChain.size(); i++)
+            {
+                final int optionId = optionChain.getInstrumentId(i);
+                final String symbol = instrumentManager.getInstrument(optionId).getSymbol();
+                bids.put(symbol, bidVolatilities[optionId]);
+                asks.put(symbol, askVolatilities[optionId]);
+                mids.put(symbol, midVolatilities[optionId]);
+            }
+        }
+        return new ImpliedVolatilitiesSnapshot(bids, asks, mids);
+    }
+
+    private void update(final int optionId)
+    {
+        final Instrument option = instrumentManager.getInstrument(optionId);
+        int futuresId = futuresIds[optionId];
+        if (futuresId < 0)
+        {
+            checkArgument(!option.isFutures(), "instrumentId=%s is not an option", optionId);
+            futuresId = instrumentManager.getFuturesAtExpiration(option.getExpirationDate()).getInstrumentId();
+            futuresIds[optionId] = futuresId;
+        }
+
+        final long futuresPrice = currentFuturesPrice(futuresId);
+        if (evaluatedFuturesPrices[optionId] == futuresPrice && futuresPrice != NO_PRICE)
+        {
+            return;
+        }
+
+        final boolean isCall = option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN;
+        final double strike = instrumentManager.getStrike(optionId);
+        final double f = Prices.toDouble(futuresPrice);
+        final double t = pricing.yearsToMaturity(option.getExpirationDate());
+
+        bidVolatilities[optionId] = ImpliedVolatility.solve(isCall, toDouble(optionId, Side.BID), f, strike, t);
+        askVolatilities[optionId] = ImpliedVolatility.solve(isCall, toDouble(optionId, Side.ASK), f, strike, t);
+        midVolatilities[optionId] = ImpliedVolatility.solve(isCall, toDouble(optionId, Side.MID), f, strike, t);
+        evaluatedFuturesPrices[optionId] = futuresPrice;
+    }
+
+    private double toDouble(final int optionId, final Side side)
+    {
+        return Prices.toDouble(price(optionId, side));
+    }
+
+    private long currentFuturesPrice(final int futuresId)
+    {
+        return futuresFairPriceProvider.hasFairPrice(futuresId)
+            ? futuresFairPriceProvider.getFairPrice(futuresId)
+            : NO_PRICE;
+    }
+
+    /**
+     * @return price of the given side in the fixed-point representation, {@link #NO_PRICE} if unknown
+     */
+    private long price(final int optionId, final Side side)
+    {
+        if (!marketDataManager.hasQuotes(optionId))
+        {
+            return NO_PRICE;
+        }
+
+        final long bid = marketDataManager.getBid(optionId);
+        final long ask = marketDataManager.getAsk(optionId);
+        switch (side)
+        {
+            case BID:
+                return bid;
+            case ASK:
+                return ask;
+            case MID:
+                return bid != NO_PRICE && ask != NO_PRICE ? Prices.mid(bid, ask) : NO_PRICE;
+            default:
+                throw new IllegalStateException("Unknown side: " + side);
+        }
+    }
+
+    private void solveBatch(
+        final int size,
+        final Side side,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double[] volatilities)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            batchPrices[i] = toDouble(batchIds[i], side);
+        }
+        ImpliedVolatility.solve(
+            batchCalls,
+            batchStrikes,
+            batchPrices,
+            size,
+            futuresPrice,
+            timeToMaturity,
+            batchVolatilities
+        );
+        for (int i = 0; i < size; i++)
+        {
+            volatilities[batchIds[i]] = batchVolatilities[i];
+        }
+    }
+
+    private void ensureCapacity(final int size)
+    {
+        if (batchIds.length < size)
+        {
+            batchIds = new int[size];
+            batchStrikes = new double[size];
+            batchCalls = new boolean[size];
+            batchPrices = new double[size];
+            batchVolatilities = new double[size];
+        }
+    }
+
+    private enum Side
+    {
+        BID,
+        ASK,
+        MID
+    }
+}
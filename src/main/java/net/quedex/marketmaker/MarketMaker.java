@@ -8,21 +8,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.NotThreadSafe;
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 @NotThreadSafe
-public class MarketMaker implements QuotesListener, OrderListener, OpenPositionListener
+public class MarketMaker
+    implements QuotesListener, OrderListener, OpenPositionListener, CoalescedOrderListener, SendBackPressureListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(MarketMaker.class);
 
@@ -31,148 +34,428 @@ public class MarketMaker implements QuotesListener, OrderListener, OpenPositionL
     private final OpenPositionListener[] openPositionListeners;
 
     /**
-     * Thread confinement to this thread guarantees thread-safety of the whole application.
+     * Thread confinement to the event thread guarantees thread-safety of the whole application.
      */
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final EventLoop eventLoop;
+    private final QuotesConflator quotesConflator;
     private final Consumer<Exception> exceptionHandler;
+    private final Consumer<List<OrderSpec>> orderSpecsConsumer;
 
     private final InstrumentManager instrumentManager;
-    private final OrderPlacingStrategy futuresOrderPalcingStrategy;
-    private final OrderPlacingStrategy optionOrderPlacingStrategy;
     private final FairPriceProvider futuresFairPriceProvider;
+    private final FairVolatilityProvider fairVolatilityProvider;
+    private final MarketImpliedVolatilities marketImpliedVolatilities;
+    private final RecalculationSnapshot snapshot;
+    private final OptionLadderPricer optionLadderPricer;
+    private final ExpirationShards expirationShards;
     private final OrderManager orderManager;
-
-    private final Map<Integer, BigDecimal> previousFairPrice = new HashMap<>();
+    private final OrderDiffer orderDiffer;
+    private final RiskManager riskManager;
+    private final PreTradeRisk preTradeRisk; // null if no worst-case limits
+    private final List<GenericOrder> acceptedOrders = new ArrayList<>();
+    private final RequoteMode requoteMode;
+    private final RequoteScheduler requoteScheduler;
+    private final RequoteTrigger requoteTrigger;
+    private final VolatilitySurfaceCalibrator volatilitySurfaceCalibrator; // null if calibration disabled
+    private final ScenarioRiskCalculator scenarioRiskCalculator; // null if no scenario grid
+    private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+
+    private boolean recalculationScheduled = false;
+    private boolean sendBackPressured = false;
+
+    // the oldest quotes that triggered a recalculation not done yet, for latency metrics
+    private boolean quotesPendingRecalculation = false;
+    private long pendingIngressNanos;
+    private long pendingDequeueNanos;
+    private boolean requotingEnabled = true;
 
     private final int numLevels;
     private final int qtyOnLevel;
+    private final double deltaLimit;
+    private final double vegaLimit;
 
     public MarketMaker(
         final TimeProvider timeProvider,
         final MarketMakerConfiguration config,
         final Map<Integer, Instrument> instrumentData,
-        final Consumer<Exception> exceptionHandler)
+        final Consumer<Exception> exceptionHandler,
+        final Consumer<List<OrderSpec>> orderSpecsConsumer)
     {
-        instrumentManager = new InstrumentManager(timeProvider, instrumentData);
-        final MarketDataManager marketDataManager = new MarketDataManager();
-        futuresFairPriceProvider = new LastFairPriceProvider(marketDataManager);
-        final FairPriceProvider fairVolatilityProvider = s -> BigDecimal.valueOf(config.getFairVolatility());
-        final Pricing pricing = new Pricing(
+        this(
+            timeProvider,
+            config,
+            new InstrumentManager(timeProvider, instrumentData),
+            exceptionHandler,
+            orderSpecsConsumer
+        );
+    }
+
+    /**
+     * @param instrumentManager may be shared by multiple instances (see {@link MarketMakerRunner})
+     */
+    public MarketMaker(
+        final TimeProvider timeProvider,
+        final MarketMakerConfiguration config,
+        final InstrumentManager instrumentManager,
+        final Consumer<Exception> exceptionHandler,
+        final Consumer<List<OrderSpec>> orderSpecsConsumer)
+    {
+        this(timeProvider, config, instrumentManager, exceptionHandler, orderSpecsConsumer, LastFairPriceProvider::new);
+    }
+
+    /**
+     * @param futuresFairPriceProviderFactory creates futures fair price provider given the market data
+     */
+    MarketMaker(
+        final TimeProvider timeProvider,
+        final MarketMakerConfiguration config,
+        final InstrumentManager instrumentManager,
+        final Consumer<Exception> exceptionHandler,
+        final Consumer<List<OrderSpec>> orderSpecsConsumer,
+        final Function<MarketDataManager, FairPriceProvider> futuresFairPriceProviderFactory)
+    {
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        final MarketDataManager marketDataManager = new MarketDataManager(instrumentManager.getMaxInstrumentId());
+        futuresFairPriceProvider = futuresFairPriceProviderFactory.apply(marketDataManager);
+        final Pricing globalSabrPricing = new Pricing(
             timeProvider,
             config.getSabrBeta(),
             config.getSabrVolOfVol(),
             config.getSabrRho(),
             config.useSabrTimeAdjustedVolOfVol()
         );
-        final RiskManager riskManager = new RiskManager(
+        final Pricing pricing;
+        if (config.getSabrCalibrationIntervalMillis() > 0)
+        {
+            // the smile comes from the calibrated surface, so the volatilities are priced as they are
+            volatilitySurfaceCalibrator = new VolatilitySurfaceCalibrator(
+                instrumentManager,
+                marketDataManager,
+                globalSabrPricing,
+                config,
+                this::onVolatilitySurface
+            );
+            fairVolatilityProvider = new SurfaceFairVolatilityProvider(
+                instrumentManager,
+                futuresFairPriceProvider,
+                volatilitySurfaceCalibrator::getSurface,
+                globalSabrPricing,
+                config.getFairVolatility()
+            );
+            pricing = new Pricing(timeProvider);
+        }
+        else
+        {
+            volatilitySurfaceCalibrator = null;
+            fairVolatilityProvider = s -> config.getFairVolatility();
+            pricing = globalSabrPricing;
+        }
+        riskManager = new RiskManager(
+            timeProvider,
             instrumentManager,
             fairVolatilityProvider,
             futuresFairPriceProvider,
             pricing
         );
-        futuresOrderPalcingStrategy = new UniformFuturesOrderPlacingStrategy(
-            futuresFairPriceProvider,
-            riskManager,
+        // strategies see only the snapshot, so that they may run in parallel to the event thread
+        snapshot = new RecalculationSnapshot(instrumentManager.getMaxInstrumentId());
+        optionLadderPricer = new OptionLadderPricer(
+            instrumentManager,
+            pricing,
             config.getNumLevels(),
-            config.getQtyOnLevel(),
-            config.getDeltaLimit(),
-            config.getFuturesSpreadFraction()
+            config.getOptionTaylorMaxMoveFraction(),
+            config.getOptionTaylorMaxAgeMillis()
         );
-        optionOrderPlacingStrategy = new UniformOptionOrderPlacingStrategy(
-            fairVolatilityProvider,
-            futuresFairPriceProvider,
-            riskManager,
+        expirationShards = new ExpirationShards(
+            new UniformFuturesOrderPlacingStrategy(
+                snapshot,
+                snapshot,
+                instrumentManager,
+                config.getNumLevels(),
+                config.getQtyOnLevel(),
+                config.getDeltaLimit(),
+                config.getFuturesSpreadFraction()
+            ),
+            new UniformOptionOrderPlacingStrategy(
+                snapshot,
+                snapshot,
+                snapshot,
+                instrumentManager,
+                pricing,
+                optionLadderPricer,
+                config.getNumLevels(),
+                config.getQtyOnLevel(),
+                config.getDeltaLimit(),
+                config.getVegaLimit(),
+                config.getVolatilitySpreadFraction()
+            ),
+            config.getRecalculationParallelism()
+        );
+        if (config.getWorstCaseDeltaLimit() > 0 || config.getWorstCaseVegaLimit() > 0)
+        {
+            // the same greeks the ladders are calculated with
+            preTradeRisk = new PreTradeRisk(
+                instrumentManager,
+                snapshot,
+                snapshot,
+                pricing,
+                config.getWorstCaseDeltaLimit(),
+                config.getWorstCaseVegaLimit()
+            );
+            orderManager = new OrderManager(preTradeRisk);
+        }
+        else
+        {
+            preTradeRisk = null;
+            orderManager = new OrderManager();
+        }
+        orderDiffer = new OrderDiffer(orderManager);
+        requoteMode = config.getRequoteMode();
+        requoteScheduler = new RequoteScheduler(timeProvider, config.getMinRequoteIntervalMillis());
+        requoteTrigger = new RequoteTrigger(
             instrumentManager,
+            fairVolatilityProvider,
             pricing,
-            config.getNumLevels(),
-            config.getQtyOnLevel(),
-            config.getDeltaLimit(),
-            config.getVegaLimit(),
-            config.getVolatilitySpreadFraction()
+            config.getFairPriceSensitivityFraction(),
+            config.getFairPriceSensitivityFractionOverrides(),
+            config.getOptionRequoteTickFraction(),
+            config.getOptionRequoteTickFractionOverrides()
         );
-        orderManager = new OrderManager();
 
-        quotesListeners = new QuotesListener[] {marketDataManager};
+        marketImpliedVolatilities = new MarketImpliedVolatilities(
+            instrumentManager,
+            marketDataManager,
+            futuresFairPriceProvider,
+            globalSabrPricing
+        );
+
+        quotesListeners = new QuotesListener[] {marketDataManager, marketImpliedVolatilities};
         orderListeners = new OrderListener[] {orderManager};
-        openPositionListeners = new OpenPositionListener[] {riskManager};
+        if (config.getScenarioIntervalMillis() > 0)
+        {
+            scenarioRiskCalculator = new ScenarioRiskCalculator(
+                instrumentManager,
+                marketDataManager,
+                globalSabrPricing,
+                volatilitySurfaceCalibrator != null
+                    ? volatilitySurfaceCalibrator::getSurface
+                    : () -> VolatilitySurface.EMPTY,
+                config
+            );
+            openPositionListeners = new OpenPositionListener[] {riskManager, scenarioRiskCalculator};
+        }
+        else
+        {
+            scenarioRiskCalculator = null;
+            openPositionListeners = new OpenPositionListener[] {riskManager};
+        }
 
         numLevels = config.getNumLevels();
         qtyOnLevel = config.getQtyOnLevel();
+        deltaLimit = config.getDeltaLimit();
+        vegaLimit = config.getVegaLimit();
         this.exceptionHandler = checkNotNull(exceptionHandler, "null exceptionHandler");
+        this.orderSpecsConsumer = checkNotNull(orderSpecsConsumer, "null orderSpecsConsumer");
+
+        eventLoop = new EventLoop(
+            "market-maker-event-loop",
+            config.getEventBufferSize(),
+            config.getWaitStrategy(),
+            new MarketMakerEventHandler(),
+            exceptionHandler
+        );
+        quotesConflator = new QuotesConflator(eventLoop, instrumentManager.getInstrumentIds());
+        eventLoop.start();
+        if (volatilitySurfaceCalibrator != null)
+        {
+            volatilitySurfaceCalibrator.start();
+        }
+        if (scenarioRiskCalculator != null)
+        {
+            scenarioRiskCalculator.start();
+        }
     }
 
-    public Future<List<OrderSpec>> recalculate()
+    /**
+     * Recalculates all the traded instruments, used in {@link RequoteMode#FIXED_PERIOD} mode. Completed on the event
+     * thread, with no order specs while the sender is back-pressured.
+     */
+    public CompletableFuture<List<OrderSpec>> recalculate()
     {
-        return executor.submit(this::recalculateNoSync);
+        final CompletableFuture<List<OrderSpec>> orderSpecs = new CompletableFuture<>();
+        eventLoop.publish(EventType.RECALCULATE, orderSpecs);
+        return orderSpecs;
     }
 
+    /**
+     * Disables further requoting (in {@link RequoteMode#EVENT_DRIVEN} mode) and returns cancels of all the pending
+     * orders.
+     */
     public Future<List<OrderSpec>> getAllOrderCancels()
     {
-        return executor.submit(
-            () -> orderManager.getAllOrderIds().stream().map(OrderCancelSpec::new).collect(Collectors.toList())
-        );
+        final CompletableFuture<List<OrderSpec>> orderCancels = new CompletableFuture<>();
+        eventLoop.publish(EventType.CANCEL_ALL, orderCancels);
+        return orderCancels;
+    }
+
+    /**
+     * @return total greeks of the open positions, priced once the events published so far are processed
+     */
+    public Future<GreeksTotals> getGreeksTotals()
+    {
+        final CompletableFuture<GreeksTotals> greeksTotals = new CompletableFuture<>();
+        eventLoop.publish(EventType.GREEKS_TOTALS, greeksTotals);
+        return greeksTotals;
+    }
+
+    /**
+     * May be called from any thread. The stale options are solved in batches per chain on the event thread.
+     */
+    public Future<ImpliedVolatilitiesSnapshot> getImpliedVolatilities()
+    {
+        final CompletableFuture<ImpliedVolatilitiesSnapshot> impliedVolatilities = new CompletableFuture<>();
+        eventLoop.publish(EventType.IMPLIED_VOLATILITIES, impliedVolatilities);
+        return impliedVolatilities;
+    }
+
+    /**
+     * @return metrics of the path from quotes to order specs, may be shared with the order sender
+     */
+    public LatencyMetrics getLatencyMetrics()
+    {
+        return latencyMetrics;
     }
 
     public void stop()
     {
-        executor.shutdown();
+        if (volatilitySurfaceCalibrator != null)
+        {
+            volatilitySurfaceCalibrator.stop();
+        }
+        if (scenarioRiskCalculator != null)
+        {
+            scenarioRiskCalculator.stop();
+            LOGGER.info("Last scenario grid: {}", scenarioRiskCalculator.getGrid());
+        }
+        eventLoop.stop();
+        expirationShards.stop();
+        LOGGER.info("Conflated quotes: {}", quotesConflator.getConflatedCount());
+        LOGGER.info(
+            "Option ladders estimated: {}, priced fully: {}, estimate error in ticks: mean={}, max={}",
+            optionLadderPricer.getEstimatedCount(),
+            optionLadderPricer.getFullPricingCount(),
+            optionLadderPricer.getMeanErrorTicks(),
+            optionLadderPricer.getMaxErrorTicks()
+        );
+        if (preTradeRisk != null)
+        {
+            LOGGER.info("Orders rejected by pre-trade risk: {}", preTradeRisk.getRejectedCount());
+        }
+    }
+
+    /**
+     * May be called from any thread.
+     *
+     * @return the most recent scenario risk grid of the open positions, {@link ScenarioGrid#EMPTY} if disabled
+     */
+    public ScenarioGrid getScenarioGrid()
+    {
+        return scenarioRiskCalculator != null ? scenarioRiskCalculator.getGrid() : ScenarioGrid.EMPTY;
     }
 
-    private List<OrderSpec> recalculateNoSync()
+    /**
+     * @return number of quotes dropped because more recent ones of the same instrument arrived before processing
+     */
+    public long getConflatedQuotesCount()
     {
-        // TODO: sensitivity to fair price
+        return quotesConflator.getConflatedCount();
+    }
 
+    /**
+     * Has to be called on the event thread. Instruments to requote are selected and the results applied on the calling
+     * thread, target ladders are calculated per expiration, possibly in parallel (see {@link ExpirationShards}).
+     */
+    private List<OrderSpec> recalculateNoSync(final IntPredicate shouldRecalculate)
+    {
         try
         {
+            final long startNanos = System.nanoTime();
+            fairVolatilityProvider.refresh();
+            riskManager.updateGreeks();
+
+            final List<Instrument> tradedFutures = instrumentManager.getTradedFutures();
+            snapshot.capture(
+                tradedFutures,
+                instrumentManager.getTradedOptions(),
+                futuresFairPriceProvider,
+                fairVolatilityProvider,
+                riskManager
+            );
+
+            final long snapshotNanos = System.nanoTime();
+            latencyMetrics.record(LatencyMetrics.Stage.SNAPSHOT, snapshotNanos - startNanos);
+
+            selectInstrumentsToRequote(tradedFutures, shouldRecalculate);
+            expirationShards.calculateLadders();
+
+            final long laddersNanos = System.nanoTime();
+            latencyMetrics.record(LatencyMetrics.Stage.STRATEGY, laddersNanos - snapshotNanos);
+
             final List<OrderSpec> orderSpecs = new ArrayList<>();
+            int requotedCount = 0;
 
-            for (final Instrument futures : instrumentManager.getTradedFutures())
+            for (int s = 0; s < expirationShards.size(); s++)
             {
-                final int instrId = futures.getInstrumentId();
-                final BigDecimal fairPrice = futuresFairPriceProvider.getFairPrice(instrId);
-
-                if (!previousFairPrice.containsKey(instrId) || previousFairPrice.get(instrId).compareTo(fairPrice) != 0)
+                final ExpirationShards.Shard shard = expirationShards.get(s);
+                final Collection<GenericOrder> futuresLadder = shard.getFuturesLadder();
+                if (futuresLadder != null)
                 {
-                    orderSpecs.addAll(
-                        orderManager.getOrderIdsForInstrument(instrId)
-                            .stream()
-                            .map(OrderCancelSpec::new)
-                            .collect(Collectors.toList())
+                    final Instrument futures = shard.getFutures();
+                    final long fairPrice = snapshot.getFairPrice(futures.getInstrumentId());
+                    final int numSpecs = orderDiffer.diff(
+                        futures.getInstrumentId(),
+                        checkPreTradeRisk(futures, Prices.toDouble(fairPrice), futuresLadder),
+                        orderSpecs
                     );
-
-                    orderSpecs.addAll(
-                        futuresOrderPalcingStrategy.getOrders(futures).stream()
-                            .map(o -> o.toLimitOrderSpec(orderManager.getNextOrderId()))
-                            .collect(Collectors.toList())
+                    requoteTrigger.onFuturesRequoted(
+                        futures,
+                        fairPrice,
+                        isFuturesBuyingAllowed(),
+                        isFuturesSellingAllowed()
                     );
-
-                    previousFairPrice.put(instrId, fairPrice);
+                    onRecalculated(futures.getInstrumentId(), numSpecs > 0);
+                    requotedCount += numSpecs > 0 ? 1 : 0;
                 }
             }
 
-            for (final Instrument option : instrumentManager.getTradedOptions())
+            for (int s = 0; s < expirationShards.size(); s++)
             {
-                // TODO: replace orders also on fair price change
+                final ExpirationShards.Shard shard = expirationShards.get(s);
+                final double futuresPrice = Prices.toDouble(
+                    snapshot.getFairPrice(shard.getFutures().getInstrumentId())
+                );
 
-                final int instrId = option.getInstrumentId();
-                final int sumPlacedOrderQty = orderManager.getSumPlacedQtyForInstrument(instrId);
-
-                if (sumPlacedOrderQty < numLevels * qtyOnLevel * 2) // any filled
+                for (int i = 0; i < shard.getOptionCount(); i++)
                 {
-                    orderSpecs.addAll(
-                        orderManager.getOrderIdsForInstrument(instrId)
-                            .stream()
-                            .map(OrderCancelSpec::new)
-                            .collect(Collectors.toList())
+                    final Instrument option = shard.getOption(i);
+                    final int numSpecs = orderDiffer.diff(
+                        option.getInstrumentId(),
+                        checkPreTradeRisk(option, futuresPrice, shard.getOptionLadder(i)),
+                        orderSpecs
                     );
-
-                    orderSpecs.addAll(
-                        optionOrderPlacingStrategy.getOrders(option).stream()
-                            .map(o -> o.toLimitOrderSpec(orderManager.getNextOrderId()))
-                            .collect(Collectors.toList())
+                    requoteTrigger.onOptionRequoted(
+                        option,
+                        futuresPrice,
+                        isOptionBuyingAllowed(option),
+                        isOptionSellingAllowed(option)
                     );
+                    onRecalculated(option.getInstrumentId(), numSpecs > 0);
+                    requotedCount += numSpecs > 0 ? 1 : 0;
                 }
             }
+
+            latencyMetrics.record(LatencyMetrics.Stage.SPEC_BUILD, System.nanoTime() - laddersNanos);
+            latencyMetrics.increment(LatencyMetrics.Counter.REQUOTES, requotedCount);
             return orderSpecs;
         }
         catch (final RuntimeException e)
@@ -182,103 +465,557 @@ public class MarketMaker implements QuotesListener, OrderListener, OpenPositionL
         }
     }
 
-    @Override
-    public void onQuotes(final Quotes quotes)
+    /**
+     * @return the orders of the ladder within the worst-case limits (see {@link PreTradeRisk}), valid until the next
+     *         call
+     */
+    private Collection<GenericOrder> checkPreTradeRisk(
+        final Instrument instrument,
+        final double futuresPrice,
+        final Collection<GenericOrder> ladder)
     {
-        catchingExecute(() ->
+        if (preTradeRisk == null)
         {
-            for (final QuotesListener quotesListener : quotesListeners)
+            return ladder;
+        }
+        acceptedOrders.clear();
+        preTradeRisk.checkOrders(instrument, futuresPrice, ladder, acceptedOrders);
+        return acceptedOrders;
+    }
+
+    /**
+     * Fills {@link #expirationShards} with the instruments to requote, the ones not requoted are marked recalculated.
+     */
+    private void selectInstrumentsToRequote(final List<Instrument> tradedFutures, final IntPredicate shouldRecalculate)
+    {
+        expirationShards.clear();
+
+        for (int f = 0; f < tradedFutures.size(); f++)
+        {
+            final Instrument futures = tradedFutures.get(f);
+            final int futuresId = futures.getInstrumentId();
+            final OptionChain optionChain = instrumentManager.getOptionChain(futures.getExpirationDate());
+
+            if (!snapshot.hasFairPrice(futuresId))
             {
-                quotesListener.onQuotes(quotes);
+                markRecalculatedWithoutRequote(futuresId, shouldRecalculate);
+                for (int i = 0; i < optionChain.size(); i++)
+                {
+                    markRecalculatedWithoutRequote(optionChain.getInstrumentId(i), shouldRecalculate);
+                }
+                continue;
             }
-        });
+
+            final ExpirationShards.Shard shard = expirationShards.addShard(futures);
+            final long fairPrice = snapshot.getFairPrice(futuresId);
+
+            if (shouldRecalculate.test(futuresId))
+            {
+                final boolean buyingAllowed = isFuturesBuyingAllowed();
+                final boolean sellingAllowed = isFuturesSellingAllowed();
+                final int fullLadderQty = numLevels * qtyOnLevel * ((buyingAllowed ? 1 : 0) + (sellingAllowed ? 1 : 0));
+
+                if (orderManager.getSumPlacedQtyForInstrument(futuresId) < fullLadderQty // any filled
+                    || requoteTrigger.shouldRequoteFutures(futuresId, fairPrice, buyingAllowed, sellingAllowed))
+                {
+                    shard.requoteFutures();
+                }
+                else
+                {
+                    onRecalculated(futuresId, false);
+                }
+            }
+
+            final double futuresPrice = Prices.toDouble(fairPrice);
+
+            for (int i = 0; i < optionChain.size(); i++)
+            {
+                final int optionId = optionChain.getInstrumentId(i);
+                if (!shouldRecalculate.test(optionId))
+                {
+                    continue;
+                }
+
+                final Instrument option = instrumentManager.getInstrument(optionId);
+                final boolean buyingAllowed = isOptionBuyingAllowed(option);
+                final boolean sellingAllowed = isOptionSellingAllowed(option);
+                final int fullLadderQty = numLevels * qtyOnLevel * ((buyingAllowed ? 1 : 0) + (sellingAllowed ? 1 : 0));
+
+                if (orderManager.getSumPlacedQtyForInstrument(optionId) < fullLadderQty // any filled
+                    || requoteTrigger.shouldRequoteOption(optionId, futuresPrice, buyingAllowed, sellingAllowed))
+                {
+                    shard.requoteOption(option);
+                }
+                else
+                {
+                    onRecalculated(optionId, false);
+                }
+            }
+        }
     }
 
-    @Override
-    public void onOpenPosition(final OpenPosition openPosition)
+    /**
+     * @return whether futures buy orders are allowed by the delta limit at the snapshot, as in the futures strategy
+     */
+    private boolean isFuturesBuyingAllowed()
+    {
+        return UniformFuturesOrderPlacingStrategy.isBuyingAllowed(snapshot.getTotalDelta(), deltaLimit);
+    }
+
+    private boolean isFuturesSellingAllowed()
+    {
+        return UniformFuturesOrderPlacingStrategy.isSellingAllowed(snapshot.getTotalDelta(), deltaLimit);
+    }
+
+    /**
+     * @return whether option buy orders are allowed by the delta and vega limits at the snapshot, as in the option
+     *         strategy
+     */
+    private boolean isOptionBuyingAllowed(final Instrument option)
+    {
+        return UniformOptionOrderPlacingStrategy.isBuyingAllowed(
+            option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN,
+            snapshot.getTotalDelta(),
+            snapshot.getTotalVega(),
+            deltaLimit,
+            vegaLimit
+        );
+    }
+
+    private boolean isOptionSellingAllowed(final Instrument option)
     {
-        catchingExecute(() ->
+        return UniformOptionOrderPlacingStrategy.isSellingAllowed(
+            option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN,
+            snapshot.getTotalDelta(),
+            snapshot.getTotalVega(),
+            deltaLimit,
+            vegaLimit
+        );
+    }
+
+    private void markRecalculatedWithoutRequote(final int instrumentId, final IntPredicate shouldRecalculate)
+    {
+        if (shouldRecalculate.test(instrumentId))
+        {
+            onRecalculated(instrumentId, false);
+        }
+    }
+
+    private void onRecalculated(final int instrumentId, final boolean requoted)
+    {
+        if (requoteMode == RequoteMode.EVENT_DRIVEN)
+        {
+            requoteScheduler.onRecalculated(instrumentId, requoted);
+        }
+    }
+
+    /**
+     * Marks the instrument as requiring recalculation, has effect only in {@link RequoteMode#EVENT_DRIVEN} mode and for
+     * instruments visited by {@link #selectInstrumentsToRequote} - others, e.g. positions in expired series, would
+     * never be marked recalculated.
+     */
+    private void markDirty(final int instrumentId)
+    {
+        if (requoteMode == RequoteMode.EVENT_DRIVEN && instrumentManager.isTradedWithFutures(instrumentId))
+        {
+            requoteScheduler.markDirty(instrumentId);
+        }
+    }
+
+    /**
+     * Schedules recalculation of dirty instruments. The recalculation is enqueued behind the events already waiting
+     * on the event thread, so that a burst of events results in a single recalculation. Instruments requoted too
+     * recently are recalculated once their minimum requote interval elapses.
+     */
+    private void scheduleRecalculation()
+    {
+        if (requoteMode != RequoteMode.EVENT_DRIVEN || recalculationScheduled || !requoteScheduler.hasDirty())
+        {
+            return;
+        }
+
+        recalculationScheduled = true;
+        eventLoop.scheduleTimer(requoteScheduler.millisUntilNextDue(), TimeUnit.MILLISECONDS);
+    }
+
+    private void recalculateDirty()
+    {
+        recalculationScheduled = false;
+        if (!requotingEnabled || sendBackPressured) // dirty instruments are recalculated once the sender catches up
         {
-            for (final OpenPositionListener openPositionListener : openPositionListeners)
+            return;
+        }
+
+        if (quotesPendingRecalculation)
+        {
+            latencyMetrics.record(LatencyMetrics.Stage.REQUOTE_DELAY, System.nanoTime() - pendingDequeueNanos);
+        }
+
+        final List<OrderSpec> orderSpecs = recalculateNoSync(requoteScheduler::isDue);
+        if (!orderSpecs.isEmpty())
+        {
+            orderSpecsConsumer.accept(orderSpecs);
+            if (quotesPendingRecalculation)
             {
-                openPositionListener.onOpenPosition(openPosition);
+                latencyMetrics.record(LatencyMetrics.Stage.TICK_TO_SUBMIT, System.nanoTime() - pendingIngressNanos);
             }
-        });
+        }
+        quotesPendingRecalculation = false;
+        // instruments which stopped being traded since marked dirty are not visited anymore
+        requoteScheduler.removeDirtyIf(instrumentId -> !instrumentManager.isTradedWithFutures(instrumentId));
+        scheduleRecalculation(); // instruments that were not due yet
+    }
+
+    private void onVolatilitySurface(final VolatilitySurface surface)
+    {
+        eventLoop.publish(EventType.VOLATILITY_SURFACE, surface);
+    }
+
+    @Override
+    public void onQuotes(final Quotes quotes)
+    {
+        quotesConflator.onQuotes(quotes);
+    }
+
+    @Override
+    public void onOpenPosition(final OpenPosition openPosition)
+    {
+        eventLoop.publish(EventType.OPEN_POSITION, openPosition);
     }
 
     @Override
     public void onOrderPlaced(final OrderPlaced orderPlaced)
     {
-        catchingExecute(() ->
-        {
-            for (final OrderListener orderListener : orderListeners)
-            {
-                orderListener.onOrderPlaced(orderPlaced);
-            }
-        });
+        eventLoop.publish(EventType.ORDER_PLACED, orderPlaced);
     }
 
     @Override
     public void onOrderPlaceFailed(final OrderPlaceFailed orderPlaceFailed)
     {
         LOGGER.error("{}", orderPlaceFailed);
+        eventLoop.publish(EventType.ORDER_PLACE_FAILED, orderPlaceFailed);
     }
 
     @Override
     public void onOrderCanceled(final OrderCanceled orderCanceled)
     {
-        catchingExecute(() ->
-        {
-            for (final OrderListener orderListener : orderListeners)
-            {
-                orderListener.onOrderCanceled(orderCanceled);
-            }
-        });
+        eventLoop.publish(EventType.ORDER_CANCELED, orderCanceled);
     }
 
     @Override
     public void onOrderCancelFailed(final OrderCancelFailed orderCancelFailed)
     {
         LOGGER.error("{}", orderCancelFailed);
+        eventLoop.publish(EventType.ORDER_CANCEL_FAILED, orderCancelFailed);
     }
 
     @Override
     public void onOrderModified(final OrderModified orderModified)
     {
-        // no-op
+        eventLoop.publish(EventType.ORDER_MODIFIED, orderModified);
     }
 
     @Override
     public void onOrderModificationFailed(final OrderModificationFailed orderModificationFailed)
     {
-        // no-op
+        LOGGER.error("{}", orderModificationFailed);
+        eventLoop.publish(EventType.ORDER_MODIFICATION_FAILED, orderModificationFailed);
     }
 
     @Override
     public void onOrderFilled(final OrderFilled orderFilled)
     {
-        catchingExecute(() ->
+        eventLoop.publish(EventType.ORDER_FILLED, orderFilled);
+    }
+
+    @Override
+    public void onPlaceDropped(final long clientOrderId)
+    {
+        eventLoop.publish(EventType.PLACE_DROPPED, clientOrderId);
+    }
+
+    @Override
+    public void onModificationMerged(final long clientOrderId)
+    {
+        eventLoop.publish(EventType.MODIFICATION_MERGED, clientOrderId);
+    }
+
+    @Override
+    public void onModificationDropped(final long clientOrderId)
+    {
+        eventLoop.publish(EventType.MODIFICATION_DROPPED, clientOrderId);
+    }
+
+    @Override
+    public void onModificationReplaced(final long clientOrderId)
+    {
+        eventLoop.publish(EventType.MODIFICATION_REPLACED, clientOrderId);
+    }
+
+    @Override
+    public void onBackPressureChanged(final boolean backPressured)
+    {
+        eventLoop.publish(EventType.SEND_BACK_PRESSURE, backPressured ? 1 : 0);
+    }
+
+    private void processQuotes(final Quotes quotes, final long ingressNanos)
+    {
+        final long dequeueNanos = System.nanoTime();
+        latencyMetrics.record(LatencyMetrics.Stage.QUEUE, dequeueNanos - ingressNanos);
+
+        for (final QuotesListener quotesListener : quotesListeners)
+        {
+            quotesListener.onQuotes(quotes);
+        }
+
+        final Instrument instrument = instrumentManager.getInstrument(quotes.getInstrumentId());
+        if (instrument.isFutures())
         {
-            for (final OrderListener orderListener : orderListeners)
+            // futures fair price affects both the futures and the options expiring with it
+            markDirty(instrument.getInstrumentId());
+            final OptionChain optionChain = instrumentManager.getOptionChain(instrument.getExpirationDate());
+            for (int i = 0; i < optionChain.size(); i++)
             {
-                orderListener.onOrderFilled(orderFilled);
+                markDirty(optionChain.getInstrumentId(i));
             }
-        });
+            scheduleRecalculation();
+        }
+        else if (LOGGER.isDebugEnabled())
+        {
+            final int optionId = instrument.getInstrumentId();
+            LOGGER.debug(
+                "Market implied volatilities of {}: bid={}, ask={}, mid={}",
+                optionId,
+                marketImpliedVolatilities.getBidVolatility(optionId),
+                marketImpliedVolatilities.getAskVolatility(optionId),
+                marketImpliedVolatilities.getMidVolatility(optionId)
+            );
+        }
+
+        latencyMetrics.record(LatencyMetrics.Stage.MARKET_DATA, System.nanoTime() - dequeueNanos);
+        if (recalculationScheduled && !quotesPendingRecalculation)
+        {
+            quotesPendingRecalculation = true;
+            pendingIngressNanos = ingressNanos;
+            pendingDequeueNanos = dequeueNanos;
+        }
     }
 
-    private void catchingExecute(final Runnable runnable)
+    private void processOpenPosition(final OpenPosition openPosition)
     {
-        executor.execute(() ->
+        for (final OpenPositionListener openPositionListener : openPositionListeners)
         {
-            try
-            {
-                runnable.run();
-            }
-            catch (final RuntimeException e)
+            openPositionListener.onOpenPosition(openPosition);
+        }
+        markDirty(openPosition.getInstrumentId());
+        // total delta and vega changed, which may change the sides of all the instruments allowed by the limits - the
+        // requote triggers decide which ones to requote
+        final List<Instrument> tradedFutures = instrumentManager.getTradedFutures();
+        for (int i = 0; i < tradedFutures.size(); i++)
+        {
+            markDirty(tradedFutures.get(i).getInstrumentId());
+        }
+        final List<Instrument> tradedOptions = instrumentManager.getTradedOptions();
+        for (int i = 0; i < tradedOptions.size(); i++)
+        {
+            markDirty(tradedOptions.get(i).getInstrumentId());
+        }
+        scheduleRecalculation();
+    }
+
+    private void processOrderModificationFailed(final OrderModificationFailed orderModificationFailed)
+    {
+        final long clientOrderId = orderModificationFailed.getClientOrderId();
+        final boolean orderExists = orderManager.hasOrder(clientOrderId);
+        final int instrumentId = orderExists ? orderManager.getInstrumentIdForOrder(clientOrderId) : 0;
+
+        for (final OrderListener orderListener : orderListeners)
+        {
+            orderListener.onOrderModificationFailed(orderModificationFailed);
+        }
+
+        if (orderExists)
+        {
+            // the order is back in its previous state, which may not match the target ladder anymore
+            markDirty(instrumentId);
+            scheduleRecalculation();
+        }
+    }
+
+    private void processOrderFilled(final OrderFilled orderFilled)
+    {
+        final int instrumentId = orderManager.getInstrumentIdForOrder(orderFilled.getClientOrderId());
+        for (final OrderListener orderListener : orderListeners)
+        {
+            orderListener.onOrderFilled(orderFilled);
+        }
+        markDirty(instrumentId);
+        scheduleRecalculation();
+    }
+
+    private void processVolatilitySurface(final VolatilitySurface surface)
+    {
+        LOGGER.debug("{}", surface);
+        // fair volatilities of all the options may have changed, requote triggers decide which ones to requote
+        final List<Instrument> tradedOptions = instrumentManager.getTradedOptions();
+        for (int i = 0; i < tradedOptions.size(); i++)
+        {
+            markDirty(tradedOptions.get(i).getInstrumentId());
+        }
+        scheduleRecalculation();
+    }
+
+    private void processSendBackPressure(final boolean backPressured)
+    {
+        LOGGER.debug("sendBackPressured={}", backPressured);
+        sendBackPressured = backPressured;
+        if (!backPressured)
+        {
+            scheduleRecalculation(); // instruments held back in the meantime
+        }
+    }
+
+    private void processRecalculate(final CompletableFuture<List<OrderSpec>> orderSpecs)
+    {
+        if (sendBackPressured) // the next period recalculates everything anyway
+        {
+            orderSpecs.complete(Collections.emptyList());
+            return;
+        }
+
+        try
+        {
+            orderSpecs.complete(recalculateNoSync(instrumentId -> true));
+        }
+        catch (final RuntimeException e) // already passed to the exceptionHandler
+        {
+            orderSpecs.completeExceptionally(e);
+        }
+    }
+
+    private void processCancelAll(final CompletableFuture<List<OrderSpec>> orderCancels)
+    {
+        requotingEnabled = false;
+        orderCancels.complete(
+            orderManager.getAllOrderIds().stream().map(OrderCancelSpec::new).collect(Collectors.toList())
+        );
+    }
+
+    private void processGreeksTotals(final CompletableFuture<GreeksTotals> greeksTotals)
+    {
+        riskManager.updateGreeks();
+        greeksTotals.complete(new GreeksTotals(
+            riskManager.getTotalDelta(),
+            riskManager.getTotalVega(),
+            riskManager.getTotalGammaP(),
+            riskManager.getTotalTheta()
+        ));
+    }
+
+    private void processImpliedVolatilities(final CompletableFuture<ImpliedVolatilitiesSnapshot> impliedVolatilities)
+    {
+        impliedVolatilities.complete(marketImpliedVolatilities.snapshot());
+    }
+
+    /**
+     * Dispatches the events on the event thread.
+     */
+    private final class MarketMakerEventHandler implements EventLoop.EventHandler
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onEvent(final EventType type, final Object payload, final long value)
+        {
+            latencyMetrics.increment(LatencyMetrics.Counter.EVENTS, 1);
+            switch (type)
             {
-                exceptionHandler.accept(e);
-                throw e;
+                case QUOTES:
+                    final QuotesConflator.QuotesSlot slot = (QuotesConflator.QuotesSlot) payload;
+                    final long ingressNanos = slot.getIngressNanos();
+                    final Quotes quotes = slot.take();
+                    if (quotes != null)
+                    {
+                        processQuotes(quotes, ingressNanos);
+                    }
+                    break;
+                case OPEN_POSITION:
+                    processOpenPosition((OpenPosition) payload);
+                    break;
+                case ORDER_PLACED:
+                    for (final OrderListener orderListener : orderListeners)
+                    {
+                        orderListener.onOrderPlaced((OrderPlaced) payload);
+                    }
+                    break;
+                case ORDER_PLACE_FAILED:
+                    for (final OrderListener orderListener : orderListeners)
+                    {
+                        orderListener.onOrderPlaceFailed((OrderPlaceFailed) payload);
+                    }
+                    break;
+                case ORDER_CANCELED:
+                    for (final OrderListener orderListener : orderListeners)
+                    {
+                        orderListener.onOrderCanceled((OrderCanceled) payload);
+                    }
+                    break;
+                case ORDER_CANCEL_FAILED:
+                    for (final OrderListener orderListener : orderListeners)
+                    {
+                        orderListener.onOrderCancelFailed((OrderCancelFailed) payload);
+                    }
+                    break;
+                case ORDER_MODIFIED:
+                    for (final OrderListener orderListener : orderListeners)
+                    {
+                        orderListener.onOrderModified((OrderModified) payload);
+                    }
+                    break;
+                case ORDER_MODIFICATION_FAILED:
+                    processOrderModificationFailed((OrderModificationFailed) payload);
+                    break;
+                case ORDER_FILLED:
+                    processOrderFilled((OrderFilled) payload);
+                    break;
+                case RECALCULATE:
+                    processRecalculate((CompletableFuture<List<OrderSpec>>) payload);
+                    break;
+                case CANCEL_ALL:
+                    processCancelAll((CompletableFuture<List<OrderSpec>>) payload);
+                    break;
+                case VOLATILITY_SURFACE:
+                    processVolatilitySurface((VolatilitySurface) payload);
+                    break;
+                case PLACE_DROPPED:
+                    orderManager.onPlaceDropped(value);
+                    break;
+                case MODIFICATION_MERGED:
+                    orderManager.onModificationMerged(value);
+                    break;
+                case MODIFICATION_DROPPED:
+                    orderManager.onModificationDropped(value); // cancel pending, nothing to requote
+                    break;
+                case MODIFICATION_REPLACED:
+                    orderManager.onModificationReplaced(value);
+                    break;
+                case SEND_BACK_PRESSURE:
+                    processSendBackPressure(value != 0);
+                    break;
+                case GREEKS_TOTALS:
+                    processGreeksTotals((CompletableFuture<GreeksTotals>) payload);
+                    break;
+                case IMPLIED_VOLATILITIES:
+                    processImpliedVolatilities((CompletableFuture<ImpliedVolatilitiesSnapshot>) payload);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event type: " + type);
             }
-        });
+        }
+
+        @Override
+        public void onTimer()
+        {
+            recalculateDirty();
+        }
     }
 }
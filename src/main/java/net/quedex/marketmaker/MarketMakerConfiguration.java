@@ -1,19 +1,49 @@
 package net.quedex.marketmaker;
 
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class MarketMakerConfiguration
 {
+    private static final double DEFAULT_OPTION_REQUOTE_TICK_FRACTION = 0.5;
+    private static final int DEFAULT_EVENT_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_RECALCULATION_PARALLELISM = 1;
+    private static final long DEFAULT_OPTION_TAYLOR_MAX_AGE_MILLIS = 1000;
+    private static final int DEFAULT_SCENARIO_FUTURES_MOVES = 21;
+    private static final double DEFAULT_SCENARIO_MAX_FUTURES_MOVE_FRACTION = 0.2;
+    private static final int DEFAULT_SCENARIO_VOLATILITY_SHIFTS = 11;
+    private static final double DEFAULT_SCENARIO_MAX_VOLATILITY_SHIFT = 0.25;
+    private static final int DEFAULT_SCENARIO_PARALLELISM = 1;
+    private static final int DEFAULT_SEND_BURST = 50;
+    private static final int DEFAULT_SEND_MAX_BATCH_SIZE = 50;
+    private static final int DEFAULT_JOURNAL_SEGMENT_SIZE_MEGABYTES = 64;
+    private static final int DEFAULT_JOURNAL_BUFFER_SIZE = 65536;
+
     private final int timeSleepSeconds;
+    private final RequoteMode requoteMode;
+    private final long minRequoteIntervalMillis;
+    private final WaitStrategy waitStrategy;
+    private final int eventBufferSize;
+    private final int recalculationParallelism;
 
     private final BigDecimal futuresSpreadFraction;
     private final BigDecimal fairPriceSensitivityFraction;
+    private final Map<String, BigDecimal> fairPriceSensitivityFractionOverrides;
+    private final double optionRequoteTickFraction;
+    private final Map<String, Double> optionRequoteTickFractionOverrides;
+    private final double optionTaylorMaxMoveFraction;
+    private final long optionTaylorMaxAgeMillis;
 
     private final double fairVolatility;
     private final double volatilitySpreadFraction;
@@ -21,29 +51,82 @@ public class MarketMakerConfiguration
     private final double sabrVolOfVol;
     private final double sabrRho;
     private final boolean sabrUseTimeAdjustedVolOfVol;
+    private final long sabrCalibrationIntervalMillis;
 
     private final int numLevels;
     private final int qtyOnLevel;
 
     private final double vegaLimit;
     private final double deltaLimit;
+    private final double worstCaseDeltaLimit;
+    private final double worstCaseVegaLimit;
+
+    private final long scenarioIntervalMillis;
+    private final int scenarioFuturesMoves;
+    private final double scenarioMaxFuturesMoveFraction;
+    private final int scenarioVolatilityShifts;
+    private final double scenarioMaxVolatilityShift;
+    private final int scenarioParallelism;
+    private final double sendMaxMessagesPerSecond;
+    private final int sendBurst;
+    private final int sendMaxBatchSize;
+    private final int sendQueueCapacity;
+    private final long latencyReportIntervalMillis;
+    private final String journalDirectory;
+    private final int journalSegmentSizeMegabytes;
+    private final int journalBufferSize;
 
     public MarketMakerConfiguration(
         final int timeSleepSeconds,
+        final RequoteMode requoteMode,
+        final long minRequoteIntervalMillis,
+        final WaitStrategy waitStrategy,
+        final int eventBufferSize,
+        final int recalculationParallelism,
         final BigDecimal futuresSpreadFraction,
         final BigDecimal fairPriceSensitivityFraction,
+        final Map<String, BigDecimal> fairPriceSensitivityFractionOverrides,
+        final double optionRequoteTickFraction,
+        final Map<String, Double> optionRequoteTickFractionOverrides,
+        final double optionTaylorMaxMoveFraction,
+        final long optionTaylorMaxAgeMillis,
         final double fairVolatility,
         final double volatilitySpreadFraction,
         final double sabrBeta,
         final double sabrVolOfVol,
         final double sabrRho,
         final boolean sabrUseTimeAdjustedVolOfVol,
+        final long sabrCalibrationIntervalMillis,
         final int numLevels,
         final int qtyOnLevel,
         final double deltaLimit,
-        final double vegaLimit)
+        final double vegaLimit,
+        final double worstCaseDeltaLimit,
+        final double worstCaseVegaLimit,
+        final long scenarioIntervalMillis,
+        final int scenarioFuturesMoves,
+        final double scenarioMaxFuturesMoveFraction,
+        final int scenarioVolatilityShifts,
+        final double scenarioMaxVolatilityShift,
+        final int scenarioParallelism,
+        final double sendMaxMessagesPerSecond,
+        final int sendBurst,
+        final int sendMaxBatchSize,
+        final int sendQueueCapacity,
+        final long latencyReportIntervalMillis,
+        final String journalDirectory,
+        final int journalSegmentSizeMegabytes,
+        final int journalBufferSize)
     {
         checkArgument(timeSleepSeconds > 0, "timeSleepSeconds=%s <= 0", timeSleepSeconds);
+        checkNotNull(requoteMode, "null requoteMode");
+        checkArgument(minRequoteIntervalMillis >= 0, "minRequoteIntervalMillis=%s < 0", minRequoteIntervalMillis);
+        checkNotNull(waitStrategy, "null waitStrategy");
+        checkArgument(
+            eventBufferSize > 0 && Integer.bitCount(eventBufferSize) == 1,
+            "eventBufferSize=%s not a power of 2", eventBufferSize
+        );
+        checkArgument(recalculationParallelism > 0, "recalculationParallelism=%s <= 0", recalculationParallelism);
         checkArgument(
             futuresSpreadFraction.compareTo(BigDecimal.ZERO) > 0,
             "futuresSpreadFraction=%s <=0", futuresSpreadFraction
@@ -52,23 +135,88 @@ public class MarketMakerConfiguration
             fairPriceSensitivityFraction.compareTo(BigDecimal.ZERO) > 0,
             "fairPriceSensitivityFraction=%s <=0", fairPriceSensitivityFraction
         );
+        for (final Map.Entry<String, BigDecimal> override : fairPriceSensitivityFractionOverrides.entrySet())
+        {
+            checkArgument(
+                override.getValue().compareTo(BigDecimal.ZERO) > 0,
+                "fairPriceSensitivityFraction=%s <=0 for %s", override.getValue(), override.getKey()
+            );
+        }
+        checkArgument(optionRequoteTickFraction > 0, "optionRequoteTickFraction=%s <= 0", optionRequoteTickFraction);
+        for (final Map.Entry<String, Double> override : optionRequoteTickFractionOverrides.entrySet())
+        {
+            checkArgument(
+                override.getValue() > 0,
+                "optionRequoteTickFraction=%s <= 0 for %s", override.getValue(), override.getKey()
+            );
+        }
+        checkArgument(
+            optionTaylorMaxMoveFraction >= 0,
+            "optionTaylorMaxMoveFraction=%s < 0", optionTaylorMaxMoveFraction
+        );
+        checkArgument(optionTaylorMaxAgeMillis >= 0, "optionTaylorMaxAgeMillis=%s < 0", optionTaylorMaxAgeMillis);
         checkArgument(fairVolatility > 0, "fairVolatility=%s <= 0", fairVolatility);
         checkArgument(volatilitySpreadFraction > 0, "volatilitySpreadFraction=%s <= 0", volatilitySpreadFraction);
         checkArgument(0 <= sabrBeta && sabrBeta <= 1, "sabrBeta=%s outside [0, 1]", sabrBeta);
         checkArgument(sabrVolOfVol >= 0, "sabrVolOfVol=%s < 0", sabrVolOfVol);
         checkArgument(-1 < sabrRho && sabrRho < 1, "rho=%s outside (-1, 1)", sabrRho);
+        checkArgument(
+            sabrCalibrationIntervalMillis >= 0,
+            "sabrCalibrationIntervalMillis=%s < 0", sabrCalibrationIntervalMillis
+        );
         checkArgument(numLevels > 0, "numLevels=%s <= 0", numLevels);
         checkArgument(qtyOnLevel > 0, "qtyOnLevel=%s <= 0", qtyOnLevel);
         checkArgument(deltaLimit >= 0, "deltaLimit=%s < 0", deltaLimit);
         checkArgument(vegaLimit >= 0, "vegaLimit=%s < 0", vegaLimit);
+        checkArgument(worstCaseDeltaLimit >= 0, "worstCaseDeltaLimit=%s < 0", worstCaseDeltaLimit);
+        checkArgument(worstCaseVegaLimit >= 0, "worstCaseVegaLimit=%s < 0", worstCaseVegaLimit);
+        checkArgument(scenarioIntervalMillis >= 0, "scenarioIntervalMillis=%s < 0", scenarioIntervalMillis);
+        checkArgument(scenarioFuturesMoves > 0, "scenarioFuturesMoves=%s <= 0", scenarioFuturesMoves);
+        checkArgument(
+            0 <= scenarioMaxFuturesMoveFraction && scenarioMaxFuturesMoveFraction < 1,
+            "scenarioMaxFuturesMoveFraction=%s outside [0, 1)", scenarioMaxFuturesMoveFraction
+        );
+        checkArgument(scenarioVolatilityShifts > 0, "scenarioVolatilityShifts=%s <= 0", scenarioVolatilityShifts);
+        checkArgument(
+            scenarioMaxVolatilityShift >= 0,
+            "scenarioMaxVolatilityShift=%s < 0", scenarioMaxVolatilityShift
+        );
+        checkArgument(scenarioParallelism > 0, "scenarioParallelism=%s <= 0", scenarioParallelism);
+        checkArgument(sendMaxMessagesPerSecond >= 0, "sendMaxMessagesPerSecond=%s < 0", sendMaxMessagesPerSecond);
+        checkArgument(sendBurst > 0, "sendBurst=%s <= 0", sendBurst);
+        checkArgument(sendMaxBatchSize > 0, "sendMaxBatchSize=%s <= 0", sendMaxBatchSize);
+        checkArgument(sendQueueCapacity >= 0, "sendQueueCapacity=%s < 0", sendQueueCapacity);
+        checkArgument(
+            latencyReportIntervalMillis >= 0,
+            "latencyReportIntervalMillis=%s < 0", latencyReportIntervalMillis
+        );
+        checkNotNull(journalDirectory, "null journalDirectory");
+        checkArgument(
+            journalSegmentSizeMegabytes > 0 && journalSegmentSizeMegabytes < 2048,
+            "journalSegmentSizeMegabytes=%s outside (0, 2048)", journalSegmentSizeMegabytes
+        );
+        checkArgument(
+            journalBufferSize > 0 && Integer.bitCount(journalBufferSize) == 1,
+            "journalBufferSize=%s not a power of 2", journalBufferSize
+        );
         checkArgument(
             fairVolatility - numLevels * fairVolatility * volatilitySpreadFraction > 0,
             "Nonpositive lowest level volatility"
         );
 
         this.timeSleepSeconds = timeSleepSeconds;
+        this.requoteMode = requoteMode;
+        this.minRequoteIntervalMillis = minRequoteIntervalMillis;
+        this.waitStrategy = waitStrategy;
+        this.eventBufferSize = eventBufferSize;
+        this.recalculationParallelism = recalculationParallelism;
         this.futuresSpreadFraction = futuresSpreadFraction;
         this.fairPriceSensitivityFraction = fairPriceSensitivityFraction;
+        this.fairPriceSensitivityFractionOverrides = ImmutableMap.copyOf(fairPriceSensitivityFractionOverrides);
+        this.optionRequoteTickFraction = optionRequoteTickFraction;
+        this.optionRequoteTickFractionOverrides = ImmutableMap.copyOf(optionRequoteTickFractionOverrides);
+        this.optionTaylorMaxMoveFraction = optionTaylorMaxMoveFraction;
+        this.optionTaylorMaxAgeMillis = optionTaylorMaxAgeMillis;
         this.fairVolatility = fairVolatility;
         this.volatilitySpreadFraction = volatilitySpreadFraction;
         this.vegaLimit = vegaLimit;
@@ -76,9 +224,26 @@ public class MarketMakerConfiguration
         this.sabrVolOfVol = sabrVolOfVol;
         this.sabrRho = sabrRho;
         this.sabrUseTimeAdjustedVolOfVol = sabrUseTimeAdjustedVolOfVol;
+        this.sabrCalibrationIntervalMillis = sabrCalibrationIntervalMillis;
         this.numLevels = numLevels;
         this.qtyOnLevel = qtyOnLevel;
         this.deltaLimit = deltaLimit;
+        this.worstCaseDeltaLimit = worstCaseDeltaLimit;
+        this.worstCaseVegaLimit = worstCaseVegaLimit;
+        this.scenarioIntervalMillis = scenarioIntervalMillis;
+        this.scenarioFuturesMoves = scenarioFuturesMoves;
+        this.scenarioMaxFuturesMoveFraction = scenarioMaxFuturesMoveFraction;
+        this.scenarioVolatilityShifts = scenarioVolatilityShifts;
+        this.scenarioMaxVolatilityShift = scenarioMaxVolatilityShift;
+        this.scenarioParallelism = scenarioParallelism;
+        this.sendMaxMessagesPerSecond = sendMaxMessagesPerSecond;
+        this.sendBurst = sendBurst;
+        this.sendMaxBatchSize = sendMaxBatchSize;
+        this.sendQueueCapacity = sendQueueCapacity;
+        this.latencyReportIntervalMillis = latencyReportIntervalMillis;
+        this.journalDirectory = journalDirectory;
+        this.journalSegmentSizeMegabytes = journalSegmentSizeMegabytes;
+        this.journalBufferSize = journalBufferSize;
     }
 
     public static MarketMakerConfiguration fromPropertiesFile(final String fileName) throws ConfigurationException
@@ -86,8 +251,31 @@ public class MarketMakerConfiguration
         final Configuration configuration = new PropertiesConfiguration(fileName);
         return new MarketMakerConfiguration(
             configuration.getInt(ConfigKey.TIME_SLEEP_SECONDS.getKey()),
+            RequoteMode.valueOf(
+                configuration.getString(ConfigKey.REQUOTE_MODE.getKey(), RequoteMode.FIXED_PERIOD.name())
+            ),
+            configuration.getLong(ConfigKey.MIN_REQUOTE_INTERVAL_MILLIS.getKey(), 0),
+            WaitStrategy.valueOf(
+                configuration.getString(ConfigKey.WAIT_STRATEGY.getKey(), WaitStrategy.PARK.name())
+            ),
+            configuration.getInt(ConfigKey.EVENT_BUFFER_SIZE.getKey(), DEFAULT_EVENT_BUFFER_SIZE),
+            configuration.getInt(
+                ConfigKey.RECALCULATION_PARALLELISM.getKey(),
+                DEFAULT_RECALCULATION_PARALLELISM
+            ),
             new BigDecimal(configuration.getString(ConfigKey.SPREAD_FRACTION.getKey())),
             new BigDecimal(configuration.getString(ConfigKey.FAIR_PRICE_SENSITIVITY_FRACTION.getKey())),
+            getOverrides(configuration, ConfigKey.FAIR_PRICE_SENSITIVITY_FRACTION, BigDecimal::new),
+            configuration.getDouble(
+                ConfigKey.OPTION_REQUOTE_TICK_FRACTION.getKey(),
+                DEFAULT_OPTION_REQUOTE_TICK_FRACTION
+            ),
+            getOverrides(configuration, ConfigKey.OPTION_REQUOTE_TICK_FRACTION, Double::valueOf),
+            configuration.getDouble(ConfigKey.OPTION_TAYLOR_MAX_MOVE_FRACTION.getKey(), 0),
+            configuration.getLong(
+                ConfigKey.OPTION_TAYLOR_MAX_AGE_MILLIS.getKey(),
+                DEFAULT_OPTION_TAYLOR_MAX_AGE_MILLIS
+            ),
             configuration.getDouble(ConfigKey.FAIR_VOLATILITY.getKey()),
             configuration.getDouble(ConfigKey.VOLATILITY_SPREAD_FRACTION.getKey()),
             configuration.getDouble(
@@ -95,19 +283,98 @@ public class MarketMakerConfiguration
             configuration.getDouble(ConfigKey.SABR_VOL_OF_VOL.getKey()),
             configuration.getDouble(ConfigKey.SABR_RHO.getKey()),
             configuration.getBoolean(ConfigKey.SABR_USE_TIME_ADJUSTED_VOL_OF_VOL.getKey()),
+            configuration.getLong(ConfigKey.SABR_CALIBRATION_INTERVAL_MILLIS.getKey(), 0),
             configuration.getInt(ConfigKey.NUM_LEVELS.getKey()),
             configuration.getInt(ConfigKey.QUANTITY_ON_LEVEL.getKey()),
             configuration.getDouble(ConfigKey.DELTA_LIMIT.getKey()),
-            configuration.getDouble(ConfigKey.VEGA_LIMIT.getKey()
-            )
+            configuration.getDouble(ConfigKey.VEGA_LIMIT.getKey()),
+            configuration.getDouble(ConfigKey.WORST_CASE_DELTA_LIMIT.getKey(), 0),
+            configuration.getDouble(ConfigKey.WORST_CASE_VEGA_LIMIT.getKey(), 0),
+            configuration.getLong(ConfigKey.SCENARIO_INTERVAL_MILLIS.getKey(), 0),
+            configuration.getInt(ConfigKey.SCENARIO_FUTURES_MOVES.getKey(), DEFAULT_SCENARIO_FUTURES_MOVES),
+            configuration.getDouble(
+                ConfigKey.SCENARIO_MAX_FUTURES_MOVE_FRACTION.getKey(),
+                DEFAULT_SCENARIO_MAX_FUTURES_MOVE_FRACTION
+            ),
+            configuration.getInt(ConfigKey.SCENARIO_VOLATILITY_SHIFTS.getKey(), DEFAULT_SCENARIO_VOLATILITY_SHIFTS),
+            configuration.getDouble(
+                ConfigKey.SCENARIO_MAX_VOLATILITY_SHIFT.getKey(),
+                DEFAULT_SCENARIO_MAX_VOLATILITY_SHIFT
+            ),
+            configuration.getInt(ConfigKey.SCENARIO_PARALLELISM.getKey(), DEFAULT_SCENARIO_PARALLELISM),
+            configuration.getDouble(ConfigKey.SEND_MAX_MESSAGES_PER_SECOND.getKey(), 0),
+            configuration.getInt(ConfigKey.SEND_BURST.getKey(), DEFAULT_SEND_BURST),
+            configuration.getInt(ConfigKey.SEND_MAX_BATCH_SIZE.getKey(), DEFAULT_SEND_MAX_BATCH_SIZE),
+            configuration.getInt(ConfigKey.SEND_QUEUE_CAPACITY.getKey(), 0),
+            configuration.getLong(ConfigKey.LATENCY_REPORT_INTERVAL_MILLIS.getKey(), 0),
+            configuration.getString(ConfigKey.JOURNAL_DIRECTORY.getKey(), ""),
+            configuration.getInt(
+                ConfigKey.JOURNAL_SEGMENT_SIZE_MEGABYTES.getKey(),
+                DEFAULT_JOURNAL_SEGMENT_SIZE_MEGABYTES
+            ),
+            configuration.getInt(ConfigKey.JOURNAL_BUFFER_SIZE.getKey(), DEFAULT_JOURNAL_BUFFER_SIZE)
         );
     }
 
+    /**
+     * Reads per symbol overrides of the given key, i.e. properties {@code <key>.<symbol>}.
+     */
+    private static <T> Map<String, T> getOverrides(
+        final Configuration configuration,
+        final ConfigKey configKey,
+        final Function<String, T> parser)
+    {
+        final Configuration subset = configuration.subset(configKey.getKey());
+        final Map<String, T> overrides = new HashMap<>();
+        final Iterator<String> symbols = subset.getKeys();
+
+        while (symbols.hasNext())
+        {
+            final String symbol = symbols.next();
+            if (!symbol.isEmpty()) // the key itself
+            {
+                overrides.put(symbol, parser.apply(subset.getString(symbol)));
+            }
+        }
+        return overrides;
+    }
+
     public int getTimeSleepSeconds()
     {
         return timeSleepSeconds;
     }
 
+    public RequoteMode getRequoteMode()
+    {
+        return requoteMode;
+    }
+
+    public long getMinRequoteIntervalMillis()
+    {
+        return minRequoteIntervalMillis;
+    }
+
+    public WaitStrategy getWaitStrategy()
+    {
+        return waitStrategy;
+    }
+
+    /**
+     * @return number of slots of the event loop ring buffer (a power of 2)
+     */
+    public int getEventBufferSize()
+    {
+        return eventBufferSize;
+    }
+
+    /**
+     * @return number of threads recalculating expirations in parallel, 1 means recalculating on the event thread
+     */
+    public int getRecalculationParallelism()
+    {
+        return recalculationParallelism;
+    }
+
     public BigDecimal getFuturesSpreadFraction()
     {
         return futuresSpreadFraction;
@@ -118,6 +385,48 @@ public class MarketMakerConfiguration
         return fairPriceSensitivityFraction;
     }
 
+    /**
+     * @return fair price sensitivity fractions overriding the default one for futures symbols
+     */
+    public Map<String, BigDecimal> getFairPriceSensitivityFractionOverrides()
+    {
+        return fairPriceSensitivityFractionOverrides;
+    }
+
+    /**
+     * @return fraction of tick size the estimated option price has to change by to requote the option
+     */
+    public double getOptionRequoteTickFraction()
+    {
+        return optionRequoteTickFraction;
+    }
+
+    /**
+     * @return option requote tick fractions overriding the default one for options expiring with the given futures
+     *         symbols
+     */
+    public Map<String, Double> getOptionRequoteTickFractionOverrides()
+    {
+        return optionRequoteTickFractionOverrides;
+    }
+
+    /**
+     * @return maximum futures price move (relative) for which option ladders are estimated from the greeks of the last
+     *         full pricing, 0 means always pricing fully (see {@link OptionLadderPricer})
+     */
+    public double getOptionTaylorMaxMoveFraction()
+    {
+        return optionTaylorMaxMoveFraction;
+    }
+
+    /**
+     * @return maximum age of the full pricing option ladders are estimated from
+     */
+    public long getOptionTaylorMaxAgeMillis()
+    {
+        return optionTaylorMaxAgeMillis;
+    }
+
     public double getFairVolatility()
     {
         return fairVolatility;
@@ -153,6 +462,15 @@ public class MarketMakerConfiguration
         return sabrUseTimeAdjustedVolOfVol;
     }
 
+    /**
+     * @return interval between calibrations of the per-expiry SABR volatility surface to option mids, 0 means no
+     *         calibration (the global SABR parameters are used)
+     */
+    public long getSabrCalibrationIntervalMillis()
+    {
+        return sabrCalibrationIntervalMillis;
+    }
+
     public int getNumLevels()
     {
         return numLevels;
@@ -168,21 +486,152 @@ public class MarketMakerConfiguration
         return deltaLimit;
     }
 
+    /**
+     * @return limit of the total delta if all the resting orders on one side of the market were filled, 0 means no
+     *         limit
+     */
+    public double getWorstCaseDeltaLimit()
+    {
+        return worstCaseDeltaLimit;
+    }
+
+    /**
+     * @return limit of the total vega if all the resting orders on one side of the market were filled, 0 means no
+     *         limit
+     */
+    public double getWorstCaseVegaLimit()
+    {
+        return worstCaseVegaLimit;
+    }
+
+    /**
+     * @return interval between recalculations of the scenario risk grid, 0 means no scenario grid
+     */
+    public long getScenarioIntervalMillis()
+    {
+        return scenarioIntervalMillis;
+    }
+
+    public int getScenarioFuturesMoves()
+    {
+        return scenarioFuturesMoves;
+    }
+
+    public double getScenarioMaxFuturesMoveFraction()
+    {
+        return scenarioMaxFuturesMoveFraction;
+    }
+
+    public int getScenarioVolatilityShifts()
+    {
+        return scenarioVolatilityShifts;
+    }
+
+    public double getScenarioMaxVolatilityShift()
+    {
+        return scenarioMaxVolatilityShift;
+    }
+
+    public int getScenarioParallelism()
+    {
+        return scenarioParallelism;
+    }
+
+    /**
+     * @return limit of the order messages sent per second, 0 means no limit
+     */
+    public double getSendMaxMessagesPerSecond()
+    {
+        return sendMaxMessagesPerSecond;
+    }
+
+    /**
+     * @return number of order messages that may be sent at once after a quiet period
+     */
+    public int getSendBurst()
+    {
+        return sendBurst;
+    }
+
+    public int getSendMaxBatchSize()
+    {
+        return sendMaxBatchSize;
+    }
+
+    /**
+     * @return number of order messages waiting to be sent at which requoting is held back, 0 means never
+     */
+    public int getSendQueueCapacity()
+    {
+        return sendQueueCapacity;
+    }
+
+    /**
+     * @return interval of logging the latencies and rates, 0 means never (they are available over JMX regardless)
+     */
+    public long getLatencyReportIntervalMillis()
+    {
+        return latencyReportIntervalMillis;
+    }
+
+    /**
+     * @return directory of the {@link EventJournal}, empty means no journal
+     */
+    public String getJournalDirectory()
+    {
+        return journalDirectory;
+    }
+
+    public int getJournalSegmentSizeMegabytes()
+    {
+        return journalSegmentSizeMegabytes;
+    }
+
+    public int getJournalBufferSize()
+    {
+        return journalBufferSize;
+    }
+
     private enum ConfigKey
     {
         TIME_SLEEP_SECONDS("timeSleepSeconds"),
+        REQUOTE_MODE("requoteMode"),
+        MIN_REQUOTE_INTERVAL_MILLIS("minRequoteIntervalMillis"),
+        WAIT_STRATEGY("waitStrategy"),
+        EVENT_BUFFER_SIZE("eventBufferSize"),
+        RECALCULATION_PARALLELISM("recalculationParallelism"),
         SPREAD_FRACTION("futuresSpreadFraction"),
         FAIR_PRICE_SENSITIVITY_FRACTION("fairPriceSensitivityFraction"),
+        OPTION_REQUOTE_TICK_FRACTION("optionRequoteTickFraction"),
+        OPTION_TAYLOR_MAX_MOVE_FRACTION("optionTaylorMaxMoveFraction"),
+        OPTION_TAYLOR_MAX_AGE_MILLIS("optionTaylorMaxAgeMillis"),
         FAIR_VOLATILITY("fairVolatility"),
         VOLATILITY_SPREAD_FRACTION("volatilitySpreadFraction"),
         SABR_BETA("sabr.beta"),
         SABR_VOL_OF_VOL("sabr.volOfVol"),
         SABR_RHO("sabr.rho"),
         SABR_USE_TIME_ADJUSTED_VOL_OF_VOL("sabr.useTimeAdjustedVolOfVol"),
+        SABR_CALIBRATION_INTERVAL_MILLIS("sabr.calibrationIntervalMillis"),
         NUM_LEVELS("numLevels"),
         QUANTITY_ON_LEVEL("quantityOnLevel"),
         VEGA_LIMIT("vegaLimit"),
-        DELTA_LIMIT("deltaLimit");
+        DELTA_LIMIT("deltaLimit"),
+        WORST_CASE_DELTA_LIMIT("worstCaseDeltaLimit"),
+        WORST_CASE_VEGA_LIMIT("worstCaseVegaLimit"),
+        SCENARIO_INTERVAL_MILLIS("scenario.intervalMillis"),
+        SCENARIO_FUTURES_MOVES("scenario.futuresMoves"),
+        SCENARIO_MAX_FUTURES_MOVE_FRACTION("scenario.maxFuturesMoveFraction"),
+        SCENARIO_VOLATILITY_SHIFTS("scenario.volatilityShifts"),
+        SCENARIO_MAX_VOLATILITY_SHIFT("scenario.maxVolatilityShift"),
+        SCENARIO_PARALLELISM("scenario.parallelism"),
+        SEND_MAX_MESSAGES_PER_SECOND("send.maxMessagesPerSecond"),
+        SEND_BURST("send.burst"),
+        SEND_MAX_BATCH_SIZE("send.maxBatchSize"),
+        SEND_QUEUE_CAPACITY("send.queueCapacity"),
+        LATENCY_REPORT_INTERVAL_MILLIS("latency.reportIntervalMillis"),
+        JOURNAL_DIRECTORY("journal.directory"),
+        JOURNAL_SEGMENT_SIZE_MEGABYTES("journal.segmentSizeMegabytes"),
+        JOURNAL_BUFFER_SIZE("journal.bufferSize");
 
         private static final String COMMON_PREFIX = "net.quedex.marketmaker";
         private static final char SEPARATOR = '.';
@@ -0,0 +1,77 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Serves {@link MarketMakerMonitorMXBean} reads by requesting the values from the event thread of the market maker,
+ * except for the scenario risk, which is published for any thread.
+ */
+@ThreadSafe
+public class MarketMakerMonitor implements MarketMakerMonitorMXBean
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final MarketMaker marketMaker;
+
+    public MarketMakerMonitor(final MarketMaker marketMaker)
+    {
+        this.marketMaker = checkNotNull(marketMaker, "null marketMaker");
+    }
+
+    @Override
+    public Map<String, Double> getBidImpliedVolatilities()
+    {
+        return get(marketMaker.getImpliedVolatilities()).getBidVolatilities();
+    }
+
+    @Override
+    public Map<String, Double> getAskImpliedVolatilities()
+    {
+        return get(marketMaker.getImpliedVolatilities()).getAskVolatilities();
+    }
+
+    @Override
+    public Map<String, Double> getMidImpliedVolatilities()
+    {
+        return get(marketMaker.getImpliedVolatilities()).getMidVolatilities();
+    }
+
+    @Override
+    public double getScenarioWorstCaseLoss()
+    {
+        return marketMaker.getScenarioGrid().getWorstCaseLoss();
+    }
+
+    @Override
+    public long getScenarioCalculationTime()
+    {
+        return marketMaker.getScenarioGrid().getCalculationTime();
+    }
+
+    /**
+     * @throws IllegalStateException if not completed within {@link #TIMEOUT_MILLIS}, e.g. when the event loop stopped
+     */
+    private static <T> T get(final Future<T> future)
+    {
+        try
+        {
+            return future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch (final ExecutionException | TimeoutException e)
+        {
+            throw new IllegalStateException("Error reading from the market maker", e);
+        }
+    }
+}
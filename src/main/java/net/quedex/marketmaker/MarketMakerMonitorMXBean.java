@@ -0,0 +1,27 @@
+package net.quedex.marketmaker;
+
+import java.util.Map;
+
+/**
+ * JMX view of the market and risk state seen by a {@link MarketMaker}. Implied volatilities are served by the event
+ * thread, so they reflect the events processed so far, and are keyed by option symbol, NaN where there is no price to
+ * solve. Scenario risk is that of the most recent {@link ScenarioGrid}.
+ */
+public interface MarketMakerMonitorMXBean
+{
+    Map<String, Double> getBidImpliedVolatilities();
+
+    Map<String, Double> getAskImpliedVolatilities();
+
+    Map<String, Double> getMidImpliedVolatilities();
+
+    /**
+     * @return the largest loss of the open positions (per notional) over the scenarios, 0 if disabled
+     */
+    double getScenarioWorstCaseLoss();
+
+    /**
+     * @return time of the scenario calculation in epoch millis, 0 if never calculated
+     */
+    long getScenarioCalculationTime();
+}
@@ -1,32 +1,38 @@
 package net.quedex.marketmaker;
 
+import com.google.common.collect.ImmutableList;
 import net.quedex.api.common.CommunicationException;
-import net.quedex.api.market.Instrument;
 import net.quedex.api.market.MarketData;
 import net.quedex.api.market.MarketStream;
-import net.quedex.api.user.AccountState;
-import net.quedex.api.user.OrderSpec;
 import net.quedex.api.user.UserStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Hosts one or more strategies (see {@link StrategyRunner}) in a single process. The market stream is subscribed to
+ * once and its quotes are fanned out to all the strategies (see {@link QuotesFanOut}), instruments are fetched and
+ * indexed once as well. An error of any strategy stops all of them.
+ */
 public class MarketMakerRunner
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(MarketMakerRunner.class);
 
+    private static final long DRAIN_TIMEOUT_MILLIS = 10_000; // for all the strategies
+
     private final MarketData marketData;
     private final MarketStream marketStream;
-    private final UserStream userStream;
-    private final MarketMakerConfiguration marketMakerConfiguration;
-    private final int sleepTimeSeconds;
+    private final List<StrategyRunner> strategies;
+    private final long sleepTimeMillis;
+    private final QuotesFanOut quotesFanOut = new QuotesFanOut();
 
     private volatile boolean running = false;
 
@@ -35,76 +41,93 @@ public class MarketMakerRunner
         final MarketStream marketStream,
         final UserStream userStream,
         final MarketMakerConfiguration mmConfig)
+    {
+        this(marketData, marketStream, ImmutableList.of(new StrategyRunner("market-maker", userStream, mmConfig)));
+    }
+
+    /**
+     * @param strategies each trading its own account
+     */
+    public MarketMakerRunner(
+        final MarketData marketData,
+        final MarketStream marketStream,
+        final List<StrategyRunner> strategies)
     {
         this.marketData = checkNotNull(marketData, "null marketData");
         this.marketStream = checkNotNull(marketStream, "null marketStream");
-        this.userStream = checkNotNull(userStream, "null userStream");
-        this.marketMakerConfiguration = checkNotNull(mmConfig, "null marketMakerConfiguration");
-        this.sleepTimeSeconds = mmConfig.getTimeSleepSeconds();
+        checkArgument(!strategies.isEmpty(), "No strategies");
+        this.strategies = ImmutableList.copyOf(strategies);
+
+        // events of an account would be applied to the orders of all the strategies trading it
+        final Set<UserStream> userStreams = Collections.newSetFromMap(new IdentityHashMap<>());
+        long minSleepTimeMillis = Long.MAX_VALUE;
+        for (final StrategyRunner strategy : strategies)
+        {
+            checkArgument(userStreams.add(strategy.getUserStream()), "Shared user stream of %s", strategy.getName());
+            minSleepTimeMillis = Math.min(minSleepTimeMillis, strategy.getSleepTimeMillis());
+        }
+        this.sleepTimeMillis = minSleepTimeMillis;
     }
 
     public void runLoop()
     {
         marketStream.registerStreamFailureListener(this::onError);
-        userStream.registerStreamFailureListener(this::onError);
 
         try
         {
             marketStream.start();
-            userStream.start();
         }
         catch (final CommunicationException e)
         {
-            LOGGER.error("Error starting streams", e);
+            LOGGER.error("Error starting market stream", e);
             return;
         }
 
-        final MarketMaker marketMaker;
-        final Map<Integer, Instrument> instruments;
+        final InstrumentManager instrumentManager;
 
         try
         {
-            instruments = marketData.getInstruments();
-            marketMaker = new MarketMaker(
-                new RealTimeProvider(),
-                marketMakerConfiguration,
-                instruments,
-                this::onError
-            );
+            instrumentManager = new InstrumentManager(new RealTimeProvider(), marketData.getInstruments());
+            for (final StrategyRunner strategy : strategies)
+            {
+                strategy.start(instrumentManager, this::onError);
+            }
         }
         catch (final CommunicationException e)
         {
-            LOGGER.error("Error initialising instruments", e);
+            LOGGER.error("Error initialising instruments or starting user streams", e);
             return;
         }
 
         try
         {
-            LOGGER.info("Initialising");
+            LOGGER.info("Initialising {} strategies", strategies.size());
 
-            final CompletableFuture<AccountState> initialAccountStateFuture = new CompletableFuture<>();
-
-            marketStream.registerQuotesListener(marketMaker).subscribe(instruments.keySet());
-
-            userStream.registerOpenPositionListener(marketMaker);
-            userStream.registerOrderListener(marketMaker);
-            userStream.registerAccountStateListener(initialAccountStateFuture::complete);
-            userStream.subscribeListeners();
+            for (final StrategyRunner strategy : strategies)
+            {
+                strategy.subscribe(quotesFanOut);
+            }
+            marketStream.registerQuotesListener(quotesFanOut).subscribe(instrumentManager.getInstrumentIds());
 
-            initialAccountStateFuture.get(); // await initial state
-            userStream.registerAccountStateListener(null); // not used anymore
+            for (final StrategyRunner strategy : strategies)
+            {
+                strategy.awaitInitialState();
+            }
 
             LOGGER.info("Running");
             running = true;
 
             while (running)
             {
-                final Future<List<OrderSpec>> orderSpecs = marketMaker.recalculate();
-                send(orderSpecs.get());
+                final long nowNanos = System.nanoTime();
+                for (final StrategyRunner strategy : strategies)
+                {
+                    strategy.recalculateIfDue(nowNanos);
+                }
 
                 try
                 {
-                    Thread.sleep(sleepTimeSeconds * 1000L);
+                    Thread.sleep(sleepTimeMillis);
                 }
                 catch (final InterruptedException e)
                 {
@@ -121,47 +144,51 @@ public class MarketMakerRunner
             LOGGER.info("Stopping");
             try
             {
-                LOGGER.info("Cancelling all pending orders");
-                try
+                final long drainDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+                for (final StrategyRunner strategy : strategies)
                 {
-                    send(marketMaker.getAllOrderCancels().get());
-                    Thread.sleep(10_000);
+                    strategy.cancelAllOrders();
                 }
-                catch (final InterruptedException e)
+                for (final StrategyRunner strategy : strategies)
                 {
-                    Thread.currentThread().interrupt();
-                }
-                catch (final ExecutionException e)
-                {
-                    LOGGER.error("Error getting all order cancels", e);
+                    strategy.drainSending(
+                        Math.max(0, TimeUnit.NANOSECONDS.toMillis(drainDeadlineNanos - System.nanoTime()))
+                    );
                 }
             }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
             finally
             {
+                for (final StrategyRunner strategy : strategies)
+                {
+                    strategy.stopSending();
+                    try
+                    {
+                        strategy.getUserStream().stop();
+                    }
+                    catch (final CommunicationException e)
+                    {
+                        LOGGER.error("Error stopping user stream of " + strategy.getName(), e);
+                    }
+                }
                 try
                 {
-                    userStream.stop();
                     marketStream.stop();
                 }
                 catch (final CommunicationException e)
                 {
-                    LOGGER.error("Error stopping streams", e);
+                    LOGGER.error("Error stopping market stream", e);
+                }
+                for (final StrategyRunner strategy : strategies)
+                {
+                    strategy.stop();
                 }
                 LOGGER.info("Stopped");
             }
         }
-
-        marketMaker.stop();
-
-        try
-        {
-            userStream.stop();
-            marketStream.stop();
-        }
-        catch (final CommunicationException e)
-        {
-            LOGGER.error("Error stopping streams", e);
-        }
     }
 
     public void stop()
@@ -174,14 +201,4 @@ public class MarketMakerRunner
         LOGGER.error("Async terminal error", e);
         stop();
     }
-
-    private void send(final List<OrderSpec> orderSpecs)
-    {
-        LOGGER.debug("send({})", orderSpecs);
-        if (orderSpecs.isEmpty())
-        {
-            return;
-        }
-        userStream.batch(orderSpecs);
-    }
 }
@@ -1,7 +1,5 @@
 package net.quedex.marketmaker;
 
-import java.math.BigDecimal;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class MidFairPriceProvider implements FairPriceProvider
@@ -14,8 +12,14 @@ public class MidFairPriceProvider implements FairPriceProvider
     }
 
     @Override
-    public BigDecimal getFairPrice(final int instrumentId)
+    public long getFairPrice(final int instrumentId)
     {
         return marketDataManager.getMid(instrumentId);
     }
+
+    @Override
+    public boolean hasFairPrice(final int instrumentId)
+    {
+        return marketDataManager.hasQuotes(instrumentId);
+    }
 }
@@ -0,0 +1,74 @@
+package net.quedex.marketmaker;
+
+import com.google.common.collect.ImmutableList;
+import net.quedex.api.market.Instrument;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Options expiring at the same date laid out as a structure of arrays, so that the whole chain may be priced in a
+ * single loop (see {@link Pricing#calculateChainMetrics}).
+ */
+public final class OptionChain
+{
+    /**
+     * Chain without options, its expiration date (0) is meaningless.
+     */
+    public static final OptionChain EMPTY = new OptionChain(0, ImmutableList.of());
+
+    private final long expirationDate;
+    private final int size;
+
+    final int[] instrumentIds;
+    final double[] strikes;
+    final boolean[] calls;
+
+    public OptionChain(final long expirationDate, final List<Instrument> options)
+    {
+        this.expirationDate = expirationDate;
+        this.size = options.size();
+        this.instrumentIds = new int[size];
+        this.strikes = new double[size];
+        this.calls = new boolean[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            final Instrument option = options.get(i);
+            checkArgument(!option.isFutures(), "Expected option, got %s", option.getSymbol());
+            checkArgument(
+                option.getExpirationDate() == expirationDate,
+                "Option %s not expiring at %s", option.getSymbol(), expirationDate
+            );
+            instrumentIds[i] = option.getInstrumentId();
+            strikes[i] = option.getStrike().get().doubleValue();
+            calls[i] = option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN;
+        }
+    }
+
+    public long getExpirationDate()
+    {
+        return expirationDate;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getInstrumentId(final int index)
+    {
+        return instrumentIds[index];
+    }
+
+    public double getStrike(final int index)
+    {
+        return strikes[index];
+    }
+
+    public boolean isCall(final int index)
+    {
+        return calls[index];
+    }
+}
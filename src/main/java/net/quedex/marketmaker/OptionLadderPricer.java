@@ -0,0 +1,263 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static net.quedex.marketmaker.UniformFuturesOrderPlacingStrategy.roundPriceToTickSize;
+
+/**
+ * Prices the volatility levels of option ladders: level {@code i} (1-based) of the buy side is priced with volatility
+ * {@code fairVolatility - i * spread} and of the sell side with {@code fairVolatility + i * spread}.
+ * <p>
+ * A full pricing evaluates all the levels of both sides in a single pass of
+ * {@link Pricing#calculateLadderMetrics} (the terms independent of the volatility are shared) and caches price, delta,
+ * gamma and vega of every level. While the futures price stays within {@code maxMoveFraction} of the cached one, the
+ * fair volatility within {@link #MAX_VOLATILITY_CHANGE} of the cached one, the spread is unchanged and the cache is
+ * younger than {@code maxAgeMillis}, level prices are estimated with the expansion
+ * {@code price + delta * dF + gamma * dF^2 / 2 + vega * dVol} instead (the levels move with the fair volatility, which
+ * a volatility surface changes on every futures tick). When the move exceeds the bounds, the estimate is compared with
+ * the full pricing replacing it and the difference is recorded - as the error grows with the move, it bounds the error
+ * of the estimates used.
+ * <p>
+ * Level prices are rounded to the tick size of the option straight into a buffer reused for every call for the
+ * option, so pricing a ladder does not allocate once the option has been priced.
+ * <p>
+ * Thread-safe as long as a single option is priced by one thread at a time (which holds for expiration shards).
+ */
+@ThreadSafe
+public class OptionLadderPricer
+{
+    private static final double YEAR_MILLIS = 1000.0 * 60 * 60 * 24 * 365;
+    private static final double MAX_VOLATILITY_CHANGE = 0.005; // half a volatility point, vega is linear enough
+
+    private final InstrumentManager instrumentManager;
+    private final Pricing pricing;
+    private final int levels;
+    private final double maxMoveFraction;
+    private final double maxAgeYears;
+
+    private final Entry[] entries; // indexed by instrumentId, created lazily
+
+    private final LongAdder estimatedCount = new LongAdder();
+    private final LongAdder fullPricingCount = new LongAdder();
+    private final LongAdder errorSampleCount = new LongAdder();
+    private final DoubleAdder errorTicksSum = new DoubleAdder();
+    private final DoubleAccumulator maxErrorTicks = new DoubleAccumulator(Math::max, 0);
+
+    /**
+     * @param maxMoveFraction maximum futures price move (relative to the price of the full pricing) the estimate is
+     *                        used for, 0 disables estimation
+     */
+    public OptionLadderPricer(
+        final InstrumentManager instrumentManager,
+        final Pricing pricing,
+        final int levels,
+        final double maxMoveFraction,
+        final long maxAgeMillis)
+    {
+        checkArgument(levels >= 0, "levels=%s < 0", levels);
+        checkArgument(maxMoveFraction >= 0, "maxMoveFraction=%s < 0", maxMoveFraction);
+        checkArgument(maxAgeMillis >= 0, "maxAgeMillis=%s < 0", maxAgeMillis);
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.pricing = checkNotNull(pricing, "null pricing");
+        this.levels = levels;
+        this.maxMoveFraction = maxMoveFraction;
+        this.maxAgeYears = maxAgeMillis / YEAR_MILLIS;
+        this.entries = new Entry[instrumentManager.getMaxInstrumentId() + 1];
+    }
+
+    /**
+     * @return order prices of the levels in the fixed-point representation (see {@link Prices}): buy side levels
+     *         rounded down to the tick size at indices {@code [0, levels)}, 0 where the price rounds to nothing, sell
+     *         side levels rounded up (to at least one tick) at {@code [levels, 2 * levels)}; valid until the next call
+     *         for the same option
+     */
+    public long[] priceLadder(
+        final int optionId,
+        final boolean isCall,
+        final double strike,
+        final double timeToMaturity,
+        final double fairVolatility,
+        final double spread,
+        final double futuresPrice)
+    {
+        Entry entry = entries[optionId];
+        if (entry == null)
+        {
+            entry = new Entry(levels, instrumentManager.getTickSize(optionId));
+            entries[optionId] = entry;
+        }
+
+        final double futuresPriceChange = futuresPrice - entry.futuresPrice;
+        final double volatilityChange = fairVolatility - entry.fairVolatility;
+        final boolean cacheValid = entry.futuresPrice > 0
+            && entry.spread == spread
+            && entry.timeToMaturity - timeToMaturity <= maxAgeYears;
+
+        if (cacheValid
+            && Math.abs(futuresPriceChange) <= maxMoveFraction * entry.futuresPrice
+            && Math.abs(volatilityChange) <= MAX_VOLATILITY_CHANGE)
+        {
+            estimate(entry, futuresPriceChange, volatilityChange);
+            estimatedCount.increment();
+            return roundOrderPrices(entry);
+        }
+
+        final boolean sampleError = cacheValid && maxMoveFraction > 0; // left the bounds, same spread otherwise
+        if (sampleError)
+        {
+            estimate(entry, futuresPriceChange, volatilityChange);
+        }
+
+        for (int j = 0; j < 2 * levels; j++)
+        {
+            final int level = j < levels ? -(j + 1) : j - levels + 1;
+            entry.volatilities[j] = fairVolatility + level * spread;
+        }
+        pricing.calculateLadderMetrics(
+            isCall,
+            strike,
+            timeToMaturity,
+            entry.volatilities,
+            2 * levels,
+            futuresPrice,
+            entry.metrics
+        );
+
+        double maxError = 0;
+        for (int j = 0; j < 2 * levels; j++)
+        {
+            final double price = entry.metrics.getPrice(j);
+            if (sampleError)
+            {
+                maxError = Math.max(maxError, Math.abs(price - entry.levelPrices[j]));
+            }
+            entry.prices[j] = price;
+            entry.deltas[j] = entry.metrics.getDelta(j);
+            entry.gammas[j] = entry.metrics.getGammaP(j) * 100 / futuresPrice; // gammaP = gamma * F / 100
+            entry.vegas[j] = entry.metrics.getVega(j) * 100; // per unit of volatility, metrics have it per 1%
+            entry.levelPrices[j] = price;
+        }
+        entry.futuresPrice = futuresPrice;
+        entry.fairVolatility = fairVolatility;
+        entry.spread = spread;
+        entry.timeToMaturity = timeToMaturity;
+        fullPricingCount.increment();
+
+        if (sampleError && levels > 0)
+        {
+            final double errorTicks = maxError / Prices.toDouble(instrumentManager.getTickSize(optionId));
+            errorSampleCount.increment();
+            errorTicksSum.add(errorTicks);
+            maxErrorTicks.accumulate(errorTicks);
+        }
+        return roundOrderPrices(entry);
+    }
+
+    private long[] roundOrderPrices(final Entry entry)
+    {
+        for (int j = 0; j < 2 * levels; j++)
+        {
+            final long price = Prices.fromDouble(entry.levelPrices[j]);
+            if (j < levels)
+            {
+                entry.orderPrices[j] = price > 0 ? roundPriceToTickSize(price, RoundingMode.DOWN, entry.tickSize) : 0;
+            }
+            else
+            {
+                entry.orderPrices[j] = price > 0
+                    ? roundPriceToTickSize(price, RoundingMode.UP, entry.tickSize)
+                    : entry.tickSize;
+            }
+        }
+        return entry.orderPrices;
+    }
+
+    private void estimate(final Entry entry, final double futuresPriceChange, final double volatilityChange)
+    {
+        final double halfSquaredChange = 0.5 * futuresPriceChange * futuresPriceChange;
+        for (int j = 0; j < 2 * levels; j++)
+        {
+            entry.levelPrices[j] = entry.prices[j]
+                + entry.deltas[j] * futuresPriceChange
+                + entry.gammas[j] * halfSquaredChange
+                + entry.vegas[j] * volatilityChange;
+        }
+    }
+
+    public int getLevels()
+    {
+        return levels;
+    }
+
+    /**
+     * @return number of ladders priced with the estimate
+     */
+    public long getEstimatedCount()
+    {
+        return estimatedCount.sum();
+    }
+
+    /**
+     * @return number of ladders priced fully
+     */
+    public long getFullPricingCount()
+    {
+        return fullPricingCount.sum();
+    }
+
+    /**
+     * @return maximum (over levels) absolute error of the estimate in ticks, averaged over the full pricings replacing
+     *         an estimate because the futures price or fair volatility left the bound, NaN if there were none
+     */
+    public double getMeanErrorTicks()
+    {
+        final long count = errorSampleCount.sum();
+        return count == 0 ? Double.NaN : errorTicksSum.sum() / count;
+    }
+
+    /**
+     * @return maximum absolute error of the estimate in ticks observed when the futures price or fair volatility left
+     *         the bound
+     */
+    public double getMaxErrorTicks()
+    {
+        return maxErrorTicks.get();
+    }
+
+    private static final class Entry
+    {
+        private final double[] prices;
+        private final double[] deltas;
+        private final double[] gammas;
+        private final double[] vegas;
+        private final double[] levelPrices; // unrounded prices of the last call
+        private final long[] orderPrices; // result of the last call
+        private final double[] volatilities;
+        private final Pricing.ChainMetrics metrics = new Pricing.ChainMetrics();
+        private final long tickSize;
+
+        private double futuresPrice; // 0 if never priced
+        private double fairVolatility;
+        private double spread;
+        private double timeToMaturity;
+
+        private Entry(final int levels, final long tickSize)
+        {
+            prices = new double[2 * levels];
+            deltas = new double[2 * levels];
+            gammas = new double[2 * levels];
+            vegas = new double[2 * levels];
+            levelPrices = new double[2 * levels];
+            orderPrices = new long[2 * levels];
+            volatilities = new double[2 * levels];
+            metrics.ensureCapacity(2 * levels);
+            this.tickSize = tickSize;
+        }
+    }
+}
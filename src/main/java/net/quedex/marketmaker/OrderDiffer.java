@@ -0,0 +1,259 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.user.OrderCancelSpec;
+import net.quedex.api.user.OrderModifySpec;
+import net.quedex.api.user.OrderSide;
+import net.quedex.api.user.OrderSpec;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Transforms the live orders of an instrument into a target ladder with as few order specs as possible. For every
+ * side:
+ * <ol>
+ *     <li>live orders with the price of a target level are kept (modified only if quantity differs), so they retain
+ *     their queue priority,</li>
+ *     <li>remaining live orders are modified to the remaining target levels, best price first,</li>
+ *     <li>live orders left over are cancelled and target levels left over are placed.</li>
+ * </ol>
+ * The requested changes are registered in the {@link OrderManager} immediately. Working buffers are reused between
+ * calls, so nothing but the order specs is allocated.
+ */
+@NotThreadSafe
+public class OrderDiffer
+{
+    private final OrderManager orderManager;
+
+    private final SideBuffer buys = new SideBuffer(true);
+    private final SideBuffer sells = new SideBuffer(false);
+    private final List<OrderSpec> cancels = new ArrayList<>();
+    private final List<OrderSpec> modifications = new ArrayList<>();
+    private final List<OrderSpec> places = new ArrayList<>();
+
+    public OrderDiffer(final OrderManager orderManager)
+    {
+        this.orderManager = checkNotNull(orderManager, "null orderManager");
+    }
+
+    /**
+     * @param targetOrders target ladder of the instrument (both sides)
+     * @param result       list the order specs are added to: cancels first, then modifications, then places
+     * @return number of order specs added
+     */
+    public int diff(final int instrumentId, final Collection<GenericOrder> targetOrders, final List<OrderSpec> result)
+    {
+        buys.clear();
+        sells.clear();
+        cancels.clear();
+        modifications.clear();
+        places.clear();
+
+        final OrderManager.InstrumentOrders instrumentOrders = orderManager.getOrdersForInstrument(instrumentId);
+        for (int i = 0; i < instrumentOrders.size(); i++)
+        {
+            if (instrumentOrders.isCancelPending(i))
+            {
+                continue;
+            }
+            final GenericOrder order = instrumentOrders.getOrder(i);
+            (order.getSide() == OrderSide.BUY ? buys : sells).addLive(instrumentOrders.getClientOrderId(i), order);
+        }
+
+        for (final GenericOrder targetOrder : targetOrders)
+        {
+            (targetOrder.getSide() == OrderSide.BUY ? buys : sells).addTarget(targetOrder);
+        }
+
+        buys.sortBestFirst();
+        sells.sortBestFirst();
+
+        diffSide(buys);
+        diffSide(sells);
+
+        addAll(cancels, result);
+        addAll(modifications, result);
+        addAll(places, result);
+
+        return cancels.size() + modifications.size() + places.size();
+    }
+
+    private void diffSide(final SideBuffer side)
+    {
+        // keep live orders already at target prices
+        for (int t = 0; t < side.targetCount; t++)
+        {
+            final GenericOrder target = side.targets[t];
+
+            for (int l = 0; l < side.liveCount; l++)
+            {
+                if (!side.liveMatched[l] && side.liveOrders[l].getPrice() == target.getPrice())
+                {
+                    side.liveMatched[l] = true;
+                    side.targetMatched[t] = true;
+                    if (side.liveOrders[l].getQuantity() != target.getQuantity())
+                    {
+                        modify(side.liveClientOrderIds[l], target);
+                    }
+                    break;
+                }
+            }
+        }
+
+        // move remaining live orders to remaining target levels, best first
+        int l = 0;
+        for (int t = 0; t < side.targetCount; t++)
+        {
+            if (side.targetMatched[t])
+            {
+                continue;
+            }
+            while (l < side.liveCount && side.liveMatched[l])
+            {
+                l++;
+            }
+
+            final GenericOrder target = side.targets[t];
+            if (l < side.liveCount)
+            {
+                side.liveMatched[l] = true;
+                modify(side.liveClientOrderIds[l], target);
+            }
+            else
+            {
+                final long clientOrderId = orderManager.getNextOrderId();
+                places.add(target.toLimitOrderSpec(clientOrderId));
+                orderManager.onPlaceRequested(clientOrderId, target);
+            }
+        }
+
+        for (l = 0; l < side.liveCount; l++)
+        {
+            if (!side.liveMatched[l])
+            {
+                final long clientOrderId = side.liveClientOrderIds[l];
+                cancels.add(new OrderCancelSpec(clientOrderId));
+                orderManager.onCancelRequested(clientOrderId);
+            }
+        }
+    }
+
+    private void modify(final long clientOrderId, final GenericOrder target)
+    {
+        modifications.add(new OrderModifySpec(
+            clientOrderId,
+            target.getQuantity(),
+            Prices.toBigDecimal(target.getPrice())
+        ));
+        orderManager.onModifyRequested(clientOrderId, target.getPrice(), target.getQuantity());
+    }
+
+    /**
+     * Adds element by element, {@link List#addAll} copies the source to an array first.
+     */
+    private static void addAll(final List<OrderSpec> source, final List<OrderSpec> destination)
+    {
+        for (int i = 0; i < source.size(); i++)
+        {
+            destination.add(source.get(i));
+        }
+    }
+
+    /**
+     * Live and target orders of a single side, grown as needed and cleared before every diff.
+     */
+    private static final class SideBuffer
+    {
+        private final boolean buy;
+
+        private long[] liveClientOrderIds = new long[16];
+        private GenericOrder[] liveOrders = new GenericOrder[16];
+        private boolean[] liveMatched = new boolean[16];
+        private int liveCount;
+
+        private GenericOrder[] targets = new GenericOrder[16];
+        private boolean[] targetMatched = new boolean[16];
+        private int targetCount;
+
+        private SideBuffer(final boolean buy)
+        {
+            this.buy = buy;
+        }
+
+        private void clear()
+        {
+            Arrays.fill(liveOrders, 0, liveCount, null);
+            Arrays.fill(liveMatched, 0, liveCount, false);
+            Arrays.fill(targets, 0, targetCount, null);
+            Arrays.fill(targetMatched, 0, targetCount, false);
+            liveCount = 0;
+            targetCount = 0;
+        }
+
+        private void addLive(final long clientOrderId, final GenericOrder order)
+        {
+            if (liveCount == liveOrders.length)
+            {
+                liveClientOrderIds = Arrays.copyOf(liveClientOrderIds, liveCount * 2);
+                liveOrders = Arrays.copyOf(liveOrders, liveCount * 2);
+                liveMatched = Arrays.copyOf(liveMatched, liveCount * 2);
+            }
+            liveClientOrderIds[liveCount] = clientOrderId;
+            liveOrders[liveCount] = order;
+            liveCount++;
+        }
+
+        private void addTarget(final GenericOrder order)
+        {
+            if (targetCount == targets.length)
+            {
+                targets = Arrays.copyOf(targets, targetCount * 2);
+                targetMatched = Arrays.copyOf(targetMatched, targetCount * 2);
+            }
+            targets[targetCount++] = order;
+        }
+
+        /**
+         * Insertion sort, ladders have a few levels only.
+         */
+        private void sortBestFirst()
+        {
+            for (int i = 1; i < liveCount; i++)
+            {
+                final long clientOrderId = liveClientOrderIds[i];
+                final GenericOrder order = liveOrders[i];
+                int j = i - 1;
+                while (j >= 0 && isBetter(order.getPrice(), liveOrders[j].getPrice()))
+                {
+                    liveClientOrderIds[j + 1] = liveClientOrderIds[j];
+                    liveOrders[j + 1] = liveOrders[j];
+                    j--;
+                }
+                liveClientOrderIds[j + 1] = clientOrderId;
+                liveOrders[j + 1] = order;
+            }
+
+            for (int i = 1; i < targetCount; i++)
+            {
+                final GenericOrder order = targets[i];
+                int j = i - 1;
+                while (j >= 0 && isBetter(order.getPrice(), targets[j].getPrice()))
+                {
+                    targets[j + 1] = targets[j];
+                    j--;
+                }
+                targets[j + 1] = order;
+            }
+        }
+
+        private boolean isBetter(final long price, final long otherPrice)
+        {
+            return buy ? price > otherPrice : price < otherPrice;
+        }
+    }
+}
@@ -1,28 +1,70 @@
 package net.quedex.marketmaker;
 
-import com.google.common.collect.ImmutableMap;
 import net.quedex.api.user.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Keeps track of own orders. Places, modifications and cancels are applied optimistically when requested (see
+ * {@link #onPlaceRequested}, {@link #onModifyRequested} and {@link #onCancelRequested}) so that subsequent
+ * recalculations see the requested state, and are confirmed or rolled back when the corresponding events arrive.
+ * Several modifications of an order may be in flight: their requested states are kept in the order requested, each
+ * one is confirmed or dropped by its own event and the order is rolled back to the last confirmed state only when the
+ * last of them fails. Fills are applied against the quantity the exchange reports to be left, so a fill against the
+ * larger quantity before a modification not confirmed yet cannot break the order.
+ * <p>
+ * Orders are kept in primitive keyed maps and their entries are pooled. Resting quantity, order count and best price
+ * of every instrument and side (excluding orders pending cancellation) are maintained incrementally, changes of the
+ * resting quantity are reported to a {@link RestingOrdersListener}.
+ */
 public class OrderManager implements OrderListener
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(OrderManager.class);
 
-    private final Map<Integer, Map<Long, GenericOrder>> instrumentIdToOrderIdToOrder = new HashMap<>();
-    private final Map<Long, GenericOrder> orderIdToOrder = new HashMap<>();
+    public static final long NO_PRICE = 0;
+
+    private static final InstrumentOrders NO_ORDERS = new InstrumentOrders(-1, RestingOrdersListener.NONE);
+
+    private final LongObjectHashMap<OrderEntry> orderIdToEntry = new LongObjectHashMap<>(1024);
+    private final IntObjectHashMap<InstrumentOrders> instrumentIdToOrders = new IntObjectHashMap<>();
+    private final ArrayDeque<OrderEntry> entryPool = new ArrayDeque<>();
+    private final RestingOrdersListener restingOrdersListener;
 
     private long maxOrderId;
 
-    public Collection<Long> getOrderIdsForInstrument(final int instrumentId)
+    public OrderManager()
+    {
+        this(RestingOrdersListener.NONE);
+    }
+
+    public OrderManager(final RestingOrdersListener restingOrdersListener)
+    {
+        this.restingOrdersListener = checkNotNull(restingOrdersListener, "null restingOrdersListener");
+    }
+
+    /**
+     * @return view of the orders of the given instrument, including the ones pending cancellation; valid until the
+     * next change of the orders
+     */
+    public InstrumentOrders getOrdersForInstrument(final int instrumentId)
+    {
+        final InstrumentOrders instrumentOrders = instrumentIdToOrders.get(instrumentId);
+        return instrumentOrders == null ? NO_ORDERS : instrumentOrders;
+    }
+
+    public boolean isCancelPending(final long clientOrderId)
     {
-        return instrumentIdToOrderIdToOrder.getOrDefault(instrumentId, ImmutableMap.of()).keySet();
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        return entry != null && entry.cancelPending;
     }
 
     public long getNextOrderId()
@@ -30,17 +72,86 @@ public class OrderManager implements OrderListener
         return ++maxOrderId;
     }
 
-    public int getSumPlacedQtyForInstrument(final int instrumentId) // TODO: cache this values
+    /**
+     * @return sum of quantities of the orders of the given instrument, excluding the ones pending cancellation
+     */
+    public int getSumPlacedQtyForInstrument(final int instrumentId)
+    {
+        final InstrumentOrders instrumentOrders = getOrdersForInstrument(instrumentId);
+        return instrumentOrders.buy.quantity + instrumentOrders.sell.quantity;
+    }
+
+    /**
+     * @return sum of quantities of the orders on the given side, excluding the ones pending cancellation
+     */
+    public int getRestingQuantity(final int instrumentId, final OrderSide side)
+    {
+        return getOrdersForInstrument(instrumentId).side(side).quantity;
+    }
+
+    /**
+     * @return number of the orders on the given side, excluding the ones pending cancellation
+     */
+    public int getRestingOrderCount(final int instrumentId, final OrderSide side)
+    {
+        return getOrdersForInstrument(instrumentId).side(side).count;
+    }
+
+    /**
+     * @return best price of the orders on the given side (excluding the ones pending cancellation) in the fixed-point
+     * representation (see {@link Prices}) or {@link #NO_PRICE} if there are none
+     */
+    public long getBestPrice(final int instrumentId, final OrderSide side)
+    {
+        return getOrdersForInstrument(instrumentId).getBestPrice(side);
+    }
+
+    public boolean hasOrder(final long clientOrderId)
+    {
+        return orderIdToEntry.containsKey(clientOrderId);
+    }
+
+    public int getInstrumentIdForOrder(final long clientOrderId)
     {
-        return instrumentIdToOrderIdToOrder.getOrDefault(instrumentId, ImmutableMap.of()).values()
-            .stream()
-            .mapToInt(GenericOrder::getQuantity)
-            .sum();
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        checkState(entry != null, "Order id=%s not found", clientOrderId);
+        return entry.order.getInstrumentId();
     }
 
     public Collection<Long> getAllOrderIds()
     {
-        return orderIdToOrder.keySet();
+        final long[] orderIds = orderIdToEntry.keys();
+        final List<Long> result = new ArrayList<>(orderIds.length);
+        for (final long orderId : orderIds)
+        {
+            result.add(orderId);
+        }
+        return result;
+    }
+
+    public void onPlaceRequested(final long clientOrderId, final GenericOrder genericOrder)
+    {
+        addOrder(clientOrderId, genericOrder);
+    }
+
+    public void onModifyRequested(final long clientOrderId, final long newPrice, final int newQuantity)
+    {
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        checkState(entry != null, "Modified order id=%s not found", clientOrderId);
+
+        entry.instrumentOrders.exclude(entry);
+        entry.order.modify(newPrice, newQuantity);
+        entry.instrumentOrders.include(entry);
+        entry.addModification(newPrice, entry.filledQuantity + newQuantity);
+    }
+
+    public void onCancelRequested(final long clientOrderId)
+    {
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        checkState(entry != null, "Cancelled order id=%s not found", clientOrderId);
+
+        entry.instrumentOrders.exclude(entry);
+        entry.cancelPending = true;
     }
 
     @Override
@@ -48,21 +159,13 @@ public class OrderManager implements OrderListener
     {
         LOGGER.debug("{}", orderPlaced);
 
-        final int instrumentId = orderPlaced.getInstrumentId();
-        Map<Long, GenericOrder> orderIdToOrder = instrumentIdToOrderIdToOrder.get(instrumentId);
-
-        if (orderIdToOrder == null)
+        final long clientOrderId = orderPlaced.getClientOrderId();
+        if (!orderIdToEntry.containsKey(clientOrderId)) // otherwise already added when requested
         {
-            orderIdToOrder = new HashMap<>();
-            instrumentIdToOrderIdToOrder.put(instrumentId, orderIdToOrder);
+            addOrder(clientOrderId, new GenericOrder(orderPlaced));
         }
 
-        final long clientOrderId = orderPlaced.getClientOrderId();
-        final GenericOrder genericOrder = new GenericOrder(orderPlaced);
-        orderIdToOrder.put(clientOrderId, genericOrder);
-        this.orderIdToOrder.put(clientOrderId, genericOrder);
-
-        maxOrderId = Math.max(maxOrderId, orderPlaced.getClientOrderId());
+        maxOrderId = Math.max(maxOrderId, clientOrderId);
     }
 
     @Override
@@ -77,47 +180,382 @@ public class OrderManager implements OrderListener
     public void onOrderFilled(final OrderFilled orderFilled)
     {
         final long clientOrderId = orderFilled.getClientOrderId();
-        final GenericOrder genericOrder = orderIdToOrder.get(clientOrderId);
-        checkState(genericOrder != null, "Filled order id=%s not found", clientOrderId);
-        genericOrder.fill(orderFilled.getFilledQuantity());
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        checkState(entry != null, "Filled order id=%s not found", clientOrderId);
+
+        final int filledQuantity = orderFilled.getFilledQuantity();
+        final int leavesQuantity = orderFilled.getLeavesOrderQuantity();
 
-        if (genericOrder.isFullyFilled())
+        entry.instrumentOrders.exclude(entry);
+        entry.filledQuantity += filledQuantity;
+        // may exceed the quantity reduced by a modification the exchange has not applied yet
+        entry.order.fill(Math.min(filledQuantity, entry.order.getQuantity()));
+        if (leavesQuantity > 0 && (entry.pendingModifications == 0 || entry.order.isFullyFilled()))
         {
-            removeOrder(clientOrderId);
+            entry.order.modify(entry.order.getPrice(), leavesQuantity); // re-sync with what is left at the exchange
         }
+        entry.instrumentOrders.include(entry);
 
-        LOGGER.debug("fill={}, orderAfterFill={}", orderFilled, genericOrder);
-    }
+        LOGGER.debug("fill={}, orderAfterFill={}", orderFilled, entry.order);
 
-    private void removeOrder(final long clientOrderId)
-    {
-        final GenericOrder genericOrder = orderIdToOrder.remove(clientOrderId);
-        checkState(genericOrder != null, "Removed order id=%s not found", clientOrderId);
-        final Map<Long, GenericOrder> orderIdToOrder = instrumentIdToOrderIdToOrder.get(genericOrder.getInstrumentId());
-        orderIdToOrder.remove(clientOrderId);
+        if (leavesQuantity == 0)
+        {
+            removeOrder(clientOrderId); // events of the modifications still pending are ignored
+        }
     }
 
     @Override
     public void onOrderPlaceFailed(final OrderPlaceFailed orderPlaceFailed)
     {
-        // no-op
+        onPlaceDropped(orderPlaceFailed.getClientOrderId());
+    }
+
+    /**
+     * The requested place has not reached the exchange (see {@link CoalescedOrderListener}), the order is removed.
+     */
+    public void onPlaceDropped(final long clientOrderId)
+    {
+        if (orderIdToEntry.containsKey(clientOrderId))
+        {
+            removeOrder(clientOrderId);
+        }
     }
 
     @Override
     public void onOrderCancelFailed(final OrderCancelFailed orderCancelFailed)
     {
-        // no-op
+        final OrderEntry entry = orderIdToEntry.get(orderCancelFailed.getClientOrderId());
+        if (entry != null && entry.cancelPending)
+        {
+            entry.cancelPending = false;
+            entry.instrumentOrders.include(entry);
+        }
     }
 
     @Override
     public void onOrderModified(final OrderModified orderModified)
     {
-        // no-op
+        LOGGER.debug("{}", orderModified);
+
+        // modification has already been applied when requested, the exchange applies them in order
+        confirmOldestModification(orderModified.getClientOrderId());
+    }
+
+    /**
+     * The requested modification has been merged into the requested place (see {@link CoalescedOrderListener}), so it
+     * is confirmed with the place.
+     */
+    public void onModificationMerged(final long clientOrderId)
+    {
+        confirmOldestModification(clientOrderId); // nothing of the order has been sent, so all are merged in order
     }
 
     @Override
     public void onOrderModificationFailed(final OrderModificationFailed orderModificationFailed)
     {
-        // no-op
+        final OrderEntry entry = orderIdToEntry.get(orderModificationFailed.getClientOrderId());
+        if (entry != null && entry.pendingModifications > 0)
+        {
+            entry.removeModification(0); // the exchange responds in order
+            rollBackIfNoneLeft(entry);
+        }
+    }
+
+    /**
+     * The requested modification has not reached the exchange because the order is being cancelled (see
+     * {@link CoalescedOrderListener}), the order is rolled back to its last confirmed price and quantity.
+     */
+    public void onModificationDropped(final long clientOrderId)
+    {
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        if (entry != null && entry.pendingModifications > 0)
+        {
+            entry.removeModification(entry.pendingModifications - 1); // nothing is requested after the cancel
+            rollBackIfNoneLeft(entry);
+        }
+    }
+
+    /**
+     * The requested modification has been replaced by a later one before being sent (see
+     * {@link CoalescedOrderListener}), the order keeps the state of the later one.
+     */
+    public void onModificationReplaced(final long clientOrderId)
+    {
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        if (entry != null && entry.pendingModifications > 1)
+        {
+            entry.removeModification(entry.pendingModifications - 2); // the one before its replacement
+        }
+    }
+
+    private void confirmOldestModification(final long clientOrderId)
+    {
+        final OrderEntry entry = orderIdToEntry.get(clientOrderId);
+        if (entry == null || entry.pendingModifications == 0)
+        {
+            return;
+        }
+
+        entry.confirmedPrice = entry.modificationPrices[0];
+        entry.confirmedInitialQuantity = entry.modificationInitialQuantities[0];
+        entry.removeModification(0);
+        if (entry.pendingModifications == 0) // exchange state is the requested one
+        {
+            entry.confirmedPrice = entry.order.getPrice();
+            entry.confirmedInitialQuantity = entry.filledQuantity + entry.order.getQuantity();
+        }
+    }
+
+    private void rollBackIfNoneLeft(final OrderEntry entry)
+    {
+        if (entry.pendingModifications > 0)
+        {
+            return; // the order will be in the state of the later modifications
+        }
+
+        // fills received in the meantime reduce the confirmed quantity
+        final int quantity = entry.confirmedInitialQuantity - entry.filledQuantity;
+        if (quantity > 0)
+        {
+            entry.instrumentOrders.exclude(entry);
+            entry.order.modify(entry.confirmedPrice, quantity);
+            entry.instrumentOrders.include(entry);
+        }
+        else
+        {
+            removeOrder(entry.clientOrderId);
+        }
+    }
+
+    private void addOrder(final long clientOrderId, final GenericOrder genericOrder)
+    {
+        final int instrumentId = genericOrder.getInstrumentId();
+        InstrumentOrders instrumentOrders = instrumentIdToOrders.get(instrumentId);
+
+        if (instrumentOrders == null)
+        {
+            instrumentOrders = new InstrumentOrders(instrumentId, restingOrdersListener);
+            instrumentIdToOrders.put(instrumentId, instrumentOrders);
+        }
+
+        final OrderEntry pooled = entryPool.pollFirst();
+        final OrderEntry entry = pooled == null ? new OrderEntry() : pooled;
+        entry.clientOrderId = clientOrderId;
+        entry.order = genericOrder;
+        entry.instrumentOrders = instrumentOrders;
+        entry.filledQuantity = genericOrder.getFilledQuantity();
+        entry.confirmedPrice = genericOrder.getPrice();
+        entry.confirmedInitialQuantity = genericOrder.getInitialQuantity();
+
+        final OrderEntry previous = orderIdToEntry.put(clientOrderId, entry);
+        checkState(previous == null, "Order id=%s already exists", clientOrderId);
+        instrumentOrders.add(entry);
+    }
+
+    private void removeOrder(final long clientOrderId)
+    {
+        final OrderEntry entry = orderIdToEntry.remove(clientOrderId);
+        checkState(entry != null, "Removed order id=%s not found", clientOrderId);
+
+        entry.instrumentOrders.remove(entry);
+        entry.reset();
+        entryPool.addFirst(entry);
+    }
+
+    /**
+     * Orders of a single instrument, indexed from 0 to {@link #size()} - 1 in no particular order.
+     */
+    public static final class InstrumentOrders
+    {
+        private final SideAggregates buy = new SideAggregates(true);
+        private final SideAggregates sell = new SideAggregates(false);
+        private final int instrumentId;
+        private final RestingOrdersListener restingOrdersListener;
+
+        private OrderEntry[] entries = new OrderEntry[8];
+        private int size;
+
+        private InstrumentOrders(final int instrumentId, final RestingOrdersListener restingOrdersListener)
+        {
+            this.instrumentId = instrumentId;
+            this.restingOrdersListener = restingOrdersListener;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public long getClientOrderId(final int index)
+        {
+            return entries[index].clientOrderId;
+        }
+
+        public GenericOrder getOrder(final int index)
+        {
+            return entries[index].order;
+        }
+
+        public boolean isCancelPending(final int index)
+        {
+            return entries[index].cancelPending;
+        }
+
+        private SideAggregates side(final OrderSide side)
+        {
+            return side == OrderSide.BUY ? buy : sell;
+        }
+
+        private long getBestPrice(final OrderSide orderSide)
+        {
+            final SideAggregates side = side(orderSide);
+            if (side.bestPriceStale)
+            {
+                long bestPrice = NO_PRICE;
+                for (int i = 0; i < size; i++)
+                {
+                    final OrderEntry entry = entries[i];
+                    if (!entry.cancelPending && entry.order.getSide() == orderSide)
+                    {
+                        bestPrice = side.better(bestPrice, entry.order.getPrice());
+                    }
+                }
+                side.bestPrice = bestPrice;
+                side.bestPriceStale = false;
+            }
+            return side.bestPrice;
+        }
+
+        private void add(final OrderEntry entry)
+        {
+            if (size == entries.length)
+            {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entry.index = size;
+            entries[size++] = entry;
+            include(entry);
+        }
+
+        private void remove(final OrderEntry entry)
+        {
+            exclude(entry);
+            final OrderEntry last = entries[--size];
+            entries[entry.index] = last;
+            last.index = entry.index;
+            entries[size] = null;
+        }
+
+        private void include(final OrderEntry entry)
+        {
+            if (entry.cancelPending)
+            {
+                return;
+            }
+            final SideAggregates side = side(entry.order.getSide());
+            side.quantity += entry.order.getQuantity();
+            side.count++;
+            if (!side.bestPriceStale)
+            {
+                side.bestPrice = side.better(side.bestPrice, entry.order.getPrice());
+            }
+            restingOrdersListener.onRestingQuantityChanged(
+                instrumentId,
+                entry.order.getSide(),
+                entry.order.getQuantity()
+            );
+        }
+
+        private void exclude(final OrderEntry entry)
+        {
+            if (entry.cancelPending)
+            {
+                return;
+            }
+            final SideAggregates side = side(entry.order.getSide());
+            side.quantity -= entry.order.getQuantity();
+            side.count--;
+            if (side.bestPrice == entry.order.getPrice())
+            {
+                side.bestPriceStale = true; // recalculated lazily
+            }
+            restingOrdersListener.onRestingQuantityChanged(
+                instrumentId,
+                entry.order.getSide(),
+                -entry.order.getQuantity()
+            );
+        }
+    }
+
+    private static final class SideAggregates
+    {
+        private final boolean buy;
+
+        private int quantity;
+        private int count;
+        private long bestPrice = NO_PRICE;
+        private boolean bestPriceStale = false;
+
+        private SideAggregates(final boolean buy)
+        {
+            this.buy = buy;
+        }
+
+        private long better(final long price1, final long price2)
+        {
+            if (price1 == NO_PRICE)
+            {
+                return price2;
+            }
+            return buy ? Math.max(price1, price2) : Math.min(price1, price2);
+        }
+    }
+
+    private static final class OrderEntry
+    {
+        private long clientOrderId;
+        private GenericOrder order;
+        private InstrumentOrders instrumentOrders;
+        private int index;
+        private boolean cancelPending;
+        private int filledQuantity; // as reported by the exchange
+        private long confirmedPrice; // last state applied by the exchange
+        private int confirmedInitialQuantity;
+
+        // requested states of the modifications in flight, oldest first
+        private long[] modificationPrices = new long[2];
+        private int[] modificationInitialQuantities = new int[2];
+        private int pendingModifications;
+
+        private void addModification(final long price, final int initialQuantity)
+        {
+            if (pendingModifications == modificationPrices.length)
+            {
+                modificationPrices = Arrays.copyOf(modificationPrices, pendingModifications * 2);
+                modificationInitialQuantities = Arrays.copyOf(modificationInitialQuantities, pendingModifications * 2);
+            }
+            modificationPrices[pendingModifications] = price;
+            modificationInitialQuantities[pendingModifications] = initialQuantity;
+            pendingModifications++;
+        }
+
+        private void removeModification(final int index)
+        {
+            pendingModifications--;
+            System.arraycopy(modificationPrices, index + 1, modificationPrices, index, pendingModifications - index);
+            System.arraycopy(
+                modificationInitialQuantities, index + 1,
+                modificationInitialQuantities, index,
+                pendingModifications - index
+            );
+        }
+
+        private void reset()
+        {
+            order = null;
+            instrumentOrders = null;
+            cancelPending = false;
+            pendingModifications = 0;
+        }
     }
 }
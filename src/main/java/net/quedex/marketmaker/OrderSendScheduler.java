@@ -0,0 +1,535 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.user.LimitOrderSpec;
+import net.quedex.api.user.OrderCancelSpec;
+import net.quedex.api.user.OrderModifySpec;
+import net.quedex.api.user.OrderSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sends order specs to the exchange on its own thread, paced by a token bucket of the exchange message budget (a
+ * message per order spec). Pending specs are sent by priority - cancels, then modifications, then places, each in the
+ * order submitted - in batches of bounded size, so that cancels never wait behind new orders when throttled.
+ * <p>
+ * Pending specs of the same order are coalesced: a cancel drops a pending place (neither is sent) or a pending
+ * modification, a modification of a pending place is merged into the place and a modification replaces a pending one.
+ * Cancels going first would otherwise be reordered ahead of the place they cancel. Coalescing is reported to a
+ * {@link CoalescedOrderListener}.
+ * <p>
+ * The queue is bounded softly: once the number of pending specs reaches the capacity, back-pressure is signalled to
+ * a {@link SendBackPressureListener} until the queue drains to half of it. Specs are never rejected, as dropping a
+ * cancel could leave an order in the market - the producer is expected to stop generating new specs instead.
+ * <p>
+ * On shutdown, {@link #drain} stops accepting specs other than cancels and waits until the pending ones are written.
+ */
+@ThreadSafe
+public class OrderSendScheduler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderSendScheduler.class);
+
+    private final Consumer<List<OrderSpec>> batchSender;
+    private final CoalescedOrderListener coalescedOrderListener;
+    private final SendBackPressureListener backPressureListener;
+    private final LatencyMetrics latencyMetrics;
+    private final double messagesPerNano; // 0 if not limited
+    private final int burst;
+    private final int maxBatchSize;
+    private final int queueCapacity; // 0 if not bounded
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingOrStopped = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final Thread thread;
+
+    @GuardedBy("lock") private final Map<Long, OrderSpec> pendingCancels = new LinkedHashMap<>();
+    @GuardedBy("lock") private final Map<Long, OrderSpec> pendingModifications = new LinkedHashMap<>();
+    @GuardedBy("lock") private final Map<Long, LimitOrderSpec> pendingPlaces = new LinkedHashMap<>();
+    @GuardedBy("lock") private final List<Runnable> pendingNotifications = new ArrayList<>();
+    @GuardedBy("lock") private double tokens;
+    @GuardedBy("lock") private long refillTimeNanos;
+    @GuardedBy("lock") private boolean running = false;
+    @GuardedBy("lock") private boolean backPressured = false;
+    @GuardedBy("lock") private boolean draining = false; // only cancels accepted
+    @GuardedBy("lock") private boolean sending = false; // a taken batch is being written
+    @GuardedBy("lock") private long oldestSubmitNanos; // since the queue was last empty
+
+    @GuardedBy("lock") private long sentMessageCount = 0;
+    @GuardedBy("lock") private long sentBatchCount = 0;
+    @GuardedBy("lock") private long coalescedCount = 0;
+    @GuardedBy("lock") private long throttleWaitNanos = 0;
+    @GuardedBy("lock") private long backPressureCount = 0;
+
+    /**
+     * @param batchSender          sends a batch of specs to the exchange, called on the sender thread
+     * @param maxMessagesPerSecond sustained message rate, 0 means no limit
+     * @param burst                number of messages that may be sent at once after a quiet period
+     * @param queueCapacity        number of pending specs signalling back-pressure, 0 means no back-pressure
+     */
+    public OrderSendScheduler(
+        final Consumer<List<OrderSpec>> batchSender,
+        final CoalescedOrderListener coalescedOrderListener,
+        final SendBackPressureListener backPressureListener,
+        final LatencyMetrics latencyMetrics,
+        final double maxMessagesPerSecond,
+        final int burst,
+        final int maxBatchSize,
+        final int queueCapacity)
+    {
+        checkArgument(maxMessagesPerSecond >= 0, "maxMessagesPerSecond=%s < 0", maxMessagesPerSecond);
+        checkArgument(burst > 0, "burst=%s <= 0", burst);
+        checkArgument(maxBatchSize > 0, "maxBatchSize=%s <= 0", maxBatchSize);
+        checkArgument(queueCapacity >= 0, "queueCapacity=%s < 0", queueCapacity);
+        this.batchSender = checkNotNull(batchSender, "null batchSender");
+        this.coalescedOrderListener = checkNotNull(coalescedOrderListener, "null coalescedOrderListener");
+        this.backPressureListener = checkNotNull(backPressureListener, "null backPressureListener");
+        this.latencyMetrics = checkNotNull(latencyMetrics, "null latencyMetrics");
+        this.messagesPerNano = maxMessagesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.maxBatchSize = maxBatchSize;
+        this.queueCapacity = queueCapacity;
+        this.tokens = burst;
+        this.thread = new Thread(this::run, "order-sender");
+        this.thread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        lock.lock();
+        try
+        {
+            running = true;
+            refillTimeNanos = System.nanoTime();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        thread.start();
+    }
+
+    /**
+     * Stops the sender thread, specs still pending are not sent - cancels among them are logged.
+     */
+    public void stop()
+    {
+        lock.lock();
+        try
+        {
+            running = false;
+            pendingOrStopped.signalAll();
+            drained.signalAll();
+            if (!pendingCancels.isEmpty())
+            {
+                LOGGER.warn(
+                    "Stopped with {} cancels not sent, clientOrderIds={}",
+                    pendingCancels.size(), pendingCancels.keySet()
+                );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting specs other than cancels (submitted later ones are dropped, as the orders are being cancelled)
+     * and waits until all the pending specs are written, the sender stops or the timeout elapses.
+     *
+     * @return whether all the pending specs were written
+     */
+    public boolean drain(final long timeoutMillis) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            draining = true;
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (running && (pendingCount() > 0 || sending) && remainingNanos > 0)
+            {
+                remainingNanos = drained.awaitNanos(remainingNanos);
+            }
+            return pendingCount() == 0 && !sending;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enqueues the specs for sending, may be called from any thread. Never blocks - neither on the rate limit nor on
+     * the capacity of the queue.
+     */
+    public void submit(final List<OrderSpec> orderSpecs)
+    {
+        if (orderSpecs.isEmpty())
+        {
+            return;
+        }
+
+        int droppedCount = 0;
+        lock.lock();
+        try
+        {
+            if (pendingCount() == 0)
+            {
+                oldestSubmitNanos = System.nanoTime();
+            }
+            for (final OrderSpec orderSpec : orderSpecs)
+            {
+                if (draining && !(orderSpec instanceof OrderCancelSpec))
+                {
+                    droppedCount++;
+                    continue;
+                }
+                enqueue(orderSpec);
+            }
+            updateBackPressure();
+            pendingOrStopped.signalAll();
+            signalIfDrained(); // a cancel may have dropped the last pending place
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (droppedCount > 0)
+        {
+            LOGGER.info("Dropped {} order specs submitted while draining", droppedCount);
+        }
+    }
+
+    /**
+     * @return number of specs waiting to be sent
+     */
+    public int getQueueDepth()
+    {
+        lock.lock();
+        try
+        {
+            return pendingCount();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return total time the sender waited for the rate limit with specs pending, in milliseconds
+     */
+    public long getThrottleWaitMillis()
+    {
+        lock.lock();
+        try
+        {
+            return TimeUnit.NANOSECONDS.toMillis(throttleWaitNanos);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of times the queue filled up to capacity
+     */
+    public long getBackPressureCount()
+    {
+        lock.lock();
+        try
+        {
+            return backPressureCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getSentMessageCount()
+    {
+        lock.lock();
+        try
+        {
+            return sentMessageCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getSentBatchCount()
+    {
+        lock.lock();
+        try
+        {
+            return sentBatchCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of specs that were not sent because they were coalesced with a later one
+     */
+    public long getCoalescedCount()
+    {
+        lock.lock();
+        try
+        {
+            return coalescedCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void enqueue(final OrderSpec orderSpec)
+    {
+        if (orderSpec instanceof OrderCancelSpec)
+        {
+            final long clientOrderId = ((OrderCancelSpec) orderSpec).getClientOrderId();
+            if (pendingPlaces.remove(clientOrderId) != null)
+            {
+                coalescedCount += 2;
+                pendingNotifications.add(() -> coalescedOrderListener.onPlaceDropped(clientOrderId));
+                return;
+            }
+            if (pendingModifications.remove(clientOrderId) != null)
+            {
+                coalescedCount++;
+                pendingNotifications.add(() -> coalescedOrderListener.onModificationDropped(clientOrderId));
+            }
+            pendingCancels.put(clientOrderId, orderSpec);
+        }
+        else if (orderSpec instanceof OrderModifySpec)
+        {
+            final OrderModifySpec modifySpec = (OrderModifySpec) orderSpec;
+            final long clientOrderId = modifySpec.getClientOrderId();
+            final LimitOrderSpec place = pendingPlaces.get(clientOrderId);
+            if (place != null)
+            {
+                pendingPlaces.put(clientOrderId, new LimitOrderSpec(
+                    clientOrderId,
+                    place.getInstrumentId(),
+                    place.getSide(),
+                    modifySpec.getNewQuantity(), // nothing filled yet
+                    modifySpec.getNewPrice()
+                ));
+                coalescedCount++;
+                pendingNotifications.add(() -> coalescedOrderListener.onModificationMerged(clientOrderId));
+                return;
+            }
+            if (pendingModifications.put(clientOrderId, orderSpec) != null)
+            {
+                coalescedCount++;
+                pendingNotifications.add(() -> coalescedOrderListener.onModificationReplaced(clientOrderId));
+            }
+        }
+        else if (orderSpec instanceof LimitOrderSpec)
+        {
+            final LimitOrderSpec placeSpec = (LimitOrderSpec) orderSpec;
+            pendingPlaces.put(placeSpec.getClientOrderId(), placeSpec);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown order spec: " + orderSpec);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void updateBackPressure()
+    {
+        if (queueCapacity == 0)
+        {
+            return;
+        }
+
+        final int pendingCount = pendingCount();
+        if (!backPressured && pendingCount >= queueCapacity)
+        {
+            backPressured = true;
+            backPressureCount++;
+            pendingNotifications.add(() -> backPressureListener.onBackPressureChanged(true));
+        }
+        else if (backPressured && pendingCount <= queueCapacity / 2) // hysteresis, so that it does not flap
+        {
+            backPressured = false;
+            pendingNotifications.add(() -> backPressureListener.onBackPressureChanged(false));
+        }
+    }
+
+    @GuardedBy("lock")
+    private int pendingCount()
+    {
+        return pendingCancels.size() + pendingModifications.size() + pendingPlaces.size();
+    }
+
+    @GuardedBy("lock")
+    private void signalIfDrained()
+    {
+        if (pendingCount() == 0 && !sending)
+        {
+            drained.signalAll();
+        }
+    }
+
+    private void run()
+    {
+        LOGGER.info("Order sender started");
+        final List<Runnable> notifications = new ArrayList<>();
+
+        while (true)
+        {
+            final List<OrderSpec> batch;
+            lock.lock();
+            try
+            {
+                if (!running)
+                {
+                    break;
+                }
+                notifications.addAll(pendingNotifications);
+                pendingNotifications.clear();
+                batch = notifications.isEmpty() ? takeBatch() : null; // notify first, without holding the lock
+                sending = batch != null && !batch.isEmpty();
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            try
+            {
+                for (final Runnable notification : notifications)
+                {
+                    notification.run();
+                }
+                notifications.clear();
+                if (batch != null && !batch.isEmpty())
+                {
+                    LOGGER.debug("Sending {}", batch);
+                    final long startNanos = System.nanoTime();
+                    batchSender.accept(batch);
+                    latencyMetrics.record(LatencyMetrics.Stage.SEND_WRITE, System.nanoTime() - startNanos);
+                }
+            }
+            catch (final RuntimeException e) // keeps sending the rest
+            {
+                notifications.clear();
+                LOGGER.error("Error sending order specs", e);
+            }
+
+            if (batch != null && !batch.isEmpty())
+            {
+                lock.lock();
+                try
+                {
+                    sending = false;
+                    signalIfDrained();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+        LOGGER.info("Order sender stopped");
+    }
+
+    /**
+     * Waits until there are specs pending and the rate limit allows sending, returns empty batch if notifications
+     * arrived or stopped in the meantime.
+     */
+    @GuardedBy("lock")
+    private List<OrderSpec> takeBatch() throws InterruptedException
+    {
+        while (pendingCount() == 0)
+        {
+            if (!running || !pendingNotifications.isEmpty())
+            {
+                return new ArrayList<>(0);
+            }
+            pendingOrStopped.await();
+        }
+
+        int size = Math.min(maxBatchSize, pendingCount());
+        if (messagesPerNano > 0)
+        {
+            refill();
+            if (tokens < 1)
+            {
+                final long waitNanos = (long) Math.ceil((1 - tokens) / messagesPerNano);
+                final long startNanos = System.nanoTime();
+                pendingOrStopped.awaitNanos(waitNanos);
+                throttleWaitNanos += System.nanoTime() - startNanos;
+                return new ArrayList<>(0); // re-evaluated in the next iteration, more urgent specs may have arrived
+            }
+            size = Math.min(size, (int) tokens);
+            tokens -= size;
+        }
+
+        // specs left pending were mostly submitted together with the ones taken, so they keep the submit time
+        latencyMetrics.record(LatencyMetrics.Stage.SEND_QUEUE, System.nanoTime() - oldestSubmitNanos);
+
+        final List<OrderSpec> batch = new ArrayList<>(size);
+        latencyMetrics.increment(LatencyMetrics.Counter.CANCELS, take(pendingCancels, batch, size));
+        latencyMetrics.increment(LatencyMetrics.Counter.MODIFICATIONS, take(pendingModifications, batch, size));
+        latencyMetrics.increment(LatencyMetrics.Counter.PLACES, take(pendingPlaces, batch, size));
+        updateBackPressure();
+        sentMessageCount += batch.size();
+        sentBatchCount++;
+        return batch;
+    }
+
+    @GuardedBy("lock")
+    private void refill()
+    {
+        final long nowNanos = System.nanoTime();
+        tokens = Math.min(burst, tokens + (nowNanos - refillTimeNanos) * messagesPerNano);
+        refillTimeNanos = nowNanos;
+    }
+
+    /**
+     * @return number of specs taken
+     */
+    private static int take(final Map<Long, ? extends OrderSpec> pending, final List<OrderSpec> batch, final int size)
+    {
+        final int initialSize = batch.size();
+        final Iterator<? extends OrderSpec> iterator = pending.values().iterator();
+        while (batch.size() < size && iterator.hasNext())
+        {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batch.size() - initialSize;
+    }
+}
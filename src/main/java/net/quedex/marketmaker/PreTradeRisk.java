@@ -0,0 +1,248 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.user.OrderSide;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the worst-case exposure of the resting orders: the total delta (vega) of the open positions plus the delta
+ * (vega) of all the resting orders increasing it, i.e. the total after a sweep filling every such order, has to stay
+ * within the limit, and the same for the orders decreasing it.
+ * <p>
+ * Resting quantities are updated incrementally from {@link OrderManager} (orders pending cancellation are not counted),
+ * together with the aggregate exposures, so a candidate order is checked in O(1). Per contract greeks of an instrument
+ * are repriced when its candidate orders are checked and adjust the aggregates by the difference, greeks of the
+ * instruments not requoted recently may thus be stale.
+ */
+@NotThreadSafe
+public class PreTradeRisk implements RestingOrdersListener
+{
+    private final FairVolatilityProvider fairVolatilityProvider;
+    private final RiskTotals riskTotals;
+    private final Pricing pricing;
+    private final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+    private final double deltaLimit;
+    private final double vegaLimit;
+
+    // indexed by instrumentId
+    private final int[] buyQuantities;
+    private final int[] sellQuantities;
+    private final double[] contractDeltas;
+    private final double[] contractVegas; // per notional
+
+    // exposure of the resting orders increasing (long) or decreasing (short) the totals
+    private double longDelta = 0;
+    private double shortDelta = 0;
+    private double longVega = 0;
+    private double shortVega = 0;
+
+    private long rejectedCount = 0;
+
+    /**
+     * @param deltaLimit worst-case delta limit, 0 means no limit
+     * @param vegaLimit  worst-case vega limit, 0 means no limit
+     */
+    public PreTradeRisk(
+        final InstrumentManager instrumentManager,
+        final FairVolatilityProvider fairVolatilityProvider,
+        final RiskTotals riskTotals,
+        final Pricing pricing,
+        final double deltaLimit,
+        final double vegaLimit)
+    {
+        checkArgument(deltaLimit >= 0, "deltaLimit=%s < 0", deltaLimit);
+        checkArgument(vegaLimit >= 0, "vegaLimit=%s < 0", vegaLimit);
+        this.fairVolatilityProvider = checkNotNull(fairVolatilityProvider, "null fairVolatilityProvider");
+        this.riskTotals = checkNotNull(riskTotals, "null riskTotals");
+        this.pricing = checkNotNull(pricing, "null pricing");
+        this.deltaLimit = deltaLimit;
+        this.vegaLimit = vegaLimit;
+
+        final int size = checkNotNull(instrumentManager, "null instrumentManager").getMaxInstrumentId() + 1;
+        buyQuantities = new int[size];
+        sellQuantities = new int[size];
+        contractDeltas = new double[size];
+        contractVegas = new double[size];
+    }
+
+    @Override
+    public void onRestingQuantityChanged(final int instrumentId, final OrderSide side, final int quantityChange)
+    {
+        final double sign = side == OrderSide.BUY ? 1 : -1;
+        if (side == OrderSide.BUY)
+        {
+            buyQuantities[instrumentId] += quantityChange;
+        }
+        else
+        {
+            sellQuantities[instrumentId] += quantityChange;
+        }
+        addExposure(quantityChange, sign * contractDeltas[instrumentId], sign * contractVegas[instrumentId]);
+    }
+
+    /**
+     * Reprices the greeks of the instrument and adds the candidate orders not breaching the limits to
+     * {@code accepted}. The candidates are assumed to replace the resting orders of the instrument, so the exposure of
+     * these is not counted. Candidates are checked in the given order, so the better levels (if first) are kept.
+     *
+     * @param candidates target orders of the instrument, e.g. from {@link OrderPlacingStrategy#getOrders}
+     */
+    public void checkOrders(
+        final Instrument instrument,
+        final double futuresPrice,
+        final Collection<GenericOrder> candidates,
+        final List<GenericOrder> accepted)
+    {
+        final int instrumentId = instrument.getInstrumentId();
+        updateGreeks(instrument, futuresPrice);
+
+        final double delta = contractDeltas[instrumentId];
+        final double vega = contractVegas[instrumentId];
+        final int buyQuantity = buyQuantities[instrumentId];
+        final int sellQuantity = sellQuantities[instrumentId];
+
+        // exposure without the resting orders of the instrument, plus the candidates accepted so far
+        double maxDelta = riskTotals.getTotalDelta() + longDelta
+            - buyQuantity * Math.max(delta, 0) - sellQuantity * Math.max(-delta, 0);
+        double minDelta = riskTotals.getTotalDelta() + shortDelta
+            - buyQuantity * Math.min(delta, 0) - sellQuantity * Math.min(-delta, 0);
+        double maxVega = riskTotals.getTotalVega() + longVega
+            - buyQuantity * Math.max(vega, 0) - sellQuantity * Math.max(-vega, 0);
+        double minVega = riskTotals.getTotalVega() + shortVega
+            - buyQuantity * Math.min(vega, 0) - sellQuantity * Math.min(-vega, 0);
+
+        for (final GenericOrder candidate : candidates)
+        {
+            final double sign = candidate.getSide() == OrderSide.BUY ? 1 : -1;
+            final double deltaExposure = candidate.getQuantity() * sign * delta;
+            final double vegaExposure = candidate.getQuantity() * sign * vega;
+
+            final double newMaxDelta = maxDelta + Math.max(deltaExposure, 0);
+            final double newMinDelta = minDelta + Math.min(deltaExposure, 0);
+            final double newMaxVega = maxVega + Math.max(vegaExposure, 0);
+            final double newMinVega = minVega + Math.min(vegaExposure, 0);
+
+            if (withinLimit(deltaLimit, deltaExposure, newMaxDelta, newMinDelta)
+                && withinLimit(vegaLimit, vegaExposure, newMaxVega, newMinVega))
+            {
+                maxDelta = newMaxDelta;
+                minDelta = newMinDelta;
+                maxVega = newMaxVega;
+                minVega = newMinVega;
+                accepted.add(candidate);
+            }
+            else
+            {
+                rejectedCount++;
+            }
+        }
+    }
+
+    /**
+     * @return number of candidate orders rejected for breaching the limits
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount;
+    }
+
+    /**
+     * @return total delta if all the resting orders increasing it were filled
+     */
+    public double getWorstCaseMaxDelta()
+    {
+        return riskTotals.getTotalDelta() + longDelta;
+    }
+
+    /**
+     * @return total delta if all the resting orders decreasing it were filled
+     */
+    public double getWorstCaseMinDelta()
+    {
+        return riskTotals.getTotalDelta() + shortDelta;
+    }
+
+    /**
+     * @return total vega if all the resting orders increasing it were filled
+     */
+    public double getWorstCaseMaxVega()
+    {
+        return riskTotals.getTotalVega() + longVega;
+    }
+
+    /**
+     * @return total vega if all the resting orders decreasing it were filled
+     */
+    public double getWorstCaseMinVega()
+    {
+        return riskTotals.getTotalVega() + shortVega;
+    }
+
+    /**
+     * An order increasing the exposure is checked only against the bound in its direction, so orders reducing a breach
+     * are always accepted.
+     */
+    private static boolean withinLimit(
+        final double limit,
+        final double exposure,
+        final double newMax,
+        final double newMin)
+    {
+        return limit == 0
+            || exposure == 0
+            || (exposure > 0 ? newMax <= limit : newMin >= -limit);
+    }
+
+    private void updateGreeks(final Instrument instrument, final double futuresPrice)
+    {
+        final int instrumentId = instrument.getInstrumentId();
+        pricing.calculateMetrics(
+            instrument,
+            instrument.isFutures() ? Double.NaN : fairVolatilityProvider.getFairVolatility(instrumentId),
+            futuresPrice,
+            metrics
+        );
+        final double delta = metrics.getDelta();
+        final double vega = metrics.getVega() * instrument.getNotionalAmount(); // as in RiskManager
+
+        // exposures of a side keep their sign, so removing and adding them back keeps the buckets consistent
+        addExposure(-buyQuantities[instrumentId], contractDeltas[instrumentId], contractVegas[instrumentId]);
+        addExposure(-sellQuantities[instrumentId], -contractDeltas[instrumentId], -contractVegas[instrumentId]);
+        contractDeltas[instrumentId] = delta;
+        contractVegas[instrumentId] = vega;
+        addExposure(buyQuantities[instrumentId], delta, vega);
+        addExposure(sellQuantities[instrumentId], -delta, -vega);
+    }
+
+    /**
+     * @param quantity            signed change of the resting quantity
+     * @param contractDeltaChange delta change of the total per contract filled
+     * @param contractVegaChange  vega change of the total per contract filled
+     */
+    private void addExposure(final int quantity, final double contractDeltaChange, final double contractVegaChange)
+    {
+        if (contractDeltaChange > 0)
+        {
+            longDelta += quantity * contractDeltaChange;
+        }
+        else
+        {
+            shortDelta += quantity * contractDeltaChange;
+        }
+
+        if (contractVegaChange > 0)
+        {
+            longVega += quantity * contractVegaChange;
+        }
+        else
+        {
+            shortVega += quantity * contractVegaChange;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.quedex.marketmaker;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point representation of prices used on the quoting path: a price is a {@code long} equal to the decimal price
+ * multiplied by {@code 10^SCALE}. Conversion from BigDecimal happens when market data and order events arrive and
+ * conversion to BigDecimal only when building {@link net.quedex.api.user.LimitOrderSpec}s.
+ */
+public final class Prices
+{
+    public static final int SCALE = 8;
+    private static final long MULTIPLIER = 100_000_000L;
+    private static final double MULTIPLIER_DOUBLE = MULTIPLIER;
+
+    private Prices()
+    {
+        throw new AssertionError();
+    }
+
+    /**
+     * @throws ArithmeticException if {@code price} has more than {@link #SCALE} decimal places or does not fit in long
+     */
+    public static long fromBigDecimal(final BigDecimal price)
+    {
+        return price.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(final long price)
+    {
+        return BigDecimal.valueOf(price, SCALE);
+    }
+
+    /**
+     * @return price rounded to the nearest unit of the fixed-point representation
+     */
+    public static long fromDouble(final double price)
+    {
+        return Math.round(price * MULTIPLIER_DOUBLE);
+    }
+
+    public static double toDouble(final long price)
+    {
+        return price / MULTIPLIER_DOUBLE;
+    }
+
+    /**
+     * @return mid of the given prices, rounded half even to the precision of the fixed-point representation
+     */
+    public static long mid(final long price1, final long price2)
+    {
+        final long sum = price1 + price2;
+        final long half = sum >> 1;
+        return (sum & 1) != 0 && (half & 1) != 0 ? half + 1 : half;
+    }
+}
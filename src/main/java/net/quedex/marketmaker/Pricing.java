@@ -2,25 +2,47 @@ package net.quedex.marketmaker;
 
 import com.google.common.base.MoreObjects;
 import net.quedex.api.market.Instrument;
-import org.apache.commons.math3.distribution.NormalDistribution;
-
-import java.math.BigDecimal;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Black-76 pricing with SABR volatility smile. Created with {@link #Pricing(TimeProvider)}, applies no smile - used
+ * when volatilities come from a calibrated {@link VolatilitySurface}.
+ * <p>
+ * The primitive methods writing to {@link MutableMetrics} ({@link #calculateOptionMetrics} and {@link #black76}) do not
+ * allocate. Prices and greeks differ from the previous commons-math based implementation by less than
+ * {@code 1e-12} absolutely for futures prices up to 1000: the normal CDF ({@link StandardNormal}) has absolute error
+ * below {@code 1e-15} and time to maturity is no longer rounded up to 10 decimal places with BigDecimal (difference
+ * below {@code 1e-10} years).
+ */
 public class Pricing
 {
-    private static final long YEAR_MILLIS = 1000L * 60 * 60 * 24 * 365;
+    private static final double YEAR_MILLIS = 1000.0 * 60 * 60 * 24 * 365;
     private static final double THRESHOLD = Math.pow(10, -8);
 
-    private static final NormalDistribution STD_NORMAL = new NormalDistribution();
-
     private final TimeProvider timeProvider;
     private final double beta;
     private final double volOfVol;
     private final double rho;
     private final boolean useTimeAdjustedVolOfVol;
+    private final boolean smile;
+
+    // SABR terms dependent on parameters only
+    private final double halfOneMinusBeta;
+    private final double oneMinusBetaSquaredOver24;
+    private final double rhoBetaOver4;
+    private final double twoMinus3RhoSquared;
+    private final double oneMinusRho;
+
+    /**
+     * Creates pricing without the volatility smile, volatilities are used as they are (e.g. already taken from a
+     * calibrated {@link VolatilitySurface}).
+     */
+    public Pricing(final TimeProvider timeProvider)
+    {
+        this(timeProvider, 1, 0, 0, false, false);
+    }
 
     public Pricing(
         final TimeProvider timeProvider,
@@ -28,6 +50,17 @@ public class Pricing
         final double volOfVol,
         final double rho,
         final boolean useTimeAdjustedVolOfVol)
+    {
+        this(timeProvider, beta, volOfVol, rho, useTimeAdjustedVolOfVol, true);
+    }
+
+    private Pricing(
+        final TimeProvider timeProvider,
+        final double beta,
+        final double volOfVol,
+        final double rho,
+        final boolean useTimeAdjustedVolOfVol,
+        final boolean smile)
     {
         checkArgument(0 <= beta && beta <= 1, "beta=%s outside [0, 1]", beta);
         checkArgument(volOfVol >= 0, "volOfvol=%s < 0", volOfVol);
@@ -37,58 +70,248 @@ public class Pricing
         this.volOfVol = volOfVol;
         this.rho = rho;
         this.useTimeAdjustedVolOfVol = useTimeAdjustedVolOfVol;
+        this.smile = smile;
+
+        halfOneMinusBeta = 0.5 * (1 - beta);
+        oneMinusBetaSquaredOver24 = (1 - beta) * (1 - beta) / 24;
+        rhoBetaOver4 = 0.25 * rho * beta;
+        twoMinus3RhoSquared = 2 - 3 * rho * rho;
+        oneMinusRho = 1 - rho;
     }
 
-    public Metrics calculateMetrics(final Instrument instrument, final double volatility, final double futuresPrice)
+    /**
+     * Writes metrics of the instrument to the given holder ({@link MutableMetrics#toMetrics} makes an immutable copy).
+     * Note that the strike has to be extracted from the instrument - use {@link #calculateOptionMetrics} with cached
+     * strike for allocation-free evaluation.
+     */
+    public void calculateMetrics(
+        final Instrument instrument,
+        final double volatility,
+        final double futuresPrice,
+        final MutableMetrics result)
     {
         if (instrument.getType() == Instrument.Type.FUTURES)
         {
-            return new Metrics(futuresPrice, 1, 0, 0, 0);
+            result.set(futuresPrice, 1, 0, 0, 0);
         }
         else
         {
-            final double timeToMaturity = yearsToMaturity(instrument.getExpirationDate());
-            final double strike = instrument.getStrike().get().doubleValue();
-            return black76(
-                instrument.getOptionType().get(),
-                getSABRImpliedVolatility(volatility, futuresPrice, timeToMaturity, strike),
+            calculateOptionMetrics(
+                instrument.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN,
+                instrument.getStrike().get().doubleValue(),
+                yearsToMaturity(instrument.getExpirationDate()),
+                volatility,
+                futuresPrice,
+                result
+            );
+        }
+    }
+
+    /**
+     * Calculates metrics of an option with SABR-adjusted volatility, does not allocate.
+     */
+    public void calculateOptionMetrics(
+        final boolean isCall,
+        final double strike,
+        final double timeToMaturity,
+        final double volatility,
+        final double futuresPrice,
+        final MutableMetrics result)
+    {
+        black76(
+            isCall,
+            getSABRImpliedVolatility(volatility, futuresPrice, timeToMaturity, strike),
+            futuresPrice,
+            timeToMaturity,
+            strike,
+            result
+        );
+    }
+
+    /**
+     * Prices the whole option chain at once, does not allocate provided that {@code result} has enough capacity. Terms
+     * common to the expiry (time to maturity, its square root, time-adjusted vol of vol) are calculated once. The loops
+     * operate on primitive arrays with no calls other than math intrinsics and conditional moves instead of branches
+     * on option type, to give the JIT as much room for optimisation as possible.
+     *
+     * @param volatilities  fair volatility for every option in the chain (before SABR adjustment)
+     * @param futuresPrice  price of the futures expiring with the chain
+     * @param result        holder of the results, indices correspond to the chain indices
+     */
+    public void calculateChainMetrics(
+        final OptionChain chain,
+        final double[] volatilities,
+        final double futuresPrice,
+        final ChainMetrics result)
+    {
+        final int size = chain.size();
+        checkArgument(volatilities.length >= size, "volatilities.length=%s < %s", volatilities.length, size);
+        result.ensureCapacity(size);
+
+        final double t = yearsToMaturity(chain.getExpirationDate());
+        final double sqrtT = Math.sqrt(t);
+        final double halfT = 0.5 * t;
+        final double adjustedVolOfVol = useTimeAdjustedVolOfVol ? volOfVol * Math.sqrt(1 / t) : volOfVol;
+        final double gammaPFactor = 1 / (100 * sqrtT);
+        final double vegaFactor = futuresPrice * sqrtT / 100;
+        final double thetaFactor = -futuresPrice / (2 * sqrtT) / 365.0;
+
+        final double[] strikes = chain.strikes;
+        final boolean[] calls = chain.calls;
+        final double[] sabrVolatilities = result.sabrVolatility;
+        final double[] prices = result.price;
+        final double[] deltas = result.delta;
+        final double[] gammaPs = result.gammaP;
+        final double[] vegas = result.vega;
+        final double[] thetas = result.theta;
+
+        for (int i = 0; i < size; i++)
+        {
+            sabrVolatilities[i] = getSABRImpliedVolatility(
+                volatilities[i],
                 futuresPrice,
-                timeToMaturity,
-                strike
+                t,
+                strikes[i],
+                adjustedVolOfVol
             );
         }
+
+        for (int i = 0; i < size; i++)
+        {
+            final double s = sabrVolatilities[i];
+            final double x = strikes[i];
+            final boolean isCall = calls[i];
+
+            final double sSqrtT = s * sqrtT;
+            final double d1 = (Math.log(futuresPrice / x) + s * s * halfT) / sSqrtT;
+            final double d2 = d1 - sSqrtT;
+
+            final double cdfD1 = StandardNormal.cdf(d1);
+            final double densityD1 = StandardNormal.pdf(d1);
+            final double cdfD2Signed = StandardNormal.cdf(isCall ? d2 : -d2);
+
+            final double price = isCall
+                ? futuresPrice * cdfD1 - x * cdfD2Signed
+                : x * cdfD2Signed - futuresPrice * (1 - cdfD1);
+
+            prices[i] = price < 0 ? 0 : price; // may happen with very OTM options
+            deltas[i] = isCall ? cdfD1 : cdfD1 - 1; // PUT-CALL parity
+            gammaPs[i] = densityD1 / s * gammaPFactor;
+            vegas[i] = densityD1 * vegaFactor;
+            thetas[i] = densityD1 * s * thetaFactor;
+        }
+    }
+
+    /**
+     * Prices a single option at several volatilities at once (e.g. the levels of a ladder), does not allocate provided
+     * that {@code result} has enough capacity. Terms independent of the volatility (time to maturity and its square
+     * root, log-moneyness, time-adjusted vol of vol, the strike terms of SABR) are calculated once, so each volatility
+     * costs only the SABR adjustment, {@code d1}/{@code d2} and the normal CDFs. Results equal the ones of
+     * {@link #calculateOptionMetrics}.
+     *
+     * @param volatilities volatilities to price with (before SABR adjustment)
+     * @param result       holder of the results, indices correspond to the indices of {@code volatilities}
+     */
+    public void calculateLadderMetrics(
+        final boolean isCall,
+        final double strike,
+        final double timeToMaturity,
+        final double[] volatilities,
+        final int size,
+        final double futuresPrice,
+        final ChainMetrics result)
+    {
+        checkArgument(volatilities.length >= size, "volatilities.length=%s < %s", volatilities.length, size);
+        result.ensureCapacity(size);
+
+        final double t = timeToMaturity;
+        final double sqrtT = Math.sqrt(t);
+        final double halfT = 0.5 * t;
+        final double logFK = Math.log(futuresPrice / strike);
+        final double fkPowHalfOneMinusBeta = beta == 1 ? 1 : Math.pow(futuresPrice * strike, halfOneMinusBeta);
+        final double adjustedVolOfVol = useTimeAdjustedVolOfVol ? volOfVol * Math.sqrt(1 / t) : volOfVol;
+        final double gammaPFactor = 1 / (100 * sqrtT);
+        final double vegaFactor = futuresPrice * sqrtT / 100;
+        final double thetaFactor = -futuresPrice / (2 * sqrtT) / 365.0;
+
+        final double[] sabrVolatilities = result.sabrVolatility;
+        final double[] prices = result.price;
+        final double[] deltas = result.delta;
+        final double[] gammaPs = result.gammaP;
+        final double[] vegas = result.vega;
+        final double[] thetas = result.theta;
+
+        for (int i = 0; i < size; i++)
+        {
+            sabrVolatilities[i] = smile
+                ? getSABRImpliedVolatility(
+                    volatilities[i],
+                    futuresPrice,
+                    t,
+                    strike,
+                    adjustedVolOfVol,
+                    fkPowHalfOneMinusBeta,
+                    logFK
+                )
+                : volatilities[i];
+        }
+
+        for (int i = 0; i < size; i++)
+        {
+            final double s = sabrVolatilities[i];
+
+            final double sSqrtT = s * sqrtT;
+            final double d1 = (logFK + s * s * halfT) / sSqrtT;
+            final double d2 = d1 - sSqrtT;
+
+            final double cdfD1 = StandardNormal.cdf(d1);
+            final double densityD1 = StandardNormal.pdf(d1);
+            final double cdfD2Signed = StandardNormal.cdf(isCall ? d2 : -d2);
+
+            final double price = isCall
+                ? futuresPrice * cdfD1 - strike * cdfD2Signed
+                : strike * cdfD2Signed - futuresPrice * (1 - cdfD1);
+
+            prices[i] = price < 0 ? 0 : price; // may happen with very OTM options
+            deltas[i] = isCall ? cdfD1 : cdfD1 - 1; // PUT-CALL parity
+            gammaPs[i] = densityD1 / s * gammaPFactor;
+            vegas[i] = densityD1 * vegaFactor;
+            thetas[i] = densityD1 * s * thetaFactor;
+        }
     }
 
     /**
      * Based on http://www.riskencyclopedia.com/articles/black_1976/
      */
-    private Metrics black76(
-        final Instrument.OptionType type,
+    static void black76(
+        final boolean isCall,
         final double s,
         final double f,
         final double t,
-        final double x)
+        final double x,
+        final MutableMetrics result)
     {
         final double sqrtT = Math.sqrt(t);
-        final double d1 = (Math.log(f / x) + (s * s / 2) * t) / (s * sqrtT);
-        final double d2 = d1 - s * sqrtT;
+        final double sSqrtT = s * sqrtT;
+        final double d1 = (Math.log(f / x) + (s * s / 2) * t) / sSqrtT;
+        final double d2 = d1 - sSqrtT;
 
-        final double cdfD1 = STD_NORMAL.cumulativeProbability(d1);
-        final double densityD1 = STD_NORMAL.density(d1);
+        final double cdfD1 = StandardNormal.cdf(d1);
+        final double densityD1 = StandardNormal.pdf(d1);
         double delta = cdfD1;
-        final double gamma = densityD1 / (f * s * sqrtT);
+        final double gamma = densityD1 / (f * sSqrtT);
         final double gammaP = gamma * f / 100;
         final double vega = f * densityD1 * sqrtT / 100;
         final double theta = (-(f * densityD1 * s) / (2 * sqrtT)) / 365.0;
 
         double price;
-        if (type == Instrument.OptionType.CALL_EUROPEAN)
+        if (isCall)
         {
-            price = f * cdfD1 - x * STD_NORMAL.cumulativeProbability(d2);
+            price = f * cdfD1 - x * StandardNormal.cdf(d2);
         }
         else
         {
-            price = x * STD_NORMAL.cumulativeProbability(-d2) - f * (1 - cdfD1);
+            price = x * StandardNormal.cdf(-d2) - f * (1 - cdfD1);
             delta = delta - 1; // PUT-CALL parity
         }
 
@@ -97,52 +320,219 @@ public class Pricing
             price = 0;
         }
 
-        return new Metrics(price, delta, gammaP, vega, theta);
+        result.set(price, delta, gammaP, vega, theta);
     }
 
     /**
      * Based on http://www.math.ku.dk/~rolf/SABR.pdf
      */
-    private double getSABRImpliedVolatility(
+    double getSABRImpliedVolatility(
         final double volatility,
         final double futuresPrice,
         final double timeToMaturity,
         final double strike)
     {
-        final double volOfVol = useTimeAdjustedVolOfVol ? this.volOfVol * Math.sqrt(1 / timeToMaturity) : this.volOfVol;
+        return getSABRImpliedVolatility(
+            volatility,
+            futuresPrice,
+            timeToMaturity,
+            strike,
+            useTimeAdjustedVolOfVol ? this.volOfVol * Math.sqrt(1 / timeToMaturity) : this.volOfVol
+        );
+    }
+
+    /**
+     * @param volOfVol vol of vol, already time-adjusted if required
+     */
+    private double getSABRImpliedVolatility(
+        final double volatility,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double strike,
+        final double volOfVol)
+    {
+        if (!smile)
+        {
+            return volatility;
+        }
 
-        final double z = volOfVol / volatility
-            * Math.pow(futuresPrice * strike, 0.5 * (1 - beta))
-            * Math.log(futuresPrice / strike);
-        final double x = Math.log((Math.sqrt(1 - 2 * rho * z + Math.pow(z, 2)) + z - rho) / (1 - rho));
+        return getSABRImpliedVolatility(
+            volatility,
+            futuresPrice,
+            timeToMaturity,
+            strike,
+            volOfVol,
+            beta == 1 ? 1 : Math.pow(futuresPrice * strike, halfOneMinusBeta),
+            Math.log(futuresPrice / strike)
+        );
+    }
+
+    /**
+     * @param fkPowHalfOneMinusBeta {@code (F * K)^((1 - beta) / 2)}
+     * @param logFK                 {@code ln(F / K)}
+     */
+    private double getSABRImpliedVolatility(
+        final double volatility,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double strike,
+        final double volOfVol,
+        final double fkPowHalfOneMinusBeta,
+        final double logFK)
+    {
+        final double z = volOfVol / volatility * fkPowHalfOneMinusBeta * logFK;
+        final double x = Math.log((Math.sqrt(1 - 2 * rho * z + z * z) + z - rho) / oneMinusRho);
 
         final double numerator = 1 + (
-            Math.pow(1 - beta, 2) / 24 * Math.pow(volatility, 2) / Math.pow(futuresPrice * strike, 1 - beta)
-            + 0.25 * rho * beta * volOfVol * volatility / Math.pow(futuresPrice * strike, 0.5 * (1 - beta))
-            + (2 - 3 * Math.pow(rho, 2)) * volOfVol
+            oneMinusBetaSquaredOver24 * volatility * volatility / (fkPowHalfOneMinusBeta * fkPowHalfOneMinusBeta)
+            + rhoBetaOver4 * volOfVol * volatility / fkPowHalfOneMinusBeta
+            + twoMinus3RhoSquared * volOfVol
         ) * timeToMaturity;
 
         if (Math.abs((futuresPrice - strike) / futuresPrice) < THRESHOLD)
         {
-            return volatility * numerator / Math.pow(futuresPrice, 1 - beta);
+            return volatility * numerator / (beta == 1 ? 1 : Math.pow(futuresPrice, 1 - beta));
         }
         else
         {
-            final double denominator = x * Math.pow(futuresPrice * strike, 0.5 * (1 - beta)) * (
-                1 + Math.pow((1 - beta) * Math.log(futuresPrice / strike), 2) / 24
-                + Math.pow((1 - beta) * Math.log(futuresPrice / strike), 4) / 1920
+            final double oneMinusBetaLogFK = (1 - beta) * logFK;
+            final double oneMinusBetaLogFKSquared = oneMinusBetaLogFK * oneMinusBetaLogFK;
+            final double denominator = x * fkPowHalfOneMinusBeta * (
+                1 + oneMinusBetaLogFKSquared / 24
+                + oneMinusBetaLogFKSquared * oneMinusBetaLogFKSquared / 1920
             );
 
             return z * volatility * numerator / denominator;
         }
     }
 
-    private double yearsToMaturity(final long expirationDate)
+    public double yearsToMaturity(final long expirationDate)
     {
-        final long now = timeProvider.getCurrentTime();
-        return BigDecimal.valueOf(expirationDate - now)
-            .divide(BigDecimal.valueOf(YEAR_MILLIS), 10, BigDecimal.ROUND_UP)
-            .doubleValue();
+        return (expirationDate - timeProvider.getCurrentTime()) / YEAR_MILLIS;
+    }
+
+    /**
+     * Reusable holder of {@link Metrics}, allows pricing without allocation.
+     */
+    public static final class MutableMetrics
+    {
+        private double price;
+        private double delta;
+        private double gammaP;
+        private double vega;
+        private double theta;
+
+        void set(
+            final double price,
+            final double delta,
+            final double gammaP,
+            final double vega,
+            final double theta)
+        {
+            this.price = price;
+            this.delta = delta;
+            this.gammaP = gammaP;
+            this.vega = vega;
+            this.theta = theta;
+        }
+
+        public double getPrice()
+        {
+            return price;
+        }
+
+        public double getDelta()
+        {
+            return delta;
+        }
+
+        public double getGammaP()
+        {
+            return gammaP;
+        }
+
+        public double getVega()
+        {
+            return vega;
+        }
+
+        public double getTheta()
+        {
+            return theta;
+        }
+
+        public Metrics toMetrics()
+        {
+            return new Metrics(price, delta, gammaP, vega, theta);
+        }
+
+        @Override
+        public String toString()
+        {
+            return MoreObjects.toStringHelper(this)
+                .add("price", price)
+                .add("delta", delta)
+                .add("gammaP", gammaP)
+                .add("vega", vega)
+                .add("theta", theta)
+                .toString();
+        }
+    }
+
+    /**
+     * Reusable structure-of-arrays holder of metrics of a whole {@link OptionChain} or of the levels of a ladder.
+     */
+    public static final class ChainMetrics
+    {
+        private double[] sabrVolatility = new double[0];
+        private double[] price = new double[0];
+        private double[] delta = new double[0];
+        private double[] gammaP = new double[0];
+        private double[] vega = new double[0];
+        private double[] theta = new double[0];
+
+        void ensureCapacity(final int size)
+        {
+            if (price.length < size)
+            {
+                sabrVolatility = new double[size];
+                price = new double[size];
+                delta = new double[size];
+                gammaP = new double[size];
+                vega = new double[size];
+                theta = new double[size];
+            }
+        }
+
+        public double getSabrVolatility(final int index)
+        {
+            return sabrVolatility[index];
+        }
+
+        public double getPrice(final int index)
+        {
+            return price[index];
+        }
+
+        public double getDelta(final int index)
+        {
+            return delta[index];
+        }
+
+        public double getGammaP(final int index)
+        {
+            return gammaP[index];
+        }
+
+        public double getVega(final int index)
+        {
+            return vega[index];
+        }
+
+        public double getTheta(final int index)
+        {
+            return theta[index];
+        }
     }
 
     public static final class Metrics
@@ -0,0 +1,107 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Quotes;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Latest-wins conflation of quotes on the way to the {@link EventLoop}. Every instrument has a slot holding its most
+ * recent quotes, the slot is published as a {@link EventType#QUOTES} event only when it becomes non-empty, so there is
+ * at most one quotes event per instrument waiting in the event loop regardless of the inbound rate. Quotes
+ * overwritten before the event thread took them are counted as conflated.
+ */
+@ThreadSafe
+public class QuotesConflator
+{
+    private final EventLoop eventLoop;
+    private final QuotesSlot[] slots; // indexed by instrumentId
+    private final LongAdder conflatedCount = new LongAdder();
+
+    public QuotesConflator(final EventLoop eventLoop, final Collection<Integer> instrumentIds)
+    {
+        this.eventLoop = checkNotNull(eventLoop, "null eventLoop");
+
+        int maxInstrumentId = -1;
+        for (final int instrumentId : instrumentIds)
+        {
+            checkArgument(instrumentId >= 0, "instrumentId=%s < 0", instrumentId);
+            maxInstrumentId = Math.max(maxInstrumentId, instrumentId);
+        }
+        slots = new QuotesSlot[maxInstrumentId + 1];
+        for (final int instrumentId : instrumentIds)
+        {
+            slots[instrumentId] = new QuotesSlot();
+        }
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    public void onQuotes(final Quotes quotes)
+    {
+        final int instrumentId = quotes.getInstrumentId();
+        checkArgument(
+            instrumentId >= 0 && instrumentId < slots.length && slots[instrumentId] != null,
+            "instrumentId=%s not found", instrumentId
+        );
+
+        final QuotesSlot slot = slots[instrumentId];
+        if (slot.quotes.getAndSet(quotes) == null)
+        {
+            slot.ingressNanos = System.nanoTime(); // no event of the slot is pending, the publication makes it visible
+            eventLoop.publish(EventType.QUOTES, slot);
+        }
+        else
+        {
+            conflatedCount.increment();
+        }
+    }
+
+    /**
+     * @return number of quotes overwritten by more recent ones before being processed
+     */
+    public long getConflatedCount()
+    {
+        return conflatedCount.sum();
+    }
+
+    /**
+     * Holds the most recent quotes of an instrument, payload of the {@link EventType#QUOTES} events.
+     */
+    public static final class QuotesSlot
+    {
+        private final AtomicReference<Quotes> quotes = new AtomicReference<>();
+        private long ingressNanos;
+
+        private QuotesSlot()
+        {
+        }
+
+        /**
+         * Has to be called on the event thread, before {@link #take}.
+         *
+         * @return {@link System#nanoTime} when the slot became non-empty, i.e. when the oldest of the quotes conflated
+         *         in it arrived
+         */
+        public long getIngressNanos()
+        {
+            return ingressNanos;
+        }
+
+        /**
+         * Has to be called on the event thread.
+         *
+         * @return the most recent quotes, the slot is emptied
+         */
+        public Quotes take()
+        {
+            return quotes.getAndSet(null);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Quotes;
+import net.quedex.api.market.QuotesListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Passes the quotes from a single market stream subscription on to multiple listeners (e.g. {@link MarketMaker}s of
+ * different strategies). Quotes are immutable, so the very same object is handed to every listener - nothing is
+ * copied or converted per listener. A listener failing does not affect the others.
+ */
+@ThreadSafe
+public class QuotesFanOut implements QuotesListener
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuotesFanOut.class);
+
+    private volatile QuotesListener[] listeners = new QuotesListener[0]; // copied on write
+
+    public synchronized void addListener(final QuotesListener listener)
+    {
+        checkNotNull(listener, "null listener");
+        final QuotesListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    @Override
+    public void onQuotes(final Quotes quotes)
+    {
+        for (final QuotesListener listener : listeners)
+        {
+            try
+            {
+                listener.onQuotes(quotes);
+            }
+            catch (final RuntimeException e)
+            {
+                LOGGER.error("Error passing quotes to " + listener, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Futures fair prices, option fair volatilities and risk totals captured on the event thread at the start of a
+ * recalculation cycle. The snapshot is only read while the shards of the cycle run (see {@link ExpirationShards}), so
+ * they see a consistent state no matter what happens on the event thread in the meantime.
+ */
+public class RecalculationSnapshot implements FairPriceProvider, FairVolatilityProvider, RiskTotals
+{
+    private static final long NO_PRICE = 0;
+
+    // indexed by instrumentId
+    private final long[] fairPrices;
+    private final double[] fairVolatilities;
+
+    private double totalDelta;
+    private double totalVega;
+
+    public RecalculationSnapshot(final int maxInstrumentId)
+    {
+        checkArgument(maxInstrumentId >= 0, "maxInstrumentId=%s < 0", maxInstrumentId);
+        this.fairPrices = new long[maxInstrumentId + 1];
+        this.fairVolatilities = new double[maxInstrumentId + 1];
+    }
+
+    /**
+     * Has to be called on the event thread, before the shards are started.
+     */
+    public void capture(
+        final List<Instrument> futures,
+        final List<Instrument> options,
+        final FairPriceProvider futuresFairPriceProvider,
+        final FairVolatilityProvider fairVolatilityProvider,
+        final RiskTotals riskTotals)
+    {
+        Arrays.fill(fairPrices, NO_PRICE);
+        for (int i = 0; i < futures.size(); i++)
+        {
+            final int instrumentId = futures.get(i).getInstrumentId();
+            if (futuresFairPriceProvider.hasFairPrice(instrumentId))
+            {
+                fairPrices[instrumentId] = futuresFairPriceProvider.getFairPrice(instrumentId);
+            }
+        }
+        for (int i = 0; i < options.size(); i++)
+        {
+            final int instrumentId = options.get(i).getInstrumentId();
+            fairVolatilities[instrumentId] = fairVolatilityProvider.getFairVolatility(instrumentId);
+        }
+        totalDelta = riskTotals.getTotalDelta();
+        totalVega = riskTotals.getTotalVega();
+    }
+
+    @Override
+    public long getFairPrice(final int instrumentId)
+    {
+        final long fairPrice = fairPrices[instrumentId];
+        checkArgument(fairPrice != NO_PRICE, "No fair price of instrumentId=%s", instrumentId);
+        return fairPrice;
+    }
+
+    @Override
+    public boolean hasFairPrice(final int instrumentId)
+    {
+        return fairPrices[instrumentId] != NO_PRICE;
+    }
+
+    @Override
+    public double getFairVolatility(final int instrumentId)
+    {
+        return fairVolatilities[instrumentId];
+    }
+
+    @Override
+    public double getTotalDelta()
+    {
+        return totalDelta;
+    }
+
+    @Override
+    public double getTotalVega()
+    {
+        return totalVega;
+    }
+}
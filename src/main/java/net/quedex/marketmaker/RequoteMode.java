@@ -0,0 +1,15 @@
+package net.quedex.marketmaker;
+
+public enum RequoteMode
+{
+    /**
+     * All instruments are recalculated every {@code timeSleepSeconds}.
+     */
+    FIXED_PERIOD,
+
+    /**
+     * Instruments are recalculated as soon as an event affecting them has been processed, at most once every
+     * {@code minRequoteIntervalMillis}.
+     */
+    EVENT_DRIVEN
+}
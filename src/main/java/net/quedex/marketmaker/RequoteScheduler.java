@@ -0,0 +1,102 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps track of instruments which have to be recalculated (dirty) and makes sure that a single instrument is not
+ * requoted more often than once every {@code minIntervalMillis}. Multiple events affecting the same instrument are
+ * coalesced into a single recalculation.
+ */
+@NotThreadSafe
+public class RequoteScheduler
+{
+    private final TimeProvider timeProvider;
+    private final long minIntervalMillis;
+
+    private final Set<Integer> dirtyInstrumentIds = new HashSet<>();
+    private final Map<Integer, Long> lastRequoteTimes = new HashMap<>();
+
+    public RequoteScheduler(final TimeProvider timeProvider, final long minIntervalMillis)
+    {
+        checkArgument(minIntervalMillis >= 0, "minIntervalMillis=%s < 0", minIntervalMillis);
+        this.timeProvider = checkNotNull(timeProvider, "null timeProvider");
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public void markDirty(final int instrumentId)
+    {
+        dirtyInstrumentIds.add(instrumentId);
+    }
+
+    /**
+     * Stops tracking the dirty instruments matching the predicate, e.g. ones not quoted anymore, so that they do not
+     * keep the scheduler due forever.
+     */
+    public void removeDirtyIf(final IntPredicate predicate)
+    {
+        dirtyInstrumentIds.removeIf(predicate::test);
+    }
+
+    public boolean hasDirty()
+    {
+        return !dirtyInstrumentIds.isEmpty();
+    }
+
+    /**
+     * @return true if the instrument is dirty and the minimum interval since its last requote has elapsed
+     */
+    public boolean isDue(final int instrumentId)
+    {
+        return dirtyInstrumentIds.contains(instrumentId) && millisUntilDue(instrumentId) == 0;
+    }
+
+    /**
+     * Should be called after a due instrument has been recalculated.
+     *
+     * @param requoted whether any orders were generated for the instrument - only then the minimum interval applies
+     */
+    public void onRecalculated(final int instrumentId, final boolean requoted)
+    {
+        dirtyInstrumentIds.remove(instrumentId);
+        if (requoted)
+        {
+            lastRequoteTimes.put(instrumentId, timeProvider.getCurrentTime());
+        }
+    }
+
+    /**
+     * @return number of milliseconds until the earliest dirty instrument becomes due or -1 if there are no dirty
+     *         instruments
+     */
+    public long millisUntilNextDue()
+    {
+        long result = -1;
+        for (final int instrumentId : dirtyInstrumentIds)
+        {
+            final long millisUntilDue = millisUntilDue(instrumentId);
+            if (result == -1 || millisUntilDue < result)
+            {
+                result = millisUntilDue;
+            }
+        }
+        return result;
+    }
+
+    private long millisUntilDue(final int instrumentId)
+    {
+        final Long lastRequoteTime = lastRequoteTimes.get(instrumentId);
+        if (lastRequoteTime == null)
+        {
+            return 0;
+        }
+        return Math.max(0, lastRequoteTime + minIntervalMillis - timeProvider.getCurrentTime());
+    }
+}
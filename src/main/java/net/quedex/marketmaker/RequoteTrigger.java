@@ -0,0 +1,202 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides whether a change of the futures fair price is significant enough to requote.
+ * <ul>
+ *     <li>Futures are requoted when the fair price leaves the band of {@code fairPriceSensitivityFraction} around the
+ *     fair price of the last requote or when the sides allowed by the delta limit changed.</li>
+ *     <li>Options are requoted when the option price change estimated from the futures price change with delta and
+ *     gamma cached at the last requote, plus the change due to fair volatility change estimated with vega
+ *     ({@code delta * dF + gamma * dF^2 / 2 + vega * dVol}), exceeds {@code optionRequoteTickFraction} of the option
+ *     tick size or when the sides allowed by the delta and vega limits changed.</li>
+ * </ul>
+ * Both fractions may be overridden per futures symbol; option overrides apply to options expiring with the futures.
+ */
+@NotThreadSafe
+public class RequoteTrigger
+{
+    private final InstrumentManager instrumentManager;
+    private final FairVolatilityProvider fairVolatilityProvider;
+    private final Pricing pricing;
+    private final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+
+    private final double defaultFuturesBandFraction;
+    private final Map<String, BigDecimal> futuresBandFractionOverrides;
+    private final double defaultOptionTickFraction;
+    private final Map<String, Double> optionTickFractionOverrides;
+
+    private final Map<Integer, FuturesState> futuresStates = new HashMap<>();
+    private final Map<Integer, OptionState> optionStates = new HashMap<>();
+
+    public RequoteTrigger(
+        final InstrumentManager instrumentManager,
+        final FairVolatilityProvider fairVolatilityProvider,
+        final Pricing pricing,
+        final BigDecimal defaultFuturesBandFraction,
+        final Map<String, BigDecimal> futuresBandFractionOverrides,
+        final double defaultOptionTickFraction,
+        final Map<String, Double> optionTickFractionOverrides)
+    {
+        checkArgument(
+            defaultFuturesBandFraction.compareTo(BigDecimal.ZERO) >= 0,
+            "defaultFuturesBandFraction=%s < 0", defaultFuturesBandFraction
+        );
+        checkArgument(defaultOptionTickFraction >= 0, "defaultOptionTickFraction=%s < 0", defaultOptionTickFraction);
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.fairVolatilityProvider = checkNotNull(fairVolatilityProvider, "null fairVolatilityProvider");
+        this.pricing = checkNotNull(pricing, "null pricing");
+        this.defaultFuturesBandFraction = defaultFuturesBandFraction.doubleValue();
+        this.futuresBandFractionOverrides = checkNotNull(futuresBandFractionOverrides, "null futuresOverrides");
+        this.defaultOptionTickFraction = defaultOptionTickFraction;
+        this.optionTickFractionOverrides = checkNotNull(optionTickFractionOverrides, "null optionOverrides");
+    }
+
+    /**
+     * @param fairPrice     current fair price in the fixed-point representation
+     * @param buyingAllowed whether buy orders are currently allowed by the delta limit, likewise {@code sellingAllowed}
+     * @return true if the futures has not been quoted yet, its fair price left the band or the allowed sides changed
+     */
+    public boolean shouldRequoteFutures(
+        final int futuresId,
+        final long fairPrice,
+        final boolean buyingAllowed,
+        final boolean sellingAllowed)
+    {
+        final FuturesState state = futuresStates.get(futuresId);
+        return state == null
+            || Math.abs(fairPrice - state.quotedFairPrice) > state.band
+            || buyingAllowed != state.quotedBuyingAllowed
+            || sellingAllowed != state.quotedSellingAllowed;
+    }
+
+    public void onFuturesRequoted(
+        final Instrument futures,
+        final long fairPrice,
+        final boolean buyingAllowed,
+        final boolean sellingAllowed)
+    {
+        FuturesState state = futuresStates.get(futures.getInstrumentId());
+        if (state == null)
+        {
+            final BigDecimal override = futuresBandFractionOverrides.get(futures.getSymbol());
+            state = new FuturesState(override != null ? override.doubleValue() : defaultFuturesBandFraction);
+            futuresStates.put(futures.getInstrumentId(), state);
+        }
+        state.quotedFairPrice = fairPrice;
+        state.band = Math.round(fairPrice * state.bandFraction);
+        state.quotedBuyingAllowed = buyingAllowed;
+        state.quotedSellingAllowed = sellingAllowed;
+    }
+
+    /**
+     * @param futuresPrice  current fair price of the futures expiring with the option
+     * @param buyingAllowed whether buy orders are currently allowed by the delta and vega limits, likewise
+     *                      {@code sellingAllowed}
+     * @return true if the option has not been quoted yet, the estimated option price change exceeds the threshold or
+     *         the allowed sides changed
+     */
+    public boolean shouldRequoteOption(
+        final int optionId,
+        final double futuresPrice,
+        final boolean buyingAllowed,
+        final boolean sellingAllowed)
+    {
+        final OptionState state = optionStates.get(optionId);
+        if (state == null || buyingAllowed != state.quotedBuyingAllowed || sellingAllowed != state.quotedSellingAllowed)
+        {
+            return true;
+        }
+
+        final double futuresPriceChange = futuresPrice - state.quotedFuturesPrice;
+        final double volatilityChange = fairVolatilityProvider.getFairVolatility(optionId) - state.quotedVolatility;
+        final double estimatedPriceChange = state.delta * futuresPriceChange
+            + 0.5 * state.gamma * futuresPriceChange * futuresPriceChange
+            + state.vega * volatilityChange;
+
+        return Math.abs(estimatedPriceChange) > state.threshold;
+    }
+
+    public void onOptionRequoted(
+        final Instrument option,
+        final double futuresPrice,
+        final boolean buyingAllowed,
+        final boolean sellingAllowed)
+    {
+        OptionState state = optionStates.get(option.getInstrumentId());
+        if (state == null)
+        {
+            final String futuresSymbol = instrumentManager.getFuturesAtExpiration(option.getExpirationDate())
+                .getSymbol();
+            final Double override = optionTickFractionOverrides.get(futuresSymbol);
+            state = new OptionState(
+                option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN,
+                option.getStrike().get().doubleValue(),
+                (override != null ? override : defaultOptionTickFraction)
+                    * Prices.toDouble(instrumentManager.getTickSize(option.getInstrumentId()))
+            );
+            optionStates.put(option.getInstrumentId(), state);
+        }
+
+        final double volatility = fairVolatilityProvider.getFairVolatility(option.getInstrumentId());
+        pricing.calculateOptionMetrics(
+            state.isCall,
+            state.strike,
+            pricing.yearsToMaturity(option.getExpirationDate()),
+            volatility,
+            futuresPrice,
+            metrics
+        );
+        state.quotedFuturesPrice = futuresPrice;
+        state.quotedVolatility = volatility;
+        state.delta = metrics.getDelta();
+        state.gamma = metrics.getGammaP() * 100 / futuresPrice; // gammaP = gamma * F / 100
+        state.vega = metrics.getVega() * 100; // per unit of volatility, metrics have it per 1%
+        state.quotedBuyingAllowed = buyingAllowed;
+        state.quotedSellingAllowed = sellingAllowed;
+    }
+
+    private static final class FuturesState
+    {
+        private final double bandFraction;
+        private long quotedFairPrice;
+        private long band;
+        private boolean quotedBuyingAllowed;
+        private boolean quotedSellingAllowed;
+
+        private FuturesState(final double bandFraction)
+        {
+            this.bandFraction = bandFraction;
+        }
+    }
+
+    private static final class OptionState
+    {
+        private final boolean isCall;
+        private final double strike;
+        private final double threshold;
+        private double quotedFuturesPrice;
+        private double quotedVolatility;
+        private double delta;
+        private double gamma;
+        private double vega;
+        private boolean quotedBuyingAllowed;
+        private boolean quotedSellingAllowed;
+
+        private OptionState(final boolean isCall, final double strike, final double threshold)
+        {
+            this.isCall = isCall;
+            this.strike = strike;
+            this.threshold = threshold;
+        }
+    }
+}
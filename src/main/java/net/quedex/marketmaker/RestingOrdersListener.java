@@ -0,0 +1,17 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.user.OrderSide;
+
+/**
+ * Notified by {@link OrderManager} of every change of the resting quantity of an instrument and side, i.e. the
+ * quantity {@link OrderManager#getRestingQuantity} returns. Called on the thread changing the orders.
+ */
+public interface RestingOrdersListener
+{
+    RestingOrdersListener NONE = (instrumentId, side, quantityChange) -> {};
+
+    /**
+     * @param quantityChange signed change of the resting quantity
+     */
+    void onRestingQuantityChanged(int instrumentId, OrderSide side, int quantityChange);
+}
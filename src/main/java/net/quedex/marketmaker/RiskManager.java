@@ -6,32 +6,56 @@ import net.quedex.api.user.OpenPositionListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class RiskManager implements OpenPositionListener
+/**
+ * Maintains greeks of open positions incrementally. Per-contract greeks of every position are cached together with
+ * the futures price and volatility they were calculated for. A change of position quantity adjusts the totals in
+ * O(1) and {@link #updateGreeks()} reprices only the positions whose futures fair price or fair volatility changed,
+ * adjusting the totals by the difference. Greeks also change with time to maturity, so every expiry is repriced at
+ * least every {@link #MAX_GREEKS_AGE_MILLIS}, and the totals are then summed anew, so that the rounding errors of the
+ * differences do not accumulate.
+ * <p>
+ * Positions in instruments whose futures is not traded (e.g. left from an expired series) are not accounted, the
+ * positions of an expiry are dropped once its futures stops being traded.
+ */
+public class RiskManager implements OpenPositionListener, RiskTotals
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(RiskManager.class);
 
+    private static final long MAX_GREEKS_AGE_MILLIS = 60_000;
+
+    private final TimeProvider timeProvider;
     private final InstrumentManager instrumentManager;
-    private final FairPriceProvider fairVolatilityProvider;
+    private final FairVolatilityProvider fairVolatilityProvider;
     private final FairPriceProvider futuresFairPriceProvider;
     private final Pricing pricing;
-    private final Map<Integer, OpenPosition> openPositions = new HashMap<>();
+    private final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+    private final Pricing.ChainMetrics chainMetrics = new Pricing.ChainMetrics();
+
+    private final Map<Integer, PositionGreeks> positions = new HashMap<>();
+    private final Map<Integer, ExpirationPositions> futuresIdToExpirationPositions = new HashMap<>();
 
     private double totalDelta = 0;
     private double totalVega = 0;
     private double totalGammaP = 0;
     private double totalTheta = 0;
+    private long totalsSummedTime = 0;
 
     public RiskManager(
+        final TimeProvider timeProvider,
         final InstrumentManager instrumentManager,
-        final FairPriceProvider fairVolatilityProvider,
+        final FairVolatilityProvider fairVolatilityProvider,
         final FairPriceProvider futuresFairPriceProvider,
         final Pricing pricing)
     {
+        this.timeProvider = checkNotNull(timeProvider, "null timeProvider");
         this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
         this.fairVolatilityProvider = checkNotNull(fairVolatilityProvider, "null fairVolatilityProvider");
         this.futuresFairPriceProvider = checkNotNull(futuresFairPriceProvider, "null futuresFairPriceProvider");
@@ -42,51 +66,203 @@ public class RiskManager implements OpenPositionListener
     public void onOpenPosition(final OpenPosition openPosition)
     {
         LOGGER.trace("onOpenPosition({})", openPosition);
-        openPositions.put(openPosition.getInstrumentId(), openPosition);
+
+        final int instrumentId = openPosition.getInstrumentId();
+        PositionGreeks position = positions.get(instrumentId);
+
+        if (position == null)
+        {
+            final Instrument instrument = instrumentManager.getInstrument(instrumentId);
+            if (!instrumentManager.hasFuturesAtExpiration(instrument.getExpirationDate()))
+            {
+                LOGGER.warn("Ignoring position in {} expiring without traded futures: {}", instrumentId, openPosition);
+                return;
+            }
+            final int futuresId = instrumentManager.getFuturesAtExpiration(instrument.getExpirationDate())
+                .getInstrumentId();
+
+            position = new PositionGreeks(instrument);
+            positions.put(instrumentId, position);
+
+            ExpirationPositions expirationPositions = futuresIdToExpirationPositions.get(futuresId);
+            if (expirationPositions == null)
+            {
+                expirationPositions = new ExpirationPositions(futuresId, instrument.getExpirationDate());
+                futuresIdToExpirationPositions.put(futuresId, expirationPositions);
+            }
+            expirationPositions.add(position);
+        }
+
+        subtractFromTotals(position);
+        position.setQuantity(openPosition.getQuantitySigned());
+        addToTotals(position); // no-op if not priced yet, will be priced on the next update
     }
 
-    private void updateGreeks()
+    /**
+     * Reprices the positions for which the futures fair price or the fair volatility changed since the last update,
+     * the positions not priced yet and the expiries priced longer than {@link #MAX_GREEKS_AGE_MILLIS} ago. When the
+     * futures fair price changed, the options on the expiry are priced as a whole chain.
+     */
+    public void updateGreeks()
+    {
+        final long currentTime = timeProvider.getCurrentTime();
+        final Iterator<ExpirationPositions> iterator = futuresIdToExpirationPositions.values().iterator();
+        while (iterator.hasNext())
+        {
+            final ExpirationPositions expirationPositions = iterator.next();
+            if (!instrumentManager.hasFuturesAtExpiration(expirationPositions.expirationDate))
+            {
+                removeExpiration(expirationPositions);
+                iterator.remove();
+                continue;
+            }
+            if (!futuresFairPriceProvider.hasFairPrice(expirationPositions.futuresId))
+            {
+                continue;
+            }
+
+            final double futuresPrice = Prices.toDouble(
+                futuresFairPriceProvider.getFairPrice(expirationPositions.futuresId)
+            );
+
+            if (expirationPositions.stale
+                || futuresPrice != expirationPositions.futuresPrice
+                || currentTime - expirationPositions.pricedTime >= MAX_GREEKS_AGE_MILLIS)
+            {
+                repriceExpiration(expirationPositions, futuresPrice, currentTime);
+            }
+            else
+            {
+                repriceChangedVolatilities(expirationPositions, futuresPrice);
+            }
+        }
+
+        if (currentTime - totalsSummedTime >= MAX_GREEKS_AGE_MILLIS)
+        {
+            sumTotals();
+            totalsSummedTime = currentTime;
+        }
+        LOGGER.debug("Total: delta={}, vega={}, gammaP={}, theta={}", totalDelta, totalVega, totalGammaP, totalTheta);
+    }
+
+    private void repriceExpiration(
+        final ExpirationPositions expirationPositions,
+        final double futuresPrice,
+        final long currentTime)
+    {
+        if (expirationPositions.stale)
+        {
+            expirationPositions.rebuildOptionChain();
+        }
+        expirationPositions.futuresPrice = futuresPrice;
+        expirationPositions.pricedTime = currentTime;
+
+        for (final PositionGreeks position : expirationPositions.futuresPositions)
+        {
+            subtractFromTotals(position);
+            position.reprice(pricing, futuresPrice, Double.NaN, metrics);
+            addToTotals(position);
+            logPosition(position);
+        }
+
+        final OptionChain optionChain = expirationPositions.optionChain;
+        final double[] volatilities = expirationPositions.volatilities;
+
+        for (int i = 0; i < optionChain.size(); i++)
+        {
+            volatilities[i] = fairVolatilityProvider.getFairVolatility(optionChain.getInstrumentId(i));
+        }
+
+        pricing.calculateChainMetrics(optionChain, volatilities, futuresPrice, chainMetrics);
+
+        for (int i = 0; i < optionChain.size(); i++)
+        {
+            final PositionGreeks position = expirationPositions.optionPositions.get(i);
+            subtractFromTotals(position);
+            position.setMetrics(
+                volatilities[i],
+                chainMetrics.getDelta(i),
+                chainMetrics.getGammaP(i),
+                chainMetrics.getVega(i),
+                chainMetrics.getTheta(i)
+            );
+            addToTotals(position);
+            logPosition(position);
+        }
+    }
+
+    /**
+     * Drops the positions of an expiry whose futures is not traded anymore (expired or delisted).
+     */
+    private void removeExpiration(final ExpirationPositions expirationPositions)
+    {
+        LOGGER.info("Dropping positions expiring at {} without traded futures", expirationPositions.expirationDate);
+        for (final PositionGreeks position : expirationPositions.futuresPositions)
+        {
+            subtractFromTotals(position);
+            positions.remove(position.instrument.getInstrumentId());
+        }
+        for (final PositionGreeks position : expirationPositions.optionPositions)
+        {
+            subtractFromTotals(position);
+            positions.remove(position.instrument.getInstrumentId());
+        }
+    }
+
+    private void sumTotals()
     {
         totalDelta = 0;
         totalVega = 0;
         totalGammaP = 0;
         totalTheta = 0;
-
-        for (final Map.Entry<Integer, OpenPosition> openPosition : openPositions.entrySet())
+        for (final PositionGreeks position : positions.values())
         {
-            final int openPositionSigned = openPosition.getValue().getQuantitySigned();
-            final Instrument positionInstrument = instrumentManager.getInstrument(openPosition.getKey());
-
-            final double futuresPrice = futuresFairPriceProvider.getFairPrice(
-                instrumentManager.getFuturesAtExpiration(positionInstrument.getExpirationDate()).getInstrumentId()
-            ).doubleValue();
+            addToTotals(position);
+        }
+    }
 
-            final Pricing.Metrics metrics = pricing.calculateMetrics(
-                positionInstrument,
-                fairVolatilityProvider.getFairPrice(positionInstrument.getInstrumentId()).doubleValue(),
-                futuresPrice
-            );
+    private void repriceChangedVolatilities(final ExpirationPositions expirationPositions, final double futuresPrice)
+    {
+        for (final PositionGreeks position : expirationPositions.optionPositions)
+        {
+            final double volatility = fairVolatilityProvider.getFairVolatility(position.instrument.getInstrumentId());
 
-            final double positionDelta = openPositionSigned * metrics.getDelta(); // per contract
-            final double positionGammaP = openPositionSigned * metrics.getGammaP(); // per contract
-            final double positionTheta = openPositionSigned
-                * metrics.getTheta()
-                * positionInstrument.getNotionalAmount(); // per notional
-            final double positionVega = openPositionSigned
-                * metrics.getVega()
-                * positionInstrument.getNotionalAmount(); // per notional
+            if (volatility != position.volatility)
+            {
+                subtractFromTotals(position);
+                position.reprice(pricing, futuresPrice, volatility, metrics);
+                addToTotals(position);
+                logPosition(position);
+            }
+        }
+    }
 
+    private static void logPosition(final PositionGreeks position)
+    {
+        if (position.quantity != 0)
+        {
             LOGGER.debug(
                 "Position {}: {}, delta={}, vega={}, gammaP={}, theta={}",
-                openPosition.getKey(), openPositionSigned, positionDelta, positionVega, positionGammaP, positionTheta
+                position.instrument.getInstrumentId(), position.quantity, position.getDelta(),
+                position.getVega(), position.getGammaP(), position.getTheta()
             );
-
-            totalDelta += positionDelta;
-            totalVega += positionVega;
-            totalGammaP += positionGammaP;
-            totalTheta += positionTheta;
         }
-        LOGGER.info("Total: delta={}, vega={}, gammaP={}, theta={}", totalDelta, totalVega, totalGammaP, totalTheta);
+    }
+
+    private void subtractFromTotals(final PositionGreeks position)
+    {
+        totalDelta -= position.getDelta();
+        totalVega -= position.getVega();
+        totalGammaP -= position.getGammaP();
+        totalTheta -= position.getTheta();
+    }
+
+    private void addToTotals(final PositionGreeks position)
+    {
+        totalDelta += position.getDelta();
+        totalVega += position.getVega();
+        totalGammaP += position.getGammaP();
+        totalTheta += position.getTheta();
     }
 
     /**
@@ -104,4 +280,163 @@ public class RiskManager implements OpenPositionListener
     {
         return totalVega;
     }
+
+    /**
+     * @return total gammaP of traded instruments
+     */
+    public double getTotalGammaP()
+    {
+        return totalGammaP;
+    }
+
+    /**
+     * @return total theta of traded instruments
+     */
+    public double getTotalTheta()
+    {
+        return totalTheta;
+    }
+
+    /**
+     * Positions on a single expiry, options are additionally kept as an {@link OptionChain} (indices of
+     * {@code optionPositions} correspond to chain indices) rebuilt when a new position is opened.
+     */
+    private static final class ExpirationPositions
+    {
+        private final int futuresId;
+        private final long expirationDate;
+        private final List<PositionGreeks> futuresPositions = new ArrayList<>();
+        private final List<PositionGreeks> optionPositions = new ArrayList<>();
+
+        private OptionChain optionChain;
+        private double[] volatilities;
+        private double futuresPrice = Double.NaN;
+        private long pricedTime; // of the last repricing of the whole expiry
+        private boolean stale = true; // option chain has to be rebuilt
+
+        private ExpirationPositions(final int futuresId, final long expirationDate)
+        {
+            this.futuresId = futuresId;
+            this.expirationDate = expirationDate;
+        }
+
+        private void add(final PositionGreeks position)
+        {
+            if (position.isFutures)
+            {
+                futuresPositions.add(position);
+            }
+            else
+            {
+                optionPositions.add(position);
+            }
+            stale = true;
+        }
+
+        private void rebuildOptionChain()
+        {
+            final List<Instrument> options = new ArrayList<>(optionPositions.size());
+            for (final PositionGreeks position : optionPositions)
+            {
+                options.add(position.instrument);
+            }
+            optionChain = new OptionChain(expirationDate, options);
+            volatilities = new double[optionChain.size()];
+            stale = false;
+        }
+    }
+
+    /**
+     * Greeks of a single position, per contract greeks are cached and multiplied by the current quantity.
+     */
+    private static final class PositionGreeks
+    {
+        private final Instrument instrument;
+        private final int notionalAmount;
+        private final boolean isFutures;
+        private final boolean isCall;
+        private final double strike;
+
+        private int quantity;
+        private boolean priced = false;
+        private double volatility = Double.NaN;
+
+        private double contractDelta;
+        private double contractGammaP;
+        private double contractVega;
+        private double contractTheta;
+
+        private PositionGreeks(final Instrument instrument)
+        {
+            this.instrument = instrument;
+            this.notionalAmount = instrument.getNotionalAmount();
+            this.isFutures = instrument.isFutures();
+            this.isCall = !isFutures && instrument.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN;
+            this.strike = isFutures ? 0 : instrument.getStrike().get().doubleValue();
+        }
+
+        private void setQuantity(final int quantity)
+        {
+            this.quantity = quantity;
+        }
+
+        private void reprice(
+            final Pricing pricing,
+            final double futuresPrice,
+            final double volatility,
+            final Pricing.MutableMetrics metrics)
+        {
+            if (isFutures)
+            {
+                pricing.calculateMetrics(instrument, volatility, futuresPrice, metrics);
+            }
+            else
+            {
+                pricing.calculateOptionMetrics(
+                    isCall,
+                    strike,
+                    pricing.yearsToMaturity(instrument.getExpirationDate()),
+                    volatility,
+                    futuresPrice,
+                    metrics
+                );
+            }
+            setMetrics(volatility, metrics.getDelta(), metrics.getGammaP(), metrics.getVega(), metrics.getTheta());
+        }
+
+        private void setMetrics(
+            final double volatility,
+            final double delta,
+            final double gammaP,
+            final double vega,
+            final double theta)
+        {
+            this.volatility = volatility;
+            contractDelta = delta;
+            contractGammaP = gammaP;
+            contractVega = vega;
+            contractTheta = theta;
+            priced = true;
+        }
+
+        private double getDelta()
+        {
+            return priced ? quantity * contractDelta : 0; // per contract
+        }
+
+        private double getGammaP()
+        {
+            return priced ? quantity * contractGammaP : 0; // per contract
+        }
+
+        private double getVega()
+        {
+            return priced ? quantity * contractVega * notionalAmount : 0; // per notional
+        }
+
+        private double getTheta()
+        {
+            return priced ? quantity * contractTheta * notionalAmount : 0; // per notional
+        }
+    }
 }
@@ -0,0 +1,11 @@
+package net.quedex.marketmaker;
+
+/**
+ * Total greeks of the open positions the order placing strategies limit their orders by.
+ */
+public interface RiskTotals
+{
+    double getTotalDelta();
+
+    double getTotalVega();
+}
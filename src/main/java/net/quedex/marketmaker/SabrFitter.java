@@ -0,0 +1,286 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Fits SABR alpha, rho and vol of vol of a single expiry (beta is fixed) to option prices with Levenberg-Marquardt,
+ * projecting the parameters onto their bounds after every step. Residuals are price errors divided by the vega of the
+ * initial guess, i.e. approximately volatility errors, so that OTM options are not dominated by the ATM ones. The
+ * Jacobian is calculated with forward differences. Buffers are reused, so fitting does not allocate apart from the
+ * result.
+ */
+@NotThreadSafe
+public class SabrFitter
+{
+    private static final int NUM_PARAMS = 3; // alpha, rho, volOfVol
+    private static final double[] LOWER_BOUNDS = {1e-4, -0.999, 1e-4};
+    private static final double[] UPPER_BOUNDS = {10, 0.999, 10};
+    private static final double MIN_VEGA = 1e-12;
+    private static final double INITIAL_DAMPING = 1e-3;
+    private static final double MAX_DAMPING = 1e10;
+    private static final double RELATIVE_TOLERANCE = 1e-10;
+    private static final double DIFFERENCE_STEP = 1e-6;
+
+    private final double beta;
+    private final int maxIterations;
+    private final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+
+    private final double[] params = new double[NUM_PARAMS];
+    private final double[] trialParams = new double[NUM_PARAMS];
+    private final double[] step = new double[NUM_PARAMS];
+    private final double[] gradient = new double[NUM_PARAMS];
+    private final double[][] normal = new double[NUM_PARAMS][NUM_PARAMS];
+    private final double[][] damped = new double[NUM_PARAMS][NUM_PARAMS];
+
+    private double[] weights = new double[0];
+    private double[] residuals = new double[0];
+    private double[] trialResiduals = new double[0];
+    private double[][] jacobian = new double[NUM_PARAMS][0];
+
+    private double lastRmsError = Double.NaN;
+
+    public SabrFitter(final double beta, final int maxIterations)
+    {
+        checkArgument(0 <= beta && beta <= 1, "beta=%s outside [0, 1]", beta);
+        checkArgument(maxIterations > 0, "maxIterations=%s <= 0", maxIterations);
+        this.beta = beta;
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param strikes      strikes of the options
+     * @param calls        whether the options are calls
+     * @param prices       observed prices of the options
+     * @param size         number of options (at least 3)
+     * @param initialGuess starting point, its beta is ignored
+     * @return fitted parameters
+     */
+    public SabrParameters fit(
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double[] strikes,
+        final boolean[] calls,
+        final double[] prices,
+        final int size,
+        final SabrParameters initialGuess)
+    {
+        checkArgument(size >= NUM_PARAMS, "size=%s < %s", size, NUM_PARAMS);
+        checkArgument(timeToMaturity > 0, "timeToMaturity=%s <= 0", timeToMaturity);
+        checkNotNull(initialGuess, "null initialGuess");
+        ensureCapacity(size);
+
+        params[0] = initialGuess.getAlpha();
+        params[1] = initialGuess.getRho();
+        params[2] = initialGuess.getVolOfVol();
+        project(params);
+
+        for (int i = 0; i < size; i++)
+        {
+            final double volatility = volatility(params, futuresPrice, timeToMaturity, strikes[i]);
+            Pricing.black76(calls[i], volatility, futuresPrice, timeToMaturity, strikes[i], metrics);
+            weights[i] = 1 / Math.max(metrics.getVega() * 100, MIN_VEGA); // vega per unit of volatility
+        }
+
+        double cost = residuals(params, futuresPrice, timeToMaturity, strikes, calls, prices, size, residuals);
+        double damping = INITIAL_DAMPING;
+
+        for (int iteration = 0; iteration < maxIterations && damping < MAX_DAMPING; iteration++)
+        {
+            computeJacobian(futuresPrice, timeToMaturity, strikes, calls, prices, size);
+            computeNormalEquations(size);
+
+            boolean improved = false;
+            while (damping < MAX_DAMPING)
+            {
+                for (int j = 0; j < NUM_PARAMS; j++)
+                {
+                    System.arraycopy(normal[j], 0, damped[j], 0, NUM_PARAMS);
+                    damped[j][j] += damping * Math.max(normal[j][j], 1e-12);
+                }
+                if (!solve(damped, gradient, step))
+                {
+                    damping *= 10;
+                    continue;
+                }
+
+                for (int j = 0; j < NUM_PARAMS; j++)
+                {
+                    trialParams[j] = params[j] - step[j];
+                }
+                project(trialParams);
+
+                final double trialCost = residuals(
+                    trialParams, futuresPrice, timeToMaturity, strikes, calls, prices, size, trialResiduals
+                );
+                if (trialCost < cost)
+                {
+                    final double decrease = cost - trialCost;
+                    System.arraycopy(trialParams, 0, params, 0, NUM_PARAMS);
+                    System.arraycopy(trialResiduals, 0, residuals, 0, size);
+                    cost = trialCost;
+                    damping = Math.max(damping / 10, 1e-12);
+                    improved = decrease > RELATIVE_TOLERANCE * cost;
+                    break;
+                }
+                damping *= 10;
+            }
+
+            if (!improved)
+            {
+                break;
+            }
+        }
+
+        lastRmsError = Math.sqrt(cost / size);
+        return new SabrParameters(params[0], beta, params[1], params[2]);
+    }
+
+    /**
+     * @return root mean square of the residuals (approximately volatility error) of the last fit
+     */
+    public double getLastRmsError()
+    {
+        return lastRmsError;
+    }
+
+    private double volatility(
+        final double[] parameters,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double strike)
+    {
+        return SabrParameters.impliedVolatility(
+            parameters[0],
+            beta,
+            parameters[1],
+            parameters[2],
+            futuresPrice,
+            strike,
+            timeToMaturity
+        );
+    }
+
+    /**
+     * @return sum of squared residuals
+     */
+    private double residuals(
+        final double[] parameters,
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double[] strikes,
+        final boolean[] calls,
+        final double[] prices,
+        final int size,
+        final double[] result)
+    {
+        double sum = 0;
+        for (int i = 0; i < size; i++)
+        {
+            final double volatility = volatility(parameters, futuresPrice, timeToMaturity, strikes[i]);
+            Pricing.black76(calls[i], volatility, futuresPrice, timeToMaturity, strikes[i], metrics);
+            final double residual = (metrics.getPrice() - prices[i]) * weights[i];
+            result[i] = residual;
+            sum += residual * residual;
+        }
+        return Double.isNaN(sum) ? Double.POSITIVE_INFINITY : sum;
+    }
+
+    private void computeJacobian(
+        final double futuresPrice,
+        final double timeToMaturity,
+        final double[] strikes,
+        final boolean[] calls,
+        final double[] prices,
+        final int size)
+    {
+        for (int j = 0; j < NUM_PARAMS; j++)
+        {
+            System.arraycopy(params, 0, trialParams, 0, NUM_PARAMS);
+            double h = DIFFERENCE_STEP * Math.max(Math.abs(params[j]), 1e-2);
+            if (params[j] + h > UPPER_BOUNDS[j])
+            {
+                h = -h; // backward difference at the upper bound
+            }
+            trialParams[j] += h;
+
+            residuals(trialParams, futuresPrice, timeToMaturity, strikes, calls, prices, size, trialResiduals);
+            final double[] column = jacobian[j];
+            for (int i = 0; i < size; i++)
+            {
+                column[i] = (trialResiduals[i] - residuals[i]) / h;
+            }
+        }
+    }
+
+    private void computeNormalEquations(final int size)
+    {
+        for (int j = 0; j < NUM_PARAMS; j++)
+        {
+            double g = 0;
+            for (int i = 0; i < size; i++)
+            {
+                g += jacobian[j][i] * residuals[i];
+            }
+            gradient[j] = g;
+
+            for (int k = 0; k <= j; k++)
+            {
+                double a = 0;
+                for (int i = 0; i < size; i++)
+                {
+                    a += jacobian[j][i] * jacobian[k][i];
+                }
+                normal[j][k] = a;
+                normal[k][j] = a;
+            }
+        }
+    }
+
+    /**
+     * Solves the 3x3 system {@code a * x = b} with Cramer's rule.
+     *
+     * @return false if the system is singular
+     */
+    private static boolean solve(final double[][] a, final double[] b, final double[] x)
+    {
+        final double det = determinant(a[0][0], a[0][1], a[0][2], a[1][0], a[1][1], a[1][2], a[2][0], a[2][1], a[2][2]);
+        if (det == 0 || Double.isNaN(det) || Double.isInfinite(det))
+        {
+            return false;
+        }
+        x[0] = determinant(b[0], a[0][1], a[0][2], b[1], a[1][1], a[1][2], b[2], a[2][1], a[2][2]) / det;
+        x[1] = determinant(a[0][0], b[0], a[0][2], a[1][0], b[1], a[1][2], a[2][0], b[2], a[2][2]) / det;
+        x[2] = determinant(a[0][0], a[0][1], b[0], a[1][0], a[1][1], b[1], a[2][0], a[2][1], b[2]) / det;
+        return true;
+    }
+
+    private static double determinant(
+        final double a00, final double a01, final double a02,
+        final double a10, final double a11, final double a12,
+        final double a20, final double a21, final double a22)
+    {
+        return a00 * (a11 * a22 - a12 * a21) - a01 * (a10 * a22 - a12 * a20) + a02 * (a10 * a21 - a11 * a20);
+    }
+
+    private static void project(final double[] parameters)
+    {
+        for (int j = 0; j < NUM_PARAMS; j++)
+        {
+            parameters[j] = Math.min(Math.max(parameters[j], LOWER_BOUNDS[j]), UPPER_BOUNDS[j]);
+        }
+    }
+
+    private void ensureCapacity(final int size)
+    {
+        if (residuals.length < size)
+        {
+            weights = new double[size];
+            residuals = new double[size];
+            trialResiduals = new double[size];
+            jacobian = new double[NUM_PARAMS][size];
+        }
+    }
+}
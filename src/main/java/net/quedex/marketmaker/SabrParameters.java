@@ -0,0 +1,114 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * SABR model parameters of a single expiry.
+ */
+@Immutable
+public final class SabrParameters
+{
+    private static final double ATM_THRESHOLD = 1e-8;
+
+    private final double alpha;
+    private final double beta;
+    private final double rho;
+    private final double volOfVol;
+
+    public SabrParameters(final double alpha, final double beta, final double rho, final double volOfVol)
+    {
+        checkArgument(alpha > 0, "alpha=%s <= 0", alpha);
+        checkArgument(0 <= beta && beta <= 1, "beta=%s outside [0, 1]", beta);
+        checkArgument(-1 < rho && rho < 1, "rho=%s outside (-1, 1)", rho);
+        checkArgument(volOfVol >= 0, "volOfVol=%s < 0", volOfVol);
+        this.alpha = alpha;
+        this.beta = beta;
+        this.rho = rho;
+        this.volOfVol = volOfVol;
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    public double getBeta()
+    {
+        return beta;
+    }
+
+    public double getRho()
+    {
+        return rho;
+    }
+
+    public double getVolOfVol()
+    {
+        return volOfVol;
+    }
+
+    public double impliedVolatility(final double futuresPrice, final double strike, final double timeToMaturity)
+    {
+        return impliedVolatility(alpha, beta, rho, volOfVol, futuresPrice, strike, timeToMaturity);
+    }
+
+    /**
+     * Hagan's lognormal implied volatility approximation, based on http://www.math.ku.dk/~rolf/SABR.pdf. Does not
+     * allocate.
+     */
+    public static double impliedVolatility(
+        final double alpha,
+        final double beta,
+        final double rho,
+        final double volOfVol,
+        final double futuresPrice,
+        final double strike,
+        final double timeToMaturity)
+    {
+        final double oneMinusBeta = 1 - beta;
+        final double fk = futuresPrice * strike;
+        final double fkPowHalfOneMinusBeta = beta == 1 ? 1 : Math.pow(fk, 0.5 * oneMinusBeta);
+        final double logFK = Math.log(futuresPrice / strike);
+
+        final double numerator = 1 + (
+            oneMinusBeta * oneMinusBeta / 24 * alpha * alpha / (fkPowHalfOneMinusBeta * fkPowHalfOneMinusBeta)
+            + 0.25 * rho * beta * volOfVol * alpha / fkPowHalfOneMinusBeta
+            + (2 - 3 * rho * rho) / 24 * volOfVol * volOfVol
+        ) * timeToMaturity;
+
+        final double z = volOfVol / alpha * fkPowHalfOneMinusBeta * logFK;
+
+        if (Math.abs((futuresPrice - strike) / futuresPrice) < ATM_THRESHOLD || Math.abs(z) < ATM_THRESHOLD)
+        {
+            final double oneMinusBetaLogFK = oneMinusBeta * logFK;
+            final double oneMinusBetaLogFKSquared = oneMinusBetaLogFK * oneMinusBetaLogFK;
+            return alpha * numerator / (fkPowHalfOneMinusBeta * (
+                1 + oneMinusBetaLogFKSquared / 24 + oneMinusBetaLogFKSquared * oneMinusBetaLogFKSquared / 1920
+            ));
+        }
+
+        final double x = Math.log((Math.sqrt(1 - 2 * rho * z + z * z) + z - rho) / (1 - rho));
+        final double oneMinusBetaLogFK = oneMinusBeta * logFK;
+        final double oneMinusBetaLogFKSquared = oneMinusBetaLogFK * oneMinusBetaLogFK;
+        final double denominator = x * fkPowHalfOneMinusBeta * (
+            1 + oneMinusBetaLogFKSquared / 24 + oneMinusBetaLogFKSquared * oneMinusBetaLogFKSquared / 1920
+        );
+
+        return z * alpha * numerator / denominator;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("alpha", alpha)
+            .add("beta", beta)
+            .add("rho", rho)
+            .add("volOfVol", volOfVol)
+            .toString();
+    }
+}
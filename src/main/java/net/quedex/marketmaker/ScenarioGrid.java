@@ -0,0 +1,142 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Profit and loss of the open positions (per notional) over a grid of scenarios: relative futures price moves (rows)
+ * times absolute volatility shifts (columns), in total and per expiration date.
+ */
+@Immutable
+public final class ScenarioGrid
+{
+    public static final ScenarioGrid EMPTY = new ScenarioGrid(
+        0,
+        new double[] {0},
+        new double[] {0},
+        new double[1],
+        new HashMap<>()
+    );
+
+    private final long calculationTime;
+    private final double[] futuresMoves;
+    private final double[] volatilityShifts;
+    private final double[] total;
+    private final Map<Long, double[]> byExpiration;
+    private final double worstCaseLoss;
+
+    /**
+     * @param total        row-major grid, {@code futuresMoves.length * volatilityShifts.length} values
+     * @param byExpiration row-major grids by expiration date
+     */
+    ScenarioGrid(
+        final long calculationTime,
+        final double[] futuresMoves,
+        final double[] volatilityShifts,
+        final double[] total,
+        final Map<Long, double[]> byExpiration)
+    {
+        final int size = futuresMoves.length * volatilityShifts.length;
+        checkArgument(total.length == size, "total.length=%s != %s", total.length, size);
+        this.calculationTime = calculationTime;
+        this.futuresMoves = futuresMoves.clone();
+        this.volatilityShifts = volatilityShifts.clone();
+        this.total = total.clone();
+
+        final ImmutableMap.Builder<Long, double[]> builder = ImmutableMap.builder();
+        for (final Map.Entry<Long, double[]> entry : checkNotNull(byExpiration, "null byExpiration").entrySet())
+        {
+            checkArgument(entry.getValue().length == size, "Wrong grid size of %s", entry.getKey());
+            builder.put(entry.getKey(), entry.getValue().clone());
+        }
+        this.byExpiration = builder.build();
+
+        double minPnl = 0;
+        for (final double pnl : total)
+        {
+            minPnl = Math.min(minPnl, pnl);
+        }
+        this.worstCaseLoss = -minPnl;
+    }
+
+    /**
+     * @return time of the calculation in epoch millis, 0 if never calculated
+     */
+    public long getCalculationTime()
+    {
+        return calculationTime;
+    }
+
+    public int getFuturesMoveCount()
+    {
+        return futuresMoves.length;
+    }
+
+    public int getVolatilityShiftCount()
+    {
+        return volatilityShifts.length;
+    }
+
+    /**
+     * @return relative futures price move of the row
+     */
+    public double getFuturesMove(final int row)
+    {
+        return futuresMoves[row];
+    }
+
+    /**
+     * @return absolute volatility shift of the column
+     */
+    public double getVolatilityShift(final int column)
+    {
+        return volatilityShifts[column];
+    }
+
+    public double getPnl(final int row, final int column)
+    {
+        return total[row * volatilityShifts.length + column];
+    }
+
+    public Set<Long> getExpirationDates()
+    {
+        return byExpiration.keySet();
+    }
+
+    /**
+     * @return profit and loss of the positions expiring at the given date, 0 if there are none
+     */
+    public double getPnl(final long expirationDate, final int row, final int column)
+    {
+        final double[] grid = byExpiration.get(expirationDate);
+        return grid == null ? 0 : grid[row * volatilityShifts.length + column];
+    }
+
+    /**
+     * @return the largest loss over the scenarios (nonnegative, 0 if no scenario loses)
+     */
+    public double getWorstCaseLoss()
+    {
+        return worstCaseLoss;
+    }
+
+    @Override
+    public String toString()
+    {
+        return MoreObjects.toStringHelper(this)
+            .add("calculationTime", calculationTime)
+            .add("worstCaseLoss", worstCaseLoss)
+            .add("futuresMoves", Arrays.toString(futuresMoves))
+            .add("volatilityShifts", Arrays.toString(volatilityShifts))
+            .toString();
+    }
+}
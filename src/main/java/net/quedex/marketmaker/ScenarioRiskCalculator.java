@@ -0,0 +1,428 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.user.OpenPosition;
+import net.quedex.api.user.OpenPositionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Periodically reprices the open positions over a grid of futures price moves times volatility shifts per expiry (see
+ * {@link ScenarioGrid}) on its own thread, the (position, futures move) rows are priced in parallel in a dedicated
+ * fork-join pool, so the event thread is never used. Per contract profit and loss of every position over the grid is
+ * cached, so a position change adjusts the grid by the difference without repricing (a new position is priced alone,
+ * at the futures prices and on the surface of the last repricing). Closed positions are dropped.
+ * <p>
+ * Futures prices are the published two-sided mids and volatilities those of the calibrated {@link VolatilitySurface}
+ * or the global SABR parameters, shifted by the scenario. Positions of expiries without a futures mid or without
+ * traded futures are left out.
+ */
+@ThreadSafe
+public class ScenarioRiskCalculator implements OpenPositionListener
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScenarioRiskCalculator.class);
+
+    private static final double MIN_VOLATILITY = 0.01;
+    private static final int ROWS_PER_TASK = 16;
+
+    private final InstrumentManager instrumentManager;
+    private final MarketDataManager marketDataManager;
+    private final Pricing globalSabrPricing;
+    private final Supplier<VolatilitySurface> surfaceSupplier;
+    private final double fairVolatility;
+    private final long intervalMillis;
+    private final double[] futuresMoves;
+    private final double[] volatilityShifts;
+    private final int gridSize;
+
+    private final AtomicReference<ScenarioGrid> grid = new AtomicReference<>(ScenarioGrid.EMPTY);
+    private final Map<Integer, Integer> pendingQuantities = new ConcurrentHashMap<>();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "scenario-risk");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ForkJoinPool pool;
+
+    // accessed only by the executor thread (and the pool during repricing)
+    private final Map<Integer, Position> positions = new HashMap<>();
+    private final Map<Long, Double> futuresPrices = new HashMap<>(); // of the last repricing, by expiration date
+    private VolatilitySurface repricedSurface; // of the last repricing
+    private final Map<Long, double[]> expirationGrids = new HashMap<>();
+    private final double[] totalGrid;
+
+    public ScenarioRiskCalculator(
+        final InstrumentManager instrumentManager,
+        final MarketDataManager marketDataManager,
+        final Pricing globalSabrPricing,
+        final Supplier<VolatilitySurface> surfaceSupplier,
+        final MarketMakerConfiguration config)
+    {
+        checkArgument(
+            config.getScenarioIntervalMillis() > 0,
+            "scenarioIntervalMillis=%s <= 0", config.getScenarioIntervalMillis()
+        );
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.marketDataManager = checkNotNull(marketDataManager, "null marketDataManager");
+        this.globalSabrPricing = checkNotNull(globalSabrPricing, "null globalSabrPricing");
+        this.surfaceSupplier = checkNotNull(surfaceSupplier, "null surfaceSupplier");
+        this.fairVolatility = config.getFairVolatility();
+        this.intervalMillis = config.getScenarioIntervalMillis();
+        this.futuresMoves = evenlySpaced(config.getScenarioFuturesMoves(), config.getScenarioMaxFuturesMoveFraction());
+        this.volatilityShifts = evenlySpaced(
+            config.getScenarioVolatilityShifts(),
+            config.getScenarioMaxVolatilityShift()
+        );
+        this.gridSize = futuresMoves.length * volatilityShifts.length;
+        this.totalGrid = new double[gridSize];
+        this.pool = new ForkJoinPool(config.getScenarioParallelism());
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this::repriceSafely, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * May be called from any thread.
+     *
+     * @return the most recent grid, {@link ScenarioGrid#EMPTY} before the first calculation
+     */
+    public ScenarioGrid getGrid()
+    {
+        return grid.get();
+    }
+
+    /**
+     * Only records the new quantity, the grid is adjusted on the scenario thread.
+     */
+    @Override
+    public void onOpenPosition(final OpenPosition openPosition)
+    {
+        pendingQuantities.put(openPosition.getInstrumentId(), openPosition.getQuantitySigned());
+        if (updateScheduled.compareAndSet(false, true))
+        {
+            executor.execute(this::updatePositionsSafely);
+        }
+    }
+
+    private void repriceSafely()
+    {
+        try
+        {
+            applyPendingQuantities();
+            reprice();
+            publish();
+        }
+        catch (final RuntimeException e) // would cancel further repricing otherwise
+        {
+            LOGGER.error("Scenario repricing failed", e);
+        }
+    }
+
+    private void updatePositionsSafely()
+    {
+        try
+        {
+            if (applyPendingQuantities())
+            {
+                publish();
+            }
+        }
+        catch (final RuntimeException e)
+        {
+            LOGGER.error("Scenario position update failed", e);
+        }
+    }
+
+    /**
+     * Applies quantity changes recorded since the last call, adjusting the grids of the priced positions.
+     *
+     * @return whether there were any
+     */
+    private boolean applyPendingQuantities()
+    {
+        updateScheduled.set(false); // changes recorded from now on schedule another update
+        if (pendingQuantities.isEmpty())
+        {
+            return false;
+        }
+
+        for (final Integer instrumentId : new ArrayList<>(pendingQuantities.keySet()))
+        {
+            final Integer quantity = pendingQuantities.remove(instrumentId);
+            Position position = positions.get(instrumentId);
+            if (position == null)
+            {
+                if (quantity == 0)
+                {
+                    continue;
+                }
+                final Instrument instrument = instrumentManager.getInstrument(instrumentId);
+                if (!instrumentManager.hasFuturesAtExpiration(instrument.getExpirationDate()))
+                {
+                    LOGGER.warn("Ignoring position in {} expiring without traded futures: {}", instrumentId, quantity);
+                    continue;
+                }
+                position = new Position(instrument, gridSize);
+                positions.put(instrumentId, position);
+                final Double futuresPrice = futuresPrices.get(position.expirationDate);
+                if (futuresPrice != null)
+                {
+                    position.prepare(futuresPrice, repricedSurface);
+                    for (int row = 0; row < futuresMoves.length; row++)
+                    {
+                        position.priceRow(row);
+                    }
+                    position.priced = true;
+                }
+            }
+
+            if (position.priced)
+            {
+                addToGrids(position, quantity - position.quantity);
+            }
+            position.quantity = quantity;
+            if (quantity == 0)
+            {
+                positions.remove(instrumentId);
+            }
+        }
+        return true;
+    }
+
+    private void reprice()
+    {
+        final VolatilitySurface surface = surfaceSupplier.get(); // the same for all the positions
+        repricedSurface = surface;
+        futuresPrices.clear();
+        final List<Position> priced = new ArrayList<>(positions.size());
+        for (final Position position : positions.values())
+        {
+            Double futuresPrice = futuresPrices.get(position.expirationDate);
+            if (futuresPrice == null)
+            {
+                final long futuresMid = marketDataManager.getPublishedTwoSidedMid(position.futuresId);
+                futuresPrice = futuresMid == 0 ? Double.NaN : Prices.toDouble(futuresMid);
+                futuresPrices.put(position.expirationDate, futuresPrice);
+            }
+
+            position.priced = false;
+            if (!Double.isNaN(futuresPrice))
+            {
+                position.prepare(futuresPrice, surface);
+                priced.add(position);
+            }
+        }
+        futuresPrices.values().removeIf(price -> Double.isNaN(price));
+
+        final Position[] pricedArray = priced.toArray(new Position[0]);
+        pool.invoke(new RepriceTask(pricedArray, 0, pricedArray.length * futuresMoves.length));
+
+        expirationGrids.clear(); // rebuilt from scratch, so that rounding errors do not accumulate
+        Arrays.fill(totalGrid, 0);
+        for (final Position position : pricedArray)
+        {
+            position.priced = true;
+            addToGrids(position, position.quantity);
+        }
+    }
+
+    private void addToGrids(final Position position, final int quantity)
+    {
+        if (quantity == 0)
+        {
+            return;
+        }
+        double[] expirationGrid = expirationGrids.get(position.expirationDate);
+        if (expirationGrid == null)
+        {
+            expirationGrid = new double[gridSize];
+            expirationGrids.put(position.expirationDate, expirationGrid);
+        }
+
+        final double multiplier = (double) quantity * position.notionalAmount; // per notional
+        for (int k = 0; k < gridSize; k++)
+        {
+            final double pnl = multiplier * position.contractPnl[k];
+            expirationGrid[k] += pnl;
+            totalGrid[k] += pnl;
+        }
+    }
+
+    private void publish()
+    {
+        final ScenarioGrid calculated = new ScenarioGrid(
+            System.currentTimeMillis(),
+            futuresMoves,
+            volatilityShifts,
+            totalGrid,
+            expirationGrids
+        );
+        grid.set(calculated);
+        LOGGER.debug("{}", calculated);
+    }
+
+    /**
+     * @return {@code count} values spread evenly over {@code [-max, max]}, a single 0 if count is 1
+     */
+    private static double[] evenlySpaced(final int count, final double max)
+    {
+        final double[] values = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            values[i] = count == 1 ? 0 : -max + 2 * max * i / (count - 1);
+        }
+        return values;
+    }
+
+    /**
+     * Prices rows {@code [from, to)} of the flattened (position, futures move) index.
+     */
+    private final class RepriceTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Position[] positions;
+        private final int from;
+        private final int to;
+
+        private RepriceTask(final Position[] positions, final int from, final int to)
+        {
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= ROWS_PER_TASK)
+            {
+                for (int r = from; r < to; r++)
+                {
+                    positions[r / futuresMoves.length].priceRow(r % futuresMoves.length);
+                }
+            }
+            else
+            {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new RepriceTask(positions, from, middle), new RepriceTask(positions, middle, to));
+            }
+        }
+    }
+
+    private final class Position
+    {
+        private final boolean isFutures;
+        private final boolean isCall;
+        private final double strike;
+        private final long expirationDate;
+        private final int futuresId;
+        private final int notionalAmount;
+        private final double[] contractPnl; // row-major grid
+
+        private int quantity;
+        private boolean priced = false; // contractPnl valid for the futures price of the last repricing
+
+        // set by prepare()
+        private double futuresPrice;
+        private double timeToMaturity;
+        private SabrParameters parameters; // null if not calibrated
+        private double baseValue;
+
+        private Position(final Instrument instrument, final int gridSize)
+        {
+            this.isFutures = instrument.isFutures();
+            this.isCall = !isFutures && instrument.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN;
+            this.strike = isFutures ? Double.NaN : instrumentManager.getStrike(instrument.getInstrumentId());
+            this.expirationDate = instrument.getExpirationDate();
+            this.futuresId = instrumentManager.getFuturesAtExpiration(expirationDate).getInstrumentId();
+            this.notionalAmount = instrument.getNotionalAmount();
+            this.contractPnl = new double[gridSize];
+        }
+
+        /**
+         * Prices the position at the given futures price, the scenarios are relative to this value.
+         */
+        private void prepare(final double futuresPrice, final VolatilitySurface surface)
+        {
+            this.futuresPrice = futuresPrice;
+            this.timeToMaturity = globalSabrPricing.yearsToMaturity(expirationDate);
+            this.parameters = surface.getParameters(expirationDate);
+            if (!isFutures && timeToMaturity > 0)
+            {
+                final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics();
+                Pricing.black76(isCall, volatility(futuresPrice), futuresPrice, timeToMaturity, strike, metrics);
+                baseValue = metrics.getPrice();
+            }
+        }
+
+        /**
+         * Prices a single futures move over all the volatility shifts, may be called concurrently for different rows.
+         */
+        private void priceRow(final int row)
+        {
+            final int offset = row * volatilityShifts.length;
+            final double price = futuresPrice * (1 + futuresMoves[row]);
+
+            if (isFutures || timeToMaturity <= 0) // expired options are left out
+            {
+                final double pnl = isFutures ? price - futuresPrice : 0;
+                Arrays.fill(contractPnl, offset, offset + volatilityShifts.length, pnl);
+                return;
+            }
+
+            final Pricing.MutableMetrics metrics = new Pricing.MutableMetrics(); // local - thread-safe
+            final double volatility = volatility(price);
+            for (int j = 0; j < volatilityShifts.length; j++)
+            {
+                Pricing.black76(
+                    isCall,
+                    Math.max(volatility + volatilityShifts[j], MIN_VOLATILITY),
+                    price,
+                    timeToMaturity,
+                    strike,
+                    metrics
+                );
+                contractPnl[offset + j] = metrics.getPrice() - baseValue;
+            }
+        }
+
+        /**
+         * @return volatility at the strike with the calibrated parameters or with the global ones if there are none
+         */
+        private double volatility(final double futuresPrice)
+        {
+            return parameters != null
+                ? parameters.impliedVolatility(futuresPrice, strike, timeToMaturity)
+                : globalSabrPricing.getSABRImpliedVolatility(fairVolatility, futuresPrice, timeToMaturity, strike);
+        }
+    }
+}
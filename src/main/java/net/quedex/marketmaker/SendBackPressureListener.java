@@ -0,0 +1,11 @@
+package net.quedex.marketmaker;
+
+/**
+ * Notified by {@link OrderSendScheduler} when its queue fills up to capacity and when it drains again, so that the
+ * producer of the order specs can hold off generating batches that would only go stale in the queue. Called on the
+ * sender thread.
+ */
+public interface SendBackPressureListener
+{
+    void onBackPressureChanged(boolean backPressured);
+}
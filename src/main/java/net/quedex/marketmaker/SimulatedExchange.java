@@ -0,0 +1,456 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import net.quedex.api.user.LimitOrderSpec;
+import net.quedex.api.user.OpenPositionListener;
+import net.quedex.api.user.OrderCancelSpec;
+import net.quedex.api.user.OrderListener;
+import net.quedex.api.user.OrderModifySpec;
+import net.quedex.api.user.OrderSide;
+import net.quedex.api.user.OrderSpec;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exchange simulated for {@link Backtest}: order specs are matched against the recorded order book and the resulting
+ * order and open position events are passed to the listeners. Fill model:
+ * <ul>
+ * <li>an order crossing the recorded book when placed or modified is filled at the recorded best price, up to the
+ * recorded quantity</li>
+ * <li>a resting order is filled at its own price when the recorded book moves through it, up to the recorded quantity,
+ * orders with better prices first</li>
+ * <li>the liquidity taken is not available again until the next recorded quotes of the instrument, the orders do not
+ * affect the recorded book otherwise</li>
+ * </ul>
+ * Cancels are processed first, then modifications and places (as sent by {@link OrderSendScheduler}), everything
+ * without latency. Fees are not accounted.
+ */
+@NotThreadSafe
+public class SimulatedExchange
+{
+    private static final Comparator<RestingOrder> PRICE_TIME_PRIORITY = (o1, o2) -> {
+        final int byPrice = o1.side == OrderSide.BUY
+            ? Long.compare(o2.price, o1.price)
+            : Long.compare(o1.price, o2.price);
+        return byPrice != 0 ? byPrice : Long.compare(o1.clientOrderId, o2.clientOrderId);
+    };
+
+    private final Map<Integer, Instrument> instruments;
+    private final OrderListener orderListener;
+    private final OpenPositionListener openPositionListener;
+
+    private final Map<Integer, Book> books = new HashMap<>();
+    private final Map<Long, RestingOrder> orders = new HashMap<>();
+    private final Map<Integer, List<RestingOrder>> instrumentIdToOrders = new HashMap<>();
+    private final Map<Integer, Position> positions = new TreeMap<>(); // sorted for deterministic sums
+    private final List<RestingOrder> crossedOrders = new ArrayList<>();
+
+    private long placeCount = 0;
+    private long modificationCount = 0;
+    private long cancelCount = 0;
+    private long failedCount = 0;
+    private long makerFillCount = 0;
+    private long takerFillCount = 0;
+
+    public SimulatedExchange(
+        final Map<Integer, Instrument> instruments,
+        final OrderListener orderListener,
+        final OpenPositionListener openPositionListener)
+    {
+        this.instruments = checkNotNull(instruments, "null instruments");
+        this.orderListener = checkNotNull(orderListener, "null orderListener");
+        this.openPositionListener = checkNotNull(openPositionListener, "null openPositionListener");
+    }
+
+    /**
+     * Updates the recorded book of the instrument and fills the resting orders it moved through.
+     *
+     * @param bid 0 if none
+     * @param ask 0 if none
+     */
+    public void onQuotes(
+        final int instrumentId,
+        final long last,
+        final long bid,
+        final int bidQuantity,
+        final long ask,
+        final int askQuantity)
+    {
+        Book book = books.get(instrumentId);
+        if (book == null)
+        {
+            book = new Book();
+            books.put(instrumentId, book);
+        }
+        book.last = last;
+        book.bid = bid;
+        book.bidQuantity = bidQuantity;
+        book.ask = ask;
+        book.askQuantity = askQuantity;
+
+        final List<RestingOrder> instrumentOrders = instrumentIdToOrders.get(instrumentId);
+        if (instrumentOrders == null)
+        {
+            return;
+        }
+
+        crossedOrders.clear();
+        for (final RestingOrder order : instrumentOrders)
+        {
+            if (book.crosses(order))
+            {
+                crossedOrders.add(order);
+            }
+        }
+        crossedOrders.sort(PRICE_TIME_PRIORITY);
+        for (final RestingOrder order : crossedOrders)
+        {
+            match(order, book, false);
+        }
+    }
+
+    public void submit(final List<OrderSpec> orderSpecs)
+    {
+        for (final OrderSpec orderSpec : orderSpecs)
+        {
+            if (orderSpec instanceof OrderCancelSpec)
+            {
+                cancel((OrderCancelSpec) orderSpec);
+            }
+        }
+        for (final OrderSpec orderSpec : orderSpecs)
+        {
+            if (orderSpec instanceof OrderModifySpec)
+            {
+                modify((OrderModifySpec) orderSpec);
+            }
+        }
+        for (final OrderSpec orderSpec : orderSpecs)
+        {
+            if (orderSpec instanceof LimitOrderSpec)
+            {
+                place((LimitOrderSpec) orderSpec);
+            }
+        }
+    }
+
+    /**
+     * @return positions by instrument id, sorted by id
+     */
+    public Map<Integer, Position> getPositions()
+    {
+        return positions;
+    }
+
+    /**
+     * @return mark price of the instrument: mid of the recorded book, the last trade price if not two-sided, 0 if
+     *         neither known
+     */
+    public long getMarkPrice(final int instrumentId)
+    {
+        final Book book = books.get(instrumentId);
+        if (book == null)
+        {
+            return 0;
+        }
+        return book.bid != 0 && book.ask != 0 ? Prices.mid(book.bid, book.ask) : book.last;
+    }
+
+    /**
+     * @return profit and loss of all the positions marked to {@link #getMarkPrice}
+     */
+    public double getPnl()
+    {
+        double pnl = 0;
+        for (final Position position : positions.values())
+        {
+            pnl += getPnl(position);
+        }
+        return pnl;
+    }
+
+    public double getPnl(final Position position)
+    {
+        final long markPrice = getMarkPrice(position.instrumentId);
+        return position.cash + position.quantity * Prices.toDouble(markPrice) * position.notionalAmount;
+    }
+
+    public long getPlaceCount()
+    {
+        return placeCount;
+    }
+
+    public long getModificationCount()
+    {
+        return modificationCount;
+    }
+
+    public long getCancelCount()
+    {
+        return cancelCount;
+    }
+
+    /**
+     * @return number of modifications and cancels of orders not resting anymore
+     */
+    public long getFailedCount()
+    {
+        return failedCount;
+    }
+
+    public long getMakerFillCount()
+    {
+        return makerFillCount;
+    }
+
+    public long getTakerFillCount()
+    {
+        return takerFillCount;
+    }
+
+    private void cancel(final OrderCancelSpec orderCancelSpec)
+    {
+        cancelCount++;
+        final long clientOrderId = orderCancelSpec.getClientOrderId();
+        final RestingOrder order = orders.get(clientOrderId);
+        if (order == null)
+        {
+            failedCount++;
+            orderListener.onOrderCancelFailed(ExchangeMessages.orderCancelFailed(clientOrderId));
+            return;
+        }
+        removeOrder(order);
+        orderListener.onOrderCanceled(ExchangeMessages.orderCanceled(clientOrderId));
+    }
+
+    private void modify(final OrderModifySpec orderModifySpec)
+    {
+        modificationCount++;
+        final long clientOrderId = orderModifySpec.getClientOrderId();
+        final RestingOrder order = orders.get(clientOrderId);
+        if (order == null)
+        {
+            failedCount++;
+            orderListener.onOrderModificationFailed(ExchangeMessages.orderModificationFailed(clientOrderId));
+            return;
+        }
+        order.price = Prices.fromBigDecimal(orderModifySpec.getNewPrice());
+        order.quantity = orderModifySpec.getNewQuantity();
+        orderListener.onOrderModified(ExchangeMessages.orderModified(clientOrderId));
+
+        final Book book = books.get(order.instrumentId);
+        if (book != null && book.crosses(order))
+        {
+            match(order, book, true);
+        }
+    }
+
+    private void place(final LimitOrderSpec limitOrderSpec)
+    {
+        placeCount++;
+        final RestingOrder order = new RestingOrder(
+            limitOrderSpec.getClientOrderId(),
+            limitOrderSpec.getInstrumentId(),
+            limitOrderSpec.getSide(),
+            Prices.fromBigDecimal(limitOrderSpec.getPrice()),
+            limitOrderSpec.getQuantity()
+        );
+        orders.put(order.clientOrderId, order);
+        List<RestingOrder> instrumentOrders = instrumentIdToOrders.get(order.instrumentId);
+        if (instrumentOrders == null)
+        {
+            instrumentOrders = new ArrayList<>();
+            instrumentIdToOrders.put(order.instrumentId, instrumentOrders);
+        }
+        instrumentOrders.add(order);
+        orderListener.onOrderPlaced(ExchangeMessages.orderPlaced(
+            order.clientOrderId,
+            order.instrumentId,
+            order.side,
+            order.price,
+            order.quantity,
+            order.quantity
+        ));
+
+        final Book book = books.get(order.instrumentId);
+        if (book != null && book.crosses(order))
+        {
+            match(order, book, true);
+        }
+    }
+
+    /**
+     * Fills the order crossing the book up to the quantity available.
+     *
+     * @param taker whether filled at the book price, at the order price otherwise
+     */
+    private void match(final RestingOrder order, final Book book, final boolean taker)
+    {
+        final boolean buy = order.side == OrderSide.BUY;
+        final int available = buy ? book.askQuantity : book.bidQuantity;
+        final int filledQuantity = Math.min(order.quantity, available);
+        if (filledQuantity == 0)
+        {
+            return;
+        }
+        final long price = taker ? (buy ? book.ask : book.bid) : order.price;
+
+        if (buy)
+        {
+            book.askQuantity -= filledQuantity;
+        }
+        else
+        {
+            book.bidQuantity -= filledQuantity;
+        }
+        order.quantity -= filledQuantity;
+        if (taker)
+        {
+            takerFillCount++;
+        }
+        else
+        {
+            makerFillCount++;
+        }
+
+        Position position = positions.get(order.instrumentId);
+        if (position == null)
+        {
+            position = new Position(order.instrumentId, instruments.get(order.instrumentId).getNotionalAmount());
+            positions.put(order.instrumentId, position);
+        }
+        position.fill(buy ? filledQuantity : -filledQuantity, price);
+
+        if (order.quantity == 0)
+        {
+            removeOrder(order);
+        }
+        orderListener.onOrderFilled(ExchangeMessages.orderFilled(
+            order.clientOrderId,
+            order.instrumentId,
+            order.side,
+            price,
+            filledQuantity,
+            order.quantity
+        ));
+        openPositionListener.onOpenPosition(ExchangeMessages.openPosition(order.instrumentId, position.quantity));
+    }
+
+    private void removeOrder(final RestingOrder order)
+    {
+        orders.remove(order.clientOrderId);
+        instrumentIdToOrders.get(order.instrumentId).remove(order);
+    }
+
+    /**
+     * Position in an instrument resulting from the simulated fills.
+     */
+    public static final class Position
+    {
+        private final int instrumentId;
+        private final int notionalAmount;
+        private int quantity; // signed
+        private double cash; // received for the fills
+        private int boughtQuantity;
+        private int soldQuantity;
+        private int fillCount;
+
+        private Position(final int instrumentId, final int notionalAmount)
+        {
+            checkArgument(notionalAmount > 0, "notionalAmount=%s <= 0", notionalAmount);
+            this.instrumentId = instrumentId;
+            this.notionalAmount = notionalAmount;
+        }
+
+        private void fill(final int quantitySigned, final long price)
+        {
+            quantity += quantitySigned;
+            cash -= quantitySigned * Prices.toDouble(price) * notionalAmount;
+            if (quantitySigned > 0)
+            {
+                boughtQuantity += quantitySigned;
+            }
+            else
+            {
+                soldQuantity -= quantitySigned;
+            }
+            fillCount++;
+        }
+
+        public int getInstrumentId()
+        {
+            return instrumentId;
+        }
+
+        /**
+         * @return signed, negative if short
+         */
+        public int getQuantity()
+        {
+            return quantity;
+        }
+
+        public int getBoughtQuantity()
+        {
+            return boughtQuantity;
+        }
+
+        public int getSoldQuantity()
+        {
+            return soldQuantity;
+        }
+
+        public int getFillCount()
+        {
+            return fillCount;
+        }
+    }
+
+    private static final class RestingOrder
+    {
+        private final long clientOrderId;
+        private final int instrumentId;
+        private final OrderSide side;
+        private long price;
+        private int quantity;
+
+        private RestingOrder(
+            final long clientOrderId,
+            final int instrumentId,
+            final OrderSide side,
+            final long price,
+            final int quantity)
+        {
+            this.clientOrderId = clientOrderId;
+            this.instrumentId = instrumentId;
+            this.side = side;
+            this.price = price;
+            this.quantity = quantity;
+        }
+    }
+
+    private static final class Book
+    {
+        private long last;
+        private long bid;
+        private int bidQuantity;
+        private long ask;
+        private int askQuantity;
+
+        private boolean crosses(final RestingOrder order)
+        {
+            return order.side == OrderSide.BUY
+                ? ask != 0 && order.price >= ask
+                : bid != 0 && order.price <= bid;
+        }
+    }
+}
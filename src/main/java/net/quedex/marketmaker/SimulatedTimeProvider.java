@@ -0,0 +1,38 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Time set explicitly, e.g. to the timestamps of the replayed events (see {@link Backtest}). Set by a single thread,
+ * read by any.
+ */
+@ThreadSafe
+public final class SimulatedTimeProvider implements TimeProvider
+{
+    private volatile long currentTime;
+
+    public SimulatedTimeProvider(final long currentTime)
+    {
+        this.currentTime = currentTime;
+    }
+
+    @Override
+    public long getCurrentTime()
+    {
+        return currentTime;
+    }
+
+    /**
+     * @param currentTime in milliseconds since the epoch, never before the time set previously
+     */
+    public void setCurrentTime(final long currentTime)
+    {
+        checkArgument(
+            currentTime >= this.currentTime,
+            "currentTime=%s before %s", currentTime, this.currentTime
+        );
+        this.currentTime = currentTime;
+    }
+}
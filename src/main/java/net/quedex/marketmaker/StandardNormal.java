@@ -0,0 +1,74 @@
+package net.quedex.marketmaker;
+
+/**
+ * Fast, allocation-free standard normal distribution functions.
+ * <p>
+ * The cumulative distribution function uses Hart's rational approximation (algorithm 5666) as published in
+ * G. West, "Better approximations to cumulative normal functions", Wilmott Magazine, 2005. Its absolute error is
+ * below {@code 1e-15} over the whole real line (compared to the erf-based {@code NormalDistribution} from
+ * commons-math) and it requires a single {@link Math#exp(double)} evaluation.
+ */
+public final class StandardNormal
+{
+    private static final double INV_SQRT_2PI = 1 / Math.sqrt(2 * Math.PI);
+    private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+    private static final double CUTOFF = 37;
+    private static final double ASYMPTOTIC_THRESHOLD = 7.07106781186547;
+
+    private StandardNormal()
+    {
+        throw new AssertionError();
+    }
+
+    public static double pdf(final double x)
+    {
+        return INV_SQRT_2PI * Math.exp(-0.5 * x * x);
+    }
+
+    public static double cdf(final double x)
+    {
+        final double xAbs = Math.abs(x);
+        final double tail; // P(X > |x|)
+
+        if (xAbs > CUTOFF)
+        {
+            tail = 0;
+        }
+        else
+        {
+            final double exponential = Math.exp(-0.5 * xAbs * xAbs);
+
+            if (xAbs < ASYMPTOTIC_THRESHOLD)
+            {
+                double numerator = 3.52624965998911E-02 * xAbs + 0.700383064443688;
+                numerator = numerator * xAbs + 6.37396220353165;
+                numerator = numerator * xAbs + 33.912866078383;
+                numerator = numerator * xAbs + 112.079291497871;
+                numerator = numerator * xAbs + 221.213596169931;
+                numerator = numerator * xAbs + 220.206867912376;
+
+                double denominator = 8.83883476483184E-02 * xAbs + 1.75566716318264;
+                denominator = denominator * xAbs + 16.064177579207;
+                denominator = denominator * xAbs + 86.7807322029461;
+                denominator = denominator * xAbs + 296.564248779674;
+                denominator = denominator * xAbs + 637.333633378831;
+                denominator = denominator * xAbs + 793.826512519948;
+                denominator = denominator * xAbs + 440.413735824752;
+
+                tail = exponential * numerator / denominator;
+            }
+            else
+            {
+                double continuedFraction = xAbs + 0.65;
+                continuedFraction = xAbs + 4 / continuedFraction;
+                continuedFraction = xAbs + 3 / continuedFraction;
+                continuedFraction = xAbs + 2 / continuedFraction;
+                continuedFraction = xAbs + 1 / continuedFraction;
+
+                tail = exponential / continuedFraction / SQRT_2PI;
+            }
+        }
+
+        return x > 0 ? 1 - tail : tail;
+    }
+}
@@ -0,0 +1,346 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.common.CommunicationException;
+import net.quedex.api.user.AccountState;
+import net.quedex.api.user.OrderSpec;
+import net.quedex.api.user.UserStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A single strategy hosted by {@link MarketMakerRunner}: a {@link MarketMaker} with its own configuration, account
+ * (user stream), event thread, order manager and order sender. Instruments and quotes are shared with the other
+ * strategies of the host. Used by the host's thread only.
+ */
+public class StrategyRunner
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(StrategyRunner.class);
+
+    private final String name;
+    private final UserStream userStream;
+    private final MarketMakerConfiguration marketMakerConfiguration;
+    private final long recalculationPeriodNanos;
+
+    private MarketMaker marketMaker;
+    private volatile OrderSendScheduler orderSendScheduler;
+    private LatencyReporter latencyReporter; // null if not reporting
+    private EventJournal eventJournal; // null if not journalling
+    private final List<ObjectName> mBeanNames = new ArrayList<>(); // registered
+    private CompletableFuture<AccountState> initialAccountStateFuture;
+    private CompletableFuture<Void> recalculation = CompletableFuture.completedFuture(null);
+    private long nextRecalculationNanos;
+
+    /**
+     * @param userStream stream of the account the strategy trades, not shared with other strategies
+     */
+    public StrategyRunner(
+        final String name,
+        final UserStream userStream,
+        final MarketMakerConfiguration marketMakerConfiguration)
+    {
+        this.name = checkNotNull(name, "null name");
+        this.userStream = checkNotNull(userStream, "null userStream");
+        this.marketMakerConfiguration = checkNotNull(marketMakerConfiguration, "null marketMakerConfiguration");
+        this.recalculationPeriodNanos = TimeUnit.SECONDS.toNanos(marketMakerConfiguration.getTimeSleepSeconds());
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    UserStream getUserStream()
+    {
+        return userStream;
+    }
+
+    /**
+     * @return period of the recalculations in {@link RequoteMode#FIXED_PERIOD} mode, in milliseconds
+     */
+    long getSleepTimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(recalculationPeriodNanos);
+    }
+
+    /**
+     * Starts the user stream and creates the market maker, its order sender and the journal if configured.
+     */
+    void start(final InstrumentManager instrumentManager, final Consumer<Exception> errorHandler)
+        throws CommunicationException
+    {
+        userStream.registerStreamFailureListener(errorHandler::accept);
+        userStream.start();
+
+        marketMaker = new MarketMaker(
+            new RealTimeProvider(),
+            marketMakerConfiguration,
+            instrumentManager,
+            errorHandler,
+            this::send
+        );
+        if (!marketMakerConfiguration.getJournalDirectory().isEmpty())
+        {
+            eventJournal = new EventJournal(
+                Paths.get(marketMakerConfiguration.getJournalDirectory()),
+                marketMakerConfiguration.getJournalSegmentSizeMegabytes() << 20,
+                marketMakerConfiguration.getJournalBufferSize()
+            );
+            eventJournal.start();
+            writeJournalInstruments(instrumentManager);
+        }
+        orderSendScheduler = new OrderSendScheduler(
+            eventJournal == null ? userStream::batch : this::journalAndSendBatch,
+            marketMaker,
+            marketMaker,
+            marketMaker.getLatencyMetrics(),
+            marketMakerConfiguration.getSendMaxMessagesPerSecond(),
+            marketMakerConfiguration.getSendBurst(),
+            marketMakerConfiguration.getSendMaxBatchSize(),
+            marketMakerConfiguration.getSendQueueCapacity()
+        );
+        orderSendScheduler.start();
+
+        registerMBean(marketMaker.getLatencyMetrics(), "LatencyMetrics");
+        registerMBean(new MarketMakerMonitor(marketMaker), "MarketMakerMonitor");
+        if (marketMakerConfiguration.getLatencyReportIntervalMillis() > 0)
+        {
+            latencyReporter = new LatencyReporter(
+                name,
+                marketMaker.getLatencyMetrics(),
+                marketMakerConfiguration.getLatencyReportIntervalMillis()
+            );
+            latencyReporter.start();
+        }
+    }
+
+    /**
+     * Connects the market maker to the shared quotes and to the user stream, the initial account state is awaited by
+     * {@link #awaitInitialState}.
+     */
+    void subscribe(final QuotesFanOut quotesFanOut) throws CommunicationException
+    {
+        checkState(marketMaker != null, "Not started");
+        initialAccountStateFuture = new CompletableFuture<>();
+
+        if (eventJournal == null)
+        {
+            quotesFanOut.addListener(marketMaker);
+            userStream.registerOpenPositionListener(marketMaker);
+            userStream.registerOrderListener(marketMaker);
+        }
+        else
+        {
+            quotesFanOut.addListener(eventJournal);
+            quotesFanOut.addListener(marketMaker);
+            final JournalingUserListener userListener = new JournalingUserListener(
+                eventJournal,
+                marketMaker,
+                marketMaker
+            );
+            userStream.registerOpenPositionListener(userListener);
+            userStream.registerOrderListener(userListener);
+        }
+        userStream.registerAccountStateListener(initialAccountStateFuture::complete);
+        userStream.subscribeListeners();
+    }
+
+    void awaitInitialState() throws InterruptedException, ExecutionException
+    {
+        initialAccountStateFuture.get();
+        userStream.registerAccountStateListener(null); // not used anymore
+        LOGGER.info("{}: initialised", name);
+    }
+
+    /**
+     * Requests recalculation in {@link RequoteMode#FIXED_PERIOD} mode if the period has elapsed. The resulting specs
+     * are handed to the sender on the event thread, the period is skipped if the previous one is still running.
+     */
+    void recalculateIfDue(final long nowNanos)
+    {
+        if (marketMakerConfiguration.getRequoteMode() != RequoteMode.FIXED_PERIOD
+            || nowNanos - nextRecalculationNanos < 0
+            || !recalculation.isDone())
+        {
+            return; // otherwise the market maker requotes on events by itself
+        }
+        nextRecalculationNanos = nowNanos + recalculationPeriodNanos;
+        recalculation = marketMaker.recalculate().thenAccept(this::send);
+    }
+
+    /**
+     * Disables requoting and sends cancels of all the pending orders.
+     */
+    void cancelAllOrders() throws InterruptedException
+    {
+        if (marketMaker == null)
+        {
+            return;
+        }
+        LOGGER.info("{}: cancelling all pending orders", name);
+        try
+        {
+            send(marketMaker.getAllOrderCancels().get());
+        }
+        catch (final ExecutionException e)
+        {
+            LOGGER.error(name + ": error getting all order cancels", e);
+        }
+    }
+
+    /**
+     * Waits until the pending orders (the cancels in particular) are written to the exchange, new orders are dropped.
+     */
+    void drainSending(final long timeoutMillis) throws InterruptedException
+    {
+        if (orderSendScheduler == null)
+        {
+            return;
+        }
+        if (!orderSendScheduler.drain(timeoutMillis))
+        {
+            LOGGER.warn(
+                "{}: order sender not drained within {}ms, queueDepth={}",
+                name, timeoutMillis, orderSendScheduler.getQueueDepth()
+            );
+        }
+    }
+
+    void stopSending()
+    {
+        if (orderSendScheduler == null)
+        {
+            return;
+        }
+        orderSendScheduler.stop();
+        LOGGER.info(
+            "{}: order sender: sentMessages={}, sentBatches={}, coalesced={}, throttleWaitMillis={}, "
+                + "backPressureCount={}, queueDepth={}",
+            name,
+            orderSendScheduler.getSentMessageCount(),
+            orderSendScheduler.getSentBatchCount(),
+            orderSendScheduler.getCoalescedCount(),
+            orderSendScheduler.getThrottleWaitMillis(),
+            orderSendScheduler.getBackPressureCount(),
+            orderSendScheduler.getQueueDepth()
+        );
+    }
+
+    void stop()
+    {
+        if (latencyReporter != null)
+        {
+            latencyReporter.stop();
+        }
+        unregisterMBeans();
+        if (marketMaker != null)
+        {
+            marketMaker.stop();
+            final LatencyMetrics latencyMetrics = marketMaker.getLatencyMetrics();
+            for (final LatencyMetrics.Stage stage : LatencyMetrics.Stage.values())
+            {
+                LOGGER.info("{}: {} since start {}", name, stage, latencyMetrics.snapshot(stage));
+            }
+        }
+        if (eventJournal != null)
+        {
+            stopJournal();
+        }
+    }
+
+    private void stopJournal()
+    {
+        try
+        {
+            eventJournal.stop();
+            LOGGER.info(
+                "{}: journal: written={}, dropped={}",
+                name,
+                eventJournal.getWrittenCount(),
+                eventJournal.getDroppedCount()
+            );
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeJournalInstruments(final InstrumentManager instrumentManager)
+    {
+        try
+        {
+            eventJournal.writeInstruments(
+                instrumentManager.getInstrumentIds().stream()
+                    .map(instrumentManager::getInstrument)
+                    .collect(Collectors.toList())
+            );
+        }
+        catch (final IOException e) // not essential for trading
+        {
+            LOGGER.error(name + ": error writing instruments to journal, it cannot be replayed", e);
+        }
+    }
+
+    private void registerMBean(final Object mBean, final String type)
+    {
+        try
+        {
+            final ObjectName mBeanName = new ObjectName(
+                "net.quedex.marketmaker:type=" + type + ",name=" + ObjectName.quote(name)
+            );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mBean, mBeanName);
+            mBeanNames.add(mBeanName);
+        }
+        catch (final JMException e) // not essential for trading
+        {
+            LOGGER.warn(name + ": error registering " + type, e);
+        }
+    }
+
+    private void unregisterMBeans()
+    {
+        for (final ObjectName mBeanName : mBeanNames)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+            }
+            catch (final JMException e)
+            {
+                LOGGER.warn(name + ": error unregistering " + mBeanName, e);
+            }
+        }
+        mBeanNames.clear();
+    }
+
+    /**
+     * Called on the sender thread.
+     */
+    private void journalAndSendBatch(final List<OrderSpec> batch)
+    {
+        eventJournal.onSent(batch);
+        userStream.batch(batch);
+    }
+
+    private void send(final List<OrderSpec> orderSpecs)
+    {
+        LOGGER.debug("{}: send({})", name, orderSpecs);
+        orderSendScheduler.submit(orderSpecs);
+    }
+}
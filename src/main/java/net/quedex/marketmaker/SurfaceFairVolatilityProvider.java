@@ -0,0 +1,71 @@
+package net.quedex.marketmaker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Provides the volatility of the calibrated {@link VolatilitySurface} at the option strike and the current futures
+ * fair price, so it has to be used with {@link Pricing} applying no smile. The surface is pinned on {@link #refresh()},
+ * so a surface published by the calibrator in the middle of a recalculation cycle takes effect in the next one.
+ * Expiries not calibrated yet fall back to the global SABR parameters.
+ */
+@NotThreadSafe
+public class SurfaceFairVolatilityProvider implements FairVolatilityProvider
+{
+    private final InstrumentManager instrumentManager;
+    private final FairPriceProvider futuresFairPriceProvider;
+    private final Supplier<VolatilitySurface> surfaceSupplier;
+    private final Pricing globalSabrPricing;
+    private final double fairVolatility;
+
+    private VolatilitySurface surface = VolatilitySurface.EMPTY;
+
+    /**
+     * @param globalSabrPricing pricing with the global SABR parameters, used for the expiries not calibrated yet
+     * @param fairVolatility    ATM volatility of the global SABR parameters
+     */
+    public SurfaceFairVolatilityProvider(
+        final InstrumentManager instrumentManager,
+        final FairPriceProvider futuresFairPriceProvider,
+        final Supplier<VolatilitySurface> surfaceSupplier,
+        final Pricing globalSabrPricing,
+        final double fairVolatility)
+    {
+        checkArgument(fairVolatility > 0, "fairVolatility=%s <= 0", fairVolatility);
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.futuresFairPriceProvider = checkNotNull(futuresFairPriceProvider, "null futuresFairPriceProvider");
+        this.surfaceSupplier = checkNotNull(surfaceSupplier, "null surfaceSupplier");
+        this.globalSabrPricing = checkNotNull(globalSabrPricing, "null globalSabrPricing");
+        this.fairVolatility = fairVolatility;
+    }
+
+    @Override
+    public void refresh()
+    {
+        surface = surfaceSupplier.get();
+    }
+
+    @Override
+    public double getFairVolatility(final int instrumentId)
+    {
+        final long expirationDate = instrumentManager.getInstrument(instrumentId).getExpirationDate();
+        final int futuresId = instrumentManager.getFuturesAtExpiration(expirationDate).getInstrumentId();
+        final double timeToMaturity = globalSabrPricing.yearsToMaturity(expirationDate);
+
+        if (!futuresFairPriceProvider.hasFairPrice(futuresId) || timeToMaturity <= 0)
+        {
+            return fairVolatility;
+        }
+
+        final double futuresPrice = Prices.toDouble(futuresFairPriceProvider.getFairPrice(futuresId));
+        final double strike = instrumentManager.getStrike(instrumentId);
+        final SabrParameters parameters = surface.getParameters(expirationDate);
+
+        return parameters != null
+            ? parameters.impliedVolatility(futuresPrice, strike, timeToMaturity)
+            : globalSabrPricing.getSABRImpliedVolatility(fairVolatility, futuresPrice, timeToMaturity, strike);
+    }
+}
@@ -19,16 +19,18 @@ public class UniformFuturesOrderPlacingStrategy implements OrderPlacingStrategy
     private static final Logger LOGGER = LoggerFactory.getLogger(UniformFuturesOrderPlacingStrategy.class);
 
     private final FairPriceProvider fairPriceProvider;
-    private final RiskManager riskManager;
+    private final RiskTotals riskTotals;
+    private final InstrumentManager instrumentManager;
 
     private final int levels;
     private final int qtyOnLevel;
     private final double deltaLimit;
-    private final BigDecimal spreadFraction;
+    private final double spreadFraction;
 
     public UniformFuturesOrderPlacingStrategy(
         final FairPriceProvider fairPriceProvider,
-        final RiskManager riskManager,
+        final RiskTotals riskTotals,
+        final InstrumentManager instrumentManager,
         final int levels,
         final int qtyOnLevel,
         final double deltaLimit,
@@ -39,11 +41,12 @@ public class UniformFuturesOrderPlacingStrategy implements OrderPlacingStrategy
         checkArgument(deltaLimit >= 0, "deltaLimit=%s < 0", deltaLimit);
         checkArgument(spreadFraction.compareTo(BigDecimal.ZERO) > 0, "spreadFraction=%s <= 0", spreadFraction);
         this.fairPriceProvider = checkNotNull(fairPriceProvider, "null fairPriceProvider");
-        this.riskManager = checkNotNull(riskManager, "null riskManager");
+        this.riskTotals = checkNotNull(riskTotals, "null riskTotals");
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
         this.levels = levels;
         this.qtyOnLevel = qtyOnLevel;
         this.deltaLimit = deltaLimit;
-        this.spreadFraction = spreadFraction;
+        this.spreadFraction = spreadFraction.doubleValue();
     }
 
     @Override
@@ -51,50 +54,76 @@ public class UniformFuturesOrderPlacingStrategy implements OrderPlacingStrategy
     {
         checkArgument(futures.isFutures(), "Expected futures");
 
-        final BigDecimal fairPrice = fairPriceProvider.getFairPrice(futures.getInstrumentId());
-        final BigDecimal spread = fairPrice.multiply(spreadFraction);
+        final long fairPrice = fairPriceProvider.getFairPrice(futures.getInstrumentId());
+        final long spread = Math.round(fairPrice * spreadFraction);
+        final long tickSize = instrumentManager.getTickSize(futures.getInstrumentId());
 
         final List<GenericOrder> orders = new ArrayList<>(levels * 2);
-        final double totalDelta = riskManager.getTotalDelta();
+        final double totalDelta = riskTotals.getTotalDelta();
 
-        BigDecimal bid = null;
-        BigDecimal ask = null;
+        long bid = 0;
+        long ask = 0;
 
-        if (totalDelta < deltaLimit)
+        if (isBuyingAllowed(totalDelta, deltaLimit))
         {
-            final List<GenericOrder> buys = getOrders(futures, OrderSide.BUY, fairPrice, spread.negate());
-            bid = buys.get(0).getPrice();
-            orders.addAll(buys);
+            bid = addOrders(orders, futures, OrderSide.BUY, fairPrice, -spread, tickSize);
         } // otherwise above limit - don't want to increase delta
 
-        if (totalDelta > -deltaLimit)
+        if (isSellingAllowed(totalDelta, deltaLimit))
         {
-            final List<GenericOrder> sells = getOrders(futures, OrderSide.SELL, fairPrice, spread);
-            ask = sells.get(0).getPrice();
-            orders.addAll(sells);
+            ask = addOrders(orders, futures, OrderSide.SELL, fairPrice, spread, tickSize);
         } // otherwise below limit - don't want to decrease delta
 
-        LOGGER.info("Generated orders {}: Bid = {}, Ask = {}", futures.getSymbol(), bid, ask);
+        LOGGER.info(
+            "Generated orders {}: Bid = {}, Ask = {}",
+            futures.getSymbol(), Prices.toDouble(bid), Prices.toDouble(ask)
+        );
 
         return orders;
     }
 
-    private List<GenericOrder> getOrders(
+    /**
+     * @return whether buy orders are placed at the given total delta - not when it is above the limit
+     */
+    static boolean isBuyingAllowed(final double totalDelta, final double deltaLimit)
+    {
+        return totalDelta < deltaLimit;
+    }
+
+    /**
+     * @return whether sell orders are placed at the given total delta - not when it is below the negated limit
+     */
+    static boolean isSellingAllowed(final double totalDelta, final double deltaLimit)
+    {
+        return totalDelta > -deltaLimit;
+    }
+
+    /**
+     * @return best price of the added orders
+     */
+    private long addOrders(
+        final List<GenericOrder> orders,
         final Instrument futures,
         final OrderSide side,
-        final BigDecimal fairPrice,
-        final BigDecimal spread)
+        final long fairPrice,
+        final long spread,
+        final long tickSize)
     {
-        final List<GenericOrder> orders = new ArrayList<>(levels);
+        long best = 0;
 
         for (int i = 1; i <= levels; i++)
         {
-            final BigDecimal priceRounded = roundPriceToTickSize(
-                fairPrice.add(spread.multiply(BigDecimal.valueOf(i))),
+            final long priceRounded = roundPriceToTickSize(
+                fairPrice + spread * i,
                 side == OrderSide.BUY ? RoundingMode.DOWN : RoundingMode.UP,
-                futures.getTickSize()
+                tickSize
             );
 
+            if (i == 1)
+            {
+                best = priceRounded;
+            }
+
             orders.add(new GenericOrder(
                 futures.getInstrumentId(),
                 side,
@@ -103,35 +132,37 @@ public class UniformFuturesOrderPlacingStrategy implements OrderPlacingStrategy
             ));
         }
 
-        return orders;
+        return best;
     }
 
     /**
-     * @param price        price to be rounded, has to be positive
+     * @param price        price to be rounded in the fixed-point representation (see {@link Prices}), has to be
+     *                     positive
      * @param roundingMode rounding mode that should be used (only {@link RoundingMode#UP} and {@link RoundingMode#DOWN}
      *                     are supported)
+     * @param tickSize     tick size in the fixed-point representation
      * @return price rounded to tick size
      * @throws IllegalArgumentException if {@code roundingMode} is neither {@link RoundingMode#UP} nor
      *                                  {@link RoundingMode#DOWN} or {@code price} is not positive
      */
-    static BigDecimal roundPriceToTickSize(final BigDecimal price, final RoundingMode roundingMode, final BigDecimal tickSize)
+    static long roundPriceToTickSize(final long price, final RoundingMode roundingMode, final long tickSize)
     {
         checkArgument(
             roundingMode == RoundingMode.UP || roundingMode == RoundingMode.DOWN,
             "Only rounding UP or DOWN supported"
         );
-        checkArgument(price.compareTo(BigDecimal.ZERO) > 0, "price=%s <=0", price);
+        checkArgument(price > 0, "price=%s <=0", price);
 
-        final BigDecimal remainder = price.remainder(tickSize);
-        if (remainder.compareTo(BigDecimal.ZERO) == 0)
+        final long remainder = price % tickSize;
+        if (remainder == 0)
         {
             return price;
         }
 
-        final BigDecimal result = price.subtract(remainder);
+        final long result = price - remainder;
         if (roundingMode == RoundingMode.UP)
         {
-            return result.add(tickSize);
+            return result + tickSize;
         }
         else
         {
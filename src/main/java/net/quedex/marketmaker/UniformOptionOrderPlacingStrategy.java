@@ -5,24 +5,22 @@ import net.quedex.api.user.OrderSide;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.*;
-import static net.quedex.marketmaker.UniformFuturesOrderPlacingStrategy.roundPriceToTickSize;
 
 public class UniformOptionOrderPlacingStrategy implements OrderPlacingStrategy
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(UniformOptionOrderPlacingStrategy.class);
 
-    private final FairPriceProvider fairVolatilityProvider;
+    private final FairVolatilityProvider fairVolatilityProvider;
     private final FairPriceProvider futuresFairPriceProvider;
-    private final RiskManager riskManager;
+    private final RiskTotals riskTotals;
     private final InstrumentManager instrumentManager;
     private final Pricing pricing;
+    private final OptionLadderPricer ladderPricer;
 
     private final int levels;
     private final int qtyOnLevel;
@@ -31,11 +29,12 @@ public class UniformOptionOrderPlacingStrategy implements OrderPlacingStrategy
     private final double volaSpreadFraction;
 
     public UniformOptionOrderPlacingStrategy(
-        final FairPriceProvider fairVolatilityProvider,
+        final FairVolatilityProvider fairVolatilityProvider,
         final FairPriceProvider futuresFairPriceProvider,
-        final RiskManager riskManager,
+        final RiskTotals riskTotals,
         final InstrumentManager instrumentManager,
         final Pricing pricing,
+        final OptionLadderPricer ladderPricer,
         final int levels,
         final int qtyOnLevel,
         final double deltaLimit,
@@ -50,9 +49,14 @@ public class UniformOptionOrderPlacingStrategy implements OrderPlacingStrategy
 
         this.fairVolatilityProvider = checkNotNull(fairVolatilityProvider, "null fairVolatilityProvider");
         this.futuresFairPriceProvider = checkNotNull(futuresFairPriceProvider, "null futuresFairPriceProvider");
-        this.riskManager = checkNotNull(riskManager, "null riskManager");
+        this.riskTotals = checkNotNull(riskTotals, "null riskTotals");
         this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
         this.pricing = checkNotNull(pricing, "null pricing");
+        this.ladderPricer = checkNotNull(ladderPricer, "null ladderPricer");
+        checkArgument(
+            ladderPricer.getLevels() == levels,
+            "ladderPricer levels=%s != %s", ladderPricer.getLevels(), levels
+        );
         this.levels = levels;
         this.qtyOnLevel = qtyOnLevel;
         this.deltaLimit = deltaLimit;
@@ -65,114 +69,125 @@ public class UniformOptionOrderPlacingStrategy implements OrderPlacingStrategy
     {
         checkArgument(!option.isFutures(), "Expected option");
 
-        final double fairVola = fairVolatilityProvider.getFairPrice(option.getInstrumentId()).doubleValue();
+        final double fairVola = fairVolatilityProvider.getFairVolatility(option.getInstrumentId());
         final double volaSpread = volaSpreadFraction * fairVola;
-        final double fairFuturesPrice = futuresFairPriceProvider.getFairPrice(
+        final double fairFuturesPrice = Prices.toDouble(futuresFairPriceProvider.getFairPrice(
             instrumentManager.getFuturesAtExpiration(option.getExpirationDate()).getInstrumentId()
-        ).doubleValue();
+        ));
 
         final List<GenericOrder> orders = new ArrayList<>(levels * 2);
-        final double totalDelta = riskManager.getTotalDelta();
-        final double totalVega = riskManager.getTotalVega();
+        final double totalDelta = riskTotals.getTotalDelta();
+        final double totalVega = riskTotals.getTotalVega();
 
-        boolean placeBuys = true;
-        boolean placeSells = true;
+        final boolean isCall = option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN;
+        final boolean placeBuys = isBuyingAllowed(isCall, totalDelta, totalVega, deltaLimit, vegaLimit);
+        final boolean placeSells = isSellingAllowed(isCall, totalDelta, totalVega, deltaLimit, vegaLimit);
 
-        if (option.getOptionType().get() == Instrument.OptionType.CALL_EUROPEAN)
-        {
-            if (totalDelta >= deltaLimit)
-            {
-                placeBuys = false;
-            }
-            else if (totalDelta <= -deltaLimit)
-            {
-                placeSells = false;
-            }
+        long bid = 0;
+        long ask = 0;
 
-        }
-        else
+        if (placeBuys || placeSells)
         {
-            if (totalDelta >= deltaLimit)
+            final long[] levelPrices = ladderPricer.priceLadder(
+                option.getInstrumentId(),
+                isCall,
+                instrumentManager.getStrike(option.getInstrumentId()),
+                pricing.yearsToMaturity(option.getExpirationDate()),
+                fairVola,
+                volaSpread,
+                fairFuturesPrice
+            );
+
+            if (placeBuys)
             {
-                placeSells = false;
+                bid = addOrders(orders, option, OrderSide.BUY, levelPrices, 0);
             }
-            else if (totalDelta <= -deltaLimit)
+
+            if (placeSells)
             {
-                placeBuys = false;
+                ask = addOrders(orders, option, OrderSide.SELL, levelPrices, levels);
             }
         }
 
-        if (totalVega >= vegaLimit)
-        {
-            placeBuys = false;
-        }
-        else if (totalVega <= -vegaLimit)
-        {
-            placeSells = false;
-        }
-
-        BigDecimal bid = null;
-        BigDecimal ask = null;
+        LOGGER.info(
+            "Generated orders {}: Bid = {}, Ask = {}",
+            option.getSymbol(), Prices.toDouble(bid), Prices.toDouble(ask)
+        );
 
-        if (placeBuys)
+        if (bid != 0 && ask != 0)
         {
-            bid = addOrders(orders, option, OrderSide.BUY, fairVola, -volaSpread, fairFuturesPrice);
+            checkState(bid < ask, "bid=%s >= %s=ask", bid, ask);
         }
 
-        if (placeSells)
-        {
-            ask = addOrders(orders, option, OrderSide.SELL, fairVola, volaSpread, fairFuturesPrice);
-        }
-
-        LOGGER.info("Generated orders {}: Bid = {}, Ask = {}", option.getSymbol(), bid, ask);
+        return orders;
+    }
 
-        if (bid != null && ask != null)
-        {
-            checkState(bid.compareTo(ask) < 0, "bid=%s >= %s=ask", bid, ask);
-        }
+    /**
+     * @return whether buy orders of the option are placed at the given totals - not when they would increase the delta
+     *         above the limit (calls) or below the negated limit (puts), nor when vega is above the limit
+     */
+    static boolean isBuyingAllowed(
+        final boolean isCall,
+        final double totalDelta,
+        final double totalVega,
+        final double deltaLimit,
+        final double vegaLimit)
+    {
+        // the side checked first is pulled alone when a total is at a zero limit
+        final boolean deltaAllowed = isCall
+            ? totalDelta < deltaLimit
+            : totalDelta >= deltaLimit || totalDelta > -deltaLimit;
+        return deltaAllowed && totalVega < vegaLimit;
+    }
 
-        return orders;
+    /**
+     * @return whether sell orders of the option are placed at the given totals, the opposite of
+     *         {@link #isBuyingAllowed}
+     */
+    static boolean isSellingAllowed(
+        final boolean isCall,
+        final double totalDelta,
+        final double totalVega,
+        final double deltaLimit,
+        final double vegaLimit)
+    {
+        final boolean deltaAllowed = isCall
+            ? totalDelta >= deltaLimit || totalDelta > -deltaLimit
+            : totalDelta < deltaLimit;
+        return deltaAllowed && (totalVega >= vegaLimit || totalVega > -vegaLimit);
     }
 
-    private BigDecimal addOrders(
+    /**
+     * @param levelPrices order prices of the levels (see {@link OptionLadderPricer#priceLadder})
+     * @param offset      index of the first level of the side in {@code levelPrices}
+     * @return best price of the added orders or 0 if none added
+     */
+    private long addOrders(
         final List<GenericOrder> orders,
         final Instrument option,
         final OrderSide side,
-        final double fairVola,
-        final double spread,
-        final double futuresPrice)
+        final long[] levelPrices,
+        final int offset)
     {
-        BigDecimal best = null;
+        long best = 0;
 
-        for (int i = 1; i <= levels; i++)
+        for (int i = 0; i < levels; i++)
         {
-            BigDecimal priceRounded = roundPriceToTickSize(
-                BigDecimal.valueOf(pricing.calculateMetrics(option, fairVola + i * spread, futuresPrice).getPrice()),
-                side == OrderSide.BUY ? RoundingMode.DOWN : RoundingMode.UP,
-                option.getTickSize()
-            );
-
-            if (priceRounded.compareTo(BigDecimal.ZERO) == 0)
+            final long price = levelPrices[offset + i];
+            if (price == 0) // only buys
             {
-                if (side == OrderSide.BUY)
-                {
-                    continue;
-                }
-                else
-                {
-                    priceRounded = option.getTickSize();
-                }
+                continue;
             }
 
-            if (best == null)
+            if (best == 0)
             {
-                best = priceRounded;
+                best = price;
             }
 
             orders.add(new GenericOrder(
                 option.getInstrumentId(),
                 side,
-                priceRounded,
+                price,
                 qtyOnLevel
             ));
         }
@@ -0,0 +1,67 @@
+package net.quedex.marketmaker;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable snapshot of calibrated {@link SabrParameters} per expiration date.
+ */
+@Immutable
+public final class VolatilitySurface
+{
+    public static final VolatilitySurface EMPTY = new VolatilitySurface(0, new TreeMap<>());
+
+    private final long calibrationTime;
+    private final long[] expirationDates; // sorted ascending
+    private final SabrParameters[] parameters;
+
+    public VolatilitySurface(final long calibrationTime, final Map<Long, SabrParameters> parametersByExpiration)
+    {
+        checkNotNull(parametersByExpiration, "null parametersByExpiration");
+        final TreeMap<Long, SabrParameters> sorted = new TreeMap<>(parametersByExpiration);
+
+        this.calibrationTime = calibrationTime;
+        this.expirationDates = new long[sorted.size()];
+        this.parameters = new SabrParameters[sorted.size()];
+
+        int i = 0;
+        for (final Map.Entry<Long, SabrParameters> entry : sorted.entrySet())
+        {
+            expirationDates[i] = entry.getKey();
+            parameters[i] = checkNotNull(entry.getValue(), "null parameters of %s", entry.getKey());
+            i++;
+        }
+    }
+
+    public long getCalibrationTime()
+    {
+        return calibrationTime;
+    }
+
+    /**
+     * @return parameters of the given expiration date or null if not calibrated
+     */
+    public SabrParameters getParameters(final long expirationDate)
+    {
+        final int index = Arrays.binarySearch(expirationDates, expirationDate);
+        return index < 0 ? null : parameters[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        final MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this)
+            .add("calibrationTime", calibrationTime);
+        for (int i = 0; i < expirationDates.length; i++)
+        {
+            helper.add(String.valueOf(expirationDates[i]), parameters[i]);
+        }
+        return helper.toString();
+    }
+}
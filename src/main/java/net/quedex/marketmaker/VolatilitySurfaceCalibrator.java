@@ -0,0 +1,218 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.market.Instrument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Periodically calibrates SABR alpha, rho and vol of vol of every traded expiry to the two-sided option mids on its own
+ * thread, so that fitting never delays the event thread. Each calibration is warm-started from the previous surface
+ * and published as a new immutable {@link VolatilitySurface}, which readers get without locking.
+ */
+@ThreadSafe
+public class VolatilitySurfaceCalibrator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(VolatilitySurfaceCalibrator.class);
+
+    private static final int MIN_OPTIONS = 4; // more than the number of fitted parameters
+    private static final int MAX_ITERATIONS = 50;
+
+    private final InstrumentManager instrumentManager;
+    private final MarketDataManager marketDataManager;
+    private final Pricing pricing;
+    private final long intervalMillis;
+    private final Consumer<VolatilitySurface> surfaceListener;
+
+    private final double fairVolatility;
+    private final double beta;
+    private final double rho;
+    private final double volOfVol;
+    private final boolean useTimeAdjustedVolOfVol;
+
+    private final AtomicReference<VolatilitySurface> surface = new AtomicReference<>(VolatilitySurface.EMPTY);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "volatility-calibrator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // accessed only by the calibrator thread
+    private final SabrFitter fitter;
+    private double[] strikes = new double[0];
+    private boolean[] calls = new boolean[0];
+    private double[] prices = new double[0];
+
+    /**
+     * @param surfaceListener called on the calibrator thread with every newly calibrated surface
+     */
+    public VolatilitySurfaceCalibrator(
+        final InstrumentManager instrumentManager,
+        final MarketDataManager marketDataManager,
+        final Pricing pricing,
+        final MarketMakerConfiguration config,
+        final Consumer<VolatilitySurface> surfaceListener)
+    {
+        checkArgument(
+            config.getSabrCalibrationIntervalMillis() > 0,
+            "sabrCalibrationIntervalMillis=%s <= 0", config.getSabrCalibrationIntervalMillis()
+        );
+        this.instrumentManager = checkNotNull(instrumentManager, "null instrumentManager");
+        this.marketDataManager = checkNotNull(marketDataManager, "null marketDataManager");
+        this.pricing = checkNotNull(pricing, "null pricing");
+        this.intervalMillis = config.getSabrCalibrationIntervalMillis();
+        this.surfaceListener = checkNotNull(surfaceListener, "null surfaceListener");
+        this.fairVolatility = config.getFairVolatility();
+        this.beta = config.getSabrBeta();
+        this.rho = config.getSabrRho();
+        this.volOfVol = config.getSabrVolOfVol();
+        this.useTimeAdjustedVolOfVol = config.useSabrTimeAdjustedVolOfVol();
+        this.fitter = new SabrFitter(beta, MAX_ITERATIONS);
+    }
+
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(this::calibrateSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * May be called from any thread.
+     *
+     * @return the most recently calibrated surface, {@link VolatilitySurface#EMPTY} before the first calibration
+     */
+    public VolatilitySurface getSurface()
+    {
+        return surface.get();
+    }
+
+    private void calibrateSafely()
+    {
+        try
+        {
+            calibrate();
+        }
+        catch (final RuntimeException e) // would cancel further calibrations otherwise
+        {
+            LOGGER.error("Calibration failed", e);
+        }
+    }
+
+    private void calibrate()
+    {
+        final VolatilitySurface previous = surface.get();
+        final Map<Long, SabrParameters> parametersByExpiration = new HashMap<>();
+        final List<Instrument> tradedFutures = instrumentManager.getTradedFutures();
+
+        for (int f = 0; f < tradedFutures.size(); f++)
+        {
+            final Instrument futures = tradedFutures.get(f);
+            final long expirationDate = futures.getExpirationDate();
+            final long futuresMid = marketDataManager.getPublishedTwoSidedMid(futures.getInstrumentId());
+            final double timeToMaturity = pricing.yearsToMaturity(expirationDate);
+            if (futuresMid == 0 || timeToMaturity <= 0)
+            {
+                continue;
+            }
+
+            final double futuresPrice = Prices.toDouble(futuresMid);
+            final int size = collectOptionMids(
+                instrumentManager.getOptionChain(expirationDate),
+                futuresPrice,
+                timeToMaturity
+            );
+            if (size < MIN_OPTIONS)
+            {
+                continue;
+            }
+
+            final SabrParameters previousParameters = previous.getParameters(expirationDate);
+            final SabrParameters parameters = fitter.fit(
+                futuresPrice,
+                timeToMaturity,
+                strikes,
+                calls,
+                prices,
+                size,
+                previousParameters != null ? previousParameters : initialGuess(futuresPrice, timeToMaturity)
+            );
+            parametersByExpiration.put(expirationDate, parameters);
+            LOGGER.debug("Calibrated {}: {}, rmsError={}", futures.getSymbol(), parameters, fitter.getLastRmsError());
+        }
+
+        if (!parametersByExpiration.isEmpty())
+        {
+            final VolatilitySurface calibrated = new VolatilitySurface(
+                System.currentTimeMillis(),
+                parametersByExpiration
+            );
+            surface.set(calibrated);
+            surfaceListener.accept(calibrated);
+        }
+    }
+
+    /**
+     * Fills the buffers with the options of the chain having two-sided quotes with a mid that has an implied
+     * volatility, i.e. is not outside the no-arbitrage bounds of the option price.
+     *
+     * @return number of the options collected
+     */
+    private int collectOptionMids(
+        final OptionChain optionChain,
+        final double futuresPrice,
+        final double timeToMaturity)
+    {
+        if (strikes.length < optionChain.size())
+        {
+            strikes = new double[optionChain.size()];
+            calls = new boolean[optionChain.size()];
+            prices = new double[optionChain.size()];
+        }
+
+        int size = 0;
+        for (int i = 0; i < optionChain.size(); i++)
+        {
+            final long mid = marketDataManager.getPublishedTwoSidedMid(optionChain.getInstrumentId(i));
+            final double strike = optionChain.getStrike(i);
+            final boolean isCall = optionChain.isCall(i);
+            final double price = Prices.toDouble(mid); // 0 if no two-sided quotes, which has no implied volatility
+            if (!Double.isNaN(ImpliedVolatility.solve(isCall, price, futuresPrice, strike, timeToMaturity)))
+            {
+                strikes[size] = strike;
+                calls[size] = isCall;
+                prices[size] = price;
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return parameters matching the global SABR configuration with ATM volatility of fairVolatility
+     */
+    private SabrParameters initialGuess(final double futuresPrice, final double timeToMaturity)
+    {
+        return new SabrParameters(
+            fairVolatility * (beta == 1 ? 1 : Math.pow(futuresPrice, 1 - beta)),
+            beta,
+            rho,
+            useTimeAdjustedVolOfVol ? volOfVol * Math.sqrt(1 / timeToMaturity) : volOfVol
+        );
+    }
+}
@@ -0,0 +1,53 @@
+package net.quedex.marketmaker;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the {@link EventLoop} thread waits for events.
+ */
+public enum WaitStrategy
+{
+    /**
+     * Spins on the CPU, lowest latency at the cost of a fully occupied core.
+     */
+    BUSY_SPIN
+        {
+            @Override
+            void idle(final long maxWaitNanos)
+            {
+            }
+        },
+
+    /**
+     * Spins yielding the CPU to other threads.
+     */
+    YIELD
+        {
+            @Override
+            void idle(final long maxWaitNanos)
+            {
+                Thread.yield();
+            }
+        },
+
+    /**
+     * Parks the thread for a short period, producers never have to wake it up.
+     */
+    PARK
+        {
+            @Override
+            void idle(final long maxWaitNanos)
+            {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, maxWaitNanos));
+            }
+        };
+
+    private static final long MAX_PARK_NANOS = 50_000;
+
+    /**
+     * Called when there are no events available.
+     *
+     * @param maxWaitNanos time until the next timer is due
+     */
+    abstract void idle(long maxWaitNanos);
+}
@@ -0,0 +1,183 @@
+package net.quedex.marketmaker;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntObjectHashMapTest
+{
+    private static final int EXPECTED_SIZE = 8; // capacity 16
+    private static final int CAPACITY = 16;
+
+    @Test
+    public void returnsNullForMissingKey()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>(EXPECTED_SIZE);
+        assertNull(map.get(0)); // the default of a free key slot
+        assertNull(map.get(42));
+        assertFalse(map.containsKey(0));
+
+        map.put(1, "a");
+        assertNull(map.get(0));
+        assertNull(map.get(2));
+        assertNull(map.remove(2));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void putReplacesValueOfExistingKey()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>(EXPECTED_SIZE);
+        assertNull(map.put(Integer.MIN_VALUE, "a"));
+        assertEquals("a", map.put(Integer.MIN_VALUE, "b"));
+        assertEquals("b", map.get(Integer.MIN_VALUE));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValue()
+    {
+        new IntObjectHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void storesCollidingKeys()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>(EXPECTED_SIZE);
+        final int[] keys = collidingKeys(3, 5);
+        for (final int key : keys)
+        {
+            map.put(key, "v" + key);
+        }
+
+        assertEquals(3, map.size());
+        for (final int key : keys)
+        {
+            assertEquals("v" + key, map.get(key));
+        }
+    }
+
+    @Test
+    public void findsDisplacedKeysAfterRemoval()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>(EXPECTED_SIZE);
+        final int[] keys = collidingKeys(3, 5);
+        for (final int key : keys)
+        {
+            map.put(key, "v" + key);
+        }
+
+        assertEquals("v" + keys[0], map.remove(keys[0]));
+        assertNull(map.get(keys[0]));
+        assertEquals("v" + keys[1], map.get(keys[1]));
+        assertEquals("v" + keys[2], map.get(keys[2]));
+
+        assertEquals("v" + keys[1], map.remove(keys[1]));
+        assertEquals("v" + keys[2], map.get(keys[2]));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void findsDisplacedKeysWrappedAroundAfterRemoval()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>(EXPECTED_SIZE);
+        final int[] keys = collidingKeys(3, CAPACITY - 1); // the last slot, displaced ones wrap to the first slots
+        for (final int key : keys)
+        {
+            map.put(key, "v" + key);
+        }
+
+        map.remove(keys[0]);
+        assertEquals("v" + keys[1], map.get(keys[1]));
+        assertEquals("v" + keys[2], map.get(keys[2]));
+        map.remove(keys[2]);
+        assertEquals("v" + keys[1], map.get(keys[1]));
+        assertNull(map.get(keys[2]));
+    }
+
+    @Test
+    public void keepsEntriesOnResize()
+    {
+        final IntObjectHashMap<Integer> map = new IntObjectHashMap<>();
+        final int count = 1000;
+        for (int key = 0; key < count; key++)
+        {
+            map.put(key * 31, key);
+        }
+
+        assertEquals(count, map.size());
+        for (int key = 0; key < count; key++)
+        {
+            assertEquals(key, (int) map.get(key * 31));
+        }
+        final int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(count, keys.length);
+        assertEquals(31 * (count - 1), keys[count - 1]);
+    }
+
+    @Test
+    public void clearRemovesAllEntries()
+    {
+        final IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void behavesAsHashMap()
+    {
+        final IntObjectHashMap<Integer> map = new IntObjectHashMap<>(4);
+        final Map<Integer, Integer> expected = new HashMap<>();
+        final Random random = new Random(1);
+
+        for (int i = 0; i < 100_000; i++)
+        {
+            final int key = random.nextInt(256) - 128; // small range, so that keys collide and get removed
+            if (random.nextBoolean())
+            {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            else
+            {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -128; key < 128; key++)
+        {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    /**
+     * @return keys hashed to the given slot of a map of {@link #CAPACITY}, mirrors the hash of the map
+     */
+    private static int[] collidingKeys(final int count, final int slot)
+    {
+        final int[] keys = new int[count];
+        int n = 0;
+        for (int key = 0; n < count; key++)
+        {
+            final int hash = key * 0x9E3779B9;
+            if (((hash ^ (hash >>> 16)) & (CAPACITY - 1)) == slot)
+            {
+                keys[n++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,288 @@
+package net.quedex.marketmaker;
+
+import net.quedex.api.user.LimitOrderSpec;
+import net.quedex.api.user.OrderCancelSpec;
+import net.quedex.api.user.OrderModifySpec;
+import net.quedex.api.user.OrderSide;
+import net.quedex.api.user.OrderSpec;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrderSendSchedulerTest
+{
+    private static final int INSTRUMENT_ID = 1;
+    private static final long TIMEOUT_MILLIS = 5_000;
+
+    private final List<List<OrderSpec>> sentBatches = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> coalescedEvents = new LinkedBlockingQueue<>();
+
+    private OrderSendScheduler scheduler;
+
+    @After
+    public void tearDown()
+    {
+        if (scheduler != null)
+        {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void cancelDropsPendingPlace() throws Exception
+    {
+        scheduler = newScheduler(sentBatches::add);
+        scheduler.submit(Collections.singletonList(place(1, 10, "1.5")));
+        scheduler.submit(Collections.singletonList(new OrderCancelSpec(1)));
+
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getCoalescedCount());
+
+        scheduler.start();
+        assertEquals("placeDropped:1", pollCoalescedEvent());
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+        assertTrue(sentBatches.isEmpty());
+    }
+
+    @Test
+    public void modificationIsMergedIntoPendingPlace() throws Exception
+    {
+        scheduler = newScheduler(sentBatches::add);
+        scheduler.submit(Collections.singletonList(place(1, 10, "1.5")));
+        scheduler.submit(Collections.singletonList(new OrderModifySpec(1, 7, new BigDecimal("1.25"))));
+
+        assertEquals(1, scheduler.getQueueDepth());
+
+        scheduler.start();
+        assertEquals("modificationMerged:1", pollCoalescedEvent());
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+
+        final List<OrderSpec> sent = sentSpecs();
+        assertEquals(1, sent.size());
+        final LimitOrderSpec merged = (LimitOrderSpec) sent.get(0);
+        assertEquals(1, merged.getClientOrderId());
+        assertEquals(INSTRUMENT_ID, merged.getInstrumentId());
+        assertEquals(OrderSide.BUY, merged.getSide());
+        assertEquals(7, merged.getQuantity());
+        assertEquals(new BigDecimal("1.25"), merged.getPrice());
+    }
+
+    @Test
+    public void cancelDropsPendingModification() throws Exception
+    {
+        scheduler = newScheduler(sentBatches::add);
+        scheduler.submit(Collections.singletonList(new OrderModifySpec(1, 7, new BigDecimal("1.25"))));
+        scheduler.submit(Collections.singletonList(new OrderCancelSpec(1)));
+
+        assertEquals(1, scheduler.getQueueDepth());
+
+        scheduler.start();
+        assertEquals("modificationDropped:1", pollCoalescedEvent());
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+
+        final List<OrderSpec> sent = sentSpecs();
+        assertEquals(1, sent.size());
+        assertEquals(1, ((OrderCancelSpec) sent.get(0)).getClientOrderId());
+    }
+
+    @Test
+    public void modificationReplacesPendingModification() throws Exception
+    {
+        scheduler = newScheduler(sentBatches::add);
+        scheduler.submit(Collections.singletonList(new OrderModifySpec(1, 7, new BigDecimal("1.25"))));
+        scheduler.submit(Collections.singletonList(new OrderModifySpec(1, 3, new BigDecimal("1.5"))));
+
+        scheduler.start();
+        assertEquals("modificationReplaced:1", pollCoalescedEvent());
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+
+        final List<OrderSpec> sent = sentSpecs();
+        assertEquals(1, sent.size());
+        assertEquals(3, ((OrderModifySpec) sent.get(0)).getNewQuantity());
+    }
+
+    @Test
+    public void sendsCancelsThenModificationsThenPlaces() throws Exception
+    {
+        scheduler = newScheduler(sentBatches::add);
+        scheduler.submit(Arrays.asList(
+            place(1, 10, "1.5"),
+            new OrderModifySpec(2, 5, new BigDecimal("2")),
+            new OrderCancelSpec(3),
+            place(4, 10, "1.5"),
+            new OrderCancelSpec(5)
+        ));
+
+        scheduler.start();
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+
+        assertEquals(Arrays.asList("C3", "C5", "M2", "P1", "P4"), describe(sentSpecs()));
+    }
+
+    @Test
+    public void drainWaitsForBatchBeingWrittenAndDropsAllButCancels() throws Exception
+    {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler = newScheduler(batch ->
+        {
+            sentBatches.add(batch);
+            writing.countDown();
+            awaitUninterruptibly(release);
+        });
+        scheduler.start();
+        scheduler.submit(Collections.singletonList(place(1, 10, "1.5")));
+        assertTrue(writing.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        assertFalse(scheduler.drain(10)); // the place is still being written
+
+        scheduler.submit(Arrays.asList(place(2, 10, "1.5"), new OrderCancelSpec(1)));
+        assertEquals(1, scheduler.getQueueDepth());
+
+        release.countDown();
+        assertTrue(scheduler.drain(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList("P1", "C1"), describe(sentSpecs()));
+    }
+
+    @Test
+    public void drainReturnsOnStop() throws Exception
+    {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler = newScheduler(batch ->
+        {
+            writing.countDown();
+            awaitUninterruptibly(release);
+        });
+        scheduler.start();
+        scheduler.submit(Collections.singletonList(place(1, 10, "1.5")));
+        assertTrue(writing.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        final BlockingQueue<Boolean> drained = new LinkedBlockingQueue<>();
+        final Thread drainer = new Thread(() ->
+        {
+            try
+            {
+                drained.add(scheduler.drain(TimeUnit.MINUTES.toMillis(1)));
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        });
+        drainer.start();
+
+        scheduler.stop();
+        assertEquals(Boolean.FALSE, drained.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        release.countDown();
+    }
+
+    private OrderSendScheduler newScheduler(final Consumer<List<OrderSpec>> batchSender)
+    {
+        return new OrderSendScheduler(
+            batchSender,
+            new RecordingCoalescedOrderListener(),
+            backPressured -> { },
+            new LatencyMetrics(),
+            0,
+            1,
+            100,
+            0
+        );
+    }
+
+    private String pollCoalescedEvent() throws InterruptedException
+    {
+        return coalescedEvents.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private List<OrderSpec> sentSpecs()
+    {
+        final List<OrderSpec> sent = new ArrayList<>();
+        for (final List<OrderSpec> batch : sentBatches)
+        {
+            sent.addAll(batch);
+        }
+        return sent;
+    }
+
+    private static LimitOrderSpec place(final long clientOrderId, final int quantity, final String price)
+    {
+        return new LimitOrderSpec(clientOrderId, INSTRUMENT_ID, OrderSide.BUY, quantity, new BigDecimal(price));
+    }
+
+    private static List<String> describe(final List<OrderSpec> orderSpecs)
+    {
+        final List<String> descriptions = new ArrayList<>(orderSpecs.size());
+        for (final OrderSpec orderSpec : orderSpecs)
+        {
+            if (orderSpec instanceof OrderCancelSpec)
+            {
+                descriptions.add("C" + ((OrderCancelSpec) orderSpec).getClientOrderId());
+            }
+            else if (orderSpec instanceof OrderModifySpec)
+            {
+                descriptions.add("M" + ((OrderModifySpec) orderSpec).getClientOrderId());
+            }
+            else
+            {
+                descriptions.add("P" + ((LimitOrderSpec) orderSpec).getClientOrderId());
+            }
+        }
+        return descriptions;
+    }
+
+    private static void awaitUninterruptibly(final CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class RecordingCoalescedOrderListener implements CoalescedOrderListener
+    {
+        @Override
+        public void onPlaceDropped(final long clientOrderId)
+        {
+            coalescedEvents.add("placeDropped:" + clientOrderId);
+        }
+
+        @Override
+        public void onModificationMerged(final long clientOrderId)
+        {
+            coalescedEvents.add("modificationMerged:" + clientOrderId);
+        }
+
+        @Override
+        public void onModificationDropped(final long clientOrderId)
+        {
+            coalescedEvents.add("modificationDropped:" + clientOrderId);
+        }
+
+        @Override
+        public void onModificationReplaced(final long clientOrderId)
+        {
+            coalescedEvents.add("modificationReplaced:" + clientOrderId);
+        }
+    }
+}